@@ -95,6 +95,10 @@ public class LocalSpanImpl implements Span {
     }
 
     private void endInternal() {
+        // a failed span is still built since whether its exception is tracked depends on the dependency
+        if (exception == null && !sdkBridge.isSampledIn(RemoteDependencyTelemetry.class)) {
+            return;
+        }
         RemoteDependencyTelemetry telemetry = createRemoteDependencyTelemetry(text, startTimeMillis, exception);
         if (telemetry == null) {
             return;
@@ -35,9 +35,21 @@ import org.glowroot.instrumentation.api.internal.ReadableMessage;
 
 class LoggerSpans {
 
+    // the agent cannot use the sdk's formatters, so keep one formatter per thread instead of one per log event
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMATTERS = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        }
+    };
+
     static void track(SdkBridge sdkBridge, MessageSupplier messageSupplier, @Nullable Throwable throwable,
                       long timeMillis) {
 
+        if (!sdkBridge.isSampledIn(throwable == null ? TraceTelemetry.class : ExceptionTelemetry.class)) {
+            return;
+        }
+
         ReadableMessage message = (ReadableMessage) messageSupplier.get();
         String formattedMessage = message.getText();
         Map<String, ?> detail = message.getDetail();
@@ -82,6 +94,6 @@ class LoggerSpans {
     }
 
     private static String getFormattedDate(long dateInMilliseconds) {
-        return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).format(new Date(dateInMilliseconds));
+        return DATE_FORMATTERS.get().format(new Date(dateInMilliseconds));
     }
 }
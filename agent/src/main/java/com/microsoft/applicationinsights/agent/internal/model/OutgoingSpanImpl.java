@@ -106,6 +106,10 @@ public class OutgoingSpanImpl implements Span {
     }
 
     private void endInternal() {
+        // a failed span is still built since whether its exception is tracked depends on the dependency
+        if (exception == null && !sdkBridge.isSampledIn(RemoteDependencyTelemetry.class)) {
+            return;
+        }
         RemoteDependencyTelemetry telemetry = null;
         if (type.equals("HTTP")) {
             telemetry = toHttpTelemetry();
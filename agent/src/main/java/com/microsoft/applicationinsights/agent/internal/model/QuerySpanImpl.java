@@ -139,6 +139,9 @@ public class QuerySpanImpl implements QuerySpan {
         if (!type.equals("SQL")) {
             return;
         }
+        if (exception == null && !sdkBridge.isSampledIn(RemoteDependencyTelemetry.class)) {
+            return;
+        }
         RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(startTimeMillis, totalMillis, type,
                 exception == null);
         telemetry.setName(dest);
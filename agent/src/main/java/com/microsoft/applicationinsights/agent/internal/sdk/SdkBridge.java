@@ -38,6 +38,14 @@ public interface SdkBridge<T> {
 
     <C> String propagate(Setter<C> setter, C carrier, boolean w3c, boolean w3cBackCompat);
 
+    /**
+     * Tells whether a telemetry of the given type would be sampled in, so that it is not built when it would not.
+     *
+     * @param telemetryType {@link RemoteDependencyTelemetry}, {@link TraceTelemetry} or {@link ExceptionTelemetry}
+     * @return false if a telemetry of that type on the current thread would be sampled out
+     */
+    boolean isSampledIn(Class<?> telemetryType);
+
     void track(RemoteDependencyTelemetry telemetry);
 
     void track(TraceTelemetry telemetry);
@@ -23,15 +23,19 @@ package com.microsoft.applicationinsights;
 
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.common.CommonUtils;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
+import com.microsoft.applicationinsights.extensibility.OperationIdProvider;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetrySamplingPreCheck;
 import com.microsoft.applicationinsights.extensibility.context.CloudContext;
 import com.microsoft.applicationinsights.extensibility.context.InternalContext;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.pipeline.AsyncTelemetryPipeline;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
 import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
 import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
@@ -55,6 +59,31 @@ public class TelemetryClient {
         }
     }
 
+    private final class AsyncTrackTask implements Runnable {
+        private final Telemetry telemetry;
+
+        private AsyncTrackTask(Telemetry telemetry) {
+            this.telemetry = telemetry;
+        }
+
+        @Override
+        public void run() {
+            try {
+                processAndSend(telemetry);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Exception while processing tracked telemetry: '%s'", t.toString());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+    }
+
     private final TelemetryConfiguration configuration;
     private volatile TelemetryContext context;
     private TelemetryChannel channel;
@@ -63,6 +92,9 @@ public class TelemetryClient {
     private static final Object TELEMETRY_CONTEXT_LOCK = new Object();
 
     private static AtomicLong generateCounter = new AtomicLong(0);
+
+    // How long 'flush' waits for the telemetries that are still in the async pipeline
+    private static final long ASYNC_PIPELINE_DRAIN_TIMEOUT_IN_SECONDS = 10;
     /**
      * Initializes a new instance of the TelemetryClient class. Send telemetry with the specified configuration.
      * @param configuration The configuration this instance will work with.
@@ -113,6 +145,84 @@ public class TelemetryClient {
                 || configuration.isTrackingDisabled();
     }
 
+    /**
+     * Checks ahead whether a telemetry would be sampled in, so integrations can avoid building telemetries
+     * that would be sampled out anyway. Only the telemetry processors that implement {@link TelemetrySamplingPreCheck}
+     * take part, a telemetry that passes the check might still be sampled out later.
+     * The check uses the configured sampling percentage, so callers must not gate this way the telemetries they
+     * set a sampling percentage on themselves: the processors would sample those by the preset percentage instead.
+     * @param type The type of the telemetry.
+     * @param operationId The operation id the telemetry will have, or null for the operation of the current thread.
+     * @return 'false' if the telemetry would not be sent, 'true' otherwise.
+     */
+    public boolean isSampledIn(Class<? extends Telemetry> type, String operationId) {
+        if (isDisabled()) {
+            return false;
+        }
+
+        if (Strings.isNullOrEmpty(operationId)) {
+            operationId = getCurrentOperationId();
+
+            // A telemetry without an operation gets a random sampling score
+            if (Strings.isNullOrEmpty(operationId)) {
+                return true;
+            }
+        }
+
+        for (TelemetryProcessor processor : configuration.getTelemetryProcessors()) {
+            if (!(processor instanceof TelemetrySamplingPreCheck)) {
+                continue;
+            }
+
+            try {
+                if (!((TelemetrySamplingPreCheck) processor).isSampledIn(type, operationId)) {
+                    return false;
+                }
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Exception while checking sampling: '%s'", t.toString());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The operation id that a telemetry tracked now would get, from the client's context or from the initializers.
+     */
+    private String getCurrentOperationId() {
+        String operationId = getContext().getOperation().getId();
+        if (!Strings.isNullOrEmpty(operationId)) {
+            return operationId;
+        }
+
+        for (TelemetryInitializer initializer : configuration.getTelemetryInitializers()) {
+            if (!(initializer instanceof OperationIdProvider)) {
+                continue;
+            }
+
+            try {
+                operationId = ((OperationIdProvider) initializer).getCurrentOperationId();
+                if (!Strings.isNullOrEmpty(operationId)) {
+                    return operationId;
+                }
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                // chomp
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Sends the specified state of a user session to Application Insights using {@link #trackEvent(String name)} as this method will be deprecated.
      * @param sessionState {@link com.microsoft.applicationinsights.telemetry.SessionState}
@@ -142,7 +252,9 @@ public class TelemetryClient {
         EventTelemetry et = new EventTelemetry(name);
 
         MapUtil.copy(properties, et.getContext().getProperties());
-        MapUtil.copy(metrics, et.getMetrics());
+        if (metrics != null && !metrics.isEmpty()) {
+            MapUtil.copy(metrics, et.getMetrics());
+        }
 
         this.track(et);
     }
@@ -284,7 +396,9 @@ public class TelemetryClient {
         ExceptionTelemetry et = new ExceptionTelemetry(exception);
 
         MapUtil.copy(properties, et.getContext().getProperties());
-        MapUtil.copy(metrics, et.getMetrics());
+        if (metrics != null && !metrics.isEmpty()) {
+            MapUtil.copy(metrics, et.getMetrics());
+        }
 
         this.track(et);
     }
@@ -406,12 +520,22 @@ public class TelemetryClient {
             telemetry.setTimestamp(new Date());
         }
 
-        TelemetryContext ctx = this.getContext();
+        // The initializers read the caller's thread bound context (web request, operation and correlation ids),
+        // so they run here even when the pipeline thread does the rest
+        initialize(telemetry);
 
-        if (Strings.isNullOrEmpty(ctx.getInstrumentationKey())) {
-            ctx.setInstrumentationKey(configuration.getInstrumentationKey());
+        AsyncTelemetryPipeline pipeline = configuration.getAsyncTrackingPipeline();
+        if (pipeline != null) {
+            pipeline.enqueue(new AsyncTrackTask(telemetry));
+            return;
         }
 
+        processAndSend(telemetry);
+    }
+
+    private void initialize(Telemetry telemetry) {
+        TelemetryContext ctx = getInitializedContext();
+
         try {
             telemetry.getContext().initialize(ctx);
         } catch (ThreadDeath td) {
@@ -430,7 +554,9 @@ public class TelemetryClient {
         if (Strings.isNullOrEmpty(telemetry.getContext().getInstrumentationKey())) {
             throw new IllegalArgumentException("Instrumentation key cannot be undefined.");
         }
+    }
 
+    private void processAndSend(Telemetry telemetry) {
         if (!activateProcessors(telemetry)) {
             return;
         }
@@ -456,6 +582,19 @@ public class TelemetryClient {
         }
     }
 
+    /**
+     * @return The client context, with the configuration's instrumentation key when it has none of its own
+     */
+    private TelemetryContext getInitializedContext() {
+        TelemetryContext ctx = this.getContext();
+
+        if (Strings.isNullOrEmpty(ctx.getInstrumentationKey())) {
+            ctx.setInstrumentationKey(configuration.getInstrumentationKey());
+        }
+
+        return ctx;
+    }
+
     private void activateInitializers(Telemetry telemetry) {
         for (TelemetryInitializer initializer : this.configuration.getTelemetryInitializers()) {
             try {
@@ -496,8 +635,20 @@ public class TelemetryClient {
 
     /**
      * Flushes possible pending Telemetries in the channel. Not required for a continuously-running server application.
+     * With asynchronous tracking, the telemetries tracked before the call are first handed from the pipeline to the channel.
      */
     public void flush() {
+        AsyncTelemetryPipeline pipeline = configuration.getAsyncTrackingPipeline();
+        if (pipeline != null) {
+            try {
+                if (!pipeline.drain(ASYNC_PIPELINE_DRAIN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+                    InternalLogger.INSTANCE.warn("Flush did not wait for all the tracked telemetries, the async pipeline did not drain in %d seconds", ASYNC_PIPELINE_DRAIN_TIMEOUT_IN_SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         getChannel().flush();
     }
 
@@ -29,6 +29,7 @@ import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryModule;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
+import com.microsoft.applicationinsights.internal.pipeline.AsyncTelemetryPipeline;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -57,6 +58,8 @@ public final class TelemetryConfiguration {
 
     private boolean trackingIsDisabled = false;
 
+    private volatile AsyncTelemetryPipeline asyncTrackingPipeline;
+
     /**
      * Gets the active {@link com.microsoft.applicationinsights.TelemetryConfiguration} instance loaded from the
      * ApplicationInsights.xml file. If the configuration file does not exist, the active configuration instance is
@@ -212,6 +215,28 @@ public final class TelemetryConfiguration {
         instrumentationKey = key;
     }
 
+    /**
+     * Gets the pipeline that processes tracked telemetry off the application threads.
+     *
+     * When set, {@link com.microsoft.applicationinsights.TelemetryClient#track} timestamps the item, sets its context
+     * and runs the telemetry initializers before it enqueues it, the processors and the channel run on the pipeline thread.
+     * @return The pipeline, or null if telemetry is processed on the calling thread
+     */
+    public AsyncTelemetryPipeline getAsyncTrackingPipeline() {
+        return asyncTrackingPipeline;
+    }
+
+    /**
+     * Sets the pipeline that processes tracked telemetry off the application threads, null disables it.
+     *
+     * Note that telemetry processors that read state bound to the calling thread, such as the
+     * current request, will not see that state when the pipeline is used.
+     * @param asyncTrackingPipeline The pipeline to use
+     */
+    public void setAsyncTrackingPipeline(AsyncTelemetryPipeline asyncTrackingPipeline) {
+        this.asyncTrackingPipeline = asyncTrackingPipeline;
+    }
+
     public String getRoleName() {
         return roleName;
     }
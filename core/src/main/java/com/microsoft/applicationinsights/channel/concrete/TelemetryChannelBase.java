@@ -52,9 +52,13 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
     public static final int MAX_MAX_TELEMETRY_BUFFER_CAPACITY = 1000;
     public static final int MIN_FLUSH_BUFFER_TIMEOUT_IN_SECONDS = 1;
     public static final int MAX_FLUSH_BUFFER_TIMEOUT_IN_SECONDS = 300;
+    public static final int DEFAULT_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES = 1024 * 1024;
+    public static final int MIN_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES = 1024;
+    public static final int MAX_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES = 4 * 1024 * 1024;
     public static final String DEVELOPER_MODE_SYSTEM_PROPRETY_NAME = "APPLICATION_INSIGHTS_DEVELOPER_MODE";
 
     public static final String MAX_TELEMETRY_BUFFER_CAPACITY_NAME = "MaxTelemetryBufferCapacity";
+    public static final String MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES_NAME = "MaxTelemetryBufferSizeInBytes";
     public static final String INSTANT_RETRY_NAME = "MaxInstantRetry";
     public static final String FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME = "FlushIntervalInSeconds";
     public static final String DEVELOPER_MODE_NAME = "DeveloperMode";
@@ -153,6 +157,8 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
         LimitsEnforcer sendIntervalInSecondsEnforcer = createDefaultSendIntervalInSecondsEnforcer(null);
 
+        LimitsEnforcer maxTelemetryBufferSizeInBytesEnforcer = createDefaultMaxTelemetryBufferSizeInBytesEnforcer(null);
+
         boolean throttling = true;
         String maxTransmissionStorageCapacity = null;
         if (namesAndValues != null) {
@@ -175,7 +181,10 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
             maxTelemetryBufferCapacityEnforcer.normalizeStringValue(namesAndValues.get(MAX_TELEMETRY_BUFFER_CAPACITY_NAME));
             sendIntervalInSecondsEnforcer.normalizeStringValue(namesAndValues.get(FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME));
+            maxTelemetryBufferSizeInBytesEnforcer.normalizeStringValue(namesAndValues.get(MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES_NAME));
             maxTransmissionStorageCapacity = namesAndValues.get(MAX_TRANSMISSION_STORAGE_CAPACITY_NAME);
+
+            configureTransmitterFactory(namesAndValues);
         }
 
         initialize(
@@ -186,6 +195,8 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
                 sendIntervalInSecondsEnforcer,
                 throttling,
                 maxInstantRetries);
+
+        setMaxTelemetryBufferSizeInBytes(maxTelemetryBufferSizeInBytesEnforcer.getCurrentValue());
     }
 
     protected synchronized void initialize(String endpointAddress, String maxTransmissionStorageCapacity,
@@ -198,12 +209,32 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
 
         telemetriesTransmitter = getTransmitterFactory().create(endpointAddress, maxTransmissionStorageCapacity, throttling, maxInstantRetry);
-        telemetryBuffer = new TelemetryBuffer<>(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        telemetryBuffer = new TelemetryBuffer<>(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds,
+                createDefaultMaxTelemetryBufferSizeInBytesEnforcer(null), createTelemetrySizeEstimator());
 
         setDeveloperMode(developerMode);
         isInitailized = true;
     }
 
+    /**
+     * Lets a concrete channel pass its own settings to its {@link TransmitterFactory} before the
+     * transmitter is created. It is called by the constructor, so the fields of the concrete channel are not set yet.
+     *
+     * @param namesAndValues - The data passed as name and value pairs
+     */
+    protected void configureTransmitterFactory(Map<String, String> namesAndValues) {
+    }
+
+    /**
+     * Lets a concrete channel tell the size of its buffered telemetries, so that batches are also
+     * limited by their size in bytes. It is called by the constructor, so it should not use the fields of the concrete channel.
+     *
+     * @return The estimator of the telemetries size, null if batches are only limited by the number of telemetries
+     */
+    protected TelemetryBuffer.SizeEstimator<T> createTelemetrySizeEstimator() {
+        return null;
+    }
+
     protected synchronized TransmitterFactory<T> getTransmitterFactory() {
         if (transmitterFactory == null) {
             transmitterFactory = createTransmitterFactory();
@@ -288,6 +319,21 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
         telemetryBuffer.setMaxTelemetriesInBatch(maxTelemetriesInBatch);
     }
 
+    /**
+     * Sets the maximum size in bytes of the telemetries in a batch, the batch is sent once it
+     * reaches it even if it holds less than the maximum number of telemetries.
+     * Ignored by channels that do not know the size of their telemetries.
+     *
+     * @param maxTelemetryBufferSizeInBytes
+     *            should be between MIN_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES and
+     *            MAX_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES inclusive if the number is lower
+     *            than the minimum then the minimum will be used if the number is
+     *            higher than the maximum then the maximum will be used
+     */
+    public void setMaxTelemetryBufferSizeInBytes(int maxTelemetryBufferSizeInBytes) {
+        telemetryBuffer.setMaxBatchSizeInBytes(maxTelemetryBufferSizeInBytes);
+    }
+
     /**
      * Flushes the data that the channel might have internally.
      */
@@ -371,6 +417,15 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
         return sendIntervalInSecondsEnforcer;
     }
 
+    protected LimitsEnforcer createDefaultMaxTelemetryBufferSizeInBytesEnforcer(Integer currentValue) {
+        LimitsEnforcer maxBatchSizeInBytesEnforcer = LimitsEnforcer.createWithClosestLimitOnError(
+                MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES_NAME, MIN_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES,
+                MAX_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES, DEFAULT_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES,
+                        currentValue == null ? DEFAULT_MAX_TELEMETRY_BUFFER_SIZE_IN_BYTES : currentValue);
+
+        return maxBatchSizeInBytesEnforcer;
+    }
+
     /**
      * The method will throw IllegalArgumentException if the endpointAddress is not
      * a valid URI. Please note that a null or empty string is valid as far as the
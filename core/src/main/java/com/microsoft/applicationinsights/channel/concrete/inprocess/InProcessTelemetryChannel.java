@@ -23,14 +23,24 @@ package com.microsoft.applicationinsights.channel.concrete.inprocess;
 
 import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.BacklogDrainRateController;
+import com.microsoft.applicationinsights.internal.channel.common.GzipCompressorPool;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetryBatchTransmitter;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryWriteAheadLog;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import com.microsoft.applicationinsights.internal.util.Utf8ByteArrayWriter;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of {@link com.microsoft.applicationinsights.channel.TelemetryChannel}
@@ -52,7 +62,54 @@ import java.util.Map;
  *
  * <p>Created by gupele on 12/17/2014.
  */
-public final class InProcessTelemetryChannel extends TelemetryChannelBase<String> {
+public final class InProcessTelemetryChannel extends TelemetryChannelBase<byte[]> {
+    /// When 'true' the Telemetries are compressed as they are buffered, see {@link GzipTelemetryBuffer}
+    public static final String STREAMING_COMPRESSION_NAME = "StreamingCompression";
+    /// The gzip level between 0, no compression, and 9, best compression, see {@link GzipCompressorPool}
+    public static final String COMPRESSION_LEVEL_NAME = "CompressionLevel";
+    /// When 'true' the transmissions are posted by the non blocking client, see {@link com.microsoft.applicationinsights.internal.channel.common.AsyncTransmissionNetworkOutput}
+    public static final String ASYNC_NETWORK_OUTPUT_NAME = "AsyncNetworkOutput";
+    /// The most Transmissions per second read back from the disk, see {@link com.microsoft.applicationinsights.internal.channel.common.BacklogDrainRateController}
+    public static final String MAX_BACKLOG_DRAIN_RATE_NAME = "MaxBacklogDrainRatePerSecond";
+    public static final int MAX_MAX_BACKLOG_DRAIN_RATE_PER_SECOND = 1000;
+    /// When 'true' the drain rate and the backlog on the disk, and the telemetries spilled to the disk or dropped
+    /// since the threads could not take them, are reported as performance counters, through this channel
+    public static final String BACKLOG_PERFORMANCE_COUNTERS_NAME = "BacklogPerformanceCounters";
+    /// When 'true' the Telemetries are logged until they are transmitted, see {@link TelemetryWriteAheadLog}
+    public static final String WRITE_AHEAD_LOG_NAME = "WriteAheadLog";
+
+    /**
+     * The per thread buffer the telemetry is serialized into as UTF-8, only the final
+     * byte array that goes to the telemetry buffer is allocated per item.
+     */
+    private static final class SerializationBuffer {
+        private final Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter();
+        private JsonTelemetryDataSerializer jsonWriter;
+
+        private JsonTelemetryDataSerializer getJsonWriter() throws IOException {
+            if (jsonWriter == null) {
+                jsonWriter = new JsonTelemetryDataSerializer(writer);
+            } else {
+                jsonWriter.reset(writer);
+            }
+            return jsonWriter;
+        }
+    }
+
+    private static final ThreadLocal<SerializationBuffer> SERIALIZATION_BUFFERS = new ThreadLocal<SerializationBuffer>() {
+        @Override
+        protected SerializationBuffer initialValue() {
+            return new SerializationBuffer();
+        }
+    };
+
+    /// The telemetries are buffered serialized, the serializer only adds a newline between them
+    private static final TelemetryBuffer.SizeEstimator<byte[]> SERIALIZED_TELEMETRY_SIZE_ESTIMATOR = new TelemetryBuffer.SizeEstimator<byte[]>() {
+        @Override
+        public int sizeInBytes(byte[] telemetry) {
+            return telemetry.length + GzipTelemetrySerializer.getNewlineLength();
+        }
+    };
 
     public InProcessTelemetryChannel() {
         super();
@@ -66,20 +123,147 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<String
         super(endpointAddress, maxTransmissionStorageCapacity, developerMode, maxTelemetryBufferCapacity, sendIntervalInMillis, throttling, maxInstantRetries);
     }
 
+    /// Set when streaming compression is enabled, the Telemetries then skip the base class 'telemetryBuffer'
+    private GzipTelemetryBuffer gzipTelemetryBuffer;
+
+    /// Set when the write-ahead log is enabled, every Telemetry is appended to it before it is buffered
+    private TelemetryWriteAheadLog writeAheadLog;
+
     public InProcessTelemetryChannel(Map<String, String> namesAndValues) {
         super(namesAndValues);
+
+        if (namesAndValues == null) {
+            return;
+        }
+
+        InProcessTelemetryTransmitterFactory transmitterFactory = (InProcessTelemetryTransmitterFactory) getTransmitterFactory();
+        GzipCompressorPool compressorPool = transmitterFactory.getCompressorPool();
+        String compressionLevel = namesAndValues.get(COMPRESSION_LEVEL_NAME);
+        if (compressionLevel != null) {
+            LimitsEnforcer compressionLevelEnforcer = LimitsEnforcer.createWithClosestLimitOnError(
+                    GzipCompressorPool.MIN_COMPRESSION_LEVEL,
+                    GzipCompressorPool.MAX_COMPRESSION_LEVEL,
+                    GzipCompressorPool.DEFAULT_COMPRESSION_LEVEL,
+                    COMPRESSION_LEVEL_NAME,
+                    compressionLevel);
+            compressorPool.setCompressionLevel(compressionLevelEnforcer.getCurrentValue());
+        }
+
+        writeAheadLog = transmitterFactory.getWriteAheadLog();
+        if (writeAheadLog != null) {
+            // The log acknowledges the Telemetries one by one, which a compressed batch no longer has
+            if (Boolean.valueOf(namesAndValues.get(STREAMING_COMPRESSION_NAME))) {
+                InternalLogger.INSTANCE.warn("%s is ignored when %s is enabled", STREAMING_COMPRESSION_NAME, WRITE_AHEAD_LOG_NAME);
+            }
+
+            List<byte[]> recovered = writeAheadLog.recover();
+            for (byte[] telemetry : recovered) {
+                telemetryBuffer.add(telemetry);
+            }
+        } else if (Boolean.valueOf(namesAndValues.get(STREAMING_COMPRESSION_NAME))) {
+            if (!(telemetriesTransmitter instanceof GzipTelemetryBatchTransmitter)) {
+                InternalLogger.INSTANCE.warn("%s is ignored, the transmitter cannot send compressed batches", STREAMING_COMPRESSION_NAME);
+                return;
+            }
+
+            gzipTelemetryBuffer = new GzipTelemetryBuffer(
+                    (GzipTelemetryBatchTransmitter) telemetriesTransmitter,
+                    compressorPool,
+                    telemetryBuffer.getMaxTelemetriesInBatch(),
+                    telemetryBuffer.getMaxBatchSizeInBytes(),
+                    telemetryBuffer.getTransmitBufferTimeoutInSeconds());
+            InternalLogger.INSTANCE.trace("%s compresses telemetries as they are buffered", getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    protected TelemetryBuffer.SizeEstimator<byte[]> createTelemetrySizeEstimator() {
+        return SERIALIZED_TELEMETRY_SIZE_ESTIMATOR;
+    }
+
+    @Override
+    protected void configureTransmitterFactory(Map<String, String> namesAndValues) {
+        InProcessTelemetryTransmitterFactory transmitterFactory = (InProcessTelemetryTransmitterFactory) getTransmitterFactory();
+        transmitterFactory.setAsyncNetworkOutput(Boolean.valueOf(namesAndValues.get(ASYNC_NETWORK_OUTPUT_NAME)));
+        transmitterFactory.setWriteAheadLogEnabled(Boolean.valueOf(namesAndValues.get(WRITE_AHEAD_LOG_NAME)));
+        transmitterFactory.setBacklogPerformanceCountersEnabled(Boolean.valueOf(namesAndValues.get(BACKLOG_PERFORMANCE_COUNTERS_NAME)));
+
+        String maxBacklogDrainRate = namesAndValues.get(MAX_BACKLOG_DRAIN_RATE_NAME);
+        if (maxBacklogDrainRate != null) {
+            LimitsEnforcer maxBacklogDrainRateEnforcer = LimitsEnforcer.createWithClosestLimitOnError(
+                    BacklogDrainRateController.MIN_RATE_PER_SECOND,
+                    MAX_MAX_BACKLOG_DRAIN_RATE_PER_SECOND,
+                    BacklogDrainRateController.DEFAULT_TARGET_RATE_PER_SECOND,
+                    MAX_BACKLOG_DRAIN_RATE_NAME,
+                    maxBacklogDrainRate);
+            transmitterFactory.setBacklogDrainRatePerSecond(maxBacklogDrainRateEnforcer.getCurrentValue());
+        }
+    }
+
+    /**
+     * The base class initialization calls this before the streaming buffer exists, so it is null checked
+     */
+    @Override
+    public void setMaxTelemetriesInBatch(int maxTelemetriesInBatch) {
+        super.setMaxTelemetriesInBatch(maxTelemetriesInBatch);
+        if (gzipTelemetryBuffer != null) {
+            gzipTelemetryBuffer.setMaxTelemetriesInBatch(telemetryBuffer.getMaxTelemetriesInBatch());
+        }
+    }
+
+    @Override
+    public void setMaxTelemetryBufferSizeInBytes(int maxTelemetryBufferSizeInBytes) {
+        super.setMaxTelemetryBufferSizeInBytes(maxTelemetryBufferSizeInBytes);
+        if (gzipTelemetryBuffer != null) {
+            gzipTelemetryBuffer.setMaxBatchSizeInBytes(telemetryBuffer.getMaxBatchSizeInBytes());
+        }
+    }
+
+    @Override
+    public void setTransmitBufferTimeoutInSeconds(int transmitBufferTimeoutInSeconds) {
+        super.setTransmitBufferTimeoutInSeconds(transmitBufferTimeoutInSeconds);
+        if (gzipTelemetryBuffer != null) {
+            gzipTelemetryBuffer.setTransmitBufferTimeoutInSeconds(telemetryBuffer.getTransmitBufferTimeoutInSeconds());
+        }
+    }
+
+    /**
+     * The write-ahead log is closed once the transmitter stopped, what it still holds is recovered by the next run
+     */
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        super.stop(timeout, timeUnit);
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
+    @Override
+    public void flush() {
+        super.flush();
+        if (gzipTelemetryBuffer != null) {
+            gzipTelemetryBuffer.flush();
+        }
     }
 
     @Override
     protected boolean doSend(Telemetry telemetry) {
-        StringWriter writer = new StringWriter();
-        JsonTelemetryDataSerializer jsonWriter = null;
+        SerializationBuffer serializationBuffer = SERIALIZATION_BUFFERS.get();
+        Utf8ByteArrayWriter writer = serializationBuffer.writer;
         try {
-            jsonWriter = new JsonTelemetryDataSerializer(writer);
+            writer.reset();
+            JsonTelemetryDataSerializer jsonWriter = serializationBuffer.getJsonWriter();
             telemetry.serialize(jsonWriter);
             jsonWriter.close();
-            String asJson = writer.toString();
-            telemetryBuffer.add(asJson);
+            if (gzipTelemetryBuffer != null) {
+                gzipTelemetryBuffer.add(writer.toByteArray());
+            } else {
+                byte[] serialized = writer.toByteArray();
+                if (writeAheadLog != null) {
+                    writeAheadLog.append(serialized);
+                }
+                telemetryBuffer.add(serialized);
+            }
             telemetry.reset();
 
         } catch (IOException e) {
@@ -91,7 +275,7 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<String
     }
 
     @Override
-    protected TransmitterFactory<String> createTransmitterFactory() {
+    protected TransmitterFactory<byte[]> createTransmitterFactory() {
         return new InProcessTelemetryTransmitterFactory();
     }
 
@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.channel.concrete.inprocess;
 
+import java.io.File;
+
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
@@ -28,12 +30,28 @@ import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 
 import com.microsoft.applicationinsights.internal.channel.common.*;
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
 
 /**
  * Created by gupele on 1/15/2015.
  */
 final class InProcessTelemetryTransmitterFactory implements TransmitterFactory {
     private final int DEFAULT_RETRY = 3;
+
+    /// Shared by the serializer and, when streaming compression is on, by the channel's batches
+    private final GzipCompressorPool compressorPool = new GzipCompressorPool(TransmitterImpl.NUMBER_OF_SENDER_THREADS);
+
+    private boolean asyncNetworkOutput;
+
+    private int backlogDrainRatePerSecond = BacklogDrainRateController.DEFAULT_TARGET_RATE_PER_SECOND;
+
+    private boolean backlogPerformanceCountersEnabled;
+
+    private boolean writeAheadLogEnabled;
+
+    /// Created with the transmitter when enabled, null if it is not enabled or the folder cannot be used
+    private TelemetryWriteAheadLog writeAheadLog;
+
     @Override
     public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled, int maxInstantRetries) {
         final TransmissionPolicyManager transmissionPolicyManager = new TransmissionPolicyManager(throttlingIsEnabled);
@@ -41,28 +59,89 @@ final class InProcessTelemetryTransmitterFactory implements TransmitterFactory {
         transmissionPolicyManager.addTransmissionHandler(new PartialSuccessHandler(transmissionPolicyManager));
         transmissionPolicyManager.addTransmissionHandler(new ThrottlingHandler(transmissionPolicyManager));
         transmissionPolicyManager.setMaxInstantRetries(maxInstantRetries);
-        // An active object with the network sender
-        TransmissionNetworkOutput actualNetworkSender = TransmissionNetworkOutput.create(endpoint, transmissionPolicyManager);
-
         TransmissionPolicyStateFetcher stateFetcher = transmissionPolicyManager.getTransmissionPolicyState();
 
-        TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
+        TransmissionOutput networkSender;
+        AsyncTransmissionNetworkOutput asyncNetworkSender = null;
+        TransmissionNetworkOutput actualNetworkSender = null;
+        if (asyncNetworkOutput) {
+            // The non blocking sender needs no threads of its own to keep the POSTs in flight
+            asyncNetworkSender = AsyncTransmissionNetworkOutput.create(endpoint, transmissionPolicyManager);
+            networkSender = asyncNetworkSender;
+        } else {
+            // An active object with the network sender
+            actualNetworkSender = TransmissionNetworkOutput.create(endpoint, transmissionPolicyManager);
+            networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher, transmissionPolicyManager.getConcurrencyLimiter());
+        }
 
         // An active object with the file system sender
         TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
         TransmissionOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
 
+        // The Telemetries are logged until they are accepted by the endpoint or saved with the Transmissions
+        if (writeAheadLogEnabled && writeAheadLog == null) {
+            writeAheadLog = createWriteAheadLog();
+        }
+        if (writeAheadLog != null) {
+            transmissionPolicyManager.setWriteAheadLog(writeAheadLog);
+            fileSystemSender.setWriteAheadLog(writeAheadLog);
+        }
+
         // The dispatcher works with the two active senders
         TransmissionDispatcher dispatcher = new NonBlockingDispatcher(new TransmissionOutput[] {networkSender, activeFileSystemOutput});
-        actualNetworkSender.setTransmissionDispatcher(dispatcher);
+        if (asyncNetworkSender != null) {
+            asyncNetworkSender.setTransmissionDispatcher(dispatcher);
+        } else {
+            actualNetworkSender.setTransmissionDispatcher(dispatcher);
+        }
 
 
-        // The loader works with the file system loader as the active one does
-        TransmissionsLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher);
+        // The loader works with the file system loader as the active one does,
+        // it drains the disk faster while the network has room for more Transmissions
+        TransmissionsLoader transmissionsLoader = new ActiveTransmissionLoader(
+                fileSystemSender,
+                dispatcher,
+                stateFetcher,
+                ActiveTransmissionLoader.DEFAULT_NUMBER_OF_PACED_THREADS,
+                new BacklogDrainRateController(backlogDrainRatePerSecond),
+                transmissionPolicyManager.getConcurrencyLimiter(),
+                backlogPerformanceCountersEnabled);
 
-        // The Transmitter manage all
-        TelemetriesTransmitter<String> telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(), transmissionsLoader);
+        // The Transmitter manage all, what its threads cannot take is saved straight to the disk
+        TransmitterImpl telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(compressorPool), transmissionsLoader, fileSystemSender);
+        if (backlogPerformanceCountersEnabled) {
+            telemetriesTransmitter.enablePerformanceCounter();
+        }
 
         return telemetriesTransmitter;
     }
+
+    void setAsyncNetworkOutput(boolean asyncNetworkOutput) {
+        this.asyncNetworkOutput = asyncNetworkOutput;
+    }
+
+    void setWriteAheadLogEnabled(boolean writeAheadLogEnabled) {
+        this.writeAheadLogEnabled = writeAheadLogEnabled;
+    }
+
+    TelemetryWriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    void setBacklogDrainRatePerSecond(int backlogDrainRatePerSecond) {
+        this.backlogDrainRatePerSecond = backlogDrainRatePerSecond;
+    }
+
+    void setBacklogPerformanceCountersEnabled(boolean backlogPerformanceCountersEnabled) {
+        this.backlogPerformanceCountersEnabled = backlogPerformanceCountersEnabled;
+    }
+
+    GzipCompressorPool getCompressorPool() {
+        return compressorPool;
+    }
+
+    private static TelemetryWriteAheadLog createWriteAheadLog() {
+        // Another channel or process may log to the folder, the log falls back to an instance subfolder then
+        return TelemetryWriteAheadLog.open(new File(LocalFileSystemUtils.getTempDir(), TelemetryWriteAheadLog.DEFAULT_FOLDER_NAME));
+    }
 }
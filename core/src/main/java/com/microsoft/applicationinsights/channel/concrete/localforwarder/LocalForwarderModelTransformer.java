@@ -8,7 +8,7 @@ import com.google.protobuf.BoolValue;
 import com.google.protobuf.DoubleValue;
 import com.google.protobuf.Duration;
 import com.google.protobuf.Int32Value;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.Iso8601DateFormatter;
 import com.microsoft.applicationinsights.telemetry.BaseSampleSourceTelemetry;
 import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
@@ -116,7 +116,7 @@ final class LocalForwarderModelTransformer {
         Preconditions.checkArgument(iKey != null, "The TelemetryContext.InstrumentationKey is null inside "+telemetry.getBaseTypeName());
 
         final Builder tb = Telemetry.newBuilder();
-        if (telemetry.getTimestamp() != null) tb.setDateTime(LocalStringsUtils.getDateFormatter().format(telemetry.getTimestamp()));
+        if (telemetry.getTimestamp() != null) tb.setDateTime(Iso8601DateFormatter.format(telemetry.getTimestamp()));
         if (telemetry.getSequence() != null) tb.setSequenceNumber(telemetry.getSequence());
         if (telemetry instanceof BaseSampleSourceTelemetry) {
             final BaseSampleSourceTelemetry bsst = (BaseSampleSourceTelemetry) telemetry;
@@ -0,0 +1,42 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility;
+
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * A {@link TelemetryProcessor} that samples telemetries may implement this interface to tell ahead whether
+ * a telemetry would be sampled in, so the telemetry need not be built at all when it would be sampled out.
+ * See {@link com.microsoft.applicationinsights.TelemetryClient#isSampledIn(Class, String)}.
+ */
+public interface TelemetrySamplingPreCheck {
+    /**
+     * The answer must not be 'false' unless the processor would deny a telemetry of that type and operation
+     * that has no sampling percentage of its own. A telemetry that was denied here is not processed later,
+     * so the processor should account for it here.
+     *
+     * @param type The type of the telemetry
+     * @param operationId The operation id the telemetry will have, never empty
+     * @return False if the telemetry would be sampled out
+     */
+    boolean isSampledIn(Class<? extends Telemetry> type, String operationId);
+}
@@ -37,6 +37,18 @@ public abstract class AbstractSdkBridge<T> implements SdkBridge<T> {
         this.client = client;
     }
 
+    @Override
+    public boolean isSampledIn(Class<?> telemetryType) {
+        if (telemetryType == RemoteDependencyTelemetry.class) {
+            return client.isSampledIn(com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry.class, null);
+        } else if (telemetryType == TraceTelemetry.class) {
+            return client.isSampledIn(com.microsoft.applicationinsights.telemetry.TraceTelemetry.class, null);
+        } else if (telemetryType == ExceptionTelemetry.class) {
+            return client.isSampledIn(com.microsoft.applicationinsights.telemetry.ExceptionTelemetry.class, null);
+        }
+        return true;
+    }
+
     @Override
     public void track(RemoteDependencyTelemetry agentTelemetry) {
 
@@ -38,6 +38,8 @@ import java.util.concurrent.TimeUnit;
  * Or, it also lets the caller to initiate a 'send now' call where the caller passes the container
  * and this class will continue, again, using a channel thread while releasing the calling thread.
  *
+ * A 'pick-up' that cannot be scheduled is refused without fetching the container, which stays with the caller.
+ *
  * Created by gupele on 12/17/2014.
  */
 public interface TelemetriesTransmitter<T> {
@@ -49,6 +49,18 @@ public class TransmissionHandlerArgs {
      */
     public Transmission getTransmission() { return this.transmission;}
 
+    private Transmission retryTransmission;
+    /**
+     * Set the transmission a handler created to resend some of the items of the transmission.
+     * @param retryTransmission The transmission with the items to resend.
+     */
+    public void setRetryTransmission(Transmission retryTransmission) { this.retryTransmission = retryTransmission;}
+    /**
+     * Get the transmission a handler created to resend some of the items of the transmission.
+     * @return The transmission with the items to resend, null if no handler created one.
+     */
+    public Transmission getRetryTransmission() { return this.retryTransmission;}
+
     private int responseCode;
     /**
      * Set the response code to be passed to the handler.
@@ -90,7 +90,8 @@ public final class ActiveTransmissionFileSystemOutput implements TransmissionOut
 
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
-        actualOutput.stop(timeout, timeUnit);
+        // Let the pending Transmissions reach the actual output before it is closed
         ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
+        actualOutput.stop(timeout, timeUnit);
     }
 }
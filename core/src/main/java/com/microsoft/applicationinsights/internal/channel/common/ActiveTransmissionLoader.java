@@ -24,17 +24,23 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Preconditions;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
 
 /**
  * The class is responsible for loading transmission files that were saved to the disk
  *
  * The class will ask for the oldest transmission file and will hand it to the dispatcher
  *
+ * The readers are paced by a {@link BacklogDrainRateController}, the backlog is drained faster while
+ * the network is healthy and slower while the sending is backed off. When the owner asks for it, the
+ * drain rate and the age of the backlog are reported as performance counters.
+ *
  * Created by gupele on 12/22/2014.
  */
 public final class ActiveTransmissionLoader implements TransmissionsLoader {
@@ -42,8 +48,12 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
     private static final int DEFAULT_NUMBER_OF_THREADS = 1;
 
-    private static final long DEFAULT_SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS = 2000;
-    private static final long DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS = 100;
+    /// The readers of a loader that is given its own drain rate controller, the controller and not the readers bounds the rate
+    public static final int DEFAULT_NUMBER_OF_PACED_THREADS = 3;
+
+    /// Finding out that there is nothing to load is cheap, so new Transmissions are looked for often
+    private static final long DEFAULT_SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS = 500;
+    private static final long DEFAULT_SLEEP_INTERVAL_WHEN_BLOCKED_IN_MILLS = 100;
 
     // The helper class that encapsulates the file system access
     private final TransmissionFileSystemOutput fileSystem;
@@ -63,17 +73,50 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
     private final long sleepIntervalWhenNoTransmissionsFoundInMills;
 
+    // Paces the readers
+    private final BacklogDrainRateController drainRateController;
+
+    // Tells whether the network has room for more Transmissions, may be null
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final AtomicLong numberOfDrainedTransmissions = new AtomicLong();
+
+    // Registered while the loader runs, null if the performance counters are not reported
+    private final TransmissionBacklogPerformanceCounter performanceCounter;
+
     public ActiveTransmissionLoader(TransmissionFileSystemOutput fileSystem, TransmissionPolicyStateFetcher transmissionPolicy, TransmissionDispatcher dispatcher) {
         this(fileSystem, dispatcher, transmissionPolicy, DEFAULT_NUMBER_OF_THREADS);
     }
 
+    public ActiveTransmissionLoader(TransmissionFileSystemOutput fileSystem,
+                                    TransmissionDispatcher dispatcher,
+                                    TransmissionPolicyStateFetcher transmissionPolicy,
+                                    int numberOfThreads) {
+        this(fileSystem, dispatcher, transmissionPolicy, numberOfThreads, new BacklogDrainRateController(), null, false);
+    }
+
+    /**
+     * @param fileSystem The file system the Transmissions are loaded from
+     * @param dispatcher The dispatcher of the loaded Transmissions
+     * @param transmissionPolicy Tells whether the Transmissions can be sent
+     * @param numberOfThreads The number of readers
+     * @param drainRateController Paces the readers
+     * @param concurrencyLimiter The limit of the concurrent uploads, the backlog is only drained faster while it
+     *                           has room, may be null
+     * @param reportPerformanceCounters Whether the drain rate and the backlog are registered with the
+     *                                  {@link PerformanceCounterContainer}, which starts its collection if needed
+     */
     public ActiveTransmissionLoader(final TransmissionFileSystemOutput fileSystem,
                                     final TransmissionDispatcher dispatcher,
                                     final TransmissionPolicyStateFetcher transmissionPolicy,
-                                    int numberOfThreads) {
+                                    int numberOfThreads,
+                                    final BacklogDrainRateController drainRateController,
+                                    AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                    boolean reportPerformanceCounters) {
         Preconditions.checkNotNull(fileSystem, "fileSystem must be a non-null value");
         Preconditions.checkNotNull(dispatcher, "dispatcher must be a non-null value");
         Preconditions.checkNotNull(transmissionPolicy, "transmissionPolicy must be a non-null value");
+        Preconditions.checkNotNull(drainRateController, "drainRateController must be a non-null value");
         Preconditions.checkArgument(numberOfThreads > 0, "numberOfThreads must be a positive number");
         Preconditions.checkArgument(numberOfThreads < MAX_THREADS_ALLOWED, "numberOfThreads must be smaller than %s", MAX_THREADS_ALLOWED);
 
@@ -84,6 +127,9 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
         this.fileSystem = fileSystem;
         this.dispatcher = dispatcher;
+        this.drainRateController = drainRateController;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.performanceCounter = reportPerformanceCounters ? new TransmissionBacklogPerformanceCounter(this) : null;
         threads = new Thread[numberOfThreads];
         latch = new CountDownLatch(numberOfThreads);
         final String threadNameFmt = String.format("%s-worker-%%d", ActiveTransmissionLoader.class.getSimpleName());
@@ -103,7 +149,8 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
                                     break;
                                 case BACKOFF:
                                 case BLOCKED_BUT_CAN_BE_PERSISTED:
-                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
+                                    drainRateController.onThrottled();
+                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_WHEN_BLOCKED_IN_MILLS);
                                     break;
 
                                 case BLOCKED_AND_CANNOT_BE_PERSISTED:
@@ -114,7 +161,7 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
                                 default:
                                     InternalLogger.INSTANCE.error("Could not find transmission policy '%s'", currentTransmissionState);
-                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
+                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_WHEN_BLOCKED_IN_MILLS);
                                     break;
                             }
                         } catch (InterruptedException e) {
@@ -137,6 +184,10 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
             thread.start();
         }
 
+        if (performanceCounter != null) {
+            PerformanceCounterContainer.INSTANCE.register(performanceCounter);
+        }
+
         if (!waitForThreadsToStart) {
             return true;
         }
@@ -154,6 +205,9 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
+        if (performanceCounter != null) {
+            PerformanceCounterContainer.INSTANCE.unregister(performanceCounter);
+        }
         done.set(true);
         interruptAllThreads();
         joinAllThreads();
@@ -177,16 +231,49 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
         }
     }
 
+    /**
+     * @return The number of Transmissions that were loaded and dispatched
+     */
+    public long getNumberOfDrainedTransmissions() {
+        return numberOfDrainedTransmissions.get();
+    }
+
+    /**
+     * @return The number of Transmissions waiting on the disk
+     */
+    public int getBacklogSize() {
+        return fileSystem.getNumberOfTransmissions();
+    }
+
+    /**
+     * @return The time since the oldest Transmission waiting on the disk was saved, 0 if there is none
+     */
+    public long getBacklogAgeInMillis() {
+        long oldest = fileSystem.getOldestTransmissionTimeInMillis();
+        return oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    public BacklogDrainRateController getDrainRateController() {
+        return drainRateController;
+    }
+
     private void fetchNext(boolean shouldDispatch) throws InterruptedException {
+        if (fileSystem.getNumberOfTransmissions() == 0) {
+            Thread.sleep(sleepIntervalWhenNoTransmissionsFoundInMills);
+            return;
+        }
+
+        drainRateController.acquire();
         Transmission transmission = fileSystem.fetchOldestFile();
         if (transmission == null) {
             Thread.sleep(sleepIntervalWhenNoTransmissionsFoundInMills);
-        } else {
-            if (shouldDispatch) {
-                dispatcher.dispatch(transmission);
+        } else if (shouldDispatch) {
+            dispatcher.dispatch(transmission);
+            numberOfDrainedTransmissions.incrementAndGet();
+            // Both network outputs count their Transmissions, queued ones included, in the limiter
+            if (concurrencyLimiter == null || concurrencyLimiter.getInFlight() < concurrencyLimiter.getLimit()) {
+                drainRateController.onHealthy();
             }
-
-            Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
         }
     }
 }
@@ -31,6 +31,11 @@ import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 
 /**
+ * Sends the Transmissions on its own threads. The number of threads follows the limit of its
+ * {@link AdaptiveConcurrencyLimiter}, so it grows and shrinks with the responses of the endpoint.
+ * A Transmission is counted by the limiter from the time it is accepted until its send returns, so the
+ * limiter tells whether the threads have room for more.
+ *
  * Created by gupele on 12/18/2014.
  */
 public final class ActiveTransmissionNetworkOutput implements TransmissionOutput {
@@ -40,8 +45,8 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
     private final static long DEFAULT_REMOVE_IDLE_THREAD_TIMEOUT_IN_SECONDS = 60L;
     private final static AtomicInteger INTSTANCE_ID_POOL = new AtomicInteger(1);
 
-    private final int maxThreads;
     private final ThreadPoolExecutor outputThreads;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
     private final TransmissionOutput actualOutput;
     private final TransmissionPolicyStateFetcher transmissionPolicy;
     private final int instanceId = INTSTANCE_ID_POOL.getAndIncrement();
@@ -51,15 +56,27 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
     }
 
     public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, TransmissionPolicyStateFetcher transmissionPolicy, int maxMessagesInBuffer) {
+        this(actualOutput, transmissionPolicy, maxMessagesInBuffer,
+                new AdaptiveConcurrencyLimiter(DEFAULT_MIN_NUMBER_OF_THREADS, DEFAULT_MIN_NUMBER_OF_THREADS, DEFAULT_MAX_NUMBER_OF_THREADS));
+    }
+
+    public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, TransmissionPolicyStateFetcher transmissionPolicy, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this(actualOutput, transmissionPolicy, DEFAULT_MAX_MESSAGES_IN_BUFFER, concurrencyLimiter);
+    }
+
+    public ActiveTransmissionNetworkOutput(TransmissionOutput actualOutput, TransmissionPolicyStateFetcher transmissionPolicy, int maxMessagesInBuffer,
+                                           AdaptiveConcurrencyLimiter concurrencyLimiter) {
         Preconditions.checkNotNull(transmissionPolicy, "transmissionPolicy must be a valid non-null value");
+        Preconditions.checkNotNull(concurrencyLimiter, "concurrencyLimiter must be a valid non-null value");
 
         this.actualOutput = actualOutput;
         this.transmissionPolicy = transmissionPolicy;
+        this.concurrencyLimiter = concurrencyLimiter;
 
-        maxThreads = DEFAULT_MAX_NUMBER_OF_THREADS;
+        int numberOfThreads = concurrencyLimiter.getLimit();
         outputThreads = ThreadPoolUtils.newLimitedThreadPool(
-                DEFAULT_MIN_NUMBER_OF_THREADS,
-                maxThreads,
+                numberOfThreads,
+                numberOfThreads,
                 DEFAULT_REMOVE_IDLE_THREAD_TIMEOUT_IN_SECONDS,
                 maxMessagesInBuffer);
         outputThreads.setThreadFactory(ThreadPoolUtils.createDaemonThreadFactory(ActiveTransmissionNetworkOutput.class, instanceId));
@@ -72,18 +89,27 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
                 return false;
             }
 
-            outputThreads.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        actualOutput.send(transmission);
-                    } catch (ThreadDeath td) {
-                        throw td;
-                    } catch (Throwable throwable) {
-                        // Avoid un-expected exit of thread
+            concurrencyLimiter.acquire();
+            try {
+                outputThreads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            actualOutput.send(transmission);
+                            adjustNumberOfThreads();
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable throwable) {
+                            // Avoid un-expected exit of thread
+                        } finally {
+                            concurrencyLimiter.release();
+                        }
                     }
-                }
-            });
+                });
+            } catch (RuntimeException e) {
+                concurrencyLimiter.release();
+                throw e;
+            }
             return true;
 
         } catch (RejectedExecutionException e) {
@@ -100,8 +126,33 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
         ThreadPoolUtils.stop(outputThreads, timeout, timeUnit);
     }
 
+    int getNumberOfTransmissionsInFlight() {
+        return concurrencyLimiter.getInFlight();
+    }
+
     public int getNumberOfMaxThreads() {
-        return this.maxThreads;
+        return outputThreads.getMaximumPoolSize();
+    }
+
+    /**
+     * Follows the limit of the {@link AdaptiveConcurrencyLimiter}, the pool size is changed in the order
+     * that keeps the core size below the maximum size
+     */
+    private void adjustNumberOfThreads() {
+        int limit = concurrencyLimiter.getLimit();
+        if (limit == outputThreads.getCorePoolSize()) {
+            return;
+        }
+
+        synchronized (outputThreads) {
+            if (limit > outputThreads.getMaximumPoolSize()) {
+                outputThreads.setMaximumPoolSize(limit);
+                outputThreads.setCorePoolSize(limit);
+            } else {
+                outputThreads.setCorePoolSize(limit);
+                outputThreads.setMaximumPoolSize(limit);
+            }
+        }
     }
 }
 
@@ -0,0 +1,192 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+/**
+ * An additive increase, multiplicative decrease (AIMD) limit on the number of concurrent uploads.
+ *
+ * Every 'limit' fast successful responses grow the limit by one. Throttling (429/439), an unavailable
+ * service (503), request timeouts (408 or a timed out connection) cut it by half, and responses slower
+ * than the latency threshold cut it by a tenth. Decreases are at most one per second, so the responses
+ * of uploads that were already in flight do not collapse the limit at once.
+ *
+ * A back off of the {@link TransmissionPolicyManager} drops the limit to its minimum.
+ */
+public final class AdaptiveConcurrencyLimiter {
+    public final static long DEFAULT_LATENCY_THRESHOLD_IN_MILLIS = 10000;
+
+    private final static double CONGESTION_DECREASE_FACTOR = 0.5;
+    private final static double LATENCY_DECREASE_FACTOR = 0.9;
+    private final static long MIN_NANOS_BETWEEN_DECREASES = TimeUnit.SECONDS.toNanos(1);
+
+    private final int minimum;
+    private final int maximum;
+    private final long latencyThresholdInMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile int limit;
+
+    /// Guarded by 'this'
+    private int successesSinceIncrease;
+    private long lastDecreaseNanos;
+
+    public AdaptiveConcurrencyLimiter(int minimum, int initial, int maximum) {
+        this(minimum, initial, maximum, DEFAULT_LATENCY_THRESHOLD_IN_MILLIS);
+    }
+
+    public AdaptiveConcurrencyLimiter(int minimum, int initial, int maximum, long latencyThresholdInMillis) {
+        Preconditions.checkArgument(minimum > 0, "minimum must be a positive number");
+        Preconditions.checkArgument(minimum <= initial && initial <= maximum, "initial must be between minimum and maximum");
+        Preconditions.checkArgument(latencyThresholdInMillis > 0, "latencyThresholdInMillis must be a positive number");
+
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.limit = initial;
+        this.latencyThresholdInMillis = latencyThresholdInMillis;
+        this.lastDecreaseNanos = System.nanoTime() - MIN_NANOS_BETWEEN_DECREASES;
+    }
+
+    /**
+     * @return True if an upload may start, the caller must then call {@link #release()} once it completes
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Counts an upload whatever the limit, for the senders whose uploads are limited by their threads,
+     * so {@link #getInFlight()} tells whether they have room. The caller must call {@link #release()} once it completes
+     */
+    public void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Feeds the outcome of an upload to the limit
+     * @param code The HTTP status code, 0 if no response was received
+     * @param ex The exception that failed the upload, if any
+     * @param latencyInMillis The time the upload took
+     */
+    public void onResponse(int code, Throwable ex, long latencyInMillis) {
+        switch (code) {
+            case TransmissionSendResult.SENT_SUCCESSFULLY:
+            case TransmissionSendResult.PARTIAL_SUCCESS:
+                onSuccess(latencyInMillis);
+                break;
+
+            case TransmissionSendResult.REQUEST_TIMEOUT:
+            case TransmissionSendResult.THROTTLED:
+            case TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME:
+            case TransmissionSendResult.SERVICE_UNAVAILABLE:
+                onCongestion();
+                break;
+
+            default:
+                // Socket and connection timeouts, other failures do not tell about the load of the endpoint
+                if (ex instanceof InterruptedIOException) {
+                    onCongestion();
+                }
+                break;
+        }
+    }
+
+    public synchronized void onSuccess(long latencyInMillis) {
+        if (latencyInMillis > latencyThresholdInMillis) {
+            decrease(LATENCY_DECREASE_FACTOR);
+            return;
+        }
+
+        if (++successesSinceIncrease >= limit) {
+            successesSinceIncrease = 0;
+            if (limit < maximum) {
+                setLimit(limit + 1);
+            }
+        }
+    }
+
+    public synchronized void onCongestion() {
+        decrease(CONGESTION_DECREASE_FACTOR);
+    }
+
+    /**
+     * Called when the sending is backed off, the uploads start over from the minimum once it is over
+     */
+    public synchronized void onBackoff() {
+        successesSinceIncrease = 0;
+        lastDecreaseNanos = System.nanoTime();
+        setLimit(minimum);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getMinimum() {
+        return minimum;
+    }
+
+    public int getMaximum() {
+        return maximum;
+    }
+
+    private void decrease(double factor) {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < MIN_NANOS_BETWEEN_DECREASES) {
+            return;
+        }
+
+        lastDecreaseNanos = now;
+        successesSinceIncrease = 0;
+        setLimit(Math.max(minimum, (int) (limit * factor)));
+    }
+
+    private void setLimit(int newLimit) {
+        if (newLimit != limit) {
+            InternalLogger.INSTANCE.trace("Concurrent uploads limit changed from %d to %d", limit, newLimit);
+            limit = newLimit;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.SSLOptionsUtil;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A {@link TransmissionOutput} that sends the {@link Transmission} instances with Apache's
+ * non blocking HttpAsyncClient.
+ *
+ * Unlike {@link ActiveTransmissionNetworkOutput}, that keeps one of its threads busy for every POST,
+ * many POSTs are in flight on a few I/O threads. The connection pool has a connection for every
+ * Transmission the limiter may let in, so a POST never waits for a connection. Only when the number of Transmissions in flight
+ * reaches its limit, or the policy blocks the network, the Transmission is refused and the dispatcher
+ * moves on to the next output.
+ *
+ * The responses are handled exactly as {@link TransmissionNetworkOutput} handles them,
+ * by the handlers of the {@link TransmissionPolicyManager}.
+ *
+ * On stop the POSTs in flight are given the timeout to complete, the ones that did not are handed back
+ * to the dispatcher, which saves them to the disk since this output no longer accepts Transmissions.
+ */
+public final class AsyncTransmissionNetworkOutput implements TransmissionOutput {
+    private final static int DEFAULT_NUMBER_OF_IO_THREADS = 2;
+    private final static int DEFAULT_MIN_TRANSMISSIONS_IN_FLIGHT = 1;
+    private final static int DEFAULT_INITIAL_TRANSMISSIONS_IN_FLIGHT = ApacheSender.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private final static int DEFAULT_MAX_TRANSMISSIONS_IN_FLIGHT = 512;
+    private final static AtomicInteger INSTANCE_ID_POOL = new AtomicInteger(1);
+
+    /**
+     * Completes a POST on the I/O threads
+     */
+    private final class ResponseCallback implements FutureCallback<HttpResponse> {
+        private final Transmission transmission;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private ResponseCallback(Transmission transmission) {
+            this.transmission = transmission;
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            if (!finish()) {
+                return;
+            }
+
+            int code = 0;
+            String reason = null;
+            String respString = null;
+            Throwable ex = null;
+            try {
+                code = response.getStatusLine().getStatusCode();
+                reason = response.getStatusLine().getReasonPhrase();
+                if (response.getEntity() != null) {
+                    respString = EntityUtils.toString(response.getEntity());
+                }
+            } catch (IOException e) {
+                ex = e;
+                InternalLogger.INSTANCE.error("Failed to read the response.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(e));
+            }
+
+            onTransmissionSent(code, reason, respString, response.getFirstHeader(TransmissionNetworkOutput.RESPONSE_THROTTLING_HEADER), ex);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            if (!finish()) {
+                return;
+            }
+
+            InternalLogger.INSTANCE.error("Failed to send.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(ex));
+            onTransmissionSent(0, null, null, null, ex);
+        }
+
+        @Override
+        public void cancelled() {
+            // Only happens when the client is closed
+            if (finish()) {
+                resend();
+            }
+        }
+
+        /**
+         * Marks the POST as done, only the first of the response, the failure or the stop gets to handle it
+         * @return True if the caller should handle the Transmission
+         */
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+
+            synchronized (callbacksInFlight) {
+                callbacksInFlight.remove(this);
+                callbacksInFlight.notifyAll();
+            }
+            return true;
+        }
+
+        /**
+         * Hands the Transmission, that got no response, back to the dispatcher
+         */
+        private void resend() {
+            concurrencyLimiter.release();
+
+            TransmissionDispatcher dispatcher = transmissionDispatcher;
+            if (dispatcher == null) {
+                InternalLogger.INSTANCE.error("Transmission that got no response is lost, no dispatcher to resend it");
+                return;
+            }
+
+            try {
+                dispatcher.dispatch(transmission);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Failed to resend a transmission that got no response.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(t));
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+
+        private void onTransmissionSent(int code, String reason, String respString, Header retryAfterHeader, Throwable ex) {
+            try {
+                long latencyInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                TransmissionNetworkOutput.onTransmissionSent(
+                        transmissionPolicyManager, transmissionDispatcher, transmission, code, reason, respString, retryAfterHeader, ex, latencyInMillis);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Failed to handle the response.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(t));
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            } finally {
+                concurrencyLimiter.release();
+            }
+        }
+    }
+
+    private final int instanceId = INSTANCE_ID_POOL.getAndIncrement();
+
+    private final String serverUri;
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final TransmissionPolicyManager transmissionPolicyManager;
+
+    /// Adapts the number of Transmissions in flight to the responses, see {@link AdaptiveConcurrencyLimiter}
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private volatile TransmissionDispatcher transmissionDispatcher;
+
+    /// The POSTs that did not complete yet, guarded by itself
+    private final Set<ResponseCallback> callbacksInFlight = new HashSet<ResponseCallback>();
+
+    private volatile boolean stopped;
+
+    /**
+     * Creates an instance of the asynchronous network transmission class.
+     *
+     * @param endpoint
+     *            The HTTP endpoint to send our telemetry too, the default one is used when empty.
+     * @param transmissionPolicyManager
+     *            The transmission policy used to mark this sender active or
+     *            blocked.
+     * @return The started output
+     */
+    public static AsyncTransmissionNetworkOutput create(String endpoint, TransmissionPolicyManager transmissionPolicyManager) {
+        String realEndpoint = Strings.isNullOrEmpty(endpoint) ? TransmissionNetworkOutput.DEFAULT_SERVER_URI : endpoint;
+        transmissionPolicyManager.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(
+                DEFAULT_MIN_TRANSMISSIONS_IN_FLIGHT, DEFAULT_INITIAL_TRANSMISSIONS_IN_FLIGHT, DEFAULT_MAX_TRANSMISSIONS_IN_FLIGHT));
+        return new AsyncTransmissionNetworkOutput(realEndpoint, transmissionPolicyManager);
+    }
+
+    /**
+     * The number of Transmissions in flight is limited by the {@link AdaptiveConcurrencyLimiter} of the policy manager
+     */
+    AsyncTransmissionNetworkOutput(String serverUri, TransmissionPolicyManager transmissionPolicyManager) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(serverUri), "serverUri should be a valid non-null value");
+        Preconditions.checkNotNull(transmissionPolicyManager, "transmissionPolicyManager should be a valid non-null value");
+
+        this.serverUri = serverUri;
+        this.transmissionPolicyManager = transmissionPolicyManager;
+        this.concurrencyLimiter = transmissionPolicyManager.getConcurrencyLimiter();
+        this.httpClient = createHttpClient();
+        this.httpClient.start();
+    }
+
+    /**
+     * Used to inject the dispatcher used for this output so it can be injected to
+     * the retry logic.
+     *
+     * @param transmissionDispatcher
+     *            The dispatcher to be injected.
+     */
+    public void setTransmissionDispatcher(TransmissionDispatcher transmissionDispatcher) {
+        this.transmissionDispatcher = transmissionDispatcher;
+    }
+
+    /**
+     * Starts the POST of the {@link Transmission} and returns without waiting for the response.
+     *
+     * @param transmission
+     *            The data to send
+     * @return False if the Transmission was not accepted and should go to the next output
+     */
+    @Override
+    public boolean send(Transmission transmission) {
+        if (stopped) {
+            return false;
+        }
+
+        if (transmissionPolicyManager.getTransmissionPolicyState().getCurrentState() != TransmissionPolicy.UNBLOCKED) {
+            return false;
+        }
+
+        if (!concurrencyLimiter.tryAcquire()) {
+            return false;
+        }
+
+        ResponseCallback callback = new ResponseCallback(transmission);
+        synchronized (callbacksInFlight) {
+            callbacksInFlight.add(callback);
+        }
+        try {
+            HttpPost request = TransmissionNetworkOutput.createTransmissionPostRequest(serverUri, transmission);
+            httpClient.execute(request, callback);
+            return true;
+        } catch (Exception e) {
+            if (!callback.finish()) {
+                // The client was closed by 'stop', which already handed the Transmission back to the dispatcher
+                return true;
+            }
+            concurrencyLimiter.release();
+            InternalLogger.INSTANCE.error("Failed to start sending.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(e));
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the POSTs in flight to complete and stops the I/O threads. The Transmissions of the POSTs
+     * that did not complete in time are handed back to the dispatcher.
+     *
+     * @param timeout
+     *            The timeout to wait for the POSTs in flight.
+     * @param timeUnit
+     *            The time unit of the timeout.
+     */
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        List<ResponseCallback> notCompleted;
+        synchronized (callbacksInFlight) {
+            long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+            try {
+                long left;
+                while (!callbacksInFlight.isEmpty() && (left = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(callbacksInFlight, left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            notCompleted = new ArrayList<ResponseCallback>(callbacksInFlight);
+        }
+
+        if (!notCompleted.isEmpty()) {
+            InternalLogger.INSTANCE.warn("%d transmissions got no response before stop, they are resent", notCompleted.size());
+        }
+        for (ResponseCallback callback : notCompleted) {
+            if (callback.finish()) {
+                callback.resend();
+            }
+        }
+
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to close http client, exception: %s", e.toString());
+        }
+    }
+
+    int getNumberOfTransmissionsInFlight() {
+        return concurrencyLimiter.getInFlight();
+    }
+
+    private CloseableHttpAsyncClient createHttpClient() {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(DEFAULT_NUMBER_OF_IO_THREADS)
+                .setConnectTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .setSoTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .build();
+
+        PoolingNHttpClientConnectionManager cm;
+        try {
+            DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfig,
+                    ThreadPoolUtils.createDaemonThreadFactory(AsyncTransmissionNetworkOutput.class, instanceId));
+            SSLIOSessionStrategy sslStrategy = new SSLIOSessionStrategy(SSLContexts.createDefault(),
+                    SSLOptionsUtil.getAllowedProtocols(), null, SSLIOSessionStrategy.getDefaultHostnameVerifier());
+            cm = new PoolingNHttpClientConnectionManager(ioReactor, RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("https", sslStrategy)
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .build());
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Failed to create the I/O reactor", e);
+        }
+        // All the POSTs go to the one endpoint, a POST the limiter let in must not wait in the lease queue
+        // since that wait would count as latency and may end as a failure
+        int maxConnections = concurrencyLimiter.getMaximum();
+        cm.setMaxTotal(maxConnections);
+        cm.setDefaultMaxPerRoute(maxConnections);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .setSocketTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .setConnectTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .build();
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(requestConfig)
+                .setThreadFactory(ThreadPoolUtils.createDaemonThreadFactory(AsyncTransmissionNetworkOutput.class, "dispatcher-" + instanceId))
+                .useSystemProperties()
+                .build();
+    }
+}
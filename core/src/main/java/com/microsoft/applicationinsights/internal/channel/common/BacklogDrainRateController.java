@@ -0,0 +1,138 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * Paces the reading of the Transmissions that were saved to the disk.
+ *
+ * The readers share one rate, in Transmissions per second, that starts low and doubles every second the
+ * network is found healthy, up to the target rate. It is cut by half, at most once per second, while the
+ * sending is backed off or throttled, so a recovering endpoint is not flooded by the backlog.
+ */
+public final class BacklogDrainRateController {
+    public final static int DEFAULT_TARGET_RATE_PER_SECOND = 50;
+    public final static int MIN_RATE_PER_SECOND = 1;
+
+    /// Close to what a single reader that paused 100 milliseconds after each Transmission used to do
+    private final static double INITIAL_RATE_PER_SECOND = 10;
+
+    private final static long NANOS_BETWEEN_ADJUSTMENTS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Ticker ticker;
+
+    private volatile int targetRatePerSecond;
+
+    /// Guarded by 'this'
+    private double ratePerSecond;
+    private long nextPermitNanos;
+    private long lastAdjustmentNanos;
+
+    public BacklogDrainRateController() {
+        this(DEFAULT_TARGET_RATE_PER_SECOND);
+    }
+
+    public BacklogDrainRateController(int targetRatePerSecond) {
+        this(targetRatePerSecond, Ticker.systemTicker());
+    }
+
+    /**
+     * @param targetRatePerSecond The rate the readers are sped up to
+     * @param ticker The source of the time, tests pass their own
+     */
+    BacklogDrainRateController(int targetRatePerSecond, Ticker ticker) {
+        Preconditions.checkArgument(targetRatePerSecond >= MIN_RATE_PER_SECOND, "targetRatePerSecond must be at least %s", MIN_RATE_PER_SECOND);
+        Preconditions.checkNotNull(ticker, "ticker must be a non-null value");
+
+        this.ticker = ticker;
+        this.targetRatePerSecond = targetRatePerSecond;
+        this.ratePerSecond = Math.min(INITIAL_RATE_PER_SECOND, targetRatePerSecond);
+        this.nextPermitNanos = this.lastAdjustmentNanos = ticker.read();
+    }
+
+    /**
+     * Blocks the calling reader until it may read the next Transmission. Time that was not used is not
+     * saved for later, so the readers never burst above the current rate.
+     * @throws InterruptedException If the reader is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = ticker.read();
+            if (nextPermitNanos < now) {
+                nextPermitNanos = now;
+            }
+
+            waitNanos = nextPermitNanos - now;
+            nextPermitNanos += (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        }
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Called while the Transmissions can be sent and the network has room for more of them
+     */
+    public synchronized void onHealthy() {
+        long now = ticker.read();
+        if (now - lastAdjustmentNanos < NANOS_BETWEEN_ADJUSTMENTS) {
+            return;
+        }
+
+        lastAdjustmentNanos = now;
+        ratePerSecond = Math.min(targetRatePerSecond, ratePerSecond * 2);
+    }
+
+    /**
+     * Called while the sending is backed off or throttled
+     */
+    public synchronized void onThrottled() {
+        long now = ticker.read();
+        if (now - lastAdjustmentNanos < NANOS_BETWEEN_ADJUSTMENTS) {
+            return;
+        }
+
+        lastAdjustmentNanos = now;
+        ratePerSecond = Math.max(MIN_RATE_PER_SECOND, ratePerSecond / 2);
+    }
+
+    public synchronized void setTargetRatePerSecond(int targetRatePerSecond) {
+        Preconditions.checkArgument(targetRatePerSecond >= MIN_RATE_PER_SECOND, "targetRatePerSecond must be at least %s", MIN_RATE_PER_SECOND);
+
+        this.targetRatePerSecond = targetRatePerSecond;
+        ratePerSecond = Math.min(ratePerSecond, targetRatePerSecond);
+    }
+
+    public int getTargetRatePerSecond() {
+        return targetRatePerSecond;
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+}
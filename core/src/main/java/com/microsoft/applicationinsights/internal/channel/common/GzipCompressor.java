@@ -0,0 +1,134 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Produces the same gzip stream as {@link java.util.zip.GZIPOutputStream}, but keeps its
+ * {@link Deflater} and its output buffer so they can be reused through a {@link GzipCompressorPool}.
+ *
+ * An instance is used by one thread at a time, the pool hands it out already started.
+ */
+public final class GzipCompressor {
+    private static final byte[] GZIP_HEADER = new byte[] {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int INITIAL_OUTPUT_SIZE = 8 * 1024;
+
+    /// A bigger output buffer is dropped when the compressor is restarted, so the pool does not retain it
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+
+    private static final int MIN_FREE_OUTPUT_SPACE = 512;
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private int level;
+    private byte[] output;
+    private int outputLength;
+
+    GzipCompressor(int level) {
+        this.level = level;
+        this.deflater = new Deflater(level, true);
+        start(level);
+    }
+
+    /**
+     * Starts a new gzip stream
+     */
+    void start(int level) {
+        deflater.reset();
+        if (level != this.level) {
+            deflater.setLevel(level);
+            this.level = level;
+        }
+        crc.reset();
+
+        if (output == null || output.length > MAX_RETAINED_OUTPUT_SIZE) {
+            output = new byte[INITIAL_OUTPUT_SIZE];
+        }
+        System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+        outputLength = GZIP_HEADER.length;
+    }
+
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+
+        crc.update(bytes, offset, length);
+        deflater.setInput(bytes, offset, length);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * Ends the gzip stream
+     * @return The compressed bytes, including the gzip header and trailer
+     */
+    public byte[] finish() {
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+
+        ensureFreeSpace(8);
+        writeIntLittleEndian((int) crc.getValue());
+        writeIntLittleEndian((int) deflater.getBytesRead());
+
+        return Arrays.copyOf(output, outputLength);
+    }
+
+    /**
+     * Releases the native resources of the {@link Deflater}, the instance cannot be used afterwards
+     */
+    void end() {
+        deflater.end();
+        output = null;
+    }
+
+    private void deflate() {
+        ensureFreeSpace(MIN_FREE_OUTPUT_SPACE);
+        outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+    }
+
+    private void ensureFreeSpace(int space) {
+        if (output.length - outputLength < space) {
+            output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + space));
+        }
+    }
+
+    private void writeIntLittleEndian(int value) {
+        output[outputLength++] = (byte) value;
+        output[outputLength++] = (byte) (value >> 8);
+        output[outputLength++] = (byte) (value >> 16);
+        output[outputLength++] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps a bounded number of idle {@link GzipCompressor} instances.
+ *
+ * Compressors that do not fit in the pool are ended when released, so the native memory
+ * of their {@link java.util.zip.Deflater} is freed right away instead of on finalization.
+ */
+public final class GzipCompressorPool {
+    public static final int MIN_COMPRESSION_LEVEL = 0;
+    public static final int MAX_COMPRESSION_LEVEL = 9;
+
+    /// The level zlib uses by default, which is what GZIPOutputStream gives
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    private final BlockingQueue<GzipCompressor> idleCompressors;
+
+    private volatile int compressionLevel;
+
+    public GzipCompressorPool(int capacity) {
+        this(capacity, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    public GzipCompressorPool(int capacity, int compressionLevel) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be a positive number");
+
+        this.idleCompressors = new ArrayBlockingQueue<GzipCompressor>(capacity);
+        setCompressionLevel(compressionLevel);
+    }
+
+    /**
+     * Sets the compression level of the compressors acquired from now on
+     * @param compressionLevel Between MIN_COMPRESSION_LEVEL, no compression, and MAX_COMPRESSION_LEVEL, best compression
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        Preconditions.checkArgument(compressionLevel >= MIN_COMPRESSION_LEVEL && compressionLevel <= MAX_COMPRESSION_LEVEL,
+                "compressionLevel must be between %s and %s", MIN_COMPRESSION_LEVEL, MAX_COMPRESSION_LEVEL);
+
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @return A started compressor, the caller must give it back by calling {@link #release(GzipCompressor)}
+     */
+    public GzipCompressor acquire() {
+        int level = compressionLevel;
+        GzipCompressor compressor = idleCompressors.poll();
+        if (compressor == null) {
+            return new GzipCompressor(level);
+        }
+
+        compressor.start(level);
+        return compressor;
+    }
+
+    public void release(GzipCompressor compressor) {
+        if (compressor != null && !idleCompressors.offer(compressor)) {
+            compressor.end();
+        }
+    }
+
+    int getIdleCount() {
+        return idleCompressors.size();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * A batch of serialized Telemetries that is compressed as the Telemetries are appended.
+ *
+ * The compressed bytes are exactly what {@link GzipTelemetrySerializer} produces for the same
+ * Telemetries, only the uncompressed Telemetries are not kept once they are compressed.
+ *
+ * No lock is taken by the application threads: like the batches of {@link TelemetryBuffer}, an append
+ * claims a slot atomically and then queues its Telemetry. The compression is done by whichever thread
+ * finds the compressor free, an append that finds it busy returns right away and leaves its Telemetry
+ * to that thread, to the next append or to the transmitter's thread that finishes the batch.
+ */
+public final class GzipTelemetryBatch {
+    /// Returned by 'append' when the batch no longer accepts Telemetries
+    public static final int SEALED = -1;
+
+    /// Set in the value returned by 'append' when that append sealed the batch
+    public static final int FULL = 1 << 30;
+
+    /// Added to 'claimed' by 'seal', so every later claim fails
+    private static final int SEALED_FLAG = 1 << 30;
+
+    /// The most Telemetries an append compresses, so one application thread does not compress for all the others
+    private static final int MAX_TELEMETRIES_COMPRESSED_PER_APPEND = 8;
+
+    private final byte[] newlineString;
+
+    private final GzipCompressorPool compressorPool;
+
+    private final int maxTelemetriesInBatch;
+
+    private final int maxBatchSizeInBytes;
+
+    /// The slots taken by the appends, plus SEALED_FLAG once the batch is sealed
+    private final AtomicInteger claimed = new AtomicInteger();
+
+    /// The appends that queued their Telemetry
+    private final AtomicInteger published = new AtomicInteger();
+
+    private final AtomicLong sizeInBytes = new AtomicLong();
+
+    /// The number of Telemetries in the batch once it is sealed, -1 before
+    private volatile int sealedCount = -1;
+
+    /// The Telemetries that wait to be compressed
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+
+    /// Set by the only thread that may use the compressor
+    private final AtomicBoolean compressing = new AtomicBoolean();
+
+    /// Taken from the pool with the first Telemetry and given back once the batch is compressed or discarded
+    private GzipCompressor compressor;
+    private byte[] compressed;
+    private boolean finished;
+
+    /**
+     * @param compressorPool The pool of the compressors
+     * @param maxTelemetriesInBatch The number of Telemetries that seals the batch
+     * @param maxBatchSizeInBytes The size of the uncompressed Telemetries that seals the batch
+     */
+    public GzipTelemetryBatch(GzipCompressorPool compressorPool, int maxTelemetriesInBatch, int maxBatchSizeInBytes) {
+        Preconditions.checkNotNull(compressorPool, "compressorPool must be non-null value");
+        Preconditions.checkArgument(maxTelemetriesInBatch > 0 && maxTelemetriesInBatch < SEALED_FLAG, "maxTelemetriesInBatch is out of range");
+        Preconditions.checkArgument(maxBatchSizeInBytes > 0, "maxBatchSizeInBytes must be a positive number");
+
+        this.newlineString = GzipTelemetrySerializer.getNewline();
+        this.compressorPool = compressorPool;
+        this.maxTelemetriesInBatch = maxTelemetriesInBatch;
+        this.maxBatchSizeInBytes = maxBatchSizeInBytes;
+    }
+
+    /**
+     * Adds the Telemetry to the batch. The batch seals itself once it holds 'maxTelemetriesInBatch'
+     * Telemetries or 'maxBatchSizeInBytes' uncompressed bytes, the caller that gets back the {@link #FULL}
+     * flag is the one that should send it.
+     *
+     * @param telemetry The serialized Telemetry
+     * @return The number of Telemetries in the batch, with {@link #FULL} set if the append sealed the batch,
+     * or {@link #SEALED} if the batch is sealed or is full and about to be sealed
+     */
+    public int append(byte[] telemetry) {
+        Preconditions.checkNotNull(telemetry, "telemetry must be non-null value");
+
+        int index;
+        do {
+            index = claimed.get();
+            if (index >= maxTelemetriesInBatch) {
+                // Either sealed or the append that took the last slot is about to seal it,
+                // the claim is not counted so the retries of the callers cannot reach SEALED_FLAG
+                return SEALED;
+            }
+        } while (!claimed.compareAndSet(index, index + 1));
+
+        pending.offer(telemetry);
+        long size = sizeInBytes.addAndGet(telemetry.length);
+        published.incrementAndGet();
+
+        if (compressing.compareAndSet(false, true)) {
+            try {
+                compress(MAX_TELEMETRIES_COMPRESSED_PER_APPEND);
+            } finally {
+                compressing.set(false);
+            }
+        }
+
+        int count = index + 1;
+        if ((count == maxTelemetriesInBatch || size >= maxBatchSizeInBytes) && seal()) {
+            return count | FULL;
+        }
+
+        return count;
+    }
+
+    /**
+     * Stops the batch from accepting new Telemetries.
+     * @return True if the call sealed the batch, false if it was already sealed
+     */
+    public boolean seal() {
+        while (true) {
+            int claimedBeforeSeal = claimed.get();
+            if (claimedBeforeSeal >= SEALED_FLAG) {
+                return false;
+            }
+
+            if (claimed.compareAndSet(claimedBeforeSeal, claimedBeforeSeal + SEALED_FLAG)) {
+                sealedCount = Math.min(claimedBeforeSeal, maxTelemetriesInBatch);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Compresses what the appends left and finishes the compression of a sealed batch. The method
+     * is called by the transmitter's threads.
+     * @return The Transmission of the batch, absent if the batch is empty, discarded or the compression failed
+     */
+    public Optional<Transmission> toTransmission() {
+        int count = sealedCount;
+        Preconditions.checkState(count >= 0, "batch must be sealed before it is sent");
+
+        while (published.get() < count) {
+            // An append took a slot before the seal but did not queue its Telemetry yet
+            Thread.yield();
+        }
+
+        lockCompressor();
+        try {
+            if (!finished) {
+                compress(Integer.MAX_VALUE);
+                finished = true;
+                if (compressor != null) {
+                    compressed = compressor.finish();
+                }
+            }
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
+        } finally {
+            compressorPool.release(compressor);
+            compressor = null;
+            compressing.set(false);
+        }
+
+        if (compressed == null) {
+            return Optional.absent();
+        }
+
+        return Optional.of(new Transmission(compressed, GzipTelemetrySerializer.GZIP_WEB_CONTENT_TYPE, GzipTelemetrySerializer.GZIP_WEB_ENCODING_TYPE));
+    }
+
+    /**
+     * Seals a batch that will not be sent and gives its compressor back to the pool.
+     */
+    public void discard() {
+        seal();
+
+        lockCompressor();
+        try {
+            finished = true;
+            pending.clear();
+            compressorPool.release(compressor);
+            compressor = null;
+            compressed = null;
+        } finally {
+            compressing.set(false);
+        }
+    }
+
+    /**
+     * @return The size of the uncompressed Telemetries in the batch
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    /**
+     * @return The number of Telemetries in the batch
+     */
+    public int size() {
+        return published.get();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GzipTelemetryBatch{count=" + size() + "}";
+    }
+
+    private void lockCompressor() {
+        while (!compressing.compareAndSet(false, true)) {
+            // An append is compressing, which takes a bounded number of Telemetries
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Compresses queued Telemetries, the caller must have set 'compressing'.
+     */
+    private void compress(int maxTelemetries) {
+        if (finished) {
+            // Sent or discarded, a late append has nothing to add to
+            return;
+        }
+
+        byte[] telemetry;
+        for (int i = 0; i < maxTelemetries && (telemetry = pending.poll()) != null; ++i) {
+            try {
+                if (compressor == null) {
+                    compressor = compressorPool.acquire();
+                } else {
+                    compressor.write(newlineString);
+                }
+                compressor.write(telemetry);
+            } catch (Exception e) {
+                InternalLogger.INSTANCE.error("Failed to compress telemetry, exception: %s", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the batches of a {@link GzipTelemetryBuffer}. The batches are compressed already,
+ * so they skip the serializer and only their compression is finished by the transmitter's threads.
+ *
+ * The methods follow {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
+ */
+public interface GzipTelemetryBatchTransmitter {
+    public interface BatchFetcher {
+        /**
+         * @return The batch to send, sealed, or null if there is nothing to send
+         */
+        GzipTelemetryBatch fetch();
+    }
+
+    boolean scheduleSend(BatchFetcher batchFetcher, long value, TimeUnit timeUnit);
+
+    boolean sendNow(GzipTelemetryBatch batch);
+}
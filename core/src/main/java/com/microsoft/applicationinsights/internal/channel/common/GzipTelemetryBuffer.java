@@ -0,0 +1,233 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A buffer of serialized Telemetries that compresses every Telemetry into the current
+ * {@link GzipTelemetryBatch} as soon as it is added.
+ *
+ * The batching follows {@link TelemetryBuffer}: the first Telemetry in a batch schedules a 'pick-up'
+ * after the transmit buffer timeout, and a full batch is sent right away. Compressing on the application
+ * threads spreads the cost of the compression instead of paying all of it when the batch is sent,
+ * and only the compressed bytes are kept in memory. No application thread waits for another one to
+ * compress, see {@link GzipTelemetryBatch}.
+ */
+public final class GzipTelemetryBuffer {
+    /**
+     * Sends the expected batch when the timeout expires, unless it was already sent because it
+     * got full or was flushed.
+     */
+    private final class GzipTelemetryBufferBatchFetcher implements GzipTelemetryBatchTransmitter.BatchFetcher {
+
+        private final GzipTelemetryBatch expectedBatch;
+
+        private GzipTelemetryBufferBatchFetcher(GzipTelemetryBatch expectedBatch) {
+            this.expectedBatch = expectedBatch;
+        }
+
+        @Override
+        public GzipTelemetryBatch fetch() {
+            if (!seal(expectedBatch)) {
+                return null;
+            }
+
+            return expectedBatch;
+        }
+    }
+
+    /// The sender we use to send the batches
+    private final GzipTelemetryBatchTransmitter sender;
+
+    /// The batches take their compressor from here, normally the pool of the transmitter's serializer
+    private final GzipCompressorPool compressorPool;
+
+    private volatile int maxTelemetriesInBatch;
+
+    private volatile int maxBatchSizeInBytes;
+
+    private volatile int transmitBufferTimeoutInSeconds;
+
+    /// The batch the incoming Telemetries are compressed into
+    private final AtomicReference<GzipTelemetryBatch> currentBatch;
+
+    /// The batch whose 'pick-up' the transmitter refused, the next Telemetry added to it schedules it again
+    private final AtomicReference<GzipTelemetryBatch> unscheduledBatch = new AtomicReference<GzipTelemetryBatch>();
+
+    /**
+     * The values are expected to be already normalized, the owner is expected to keep them in line
+     * with its {@link TelemetryBuffer}
+     * @param sender The sender object for transmitting the telemetries
+     * @param compressorPool The pool of the compressors used by the batches
+     * @param maxTelemetriesInBatch The maximum number of telemetries in a batch
+     * @param maxBatchSizeInBytes The maximum size of the uncompressed telemetries in a batch
+     * @param transmitBufferTimeoutInSeconds The transmit buffer timeout in seconds
+     */
+    public GzipTelemetryBuffer(GzipTelemetryBatchTransmitter sender, GzipCompressorPool compressorPool, int maxTelemetriesInBatch,
+                               int maxBatchSizeInBytes, int transmitBufferTimeoutInSeconds) {
+        Preconditions.checkNotNull(sender, "sender must be non-null value");
+        Preconditions.checkNotNull(compressorPool, "compressorPool must be non-null value");
+        Preconditions.checkArgument(maxTelemetriesInBatch > 0, "maxTelemetriesInBatch must be a positive number");
+        Preconditions.checkArgument(maxBatchSizeInBytes > 0, "maxBatchSizeInBytes must be a positive number");
+        Preconditions.checkArgument(transmitBufferTimeoutInSeconds > 0, "transmitBufferTimeoutInSeconds must be a positive number");
+
+        this.sender = sender;
+        this.compressorPool = compressorPool;
+        this.maxTelemetriesInBatch = maxTelemetriesInBatch;
+        this.maxBatchSizeInBytes = maxBatchSizeInBytes;
+        this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSeconds;
+        this.currentBatch = new AtomicReference<GzipTelemetryBatch>(createBatch());
+    }
+
+    /**
+     * Sets the maximum number of telemetries in a batch, a batch that already reached it is sent.
+     * A batch that did not reach it keeps the maximum it was created with.
+     * @param value The max amount of Telemetries that are allowed in a batch.
+     */
+    public void setMaxTelemetriesInBatch(int value) {
+        Preconditions.checkArgument(value > 0, "maxTelemetriesInBatch must be a positive number");
+
+        maxTelemetriesInBatch = value;
+        if (currentBatch.get().size() >= value) {
+            flush();
+        }
+    }
+
+    public int getMaxTelemetriesInBatch() {
+        return maxTelemetriesInBatch;
+    }
+
+    /**
+     * Sets the maximum size of the uncompressed telemetries in a batch, a batch that already reached it is sent.
+     * A batch that did not reach it keeps the maximum it was created with.
+     * @param value The size in bytes that makes a batch to be sent.
+     */
+    public void setMaxBatchSizeInBytes(int value) {
+        Preconditions.checkArgument(value > 0, "maxBatchSizeInBytes must be a positive number");
+
+        maxBatchSizeInBytes = value;
+        if (currentBatch.get().getSizeInBytes() >= value) {
+            flush();
+        }
+    }
+
+    public int getMaxBatchSizeInBytes() {
+        return maxBatchSizeInBytes;
+    }
+
+    /**
+     * Sets the transmit buffer timeout in seconds, a shorter timeout flushes the current batch
+     * @param value The amount of time to wait before sending the buffer.
+     */
+    public void setTransmitBufferTimeoutInSeconds(int value) {
+        Preconditions.checkArgument(value > 0, "transmitBufferTimeoutInSeconds must be a positive number");
+
+        int oldValue = transmitBufferTimeoutInSeconds;
+        transmitBufferTimeoutInSeconds = value;
+        if (value < oldValue) {
+            flush();
+        }
+    }
+
+    public int getTransmitBufferTimeoutInSeconds() {
+        return transmitBufferTimeoutInSeconds;
+    }
+
+    /**
+     * Compresses the Telemetry into the current batch.
+     *
+     * If that is the first Telemetry in the batch, we schedule a 'pick-up' in a configurable amount of time
+     * If the batch got full, by count or by size, by adding it, we trigger a send request now.
+     * @param telemetry The serialized Telemetry
+     */
+    public void add(byte[] telemetry) {
+        Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+
+        while (true) {
+            GzipTelemetryBatch batch = currentBatch.get();
+            int result = batch.append(telemetry);
+            if (result == GzipTelemetryBatch.SEALED) {
+                // The batch is full or being sent, its owner is about to replace it
+                Thread.yield();
+                continue;
+            }
+
+            if ((result & GzipTelemetryBatch.FULL) != 0) {
+                // 'append' sealed the batch for us
+                currentBatch.compareAndSet(batch, createBatch());
+                send(batch, "Failed to send buffer data to network");
+            } else if (result == 1 || (unscheduledBatch.get() == batch && unscheduledBatch.compareAndSet(batch, null))) {
+                if (!sender.scheduleSend(new GzipTelemetryBufferBatchFetcher(batch), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
+                    // The batch stays open until it gets full or is flushed, see TelemetryBuffer
+                    InternalLogger.INSTANCE.trace("Failed to schedule send of the buffer to network");
+                    unscheduledBatch.set(batch);
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Sends the Telemetries currently in the buffer to the {@link GzipTelemetryBatchTransmitter}
+     */
+    public void flush() {
+        GzipTelemetryBatch batch = currentBatch.get();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (seal(batch)) {
+            send(batch, "Failed to flush buffer data to network");
+        }
+    }
+
+    /**
+     * Seals the batch and, if the caller is the one that sealed it, installs a new one.
+     * @return True if the caller sealed the batch and should send it
+     */
+    private boolean seal(GzipTelemetryBatch batch) {
+        if (!batch.seal()) {
+            return false;
+        }
+
+        currentBatch.compareAndSet(batch, createBatch());
+        unscheduledBatch.compareAndSet(batch, null);
+        return true;
+    }
+
+    private GzipTelemetryBatch createBatch() {
+        return new GzipTelemetryBatch(compressorPool, maxTelemetriesInBatch, maxBatchSizeInBytes);
+    }
+
+    private void send(GzipTelemetryBatch batch, String errorMessage) {
+        if (!sender.sendNow(batch)) {
+            InternalLogger.INSTANCE.error(errorMessage);
+            batch.discard();
+        }
+    }
+}
@@ -21,11 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Collection;
-import java.util.zip.GZIPOutputStream;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
@@ -39,82 +35,102 @@ import com.google.common.base.Preconditions;
  * The class is an implementation of the {@link TelemetrySerializer}
  * where the {@link Telemetry} instances are compressed by Gzip after converted to Json format
  *
+ * The compressors come from a {@link GzipCompressorPool} so their native zlib memory is reused.
+ *
  * Created by gupele on 12/17/2014.
  */
 public final class GzipTelemetrySerializer implements TelemetrySerializer {
-    private final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
-    private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
+    final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
+    final static String GZIP_WEB_ENCODING_TYPE = "gzip";
+
+    /// The separator between the Telemetries
+    private final static byte[] NEWLINE = System.getProperty("line.separator").getBytes();
 
     private final byte[] newlineString;
 
+    private final GzipCompressorPool compressorPool;
+
     public GzipTelemetrySerializer() {
-        this.newlineString = System.getProperty("line.separator").getBytes();
+        this(new GzipCompressorPool(TransmitterImpl.NUMBER_OF_SENDER_THREADS));
+    }
+
+    public GzipTelemetrySerializer(GzipCompressorPool compressorPool) {
+        Preconditions.checkNotNull(compressorPool, "compressorPool must be non-null value");
+
+        this.newlineString = NEWLINE;
+        this.compressorPool = compressorPool;
+    }
+
+    /**
+     * @return A copy of the separator written between the Telemetries
+     */
+    static byte[] getNewline() {
+        return NEWLINE.clone();
+    }
+
+    /**
+     * @return The number of bytes written between two Telemetries
+     */
+    public static int getNewlineLength() {
+        return NEWLINE.length;
     }
 
     @Override
-    public Optional<Transmission> serialize(Collection<String> telemetries) {
+    public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
         Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
 
         Transmission result = null;
-        boolean succeeded = false;
+        GzipCompressor compressor = null;
         try {
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-            try {
-                GZIPOutputStream zipStream = new GZIPOutputStream(byteStream);
-
-                try {
-                    succeeded = compress(zipStream, telemetries);
-                } catch (Exception e) {
-                    InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
-                } catch (ThreadDeath td) {
-                    throw td;
-                } catch (Throwable t) {
-                    try {
-                        InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.toString());                    } catch (ThreadDeath td) {
-                        throw td;
-                    } catch (Throwable t2) {
-                        // chomp
-                    }
-                } finally {
-                    zipStream.close();
-                }
-            } finally {
-                byteStream.close();
-
-                // The creation of the result must be done after the 'zipStream' is closed
-                if (succeeded) {
-                    result = new Transmission(byteStream.toByteArray(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
+            compressor = compressorPool.acquire();
+            int compressedCount = compress(compressor, telemetries);
+            if (compressedCount > 0) {
+                result = new Transmission(compressor.finish(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
+                if (compressedCount == telemetries.size()) {
+                    // The items match the lines of the content, a partial success can resend them as they are
+                    result.setTelemetries(telemetries);
                 }
             }
-        } catch(Exception e) {
+        } catch (Exception e) {
             InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        } finally {
+            compressorPool.release(compressor);
         }
 
         return Optional.fromNullable(result);
     }
 
-    private boolean compress(GZIPOutputStream zipStream, Collection<String> telemetries) throws IOException {
+    private int compress(GzipCompressor compressor, Collection<byte[]> telemetries) {
         int counter = 0;
 
         // The format is:
         // 1. Separate each Telemetry by newline
         // 2. Compress the entire data by using Gzip
-        for (String telemetry : telemetries) {
+        for (byte[] telemetry : telemetries) {
 
             if (counter != 0) {
-                zipStream.write(newlineString);
+                compressor.write(newlineString);
             }
 
             try {
-                zipStream.write(telemetry.getBytes());
+                compressor.write(telemetry);
                 ++counter;
             } catch (Exception e) {
                 InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
             }
         }
 
-        return counter > 0;
+        return counter;
     }
 }
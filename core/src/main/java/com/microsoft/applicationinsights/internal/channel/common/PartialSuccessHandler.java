@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -30,6 +31,12 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger;
  */
 public class PartialSuccessHandler implements TransmissionHandler {
 
+    /// Gson instances are thread safe, there is no need to create one per response
+    private static final Gson GSON = new GsonBuilder().create();
+
+    /// Compresses the retried items, one compressor is enough for the rare partial successes
+    private final GzipTelemetrySerializer retrySerializer = new GzipTelemetrySerializer(new GzipCompressorPool(1));
+
     /**
      * Ctor
      *
@@ -59,17 +66,17 @@ public class PartialSuccessHandler implements TransmissionHandler {
             switch (args.getResponseCode()) {
             case HttpStatus.SC_PARTIAL_CONTENT:
                 BackendResponse backendResponse = getBackendResponse(args.getResponseBody());
-                List<String> originalItems = generateOriginalItems(args);
+                if (backendResponse != null && (backendResponse.itemsAccepted < backendResponse.itemsReceived)) {
+                    List<byte[]> originalItems = getOriginalItems(args);
 
-                // Somehow the amount of items received and the items sent do not match
-                if (backendResponse != null && (originalItems.size() != backendResponse.itemsReceived)) {
-                    InternalLogger.INSTANCE.trace(
-                            "Skipping partial content handler due to itemsReceived being larger than the items sent.");
-                    return false;
-                }
+                    // Somehow the amount of items received and the items sent do not match
+                    if (originalItems.size() != backendResponse.itemsReceived) {
+                        InternalLogger.INSTANCE.trace(
+                                "Skipping partial content handler due to itemsReceived being larger than the items sent.");
+                        return false;
+                    }
 
-                if (backendResponse != null && (backendResponse.itemsAccepted < backendResponse.itemsReceived)) {
-                    List<String> newTransmission = new ArrayList<String>();
+                    List<byte[]> newTransmission = new ArrayList<byte[]>();
                     for (BackendResponse.Error e : backendResponse.errors) {
                         switch (e.statusCode) {
                         case TransmissionSendResult.REQUEST_TIMEOUT:
@@ -85,7 +92,7 @@ public class PartialSuccessHandler implements TransmissionHandler {
                             break;
                         }
                     }
-                    return sendNewTransmission(args, newTransmission);
+                    return sendRetryTransmission(args, newTransmission);
                 }
                 InternalLogger.INSTANCE
                         .trace("Skipping partial content handler due to itemsAccepted and itemsReceived being equal.");
@@ -100,6 +107,31 @@ public class PartialSuccessHandler implements TransmissionHandler {
         return false;
     }
 
+    /**
+     * Gets the items of the original telemetry request in order to resend the failed
+     * ones. The items kept by the {@link Transmission} are used when it has them, the
+     * content is parsed only for transmissions that did not keep them, like the ones
+     * loaded from the disk.
+     *
+     * @param args
+     *            The {@link TransmissionHandlerArgs} that contains the
+     *            {@link Transmission} object.
+     * @return A List<> of each sent item
+     */
+    private List<byte[]> getOriginalItems(TransmissionHandlerArgs args) {
+        List<byte[]> telemetries = args.getTransmission().getTelemetries();
+        if (telemetries != null) {
+            return telemetries;
+        }
+
+        List<String> originalItems = generateOriginalItems(args);
+        List<byte[]> items = new ArrayList<byte[]>(originalItems.size());
+        for (String item : originalItems) {
+            items.add(item.getBytes(StandardCharsets.UTF_8));
+        }
+        return items;
+    }
+
     /**
      * Used to parse the original telemetry request in order to resend the failed
      * ones.
@@ -120,7 +152,7 @@ public class PartialSuccessHandler implements TransmissionHandler {
             try {
                 gis = new GZIPInputStream(
                         new ByteArrayInputStream(args.getTransmission().getContent()));
-                bufferedReader = new BufferedReader(new InputStreamReader(gis));
+                bufferedReader = new BufferedReader(new InputStreamReader(gis, StandardCharsets.UTF_8));
                 String line;
                 while ((line = bufferedReader.readLine()) != null) {
                     originalItems.add(line);
@@ -146,7 +178,7 @@ public class PartialSuccessHandler implements TransmissionHandler {
                 }
             }
         } else {
-            for (String s : new String(args.getTransmission().getContent()).split("\r\n")) {
+            for (String s : new String(args.getTransmission().getContent(), StandardCharsets.UTF_8).split("\r\n")) {
                 originalItems.add(s);
             }
         }
@@ -165,9 +197,21 @@ public class PartialSuccessHandler implements TransmissionHandler {
      * @return A pass/fail response
      */
     boolean sendNewTransmission(TransmissionHandlerArgs args, List<String> newTransmission) {
+        List<byte[]> items = new ArrayList<byte[]>(newTransmission.size());
+        for (String item : newTransmission) {
+            items.add(item.getBytes(StandardCharsets.UTF_8));
+        }
+        return sendRetryTransmission(args, items);
+    }
+
+    private boolean sendRetryTransmission(TransmissionHandlerArgs args, List<byte[]> newTransmission) {
         if (!newTransmission.isEmpty()) {
-            GzipTelemetrySerializer serializer = new GzipTelemetrySerializer();
-            Optional<Transmission> newT = serializer.serialize(newTransmission);
+            Optional<Transmission> newT = retrySerializer.serialize(newTransmission);
+            if (!newT.isPresent()) {
+                return false;
+            }
+            // The sender acknowledges the other items, these stay in the write-ahead log until the retry is done with them
+            args.setRetryTransmission(newT.get());
             args.getTransmissionDispatcher().dispatch(newT.get());
             return true;
         }
@@ -187,9 +231,7 @@ public class PartialSuccessHandler implements TransmissionHandler {
         BackendResponse backend = null;
         try {
             // Parse JSON to Java
-            GsonBuilder gsonBuilder = new GsonBuilder();
-            Gson gson = gsonBuilder.create();
-            backend = gson.fromJson(response, BackendResponse.class);
+            backend = GSON.fromJson(response, BackendResponse.class);
         } catch (Throwable t) {
             InternalLogger.INSTANCE.trace(
                     "Error deserializing backend response with Gson.%nStack Trace:%n%s",
@@ -26,6 +26,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.google.common.base.Preconditions;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
@@ -43,59 +47,139 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
  *
  * The class is responsible for handing the corner cases that might rise
  *
+ * Application threads never block on a monitor when adding: every buffer is a bounded array
+ * of slots that producers claim with a single atomic increment. The thread that claims the
+ * last slot, the scheduled 'pick-up' or a flush 'seals' the buffer, and only the one that seals
+ * it first owns its content and installs the next buffer.
+ *
+ * When the buffer knows the size of its Telemetries, see {@link SizeEstimator}, a buffer is also
+ * sent once its Telemetries reach the maximum batch size in bytes, whichever limit comes first.
+ *
  * Created by gupele on 12/17/2014.
  */
 public class TelemetryBuffer<T> {
+    /**
+     * Tells the size in bytes a Telemetry adds to the payload of its batch.
+     */
+    public interface SizeEstimator<T> {
+        int sizeInBytes(T telemetry);
+    }
+
     /**
      * An inner helper class that will let the Sender class to fetch the relevant Telemetries.
      *
-     * The class assumes it needs to work with Telemetries of 'expectedGeneration'. If that generation
-     * is no valid anymore, nothing will be sent.
-     * Else, a new buffer is created, the generation is incremented and the 'ready' buffer is sent
+     * The class assumes it needs to work with Telemetries of 'expectedBatch'. If that batch
+     * was already sent, nothing will be sent.
+     * Else, a new buffer is created and the 'ready' buffer is sent
      */
-    private final class TelemetryBufferTelemetriesFetcher implements TelemetriesTransmitter.TelemetriesFetcher {
+    private final class TelemetryBufferTelemetriesFetcher implements TelemetriesTransmitter.TelemetriesFetcher<T> {
 
-        private final long expectedGeneration;
+        private final Batch<T> expectedBatch;
 
-        private TelemetryBufferTelemetriesFetcher(long expectedGeneration) {
-            this.expectedGeneration = expectedGeneration;
+        private TelemetryBufferTelemetriesFetcher(Batch<T> expectedBatch) {
+            this.expectedBatch = expectedBatch;
         }
 
         @Override
         public Collection<T> fetch() {
-            synchronized (lock) {
-                if (expectedGeneration != generation) {
-                    return Collections.emptyList();
-                }
+            // A batch that was grown by 'setMaxTelemetriesInBatch' is continued by its successor
+            Batch<T> batch = expectedBatch;
+            while (batch.successor != null) {
+                batch = batch.successor;
+            }
+
+            List<T> readyToBeSent = sealAndDrain(batch);
+            if (readyToBeSent == null) {
+                return Collections.emptyList();
+            }
+
+            return readyToBeSent;
+        }
+    }
+
+    /**
+     * A bounded, multi-producer container of Telemetries.
+     *
+     * Producers claim a slot by incrementing 'claimed' and then publish the item by
+     * incrementing 'published'. A claim never moves 'claimed' past the capacity, and sealing
+     * adds {@link #SEALED} to it, so once the batch is full or sealed every producer retries on the next batch.
+     */
+    private static final class Batch<T> {
+        private final AtomicReferenceArray<T> slots;
+        private final AtomicInteger claimed;
+        private final AtomicInteger published;
+
+        /// The size of the published Telemetries, only kept when the buffer has a SizeEstimator
+        private final AtomicLong sizeInBytes;
 
-                ++generation;
-                List<T> readyToBeSent = telemetries;
-                telemetries = new ArrayList<T>();
+        /// Set when the batch was replaced by a bigger one that took over its Telemetries
+        private volatile Batch<T> successor;
 
-                return readyToBeSent;
+        private Batch(int capacity) {
+            this(capacity, Collections.<T>emptyList(), 0);
+        }
+
+        private Batch(int capacity, List<T> initialTelemetries, long initialSizeInBytes) {
+            slots = new AtomicReferenceArray<T>(capacity);
+            int i = 0;
+            for (T telemetry : initialTelemetries) {
+                slots.set(i++, telemetry);
+            }
+            claimed = new AtomicInteger(i);
+            published = new AtomicInteger(i);
+            sizeInBytes = new AtomicLong(initialSizeInBytes);
+        }
+
+        private int capacity() {
+            return slots.length();
+        }
+
+        /**
+         * @return The index of the claimed slot, -1 if the batch is full or sealed
+         */
+        private int claim() {
+            while (true) {
+                int index = claimed.get();
+                if (index >= capacity()) {
+                    return -1;
+                }
+                if (claimed.compareAndSet(index, index + 1)) {
+                    return index;
+                }
             }
         }
+
+        private int size() {
+            return Math.min(published.get(), capacity());
+        }
     }
 
+    private static final int SEALED = 1 << 30;
+
     /// The sender we use to send Telemetry containers
     private final TelemetriesTransmitter<T> sender;
 
     /// The maximum amount of Telemetries in a batch. If the buffer is
     /// full before the timeout expired, we will need to send it anyway and not wait for the timeout to expire
-    private int maxTelemetriesInBatch;
+    private volatile int maxTelemetriesInBatch;
     private LimitsEnforcer maxTelemetriesInBatchEnforcer;
 
-    private int transmitBufferTimeoutInSeconds;
+    private volatile int transmitBufferTimeoutInSeconds;
     private LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
 
+    /// The maximum size of the Telemetries in a batch, only used with a SizeEstimator
+    private volatile int maxBatchSizeInBytes;
+    private final LimitsEnforcer maxBatchSizeInBytesEnforcer;
+    private final SizeEstimator<T> sizeEstimator;
+
     /// The Telemetry instances are kept here
-    private List<T> telemetries;
+    private final AtomicReference<Batch<T>> currentBatch;
 
-    /// A way to help incoming threads make sure they are picking up the right Telemetry container
-    private long generation = 0;
+    /// The container whose 'pick-up' the transmitter refused, the next Telemetry added to it schedules it again
+    private final AtomicReference<Batch<T>> unscheduledBatch = new AtomicReference<Batch<T>>();
 
-    /// A synchronization object to avoid race conditions with the container and generation
-    private final Object lock = new Object();
+    /// Serializes the configuration setters, the 'add' path never takes it
+    private final Object configurationLock = new Object();
 
     /**
      * The constructor needs to get the 'sender' we work with
@@ -104,6 +188,19 @@ public class TelemetryBuffer<T> {
      * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
      */
     public TelemetryBuffer(TelemetriesTransmitter<T> sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        this(sender, maxTelemetriesInBatchEnforcer, transmitBufferTimeoutInSecondsEnforcer, null, null);
+    }
+
+    /**
+     * The constructor needs to get the 'sender' we work with
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     * @param maxBatchSizeInBytesEnforcer For getting the maximum size in bytes of a batch within limits, may be null if 'sizeEstimator' is null
+     * @param sizeEstimator Tells the size of the Telemetries, null if batches are only limited by the number of Telemetries
+     */
+    public TelemetryBuffer(TelemetriesTransmitter<T> sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer,
+                           LimitsEnforcer maxBatchSizeInBytesEnforcer, SizeEstimator<T> sizeEstimator) {
         Preconditions.checkNotNull(sender, "sender must be non-null value");
         Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
         Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
@@ -112,11 +209,19 @@ public class TelemetryBuffer<T> {
 
         this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
         this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
-        telemetries = new ArrayList<>(this.maxTelemetriesInBatch);
+        currentBatch = new AtomicReference<Batch<T>>(new Batch<T>(this.maxTelemetriesInBatch));
 
         this.sender = sender;
         this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
         this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.getCurrentValue();
+
+        if (sizeEstimator != null) {
+            Preconditions.checkNotNull(maxBatchSizeInBytesEnforcer, "maxBatchSizeInBytesEnforcer must be non-null value when a sizeEstimator is used");
+            Preconditions.checkArgument(maxBatchSizeInBytesEnforcer.getCurrentValue() > 0, "maxBatchSizeInBytes must be a positive number");
+            this.maxBatchSizeInBytes = maxBatchSizeInBytesEnforcer.getCurrentValue();
+        }
+        this.maxBatchSizeInBytesEnforcer = maxBatchSizeInBytesEnforcer;
+        this.sizeEstimator = sizeEstimator;
     }
 
     /**
@@ -124,11 +229,15 @@ public class TelemetryBuffer<T> {
      * @param value The max amount of Telemetries that are allowed in a batch.
      */
     public void setMaxTelemetriesInBatch(int value) {
-        synchronized (lock) {
+        synchronized (configurationLock) {
             maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
-            if (telemetries != null && maxTelemetriesInBatch < telemetries.size()) {
+            Batch<T> batch = currentBatch.get();
+            if (maxTelemetriesInBatch < batch.size()) {
                 // Request for smaller buffers, we flush if our buffer contains more elements
                 flush();
+            } else if (maxTelemetriesInBatch > batch.capacity()) {
+                // Request for bigger buffers, the current Telemetries move to a bigger container
+                grow(batch);
             }
         }
     }
@@ -146,7 +255,7 @@ public class TelemetryBuffer<T> {
      * @param value The amount of time to wait before sending the buffer.
      */
     public void setTransmitBufferTimeoutInSeconds(int value) {
-        synchronized (lock) {
+        synchronized (configurationLock) {
             int oldValue = transmitBufferTimeoutInSeconds;
             transmitBufferTimeoutInSeconds = this.transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
             // Request for quicker flushes, we flush if the previous timeout is bigger
@@ -164,39 +273,79 @@ public class TelemetryBuffer<T> {
         return this.transmitBufferTimeoutInSeconds;
     }
 
+    /**
+     * Sets the maximum size in bytes of a batch, ignored when the buffer has no {@link SizeEstimator}
+     * @param value The size that makes the buffer send its Telemetries
+     */
+    public void setMaxBatchSizeInBytes(int value) {
+        if (sizeEstimator == null) {
+            return;
+        }
+
+        synchronized (configurationLock) {
+            maxBatchSizeInBytes = maxBatchSizeInBytesEnforcer.normalizeValue(value);
+            // Request for smaller batches, we flush if our buffer is already bigger
+            if (currentBatch.get().sizeInBytes.get() >= maxBatchSizeInBytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum size in bytes of a batch
+     * @return The maximum size in bytes of a batch, 0 when the buffer has no {@link SizeEstimator}
+     */
+    public int getMaxBatchSizeInBytes() {
+        return this.maxBatchSizeInBytes;
+    }
+
     /**
      * The method will add the incoming {@link Telemetry} to its internal container of Telemetries
      *
      * If that is the first instance in the container, we schedule a 'pick-up' in a configurable amount of time
-     * If by adding that item we exceeded the maximum number of instances, we trigger a send request now.
+     * If by adding that item we exceeded the maximum number of instances, or the maximum size in bytes,
+     * we trigger a send request now.
      *
-     * Note that a lock is used to make sure we avoid race conditions and to make sure that we cleanly
-     * move from a ready to send buffer to a new one
+     * Note that no lock is taken: the slot is claimed atomically, and only a thread that finds the
+     * container full waits, briefly, for the thread that filled it to install a new one
      * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer.
      */
     public void add(T telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
 
-        synchronized (lock) {
-            telemetries.add(telemetry);
+        while (true) {
+            Batch<T> batch = currentBatch.get();
+            int index = batch.claim();
+            if (index == -1) {
+                // The container is full or sealed, its owner is about to replace it
+                Thread.yield();
+                continue;
+            }
 
-            int currentSize = telemetries.size();
+            batch.slots.set(index, telemetry);
+            boolean reachedMaxBatchSize = false;
+            if (sizeEstimator != null) {
+                reachedMaxBatchSize = batch.sizeInBytes.addAndGet(sizeEstimator.sizeInBytes(telemetry)) >= maxBatchSizeInBytes;
+            }
+            batch.published.incrementAndGet();
 
-            if (currentSize >= maxTelemetriesInBatch) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    // 'prepareTelemetriesForSend' already created a new container
+            int currentSize = index + 1;
+            if (currentSize >= maxTelemetriesInBatch || currentSize == batch.capacity() || reachedMaxBatchSize) {
+                List<T> readyToBeSent = sealAndDrain(batch);
+                if (readyToBeSent != null && !sender.sendNow(readyToBeSent)) {
+                    // 'sealAndDrain' already created a new container
                     // so basically we have nothing to do, the old container is lost
                     InternalLogger.INSTANCE.error("Failed to send buffer data to network");
                 }
-            } else if (currentSize == 1) {
-                if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
-                    // We cannot schedule send so we give up the Telemetry
-                    // The reason for this is that in case the maximum buffer size is greater than 2
-                    // than in case a new Telemetry arrives it won't trigger the schedule and might be lost too
-                    InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
-                    telemetries.clear();
+            } else if (currentSize == 1 || (unscheduledBatch.get() == batch && unscheduledBatch.compareAndSet(batch, null))) {
+                if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(batch), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
+                    // The transmitter has too many sends pending, the container stays open and is sent once it
+                    // gets full or is flushed, the next Telemetry tries to schedule the 'pick-up' again
+                    InternalLogger.INSTANCE.trace("Failed to schedule send of the buffer to network");
+                    unscheduledBatch.set(batch);
                 }
             }
+            return;
         }
     }
 
@@ -204,28 +353,66 @@ public class TelemetryBuffer<T> {
      * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
      */
     public void flush() {
-        synchronized (lock) {
-            if (telemetries.size() != 0) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
-                }
+        Batch<T> batch = currentBatch.get();
+        if (batch.claimed.get() == 0) {
+            return;
+        }
+
+        List<T> readyToBeSent = sealAndDrain(batch);
+        if (readyToBeSent != null && !readyToBeSent.isEmpty()) {
+            if (!sender.sendNow(readyToBeSent)) {
+                InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
             }
         }
     }
 
     /**
-     * The method assumes that the lock is held before calling it.
+     * Seals the batch and, if the caller is the one that sealed it, installs a new container
+     * and collects the Telemetries once all of the producers that claimed a slot published it.
      *
-     * Please make sure this behavior is kept to avoid unknown scenarios
-     *
-     * @return The list of {@link Telemetry} instances that are ready to be sent
+     * @return The list of {@link Telemetry} instances that are ready to be sent, or null if the
+     * batch was already sealed by another thread
+     */
+    private List<T> sealAndDrain(Batch<T> batch) {
+        int claimedBeforeSeal = batch.claimed.getAndAdd(SEALED);
+        if (claimedBeforeSeal >= SEALED) {
+            return null;
+        }
+
+        currentBatch.compareAndSet(batch, new Batch<T>(maxTelemetriesInBatch));
+        unscheduledBatch.compareAndSet(batch, null);
+
+        return drain(batch, claimedBeforeSeal);
+    }
+
+    /**
+     * Moves the Telemetries of a sealed batch to a new, bigger, container. The scheduled
+     * 'pick-up' of the original batch will follow its successor, so no new schedule is needed.
      */
-    private List<T> prepareTelemetriesForSend() {
-        ++generation;
+    private void grow(Batch<T> batch) {
+        int claimedBeforeSeal = batch.claimed.getAndAdd(SEALED);
+        if (claimedBeforeSeal >= SEALED) {
+            // Somebody else is sending it, the next container is created with the new size
+            return;
+        }
 
-        final List<T> readyToBeSent = telemetries;
+        Batch<T> biggerBatch = new Batch<T>(maxTelemetriesInBatch, drain(batch, claimedBeforeSeal), batch.sizeInBytes.get());
+        batch.successor = biggerBatch;
+        currentBatch.compareAndSet(batch, biggerBatch);
+        unscheduledBatch.compareAndSet(batch, biggerBatch);
+    }
+
+    private List<T> drain(Batch<T> batch, int claimedBeforeSeal) {
+        int count = Math.min(claimedBeforeSeal, batch.capacity());
+        while (batch.published.get() < count) {
+            // A producer claimed a slot but did not write to it yet
+            Thread.yield();
+        }
 
-        telemetries = new ArrayList<T>(maxTelemetriesInBatch);
+        List<T> readyToBeSent = new ArrayList<T>(count);
+        for (int i = 0; i < count; ++i) {
+            readyToBeSent.add(batch.slots.get(i));
+        }
 
         return readyToBeSent;
     }
@@ -0,0 +1,578 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A write-ahead log of the serialized Telemetries that were not transmitted yet, so the Telemetries
+ * that are still buffered or queued in memory are not lost when the process is killed.
+ *
+ * The Telemetries are appended to memory-mapped segment files, an append is a copy into the mapping
+ * and is kept by the operating system even if the process dies right after it. The mappings are
+ * forced to the disk by a single thread at a fixed interval, so the appends that happened during
+ * the interval are committed together.
+ *
+ * A Telemetry is acknowledged once it was accepted by the endpoint or saved to the transmissions folder,
+ * Telemetries are matched by the identity of their byte arrays. The length of an acknowledged record is
+ * negated in place, so it is skipped by the recovery, and a segment is deleted once all of its Telemetries
+ * were acknowledged. When the log is full the oldest segment is given up.
+ *
+ * The Telemetries left by a previous run are read by {@link #recover()}, and are appended again before
+ * their segments are deleted. A lock file keeps two logs from using the same folder, {@link #open(File)}
+ * falls back to the first free one of a few numbered subfolders, which is found again by a later run.
+ *
+ * A new segment is created and mapped, and the segments that are no longer needed are deleted, without
+ * holding the lock the appends take, so the appends to the current segment do not wait for the file system.
+ */
+public final class TelemetryWriteAheadLog implements Closeable {
+    public final static String DEFAULT_FOLDER_NAME = "telemetries";
+    public final static int DEFAULT_SEGMENT_SIZE_IN_BYTES = 4 * 1024 * 1024;
+    public final static long DEFAULT_CAPACITY_IN_BYTES = 64L * 1024 * 1024;
+    public final static long DEFAULT_COMMIT_INTERVAL_IN_MILLIS = 100;
+
+    private final static String SEGMENT_FILE_PREFIX = "Telemetries-";
+    private final static String SEGMENT_FILE_EXTENSION = ".wal";
+    private final static String LOCK_FILE_NAME = "Telemetries.lock";
+
+    private final static String INSTANCE_FOLDER_PREFIX = "instance-";
+    private final static int MAX_INSTANCE_FOLDERS = 16;
+
+    /// The length of the record content and its CRC32, a zero length ends the segment and a negative one marks an acknowledged record
+    private final static int RECORD_HEADER_SIZE = 8;
+
+    /// Where a Telemetry that was not acknowledged yet is in the log
+    private static final class Record {
+        private final Segment segment;
+        private final int position;
+
+        private Record(Segment segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final RandomAccessFile mappedFile;
+        private final MappedByteBuffer buffer;
+
+        /// The end of the records, guarded by the log
+        private int position;
+
+        /// The Telemetries in the segment that were not acknowledged yet
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /// Set by every append, cleared when the segment is forced to the disk
+        private volatile boolean dirty;
+
+        private Segment(File file, RandomAccessFile mappedFile, MappedByteBuffer buffer) {
+            this.file = file;
+            this.mappedFile = mappedFile;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File folder;
+
+    private final int segmentSizeInBytes;
+
+    private final long capacityInBytes;
+
+    /// Arrays do not override 'equals', so the Telemetries are matched by identity
+    private final ConcurrentHashMap<byte[], Record> records = new ConcurrentHashMap<byte[], Record>();
+
+    /// Oldest first, the last one is the one we append to, guarded by 'this'
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+
+    /// Taken by the one thread that replaces a full segment, before 'this' when both are held
+    private final Object rollLock = new Object();
+
+    /// The segments left by a previous run, until they are recovered, guarded by 'this'
+    private List<File> previousSegmentFiles;
+
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    private final ScheduledExecutorService committer;
+
+    /// Guarded by 'this'
+    private long nextSegmentId;
+
+    /// Guarded by 'this'
+    private boolean closed;
+
+    public TelemetryWriteAheadLog(File folder) throws IOException {
+        this(folder, DEFAULT_SEGMENT_SIZE_IN_BYTES, DEFAULT_CAPACITY_IN_BYTES, DEFAULT_COMMIT_INTERVAL_IN_MILLIS);
+    }
+
+    /**
+     * Opens the log in the folder, or in the first of the instance subfolders that is not used by another log.
+     * @param folder The folder of the segments
+     * @return The log, null if every folder is used
+     */
+    public static TelemetryWriteAheadLog open(File folder) {
+        for (int i = 0; i <= MAX_INSTANCE_FOLDERS; ++i) {
+            File logFolder = i == 0 ? folder : new File(folder, INSTANCE_FOLDER_PREFIX + i);
+            try {
+                TelemetryWriteAheadLog opened = new TelemetryWriteAheadLog(logFolder);
+                if (i > 0) {
+                    InternalLogger.INSTANCE.info("Write-ahead log folder %s is used by another log, using %s", folder.getPath(), logFolder.getPath());
+                }
+                return opened;
+            } catch (IOException e) {
+                InternalLogger.INSTANCE.trace("Failed to open write-ahead log in %s, exception: %s", logFolder.getPath(), e.toString());
+            }
+        }
+
+        InternalLogger.INSTANCE.error("Write-ahead log folder %s and its %d instance folders are used by other logs, "
+                + "telemetries are not logged", folder.getPath(), MAX_INSTANCE_FOLDERS);
+        return null;
+    }
+
+    /**
+     * @param folder The folder of the segments
+     * @param segmentSizeInBytes The size of each memory-mapped segment
+     * @param capacityInBytes The most the segments may take, at least one segment is kept
+     * @param commitIntervalInMillis The interval between forcing the segments to the disk
+     * @throws IOException If the folder cannot be used or is used by another process
+     */
+    public TelemetryWriteAheadLog(File folder, int segmentSizeInBytes, long capacityInBytes, long commitIntervalInMillis) throws IOException {
+        Preconditions.checkNotNull(folder, "folder must be a non-null value");
+        Preconditions.checkArgument(segmentSizeInBytes > RECORD_HEADER_SIZE, "segmentSizeInBytes must be larger than %s", RECORD_HEADER_SIZE);
+        Preconditions.checkArgument(capacityInBytes >= segmentSizeInBytes, "capacityInBytes must be at least segmentSizeInBytes");
+        Preconditions.checkArgument(commitIntervalInMillis > 0, "commitIntervalInMillis must be a positive number");
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Failed to create write-ahead log folder " + folder.getPath());
+        }
+
+        this.folder = folder;
+        this.segmentSizeInBytes = segmentSizeInBytes;
+        this.capacityInBytes = capacityInBytes;
+
+        lockFile = new RandomAccessFile(new File(folder, LOCK_FILE_NAME), "rw");
+        FileLock acquired;
+        try {
+            acquired = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            closeQuietly(lockFile);
+            throw new IOException("Write-ahead log folder " + folder.getPath() + " is used by another log");
+        }
+        lock = acquired;
+
+        try {
+            previousSegmentFiles = findSegmentFiles();
+            nextSegmentId = previousSegmentFiles.isEmpty() ? 1 : parseSegmentId(previousSegmentFiles.get(previousSegmentFiles.size() - 1)) + 1;
+            segments.addLast(createSegment(nextSegmentId++));
+        } catch (IOException e) {
+            closeQuietly(lockFile);
+            throw e;
+        }
+
+        committer = Executors.newSingleThreadScheduledExecutor(ThreadPoolUtils.createDaemonThreadFactory(TelemetryWriteAheadLog.class));
+        committer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    commit();
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    // chomp
+                }
+            }
+        }, commitIntervalInMillis, commitIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends the Telemetry to the log, it has to be acknowledged with the same array.
+     * @param telemetry The serialized Telemetry
+     * @return True if the Telemetry was appended, false if it is not protected by the log
+     */
+    public boolean append(byte[] telemetry) {
+        Preconditions.checkNotNull(telemetry, "telemetry must be a non-null value");
+
+        int recordSize = RECORD_HEADER_SIZE + telemetry.length;
+        if (telemetry.length == 0 || recordSize > segmentSizeInBytes) {
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(telemetry);
+
+        while (true) {
+            Segment full;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+
+                Segment segment = segments.peekLast();
+                if (segment.position + recordSize <= segmentSizeInBytes) {
+                    MappedByteBuffer buffer = segment.buffer;
+                    int position = segment.position;
+                    buffer.putInt(position + 4, (int) crc.getValue());
+                    buffer.position(position + RECORD_HEADER_SIZE);
+                    buffer.put(telemetry);
+
+                    // The length goes last, a record without it is not there for the recovery
+                    buffer.putInt(position, telemetry.length);
+
+                    segment.position += recordSize;
+                    segment.pending.incrementAndGet();
+                    segment.dirty = true;
+                    records.put(telemetry, new Record(segment, position));
+                    return true;
+                }
+                full = segment;
+            }
+
+            try {
+                roll(full);
+            } catch (IOException e) {
+                InternalLogger.INSTANCE.error("Failed to append telemetry to the write-ahead log, exception: %s", e.toString());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Called once the Telemetries were accepted by the endpoint or saved elsewhere, they are no longer
+     * recovered and their segments are deleted once all of their Telemetries were acknowledged.
+     * @param telemetries The arrays that were appended, unknown ones are ignored
+     */
+    public void acknowledge(Collection<byte[]> telemetries) {
+        for (byte[] telemetry : telemetries) {
+            Record record = records.remove(telemetry);
+            if (record == null) {
+                continue;
+            }
+
+            Segment segment = record.segment;
+            segment.buffer.putInt(record.position, -telemetry.length);
+            segment.dirty = true;
+            if (segment.pending.decrementAndGet() == 0) {
+                boolean removed;
+                synchronized (this) {
+                    removed = segment != segments.peekLast() && segment.pending.get() == 0 && segments.remove(segment);
+                }
+                if (removed) {
+                    deleteSegment(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the Telemetries left by a previous run, appends them to this log and deletes the previous segments.
+     * Expected to be called once, before the returned Telemetries are buffered again.
+     * @return The Telemetries that were not acknowledged by the previous run, oldest first
+     */
+    public List<byte[]> recover() {
+        List<byte[]> recovered = new ArrayList<byte[]>();
+        List<File> previousSegmentFiles;
+        synchronized (this) {
+            previousSegmentFiles = this.previousSegmentFiles;
+            this.previousSegmentFiles = null;
+        }
+        if (previousSegmentFiles == null) {
+            return recovered;
+        }
+
+        for (File file : previousSegmentFiles) {
+            try {
+                readSegmentFile(file, recovered);
+            } catch (IOException e) {
+                InternalLogger.INSTANCE.error("Failed to read write-ahead log segment %s, exception: %s", file.getName(), e.toString());
+            }
+        }
+
+        for (byte[] telemetry : recovered) {
+            append(telemetry);
+        }
+
+        for (File file : previousSegmentFiles) {
+            deleteSegmentFile(file);
+        }
+
+        if (!recovered.isEmpty()) {
+            InternalLogger.INSTANCE.info("Recovered %d telemetries from the write-ahead log", recovered.size());
+        }
+        return recovered;
+    }
+
+    /**
+     * @return The number of Telemetries that were appended and not acknowledged yet
+     */
+    public int getNumberOfPendingTelemetries() {
+        return records.size();
+    }
+
+    /**
+     * @return The number of segment files the log uses
+     */
+    public synchronized int getNumberOfSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Forces the segments to the disk and releases the folder, nothing is deleted so the
+     * Telemetries that were not acknowledged are recovered by the next run.
+     */
+    @Override
+    public void close() {
+        List<Segment> toClose;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            toClose = new ArrayList<Segment>(segments);
+            segments.clear();
+        }
+
+        ThreadPoolUtils.stop(committer, 1L, TimeUnit.SECONDS);
+        for (Segment segment : toClose) {
+            segment.buffer.force();
+            closeQuietly(segment.mappedFile);
+        }
+
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // chomp
+        }
+        closeQuietly(lockFile);
+    }
+
+    /**
+     * The group commit, forces the segments that were appended to since the previous commit.
+     */
+    void commit() {
+        List<Segment> toCommit;
+        synchronized (this) {
+            toCommit = new ArrayList<Segment>(segments);
+        }
+
+        for (Segment segment : toCommit) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Replaces the full segment with a new one, unless another thread already did. Only the swap is done
+     * under 'this', the new segment is created and the old ones are deleted by the calling thread alone.
+     */
+    private void roll(Segment full) throws IOException {
+        synchronized (rollLock) {
+            long segmentId;
+            synchronized (this) {
+                if (closed || segments.peekLast() != full) {
+                    return;
+                }
+                segmentId = nextSegmentId++;
+            }
+
+            Segment next = createSegment(segmentId);
+
+            List<Segment> toDelete = new ArrayList<Segment>();
+            synchronized (this) {
+                if (closed) {
+                    toDelete.add(next);
+                } else {
+                    if (full.pending.get() == 0) {
+                        segments.removeLast();
+                        toDelete.add(full);
+                    }
+
+                    while (!segments.isEmpty() && (long) (segments.size() + 1) * segmentSizeInBytes > capacityInBytes) {
+                        Segment oldest = segments.removeFirst();
+                        giveUpSegment(oldest);
+                        toDelete.add(oldest);
+                    }
+                    segments.addLast(next);
+                }
+            }
+
+            for (Segment segment : toDelete) {
+                deleteSegment(segment);
+            }
+        }
+    }
+
+    private Segment createSegment(long segmentId) throws IOException {
+        File file = new File(folder, String.format("%s%016x%s", SEGMENT_FILE_PREFIX, segmentId, SEGMENT_FILE_EXTENSION));
+        RandomAccessFile mappedFile = new RandomAccessFile(file, "rw");
+        try {
+            mappedFile.setLength(segmentSizeInBytes);
+            MappedByteBuffer buffer = mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSizeInBytes);
+            return new Segment(file, mappedFile, buffer);
+        } catch (IOException e) {
+            closeQuietly(mappedFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets the Telemetries of the segment, which is about to be deleted
+     */
+    private void giveUpSegment(Segment segment) {
+        int givenUp = 0;
+        Iterator<Map.Entry<byte[], Record>> iterator = records.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().segment == segment) {
+                iterator.remove();
+                ++givenUp;
+            }
+        }
+
+        InternalLogger.INSTANCE.warn("Write-ahead log is full, %d telemetries are no longer protected", givenUp);
+    }
+
+    private void deleteSegment(Segment segment) {
+        // The mapping outlives the file on some platforms, an empty segment is ignored by the recovery
+        segment.buffer.putInt(0, 0);
+        closeQuietly(segment.mappedFile);
+        deleteSegmentFile(segment.file);
+    }
+
+    private static void readSegmentFile(File file, List<byte[]> recovered) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length < 0 && -length <= buffer.remaining()) {
+                // Acknowledged
+                buffer.position(buffer.position() - length);
+                continue;
+            }
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+
+            byte[] telemetry = new byte[length];
+            buffer.get(telemetry);
+            crc.reset();
+            crc.update(telemetry);
+            if ((int) crc.getValue() != expectedCrc) {
+                // Torn by a crash, nothing was appended after it
+                InternalLogger.INSTANCE.warn("Ignoring corrupted record in write-ahead log segment %s", file.getName());
+                return;
+            }
+
+            recovered.add(telemetry);
+        }
+    }
+
+    private List<File> findSegmentFiles() {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_EXTENSION);
+            }
+        });
+
+        List<File> found = new ArrayList<File>();
+        if (files == null) {
+            return found;
+        }
+
+        for (File file : files) {
+            try {
+                parseSegmentId(file);
+                found.add(file);
+            } catch (NumberFormatException e) {
+                InternalLogger.INSTANCE.warn("Ignoring unexpected file %s in the write-ahead log folder", file.getName());
+            }
+        }
+
+        Collections.sort(found, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(parseSegmentId(file1), parseSegmentId(file2));
+            }
+        });
+
+        return found;
+    }
+
+    private static long parseSegmentId(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_EXTENSION.length()), 16);
+    }
+
+    private static void deleteSegmentFile(File file) {
+        if (!file.delete() && file.exists()) {
+            InternalLogger.INSTANCE.warn("Failed to delete write-ahead log segment %s", file.getName());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // chomp
+        }
+    }
+}
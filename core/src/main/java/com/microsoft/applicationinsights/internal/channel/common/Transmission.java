@@ -22,6 +22,9 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -33,6 +36,9 @@ import com.google.common.base.Strings;
  * Created by gupele on 12/17/2014.
  */
 public final class Transmission implements Serializable {
+    /// The value computed for the class before the Telemetries were kept, so the files it persisted can still be loaded
+    private static final long serialVersionUID = -7135156212077487555L;
+
     private int version;
 
     private int numberOfSends;
@@ -45,6 +51,9 @@ public final class Transmission implements Serializable {
 
     private final String webContentEncodingType;
 
+    /// The Telemetries before compression, kept in memory while the transmission is in flight only
+    private transient List<byte[]> telemetries;
+
     public Transmission(byte[] content, String webContentType, String webContentEncodingType, int version) {
         Preconditions.checkNotNull(content, "Content must be non-null value");
         Preconditions.checkArgument(!Strings.isNullOrEmpty(webContentType), "webContentType must be a non empty string");
@@ -97,6 +106,26 @@ public final class Transmission implements Serializable {
         this.numberOfPersistence = numberOfPersistence;
     }
 
+    /**
+     * Keeps the Telemetries the content was made of, so a partial success can resend some of them
+     * without decompressing the content. They are not persisted with the transmission.
+     * @param telemetries The serialized Telemetries, in the order they were written to the content
+     */
+    void setTelemetries(Collection<byte[]> telemetries) {
+        if (telemetries == null || telemetries instanceof List) {
+            this.telemetries = (List<byte[]>) telemetries;
+        } else {
+            this.telemetries = new ArrayList<byte[]>(telemetries);
+        }
+    }
+
+    /**
+     * @return The Telemetries the content was made of, null if they were not kept
+     */
+    List<byte[]> getTelemetries() {
+        return telemetries;
+    }
+
     public int getVersion() {
         return version;
     }
@@ -0,0 +1,85 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * The class reports how fast the Transmissions saved to the disk are drained, how many of them
+ * are waiting and how old the oldest of them is.
+ *
+ * Nothing is reported while there is no backlog and nothing was drained since the last report.
+ */
+final class TransmissionBacklogPerformanceCounter implements PerformanceCounter {
+    final static String DRAIN_RATE_NAME = "Transmission Backlog Drain Rate (per second)";
+    final static String BACKLOG_SIZE_NAME = "Transmission Backlog Size";
+    final static String BACKLOG_AGE_NAME = "Transmission Backlog Age (seconds)";
+
+    private final ActiveTransmissionLoader loader;
+    private final String id;
+
+    private long lastNumberOfDrainedTransmissions;
+    private long lastReportTimeInMillis;
+
+    TransmissionBacklogPerformanceCounter(ActiveTransmissionLoader loader) {
+        this.loader = loader;
+        this.id = "TransmissionBacklogPerformanceCounter-" + System.identityHashCode(loader);
+        this.lastReportTimeInMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long numberOfDrainedTransmissions = loader.getNumberOfDrainedTransmissions();
+            long drained = numberOfDrainedTransmissions - lastNumberOfDrainedTransmissions;
+            long elapsedInMillis = now - lastReportTimeInMillis;
+
+            lastNumberOfDrainedTransmissions = numberOfDrainedTransmissions;
+            lastReportTimeInMillis = now;
+
+            int backlogSize = loader.getBacklogSize();
+            if (backlogSize == 0 && drained == 0) {
+                return;
+            }
+
+            double drainRate = elapsedInMillis > 0 ? drained * 1000.0 / elapsedInMillis : 0;
+
+            track(telemetryClient, DRAIN_RATE_NAME, drainRate);
+            track(telemetryClient, BACKLOG_SIZE_NAME, backlogSize);
+            track(telemetryClient, BACKLOG_AGE_NAME, loader.getBacklogAgeInMillis() / 1000.0);
+        }
+    }
+
+    private static void track(TelemetryClient telemetryClient, String name, double value) {
+        MetricTelemetry metric = new MetricTelemetry(name, value);
+        metric.markAsCustomPerfCounter();
+        telemetryClient.track(metric);
+    }
+}
@@ -22,27 +22,16 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.io.File;
-import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.FileInputStream;
 import java.io.BufferedInputStream;
 import java.io.ObjectInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
-import java.io.BufferedOutputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Collection;
-import java.util.Collections;
+
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
@@ -50,10 +39,8 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.Lists;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 /**
@@ -62,42 +49,43 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  *
  * The class works on a pre-defined folder and should know the size of disk it can use.
  *
- * With that data it knows how to store incoming Transmissions and store them into files that can be later
- * be read back into Transmissions.
+ * With that data it knows how to store incoming Transmissions into a {@link TransmissionJournal}
+ * from which they can be later read back, oldest first.
+ *
+ * A journal locks its folder. When the folder is used by another channel or process, the Transmissions
+ * are kept in the first free one of a few numbered subfolders, which is found again by a later run, and
+ * when none is free they are not saved at all.
  *
  * Created by gupele on 12/18/2014.
  */
 public final class TransmissionFileSystemOutput implements TransmissionOutput {
-    private final static String TRANSMISSION_FILE_PREFIX = "Transmission";
     private final static String TRANSMISSION_DEFAULT_FOLDER = "transmissions";
-    private final static String TEMP_FILE_EXTENSION = ".tmp";
-    private final static String TRANSMISSION_FILE_EXTENSION = ".trn";
-    private final static String TRANSMISSION_FILE_EXTENSION_FOR_SEARCH = "trn";
-    private final static int NUMBER_OF_FILES_TO_CACHE = 128;
 
-    private final static int MAX_RETRY_FOR_DELETE = 2;
-    private final static int DELETE_TIMEOUT_ON_FAILURE_IN_MILLS = 100;
+    /// Transmissions were saved one per file by previous versions, these are moved to the journal on start
+    private final static String TRANSMISSION_FILE_EXTENSION_FOR_SEARCH = "trn";
 
     public final static int DEFAULT_CAPACITY_MEGABYTES = 10;
     private final static int MAX_CAPACITY_MEGABYTES = 1000;
     private final static int MIN_CAPACITY_MEGABYTES = 1;
     private static final String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "Channel.MaxTransmissionStorageCapacityInMB";
 
+    private final static String INSTANCE_FOLDER_PREFIX = "instance-";
+    private final static int MAX_INSTANCE_FOLDERS = 16;
+
 
     /// The folder in which we save transmission files
     private File folder;
 
     /// Capacity is the size of disk that we are can use
-    private long capacityInBytes = DEFAULT_CAPACITY_MEGABYTES * 1024 * 1024;
+    private volatile long capacityInBytes = DEFAULT_CAPACITY_MEGABYTES * 1024 * 1024;
 
     LimitsEnforcer capacityEnforcer;
 
-    /// The size of the current files we have on the disk
-    private final AtomicLong size;
+    /// The Transmissions waiting to be sent, it also knows their total size, null if no folder could be locked
+    private final TransmissionJournal journal;
 
-    /// Cache old files here to re-send to have better performance
-    private final ArrayList<File> cacheOfOldestFiles = new ArrayList<File>();
-    private final HashSet<String> filesThatAreBeingLoaded = new HashSet<String>();
+    /// Saved Telemetries are acknowledged to it, since the journal keeps them from now on
+    private volatile TelemetryWriteAheadLog writeAheadLog;
 
     public TransmissionFileSystemOutput(String folderPath, String maxTransmissionStorageCapacity) {
         if (folderPath == null) {
@@ -121,8 +109,12 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
             throw new IllegalArgumentException("Folder must exist with read and write permissions");
         }
 
-        long currentSize = getTotalSizeOfTransmissionFiles();
-        size = new AtomicLong(currentSize);
+        journal = openJournal();
+
+        // The files of previous versions are left to the channel that owns the folder
+        if (journal != null && journal.getFolder().equals(folder)) {
+            moveTransmissionFilesToJournal();
+        }
     }
 
     public TransmissionFileSystemOutput() {
@@ -135,8 +127,11 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
 
     @Override
     public boolean send(Transmission transmission) {
+        if (journal == null) {
+            return false;
+        }
 
-        long currentSizeInBytes = size.get();
+        long currentSizeInBytes = journal.getSizeInBytes();
         if (currentSizeInBytes >= capacityInBytes) {
             InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.WARN, "Persistent storage max capacity has been reached; "
                 + "currently at %.3f KB. Telemetry will be lost, "
@@ -145,65 +140,40 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
             return false;
         }
 
-        Optional<File> tempTransmissionFile = createTemporaryFile();
-        if (!tempTransmissionFile.isPresent()) {
+        if (!journal.append(transmission)) {
             return false;
         }
 
-        if (!saveTransmission(tempTransmissionFile.get(), transmission)) {
-            return false;
-        }
-
-        if (!renameToPermanentName(tempTransmissionFile.get())) {
-            return false;
+        TelemetryWriteAheadLog log = writeAheadLog;
+        if (log != null && transmission.getTelemetries() != null) {
+            log.acknowledge(transmission.getTelemetries());
         }
 
         InternalLogger.INSTANCE.info("Data persisted to file. To be sent when the network is available.");
         return true;
     }
 
+    /**
+     * @param writeAheadLog The log the saved Telemetries are acknowledged to, null if the Telemetries are not logged
+     */
+    public void setWriteAheadLog(TelemetryWriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     public Transmission fetchOldestFile() {
-        try {
-            Optional<File> oldestFile = fetchOldestFromCache();
-            if (!oldestFile.isPresent()) {
-                return null;
-            }
-
-            String fileName = oldestFile.get().getName();
-            try {
-                Optional<File> oldestFileAsTemp = renameToTemporaryName(oldestFile.get());
-                if (!oldestFileAsTemp.isPresent()) {
-                    return null;
-                }
-
-                File tempFile = oldestFileAsTemp.get();
-                Optional<Transmission> transmission = loadTransmission(tempFile);
-
-                // On the vast majority of times this should work
-                // but there might be some timing issues, that's why we try twice
-                for (int deleteCounter = 0; deleteCounter < MAX_RETRY_FOR_DELETE; ++deleteCounter) {
-                    if (tempFile.delete()) {
-                        break;
-                    }
-
-                    try {
-                        Thread.sleep(DELETE_TIMEOUT_ON_FAILURE_IN_MILLS);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+        if (journal == null) {
+            return null;
+        }
 
-                return transmission.get();
-            } finally {
-                synchronized (this) {
-                    filesThatAreBeingLoaded.remove(fileName);
-                }
-            }
+        try {
+            return journal.poll();
         } catch (Exception e) {
             InternalLogger.INSTANCE.error("Error fetching oldest file: %s", ExceptionUtils.getStackTrace(e));
         }
@@ -211,38 +181,86 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
         return null;
     }
 
+    /**
+     * @return The number of Transmissions waiting to be fetched
+     */
+    public int getNumberOfTransmissions() {
+        return journal == null ? 0 : journal.getNumberOfTransmissions();
+    }
+
+    /**
+     * @return The size of the Transmissions waiting to be fetched
+     */
+    public long getSizeInBytes() {
+        return journal == null ? 0 : journal.getSizeInBytes();
+    }
+
+    /**
+     * @return The time the oldest Transmission waiting to be fetched was saved, 0 if there is none
+     */
+    public long getOldestTransmissionTimeInMillis() {
+        return journal == null ? 0 : journal.getOldestAppendTimeInMillis();
+    }
+
     public void setCapacity(int suggestedCapacity) {
         this.capacityInBytes = capacityEnforcer.normalizeValue(suggestedCapacity) * 1024 * 1024;
     }
 
-    private List<File> sortOldestLastAndTrim(Collection<File> transmissions, int limit) {
-        List<File> asList;
-        if (!(transmissions instanceof List)) {
-            asList = Lists.newArrayList(transmissions);
-        } else {
-            asList = (List<File>)transmissions;
+    /**
+     * Opens the journal in the folder, or in the first of the instance subfolders that is not used.
+     * @return The journal, null if every folder is used
+     */
+    private TransmissionJournal openJournal() {
+        for (int i = 0; i <= MAX_INSTANCE_FOLDERS; ++i) {
+            File journalFolder = i == 0 ? folder : new File(folder, INSTANCE_FOLDER_PREFIX + i);
+            if (!journalFolder.isDirectory() && !journalFolder.mkdir()) {
+                continue;
+            }
+
+            try {
+                TransmissionJournal opened = new TransmissionJournal(journalFolder);
+                if (i > 0) {
+                    InternalLogger.INSTANCE.info("Transmissions folder %s is used by another channel, using %s", folder.getPath(), journalFolder.getPath());
+                }
+                return opened;
+            } catch (IOException e) {
+                InternalLogger.INSTANCE.trace("Failed to open transmission journal in %s, exception: %s", journalFolder.getPath(), e.toString());
+            }
         }
 
-        Collections.sort(asList, new Comparator<File>() {
+        InternalLogger.INSTANCE.error("Transmissions folder %s and its %d instance folders are used by other channels, "
+                + "Transmissions that cannot be sent will not be saved to the disk", folder.getPath(), MAX_INSTANCE_FOLDERS);
+        return null;
+    }
+
+    /**
+     * Moves the Transmission files left by previous versions into the journal, oldest first,
+     * so they are still sent. This is the only time the folder is listed.
+     */
+    private void moveTransmissionFilesToJournal() {
+        File[] transmissionFiles = FileUtils.listFiles(folder, new String[] {TRANSMISSION_FILE_EXTENSION_FOR_SEARCH}, false).toArray(new File[0]);
+        if (transmissionFiles.length == 0) {
+            return;
+        }
+
+        Arrays.sort(transmissionFiles, new Comparator<File>() {
             @Override
             public int compare(File file1, File file2) {
-                long file1LastModified = file1.lastModified();
-                long file2LastModified = file2.lastModified();
-                if (file1LastModified < file2LastModified) {
-                    return 1;
-                } else if (file1LastModified > file2LastModified) {
-                    return -1;
-                }
-
-                return 0;
+                return Long.compare(file1.lastModified(), file2.lastModified());
             }
         });
 
-        if (asList.size() > limit) {
-            asList = asList.subList(0, limit);
-        }
+        for (File file : transmissionFiles) {
+            Optional<Transmission> transmission = loadTransmission(file);
+            if (transmission.isPresent() && !journal.append(transmission.get())) {
+                // Keep the file, it will be moved on the next start
+                continue;
+            }
 
-        return asList;
+            if (!file.delete()) {
+                InternalLogger.INSTANCE.warn("Failed to delete transmission file %s", file.getName());
+            }
+        }
     }
 
     private Optional<Transmission> loadTransmission(File file) {
@@ -263,100 +281,4 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
 
         return Optional.fromNullable(transmission);
     }
-
-    private boolean renameToPermanentName(File tempTransmissionFile) {
-        File transmissionFile = new File(folder, FilenameUtils.getBaseName(tempTransmissionFile.getName()) + TRANSMISSION_FILE_EXTENSION);
-        try {
-            long fileLength = tempTransmissionFile.length();
-            FileUtils.moveFile(tempTransmissionFile, transmissionFile);
-            size.addAndGet(fileLength);
-            return true;
-        } catch (Exception e) {
-            InternalLogger.INSTANCE.error("Rename To Permanent Name failed, exception: %s", e.toString());
-        }
-
-        return false;
-    }
-
-    private Optional<File> renameToTemporaryName(File tempTransmissionFile) {
-        File transmissionFile = null;
-        try {
-            File renamedFile = new File(folder, FilenameUtils.getBaseName(tempTransmissionFile.getName()) + TEMP_FILE_EXTENSION);
-            FileUtils.moveFile(tempTransmissionFile, renamedFile);
-            size.addAndGet(-renamedFile.length());
-            transmissionFile = renamedFile;
-        } catch (Exception ignore) {
-            InternalLogger.INSTANCE.error("Rename To Temporary Name failed, exception: %s", ignore.toString());
-            // Consume the exception, since there isn't anything 'smart' to do now
-        }
-
-        return Optional.fromNullable(transmissionFile);
-    }
-
-    private boolean saveTransmission(File transmissionFile, Transmission transmission) {
-        try (ObjectOutput output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(transmissionFile)))) {
-            output.writeObject(transmission);
-            return true;
-        } catch (IOException e) {
-            InternalLogger.INSTANCE.error("Failed to save transmission, exception: %s", e.toString());
-        }
-
-        return false;
-    }
-
-    private Optional<File> createTemporaryFile() {
-        File file = null;
-        try {
-            file = File.createTempFile(TRANSMISSION_FILE_PREFIX, null, folder);
-        } catch (IOException e) {
-            InternalLogger.INSTANCE.error("Failed to create temporary file, exception: %s", e.toString());
-        }
-
-        return Optional.fromNullable(file);
-    }
-
-    private long getTotalSizeOfTransmissionFiles() {
-        Collection<File> transmissions = FileUtils.listFiles(folder, new String[] {TRANSMISSION_FILE_EXTENSION_FOR_SEARCH}, false);
-
-        long totalSize = 0;
-        for (File file : transmissions) {
-            totalSize += file.length();
-        }
-
-        return totalSize;
-    }
-
-    private Optional<File> fetchOldestFromCache() {
-        synchronized (this) {
-            if (cacheOfOldestFiles.isEmpty()) {
-
-                // Fill the cache
-                Collection<File> transmissions = FileUtils.listFiles(folder, new String[] {TRANSMISSION_FILE_EXTENSION_FOR_SEARCH}, false);
-
-                if (transmissions.isEmpty()) {
-                    // No files
-                    return Optional.absent();
-                }
-
-                List<File> filesToLoad = sortOldestLastAndTrim(transmissions, NUMBER_OF_FILES_TO_CACHE);
-
-                if (filesToLoad == null || filesToLoad.isEmpty()) {
-                    return Optional.absent();
-                }
-
-                cacheOfOldestFiles.addAll(filesToLoad);
-            }
-
-            File fileToLoad = cacheOfOldestFiles.remove(cacheOfOldestFiles.size() - 1);
-
-            String fileName = fileToLoad.getName();
-            if (filesThatAreBeingLoaded.contains(fileName)) {
-                return Optional.absent();
-            }
-
-            filesThatAreBeingLoaded.add(fileName);
-            // Remove oldest which is the last one, this is optimized for not doing a copy
-            return Optional.fromNullable(fileToLoad);
-        }
-    }
 }
@@ -0,0 +1,594 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An append-only journal of {@link Transmission}s kept in a folder.
+ *
+ * The Transmissions are written one after the other into segment files, a new segment is started
+ * once the current one reaches the segment size. Each record is prefixed by its length and the CRC32
+ * of its content, so a record that was torn by a crash or corrupted on the disk is detected and skipped.
+ *
+ * A small cursor file keeps the position of the next record to read, so reading resumes where it
+ * stopped after a restart. Segments are deleted once they were fully read.
+ *
+ * The records that were not read yet are indexed in memory, oldest first, with their position, size
+ * and the time they were appended. The index is built when the journal is opened, the only time the
+ * folder is listed and the segments are scanned, and is then updated by every append and read.
+ *
+ * A journal owns its folder, a lock file keeps a second journal, of this process or of another one,
+ * from appending to the same segments and moving the same cursor.
+ */
+public final class TransmissionJournal implements Closeable {
+    public final static int DEFAULT_SEGMENT_SIZE_IN_BYTES = 256 * 1024;
+
+    private final static String SEGMENT_FILE_PREFIX = "Transmissions-";
+    private final static String SEGMENT_FILE_EXTENSION = ".seg";
+    private final static String CURSOR_FILE_NAME = "Transmissions.cursor";
+    private final static String LOCK_FILE_NAME = "Transmissions.lock";
+
+    /// The length of the record content and its CRC32
+    private final static int RECORD_HEADER_SIZE = 8;
+
+    /// The segment id and the offset in it, followed by their CRC32
+    private final static int CURSOR_SIZE = 20;
+
+    private final static byte RECORD_FORMAT_VERSION = 1;
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+
+        /// The bytes of the complete records in the segment
+        private long length;
+
+        private Segment(long id, File file, long length) {
+            this.id = id;
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    /// The index entry of a record that was not read yet
+    private static final class Record {
+        private final Segment segment;
+        private final long offset;
+        private final int contentLength;
+        private final long appendTimeInMillis;
+
+        private Record(Segment segment, long offset, int contentLength, long appendTimeInMillis) {
+            this.segment = segment;
+            this.offset = offset;
+            this.contentLength = contentLength;
+            this.appendTimeInMillis = appendTimeInMillis;
+        }
+
+        private int size() {
+            return RECORD_HEADER_SIZE + contentLength;
+        }
+    }
+
+    private final File folder;
+
+    private final int segmentSizeInBytes;
+
+    /// Oldest first, the last one is the one we write to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+
+    /// The records that were not read yet, oldest first
+    private final ArrayDeque<Record> records = new ArrayDeque<Record>();
+
+    private long nextSegmentId;
+
+    /// The size of the records that were not read yet
+    private long sizeInBytes;
+
+    /// Only set for a segment created by this instance, segments left by a previous run are never appended to
+    private Segment writeSegment;
+    private RandomAccessFile writeFile;
+
+    private Segment readSegment;
+    private RandomAccessFile readFile;
+
+    private RandomAccessFile cursorFile;
+
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    private boolean closed;
+
+    public TransmissionJournal(File folder) throws IOException {
+        this(folder, DEFAULT_SEGMENT_SIZE_IN_BYTES);
+    }
+
+    /**
+     * @param folder The folder of the segments and the cursor
+     * @param segmentSizeInBytes The size a segment is closed at
+     * @throws IOException If the folder is used by another journal
+     */
+    public TransmissionJournal(File folder, int segmentSizeInBytes) throws IOException {
+        Preconditions.checkNotNull(folder, "folder must be a non-null value");
+        Preconditions.checkArgument(segmentSizeInBytes > 0, "segmentSizeInBytes must be a positive number");
+
+        this.folder = folder;
+        this.segmentSizeInBytes = segmentSizeInBytes;
+
+        lockFile = new RandomAccessFile(new File(folder, LOCK_FILE_NAME), "rw");
+        FileLock acquired;
+        try {
+            acquired = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        } catch (IOException e) {
+            closeQuietly(lockFile);
+            throw e;
+        }
+        if (acquired == null) {
+            closeQuietly(lockFile);
+            throw new IOException("Transmission journal folder " + folder.getPath() + " is used by another journal");
+        }
+        lock = acquired;
+
+        List<Segment> existingSegments = findSegments();
+        long[] cursor = readCursor();
+        long lastSegmentId = cursor == null ? 0 : cursor[0];
+        for (Segment segment : existingSegments) {
+            lastSegmentId = Math.max(lastSegmentId, segment.id);
+            if (cursor != null && segment.id < cursor[0]) {
+                // Fully read before the cursor was moved past it
+                deleteSegmentFile(segment);
+                continue;
+            }
+
+            segments.addLast(segment);
+            indexSegment(segment, cursor != null && segment.id == cursor[0] ? cursor[1] : 0);
+        }
+
+        nextSegmentId = lastSegmentId + 1;
+    }
+
+    /**
+     * Appends the Transmission at the end of the journal.
+     * @param transmission The Transmission to keep
+     * @return True if the Transmission was written
+     */
+    public boolean append(Transmission transmission) {
+        Preconditions.checkNotNull(transmission, "transmission must be a non-null value");
+
+        byte[] record;
+        try {
+            record = encode(transmission);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to encode transmission, exception: %s", e.toString());
+            return false;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+
+            try {
+                if (writeSegment == null || (writeSegment.length > 0 && writeSegment.length + record.length > segmentSizeInBytes)) {
+                    startWriteSegment();
+                }
+
+                // A failed write leaves the length as is, the next record overwrites what was partially written
+                writeFully(writeFile.getChannel(), ByteBuffer.wrap(record), writeSegment.length);
+                records.addLast(new Record(writeSegment, writeSegment.length, record.length - RECORD_HEADER_SIZE, System.currentTimeMillis()));
+                writeSegment.length += record.length;
+                sizeInBytes += record.length;
+                return true;
+            } catch (IOException e) {
+                InternalLogger.INSTANCE.error("Failed to append transmission to journal, exception: %s", e.toString());
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the oldest Transmission that was not read yet, and moves the cursor past it.
+     * A corrupted record is skipped, while a record that could not be read stays for the next call.
+     * @return The oldest Transmission, null if there is none or it could not be read
+     */
+    public synchronized Transmission poll() {
+        while (!closed) {
+            Record record = records.peekFirst();
+            if (record == null) {
+                return null;
+            }
+
+            Transmission transmission;
+            try {
+                transmission = readRecord(record);
+            } catch (IOException e) {
+                closeQuietly(readFile);
+                readFile = null;
+                readSegment = null;
+                if (record.segment.file.exists()) {
+                    InternalLogger.INSTANCE.error("Failed to read transmission from journal segment %s, will retry, exception: %s", record.segment.file.getName(), e.toString());
+                    return null;
+                }
+
+                InternalLogger.INSTANCE.error("Transmission journal segment %s is gone, skipping its record", record.segment.file.getName());
+                transmission = null;
+            }
+
+            records.pollFirst();
+            sizeInBytes -= record.size();
+            releaseReadSegments();
+            persistCursor();
+            if (transmission != null) {
+                return transmission;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The folder the journal owns
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * @return The size of the records that were not read yet
+     */
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * @return The number of Transmissions that were not read yet
+     */
+    public synchronized int getNumberOfTransmissions() {
+        return records.size();
+    }
+
+    /**
+     * Records kept by a previous run get the time their segment was last modified.
+     * @return The time the oldest Transmission that was not read yet was appended, 0 if there is none
+     */
+    public synchronized long getOldestAppendTimeInMillis() {
+        Record oldest = records.peekFirst();
+        return oldest == null ? 0 : oldest.appendTimeInMillis;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeQuietly(writeFile);
+        closeQuietly(readFile);
+        closeQuietly(cursorFile);
+        writeFile = readFile = cursorFile = null;
+        readSegment = null;
+
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // chomp
+        }
+        closeQuietly(lockFile);
+    }
+
+    private void startWriteSegment() throws IOException {
+        closeQuietly(writeFile);
+        writeFile = null;
+
+        long id = nextSegmentId++;
+        Segment segment = new Segment(id, new File(folder, String.format("%s%016x%s", SEGMENT_FILE_PREFIX, id, SEGMENT_FILE_EXTENSION)), 0);
+        writeFile = new RandomAccessFile(segment.file, "rw");
+        writeFile.setLength(0);
+        segments.addLast(segment);
+        writeSegment = segment;
+
+        // The previous segment may have been fully read while we were still writing to it
+        releaseReadSegments();
+    }
+
+    /**
+     * Adds the records of a segment left by a previous run to the index. Only the record headers are read,
+     * a length that does not fit in the segment ends the scan since the next records cannot be found.
+     */
+    private void indexSegment(Segment segment, long offset) {
+        long appendTimeInMillis = segment.file.lastModified();
+        try (RandomAccessFile input = new RandomAccessFile(segment.file, "r")) {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (offset + RECORD_HEADER_SIZE <= segment.length) {
+                header.clear();
+                readFully(channel, header, offset);
+                int contentLength = header.getInt(0);
+                if (contentLength <= 0 || contentLength > segment.length - offset - RECORD_HEADER_SIZE) {
+                    break;
+                }
+
+                Record record = new Record(segment, offset, contentLength, appendTimeInMillis);
+                records.addLast(record);
+                sizeInBytes += record.size();
+                offset += record.size();
+            }
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to index transmission journal segment %s, exception: %s", segment.file.getName(), e.toString());
+        }
+
+        if (offset < segment.length) {
+            InternalLogger.INSTANCE.error("Truncated or corrupted transmission journal segment %s, skipping the rest of the segment", segment.file.getName());
+        }
+    }
+
+    /**
+     * Reads the record, whose position and size are known from the index, in one read.
+     * @return The Transmission, null if the record is corrupted
+     * @throws IOException If the record could not be read, it may be read later
+     */
+    private Transmission readRecord(Record record) throws IOException {
+        if (readSegment != record.segment) {
+            closeQuietly(readFile);
+            readFile = null;
+            readSegment = null;
+            readFile = new RandomAccessFile(record.segment.file, "r");
+            readSegment = record.segment;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(record.size());
+        try {
+            readFully(readFile.getChannel(), buffer, record.offset);
+        } catch (EOFException e) {
+            InternalLogger.INSTANCE.error("Truncated record in transmission journal segment %s, skipping it", record.segment.file.getName());
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, record.contentLength);
+        if (buffer.getInt(0) == record.contentLength && buffer.getInt(4) == (int) crc.getValue()) {
+            try {
+                return decode(buffer.array());
+            } catch (IOException | RuntimeException e) {
+                // The content matches its CRC, reading it again would not help
+                InternalLogger.INSTANCE.error("Failed to decode transmission from journal segment %s, exception: %s", record.segment.file.getName(), e.toString());
+                return null;
+            }
+        }
+
+        InternalLogger.INSTANCE.error("Corrupted record in transmission journal segment %s, skipping it", record.segment.file.getName());
+        return null;
+    }
+
+    /**
+     * Deletes the segments that hold no record that was not read yet, except the one we write to.
+     */
+    private void releaseReadSegments() {
+        Record next = records.peekFirst();
+        Segment head = segments.peekFirst();
+        while (head != null && head != writeSegment && (next == null || next.segment != head)) {
+            segments.pollFirst();
+            if (readSegment == head) {
+                closeQuietly(readFile);
+                readFile = null;
+                readSegment = null;
+            }
+
+            deleteSegmentFile(head);
+            head = segments.peekFirst();
+        }
+    }
+
+    private void persistCursor() {
+        long segmentId;
+        long offset;
+        Record next = records.peekFirst();
+        if (next != null) {
+            segmentId = next.segment.id;
+            offset = next.offset;
+        } else if (writeSegment != null) {
+            segmentId = writeSegment.id;
+            offset = writeSegment.length;
+        } else {
+            segmentId = nextSegmentId;
+            offset = 0;
+        }
+
+        ByteBuffer cursor = ByteBuffer.allocate(CURSOR_SIZE);
+        cursor.putLong(segmentId).putLong(offset);
+        CRC32 crc = new CRC32();
+        crc.update(cursor.array(), 0, CURSOR_SIZE - 4);
+        cursor.putInt((int) crc.getValue());
+        cursor.flip();
+
+        try {
+            if (cursorFile == null) {
+                cursorFile = new RandomAccessFile(new File(folder, CURSOR_FILE_NAME), "rw");
+            }
+            writeFully(cursorFile.getChannel(), cursor, 0);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.warn("Failed to save transmission journal cursor, exception: %s", e.toString());
+        }
+    }
+
+    /**
+     * @return The segment id and the offset, null if there is no valid cursor
+     */
+    private long[] readCursor() {
+        File file = new File(folder, CURSOR_FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            ByteBuffer cursor = ByteBuffer.allocate(CURSOR_SIZE);
+            readFully(input.getChannel(), cursor, 0);
+            CRC32 crc = new CRC32();
+            crc.update(cursor.array(), 0, CURSOR_SIZE - 4);
+            if ((int) crc.getValue() == cursor.getInt(CURSOR_SIZE - 4)) {
+                return new long[] { cursor.getLong(0), cursor.getLong(8) };
+            }
+
+            InternalLogger.INSTANCE.error("Corrupted transmission journal cursor, reading from the oldest segment");
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to read transmission journal cursor, exception: %s", e.toString());
+        }
+
+        return null;
+    }
+
+    private List<Segment> findSegments() {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_EXTENSION);
+            }
+        });
+
+        List<Segment> found = new ArrayList<Segment>();
+        if (files == null) {
+            return found;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                long id = Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_EXTENSION.length()), 16);
+                found.add(new Segment(id, file, file.length()));
+            } catch (NumberFormatException e) {
+                InternalLogger.INSTANCE.warn("Ignoring unexpected file %s in the transmission journal folder", name);
+            }
+        }
+
+        Collections.sort(found, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment segment1, Segment segment2) {
+                return Long.compare(segment1.id, segment2.id);
+            }
+        });
+
+        return found;
+    }
+
+    private static void deleteSegmentFile(Segment segment) {
+        if (!segment.file.delete() && segment.file.exists()) {
+            InternalLogger.INSTANCE.warn("Failed to delete transmission journal segment %s", segment.file.getName());
+        }
+    }
+
+    private static byte[] encode(Transmission transmission) throws IOException {
+        byte[] content = transmission.getContent();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + content.length + 128);
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        // The header is set once the content is known
+        output.writeLong(0);
+        output.writeByte(RECORD_FORMAT_VERSION);
+        output.writeInt(transmission.getVersion());
+        output.writeInt(transmission.getNumberOfSends());
+        output.writeInt(transmission.getNumberOfPersistence());
+        output.writeUTF(transmission.getWebContentType());
+        output.writeUTF(transmission.getWebContentEncodingType());
+        output.writeInt(content.length);
+        output.write(content);
+        output.flush();
+
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt(record.length - RECORD_HEADER_SIZE).putInt((int) crc.getValue());
+
+        return record;
+    }
+
+    private static Transmission decode(byte[] record) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE));
+        byte format = input.readByte();
+        if (format != RECORD_FORMAT_VERSION) {
+            throw new IOException("Unknown transmission record format " + format);
+        }
+
+        int version = input.readInt();
+        int numberOfSends = input.readInt();
+        int numberOfPersistence = input.readInt();
+        String webContentType = input.readUTF();
+        String webContentEncodingType = input.readUTF();
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+
+        Transmission transmission = new Transmission(data, webContentType, webContentEncodingType, version);
+        transmission.setNumberOfSends(numberOfSends);
+        transmission.setNumberOfPersistence(numberOfPersistence);
+        return transmission;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // chomp
+        }
+    }
+}
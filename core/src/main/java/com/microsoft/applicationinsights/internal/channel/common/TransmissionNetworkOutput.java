@@ -40,6 +40,11 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -51,9 +56,9 @@ import java.util.concurrent.TimeUnit;
  * Created by gupele on 12/18/2014.
  */
 public final class TransmissionNetworkOutput implements TransmissionOutput {
-    private final static String CONTENT_TYPE_HEADER = "Content-Type";
-    private final static String CONTENT_ENCODING_HEADER = "Content-Encoding";
-    private final static String RESPONSE_THROTTLING_HEADER = "Retry-After";
+    final static String CONTENT_TYPE_HEADER = "Content-Type";
+    final static String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    final static String RESPONSE_THROTTLING_HEADER = "Retry-After";
 
     public final static String DEFAULT_SERVER_URI = "https://dc.services.visualstudio.com/v2/track";
 
@@ -179,9 +184,10 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
             String respString = null;
             Throwable ex = null;
             Header retryAfterHeader = null;
+            long startNanos = System.nanoTime();
             try {
                 // POST the transmission data to the endpoint
-                request = createTransmissionPostRequest(transmission);
+                request = createTransmissionPostRequest(serverUri, transmission);
                 httpClient.enhanceRequest(request);
                 response = httpClient.sendPostRequest(request);
                 HttpEntity respEntity = response.getEntity();
@@ -193,10 +199,6 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
                 // After we reach our instant retry limit we should fail to second TransmissionOutput
                 if (code > HttpStatus.SC_PARTIAL_CONTENT && transmission.getNumberOfSends() > this.transmissionPolicyManager.getMaxInstantRetries()) {
                     return false;
-                } else if (code == HttpStatus.SC_OK) {
-                    // If we've completed then clear the back off flags as the channel does not need
-                    // to be throttled
-                    transmissionPolicyManager.clearBackoff();
                 }
                 return true;
 
@@ -237,21 +239,8 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
                 }
                 httpClient.dispose(response);
 
-                if (code == HttpStatus.SC_BAD_REQUEST) {
-                    InternalLogger.INSTANCE.error("Error sending data: %s", reason);
-                } else if (code != HttpStatus.SC_OK) {
-                    // Invoke the listeners for handling things like errors
-                    // The listeners will handle the back off logic as well as the dispatch
-                    // operation
-                    TransmissionHandlerArgs args = new TransmissionHandlerArgs();
-                    args.setTransmission(transmission);
-                    args.setTransmissionDispatcher(transmissionDispatcher);
-                    args.setResponseBody(respString);
-                    args.setResponseCode(code);
-                    args.setException(ex);
-                    args.setRetryHeader(retryAfterHeader);
-                    this.transmissionPolicyManager.onTransmissionSent(args);
-                }
+                long latencyInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                onTransmissionSent(transmissionPolicyManager, transmissionDispatcher, transmission, code, reason, respString, retryAfterHeader, ex, latencyInMillis);
             }
         }
         // If we end up here we've hit an error code we do not expect (403, 401, 400,
@@ -261,14 +250,100 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
         return true;
     }
 
+    /**
+     * Applies the outcome of a send to the {@link TransmissionPolicyManager}, shared with
+     * {@link AsyncTransmissionNetworkOutput} so both outputs handle the responses the same way.
+     *
+     * @param code The HTTP status code, 0 if no response was received
+     * @param ex The exception that failed the send, if any
+     * @param latencyInMillis The time the send took, it feeds the {@link AdaptiveConcurrencyLimiter}
+     */
+    static void onTransmissionSent(TransmissionPolicyManager transmissionPolicyManager, TransmissionDispatcher transmissionDispatcher,
+                                   Transmission transmission, int code, String reason, String respString, Header retryAfterHeader, Throwable ex,
+                                   long latencyInMillis) {
+        transmissionPolicyManager.getConcurrencyLimiter().onResponse(code, ex, latencyInMillis);
+
+        if (code == HttpStatus.SC_OK) {
+            // If we've completed then clear the back off flags as the channel does not need
+            // to be throttled
+            transmissionPolicyManager.clearBackoff();
+            acknowledge(transmissionPolicyManager, transmission);
+        } else if (code == HttpStatus.SC_BAD_REQUEST) {
+            InternalLogger.INSTANCE.error("Error sending data: %s", reason);
+            acknowledge(transmissionPolicyManager, transmission);
+        } else {
+            // Invoke the listeners for handling things like errors
+            // The listeners will handle the back off logic as well as the dispatch
+            // operation
+            TransmissionHandlerArgs args = new TransmissionHandlerArgs();
+            args.setTransmission(transmission);
+            args.setTransmissionDispatcher(transmissionDispatcher);
+            args.setResponseBody(respString);
+            args.setResponseCode(code);
+            args.setException(ex);
+            args.setRetryHeader(retryAfterHeader);
+            transmissionPolicyManager.onTransmissionSent(args);
+
+            if (code == HttpStatus.SC_PARTIAL_CONTENT) {
+                // The items to retry were handed to a new Transmission by the handlers, which acknowledges them
+                // once it is accepted or saved
+                acknowledgeAccepted(transmissionPolicyManager, transmission, args.getRetryTransmission());
+            }
+        }
+    }
+
+    /**
+     * Tells the write-ahead log, if any, that the Telemetries of the Transmission are no longer needed.
+     */
+    private static void acknowledge(TransmissionPolicyManager transmissionPolicyManager, Transmission transmission) {
+        TelemetryWriteAheadLog writeAheadLog = transmissionPolicyManager.getWriteAheadLog();
+        if (writeAheadLog != null && transmission != null && transmission.getTelemetries() != null) {
+            writeAheadLog.acknowledge(transmission.getTelemetries());
+        }
+    }
+
+    /**
+     * Tells the write-ahead log, if any, that the Telemetries of a partially accepted Transmission are no longer
+     * needed, except the ones that are resent. Telemetries are matched by identity, like the log does.
+     */
+    private static void acknowledgeAccepted(TransmissionPolicyManager transmissionPolicyManager, Transmission transmission, Transmission retryTransmission) {
+        if (retryTransmission == null) {
+            acknowledge(transmissionPolicyManager, transmission);
+            return;
+        }
+
+        TelemetryWriteAheadLog writeAheadLog = transmissionPolicyManager.getWriteAheadLog();
+        if (writeAheadLog == null || transmission == null || transmission.getTelemetries() == null) {
+            return;
+        }
+
+        List<byte[]> retried = retryTransmission.getTelemetries();
+        if (retried == null) {
+            // We cannot tell which ones are resent, they are all kept
+            return;
+        }
+
+        Set<byte[]> retriedTelemetries = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        retriedTelemetries.addAll(retried);
+        List<byte[]> accepted = new ArrayList<byte[]>(transmission.getTelemetries().size());
+        for (byte[] telemetry : transmission.getTelemetries()) {
+            if (!retriedTelemetries.contains(telemetry)) {
+                accepted.add(telemetry);
+            }
+        }
+        writeAheadLog.acknowledge(accepted);
+    }
+
     /**
      * Generates the HTTP POST to send to the endpoint.
      *
+     * @param serverUri
+     *            The HTTP endpoint to send our telemetry too.
      * @param transmission
      *            The transmission to send.
      * @return The completed {@link HttpPost} object
      */
-    private HttpPost createTransmissionPostRequest(Transmission transmission) {
+    static HttpPost createTransmissionPostRequest(String serverUri, Transmission transmission) {
         HttpPost request = new HttpPost(serverUri);
         request.addHeader(CONTENT_TYPE_HEADER, transmission.getWebContentType());
         request.addHeader(CONTENT_ENCODING_HEADER, transmission.getWebContentEncodingType());
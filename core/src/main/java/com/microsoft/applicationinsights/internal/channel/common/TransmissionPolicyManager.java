@@ -56,9 +56,21 @@ public final class TransmissionPolicyManager implements Stoppable, TransmissionH
     private int instantRetryAmount = 3;         // Should always be set by the creator of this class
     private final int INSTANT_RETRY_MAX = 10;   // Stops us from getting into an endless loop
 
+    // The default limit of concurrent uploads, used by the thread based network output
+    public static final int DEFAULT_MIN_CONCURRENT_UPLOADS = 1;
+    public static final int DEFAULT_INITIAL_CONCURRENT_UPLOADS = 7;
+    public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = ApacheSender.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
     // Current thread backoff manager
     private SenderThreadsBackOffManager backoffManager;
 
+    // Fed by the network outputs with the outcome of every upload, and by the back off
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(
+            DEFAULT_MIN_CONCURRENT_UPLOADS, DEFAULT_INITIAL_CONCURRENT_UPLOADS, DEFAULT_MAX_CONCURRENT_UPLOADS);
+
+    // Acknowledged with the Telemetries of the Transmissions that were accepted, set when the write-ahead log is enabled
+    private volatile TelemetryWriteAheadLog writeAheadLog;
+
     // List of transmission policies implemented as handlers
     private List<TransmissionHandler> transmissionHandlers;
 
@@ -114,6 +126,7 @@ public final class TransmissionPolicyManager implements Stoppable, TransmissionH
      */
     public void backoff() {
         policyState.setCurrentState(TransmissionPolicy.BACKOFF);
+        concurrencyLimiter.onBackoff();
         long backOffMillis = backoffManager.backOffCurrentSenderThreadValue();
         if (backOffMillis > 0)
         {
@@ -253,4 +266,36 @@ public final class TransmissionPolicyManager implements Stoppable, TransmissionH
     public int getMaxInstantRetries() {
         return instantRetryAmount;
     }
+
+    /**
+     * Replaces the limit of concurrent uploads, expected to be called before the network output starts sending.
+     * @param concurrencyLimiter The limiter that suits the network output
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        Preconditions.checkNotNull(concurrencyLimiter, "concurrencyLimiter must be a non-null value");
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Get the limit of concurrent uploads, {@link AdaptiveConcurrencyLimiter#getLimit()} is its current value.
+     * @return The limiter
+     */
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the write-ahead log the network outputs acknowledge the accepted Telemetries to.
+     * @param writeAheadLog The log, null if the Telemetries are not logged
+     */
+    public void setWriteAheadLog(TelemetryWriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * @return The write-ahead log, null if the Telemetries are not logged
+     */
+    public TelemetryWriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
 }
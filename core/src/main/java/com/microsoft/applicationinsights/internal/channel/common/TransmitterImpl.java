@@ -27,12 +27,15 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 
 import com.google.common.base.Optional;
@@ -40,7 +43,7 @@ import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 /**
- * The default implementation of the {@link TelemetriesTransmitter}
+ * The default implementation of the {@link TelemetriesTransmitter} and of the {@link GzipTelemetryBatchTransmitter}
  *
  * The class is responsible holds the classes that do the actual sending to the server
  * Telemetry instances buffered in a collection are sent through this class.
@@ -48,9 +51,17 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * The class makes sure that the container of telemetries is sent using internal threads
  * and not the 'application' threads
  *
+ * When the internal threads cannot take a full container, because too many are pending or the threads
+ * are gone, the container is written straight to the overflow output, normally the disk, so
+ * it is sent later instead of being lost. A 'pick-up' that cannot be scheduled is refused without
+ * touching the container, which stays with its buffer until it gets full or is flushed.
+ *
+ * The telemetries written to the overflow output and the ones that were dropped are counted, and can be
+ * reported as performance counters, see {@link TransmitterOverflowPerformanceCounter}.
+ *
  * Created by gupele on 12/18/2014.
  */
-public final class TransmitterImpl implements TelemetriesTransmitter<String> {
+public final class TransmitterImpl implements TelemetriesTransmitter<byte[]>, GzipTelemetryBatchTransmitter {
     private static abstract class SendHandler {
         protected final TransmissionDispatcher transmissionDispatcher;
 
@@ -64,7 +75,7 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
             this.serializer = serializer;
         }
 
-        protected void dispatch(Collection<String> telemetries) {
+        protected void dispatch(Collection<byte[]> telemetries) {
             if (telemetries.isEmpty()) {
                 return;
             }
@@ -79,9 +90,9 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
     }
 
     private static final class ScheduledSendHandler extends SendHandler implements Runnable {
-        private final TelemetriesFetcher<String> telemetriesFetcher;
+        private final TelemetriesFetcher<byte[]> telemetriesFetcher;
 
-        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher<String> telemetriesFetcher, TelemetrySerializer serializer) {
+        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher<byte[]> telemetriesFetcher, TelemetrySerializer serializer) {
             super(transmissionDispatcher,  serializer);
 
             Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be a non-null value");
@@ -91,15 +102,15 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
 
         @Override
         public void run() {
-            Collection<String> telemetriesToSend = telemetriesFetcher.fetch();
+            Collection<byte[]> telemetriesToSend = telemetriesFetcher.fetch();
             dispatch(telemetriesToSend);
         }
     }
 
     private static final class SendNowHandler extends SendHandler implements Runnable {
-        private final Collection<String> telemetries;
+        private final Collection<byte[]> telemetries;
 
-        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, Collection<String> telemetries) {
+        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, Collection<byte[]> telemetries) {
             super(transmissionDispatcher,  serializer);
 
             Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
@@ -113,7 +124,39 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         }
     }
 
-    private static final int MAX_PENDING_SCHEDULE_REQUESTS = 16384;
+    private static final class BatchSendHandler implements Runnable {
+        private final TransmissionDispatcher transmissionDispatcher;
+
+        private final BatchFetcher batchFetcher;
+
+        public BatchSendHandler(TransmissionDispatcher transmissionDispatcher, BatchFetcher batchFetcher) {
+            Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher should be a non-null value");
+            Preconditions.checkNotNull(batchFetcher, "batchFetcher should be a non-null value");
+
+            this.transmissionDispatcher = transmissionDispatcher;
+            this.batchFetcher = batchFetcher;
+        }
+
+        @Override
+        public void run() {
+            GzipTelemetryBatch batch = batchFetcher.fetch();
+            if (batch == null) {
+                return;
+            }
+
+            Optional<Transmission> transmission = batch.toTransmission();
+            if (!transmission.isPresent()) {
+                return;
+            }
+
+            transmissionDispatcher.dispatch(transmission.get());
+        }
+    }
+
+    static final int MAX_PENDING_SCHEDULE_REQUESTS = 16384;
+
+    /// The threads that serialize and dispatch the batches
+    public static final int NUMBER_OF_SENDER_THREADS = 2;
 
     private static final AtomicInteger INSTANCE_ID_POOL = new AtomicInteger(1);
 
@@ -129,17 +172,38 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
 
     private final int instanceId = INSTANCE_ID_POOL.getAndIncrement();
 
+    /// Takes the containers the threads cannot take, may be null
+    private final TransmissionOutput overflowOutput;
+
+    private final AtomicLong numberOfSpilledTelemetries = new AtomicLong();
+
+    private final AtomicLong numberOfDroppedTelemetries = new AtomicLong();
+
+    /// Reports the counters above, null unless enabled
+    private volatile TransmitterOverflowPerformanceCounter performanceCounter;
+
     public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, null);
+    }
+
+    /**
+     * @param transmissionDispatcher The dispatcher of the Transmissions
+     * @param serializer Creates the Transmissions out of the telemetries
+     * @param transmissionsLoader The loader of the Transmissions that were saved
+     * @param overflowOutput Synchronously saves the Transmissions that cannot be handed to the threads, may be null
+     */
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader, TransmissionOutput overflowOutput) {
         Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher must be non-null value");
         Preconditions.checkNotNull(serializer, "serializer must be non-null value");
         Preconditions.checkNotNull(transmissionsLoader, "transmissionsLoader must be non-null value");
 
         this.transmissionDispatcher = transmissionDispatcher;
         this.serializer = serializer;
+        this.overflowOutput = overflowOutput;
 
         semaphore = new Semaphore(MAX_PENDING_SCHEDULE_REQUESTS);
 
-        threadPool = Executors.newScheduledThreadPool(2, ThreadPoolUtils.createDaemonThreadFactory(TransmitterImpl.class, instanceId));
+        threadPool = Executors.newScheduledThreadPool(NUMBER_OF_SENDER_THREADS, ThreadPoolUtils.createDaemonThreadFactory(TransmitterImpl.class, instanceId));
 
         this.transmissionsLoader = transmissionsLoader;
         this.transmissionsLoader.load(false);
@@ -149,12 +213,89 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
     public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
         Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be non-null value");
 
+        return schedule(new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer), value, timeUnit);
+    }
+
+    @Override
+    public boolean sendNow(Collection<byte[]> telemetries) {
+        Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
+
+        if (execute(new SendNowHandler(transmissionDispatcher, serializer, telemetries))) {
+            return true;
+        }
+
+        return spill(telemetries);
+    }
+
+    @Override
+    public boolean scheduleSend(BatchFetcher batchFetcher, long value, TimeUnit timeUnit) {
+        Preconditions.checkNotNull(batchFetcher, "batchFetcher should be non-null value");
+
+        return schedule(new BatchSendHandler(transmissionDispatcher, batchFetcher), value, timeUnit);
+    }
+
+    @Override
+    public boolean sendNow(final GzipTelemetryBatch batch) {
+        Preconditions.checkNotNull(batch, "batch should be non-null value");
+
+        BatchFetcher batchFetcher = new BatchFetcher() {
+            @Override
+            public GzipTelemetryBatch fetch() {
+                return batch;
+            }
+        };
+        if (execute(new BatchSendHandler(transmissionDispatcher, batchFetcher))) {
+            return true;
+        }
+
+        return spill(batch);
+    }
+
+    /**
+     * @return The number of telemetries that were written to the overflow output since they could not be handed to the threads
+     */
+    public long getNumberOfSpilledTelemetries() {
+        return numberOfSpilledTelemetries.get();
+    }
+
+    /**
+     * @return The number of telemetries that could neither be handed to the threads nor written to the overflow output
+     */
+    public long getNumberOfDroppedTelemetries() {
+        return numberOfDroppedTelemetries.get();
+    }
+
+    /**
+     * Reports the spilled and dropped telemetries as performance counters until the transmitter is stopped
+     */
+    public synchronized void enablePerformanceCounter() {
+        if (performanceCounter == null) {
+            performanceCounter = new TransmitterOverflowPerformanceCounter(this);
+            PerformanceCounterContainer.INSTANCE.register(performanceCounter);
+        }
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        TransmitterOverflowPerformanceCounter counter = performanceCounter;
+        if (counter != null) {
+            PerformanceCounterContainer.INSTANCE.unregister(counter);
+        }
+        transmissionsLoader.stop(timeout, timeUnit);
+        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
+        transmissionDispatcher.stop(timeout, timeUnit);
+    }
+
+    /**
+     * Runs the command on the threads after the delay
+     * @return False if the threads cannot take the command
+     */
+    private boolean schedule(final Runnable command, long value, TimeUnit timeUnit) {
         if (!semaphore.tryAcquire()) {
             return false;
         }
 
         try {
-            final Runnable command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer);
             threadPool.schedule(new Runnable() {
                 public void run() {
                     try {
@@ -181,7 +322,7 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         } catch (Throwable t) {
             try {
                 semaphore.release();
-                InternalLogger.INSTANCE.error("Error in scheduledSend of telemetry items failed. %d items were not sent ", telemetriesFetcher.fetch().size());
+                InternalLogger.INSTANCE.error("Error in scheduledSend of telemetry items: %s", t.toString());
                 InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
             } catch (ThreadDeath td) {
                 throw td;
@@ -190,18 +331,18 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
             }
         }
 
-        return true;
+        return false;
     }
 
-    @Override
-    public boolean sendNow(Collection<String> telemetries) {
-        Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
-
+    /**
+     * Runs the command on the threads
+     * @return False if the threads cannot take the command
+     */
+    private boolean execute(final Runnable command) {
         if (!semaphore.tryAcquire()) {
             return false;
         }
 
-        final Runnable command = new SendNowHandler(transmissionDispatcher, serializer, telemetries);
         try {
             threadPool.execute(new Runnable() {
                 public void run() {
@@ -230,7 +371,7 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         } catch (Throwable t) {
             try {
                 semaphore.release();
-                InternalLogger.INSTANCE.error("Error in scheduledSend of telemetry items failed. %d items were not sent ", telemetries.size());
+                InternalLogger.INSTANCE.error("Error in sendNow of telemetry items: %s", t.toString());
                 InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
             } catch (ThreadDeath td) {
                 throw td;
@@ -242,10 +383,75 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         return false;
     }
 
-    @Override
-    public void stop(long timeout, TimeUnit timeUnit) {
-        transmissionsLoader.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
-        transmissionDispatcher.stop(timeout, timeUnit);
+    /**
+     * Writes the telemetries straight to the overflow output, in the calling thread.
+     * The serialization also gives back what a compressed container holds, so it is done even without an output.
+     * @return True if the telemetries were saved, false if they are lost
+     */
+    private boolean spill(Collection<byte[]> telemetries) {
+        int numberOfTelemetries = telemetries.size();
+        if (numberOfTelemetries == 0) {
+            return true;
+        }
+
+        Optional<Transmission> transmission = Optional.absent();
+        try {
+            transmission = serializer.serialize(telemetries);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+
+        return spill(transmission, numberOfTelemetries);
+    }
+
+    /**
+     * Finishes the batch and writes it to the overflow output, in the calling thread.
+     * The batch's compressor is given back to the pool even without an output.
+     * @return True if the batch was saved, false if it is lost
+     */
+    private boolean spill(GzipTelemetryBatch batch) {
+        if (batch == null) {
+            return true;
+        }
+
+        Optional<Transmission> transmission = batch.toTransmission();
+        int numberOfTelemetries = batch.size();
+        if (numberOfTelemetries == 0) {
+            return true;
+        }
+
+        return spill(transmission, numberOfTelemetries);
+    }
+
+    private boolean spill(Optional<Transmission> transmission, int numberOfTelemetries) {
+        try {
+            if (overflowOutput != null && transmission.isPresent() && overflowOutput.send(transmission.get())) {
+                numberOfSpilledTelemetries.addAndGet(numberOfTelemetries);
+                InternalLogger.INSTANCE.trace("%d telemetry items could not be scheduled and were saved to the disk", numberOfTelemetries);
+                return true;
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+
+        numberOfDroppedTelemetries.addAndGet(numberOfTelemetries);
+        InternalLogger.INSTANCE.error("%d telemetry items could not be scheduled nor saved and were dropped", numberOfTelemetries);
+        return false;
     }
 }
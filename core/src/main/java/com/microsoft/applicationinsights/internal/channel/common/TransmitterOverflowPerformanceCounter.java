@@ -0,0 +1,80 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * The class reports how many telemetries the {@link TransmitterImpl} could not hand to its threads
+ * since the last report, split between the ones written to the disk and the ones that were dropped.
+ *
+ * Nothing is reported while no telemetry was spilled nor dropped since the last report.
+ */
+final class TransmitterOverflowPerformanceCounter implements PerformanceCounter {
+    final static String SPILLED_NAME = "Telemetry Items Spilled To Disk";
+    final static String DROPPED_NAME = "Telemetry Items Dropped";
+
+    private final TransmitterImpl transmitter;
+    private final String id;
+
+    private long lastNumberOfSpilledTelemetries;
+    private long lastNumberOfDroppedTelemetries;
+
+    TransmitterOverflowPerformanceCounter(TransmitterImpl transmitter) {
+        this.transmitter = transmitter;
+        this.id = "TransmitterOverflowPerformanceCounter-" + System.identityHashCode(transmitter);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        synchronized (this) {
+            long numberOfSpilledTelemetries = transmitter.getNumberOfSpilledTelemetries();
+            long numberOfDroppedTelemetries = transmitter.getNumberOfDroppedTelemetries();
+            long spilled = numberOfSpilledTelemetries - lastNumberOfSpilledTelemetries;
+            long dropped = numberOfDroppedTelemetries - lastNumberOfDroppedTelemetries;
+
+            lastNumberOfSpilledTelemetries = numberOfSpilledTelemetries;
+            lastNumberOfDroppedTelemetries = numberOfDroppedTelemetries;
+
+            if (spilled == 0 && dropped == 0) {
+                return;
+            }
+
+            track(telemetryClient, SPILLED_NAME, spilled);
+            track(telemetryClient, DROPPED_NAME, dropped);
+        }
+    }
+
+    private static void track(TelemetryClient telemetryClient, String name, double value) {
+        MetricTelemetry metric = new MetricTelemetry(name, value);
+        metric.markAsCustomPerfCounter();
+        telemetryClient.track(metric);
+    }
+}
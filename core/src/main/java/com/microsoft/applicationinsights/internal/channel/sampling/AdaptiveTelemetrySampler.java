@@ -21,11 +21,11 @@
 
 package com.microsoft.applicationinsights.internal.channel.sampling;
 
-import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.channel.TelemetrySampler;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
@@ -40,107 +40,43 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
  * This sampler will change the sampling rate as needed to keep up in the pace, as opposed to the 'FixedRateTelemetrySampler'
  * This sampler employs the {@link FixedRateTelemetrySampler} for doing the actual sampling and a timer for re-evaluating the sampling percentage.
  *
+ * The rate is measured by a {@link SamplingBudget}, a spike is therefore sampled within a fraction of a second instead
+ * of at the next evaluation. Telemetry types may get a budget of their own, such as 'Request:50, Dependency:200', which
+ * adapts apart from the rest, and a floor, such as 'Exception:100', that they are never sampled below. The percentage
+ * a telemetry was sampled with is recorded on it so the backend counts stay correct.
+ *
  * Created by gupele on 11/9/2016.
  */
 public final class AdaptiveTelemetrySampler implements Stoppable, TelemetrySampler {
     private final static int DEFAULT_MAX_TELEMETRIES_PER_SECOND = 100;
-    private final static int DEFAULT_EVALUATION_INTERVAL_IN_SECONDS = 900;
-    private final static int DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS = 120;
-    private final static int DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS = 900;
+    private final static int DEFAULT_EVALUATION_INTERVAL_IN_SECONDS = 1;
+    private final static int DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS = 1;
+    private final static int DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS = 30;
     private final static int DEFAULT_MIN_SAMPLING_PERCENTAGE = 1;
     private final static int DEFAULT_MAX_SAMPLING_PERCENTAGE = 100;
     private final static int DEFAULT_INITIAL_SAMPLING_PERCENTAGE = 100;
     private final static double DEFAULT_MOVING_AVERAGE_RATIO = 0.25;
 
-    private enum ChangeDirection {
-        Up,
-        Down,
-        None
-    };
-
-    private class SamplingRangeEvaluator implements Runnable {
-        private boolean first = true;
-        private double average = 0.0;
+    /// The evaluation interval is the sliding window, it is measured in this many steps
+    final static int STEPS_PER_EVALUATION_INTERVAL = SamplingBudget.STEPS_PER_WINDOW;
 
+    private final class SamplingRangeEvaluator implements Runnable {
         @Override
         public void run() {
-            double telemetriesPerSecond = (double)counter.get() / (double)evaluationIntervalInSec;
-            counter.set(0);
-            if (!first) {
-                average = average * (1 - movingAverageRatio) + telemetriesPerSecond * movingAverageRatio;
-            } else {
-                first = false;
-                average = telemetriesPerSecond;
-            }
-
-            InternalLogger.INSTANCE.trace("Average for sampling is %s", average);
-
-            double suggestedSamplingPercentage;
-            if (average > maxTelemetriesPerSecond) {
-                suggestedSamplingPercentage = 100.0 - (average - maxTelemetriesPerSecond) * 100.0 / maxTelemetriesPerSecond;
-            } else {
-                suggestedSamplingPercentage = 100;
-            }
-            if (suggestedSamplingPercentage > maxSamplingPercentage) {
-                suggestedSamplingPercentage = maxSamplingPercentage;
-            }
-            if (suggestedSamplingPercentage < minSamplingPercentage) {
-                suggestedSamplingPercentage = minSamplingPercentage;
-            }
-
-            boolean samplingPercentageChangeNeeded = suggestedSamplingPercentage != currentSamplingPercentage;
-            if (samplingPercentageChangeNeeded) {
-                Date currentDate = new Date();
-                long duration = currentDate.getTime() - lastChangedDate.getTime();
-
-                long diffInSeconds = TimeUnit.MILLISECONDS.toSeconds(duration);
-                if (suggestedSamplingPercentage > currentSamplingPercentage) {
-                    if (lastChangeDirection != ChangeDirection.Up || diffInSeconds >= samplingPercentageIncreaseTimeoutInSec) {
-                        updateSamplingData(suggestedSamplingPercentage, ChangeDirection.Up, currentDate);
-                    }
-                } else {
-                    if (lastChangeDirection != ChangeDirection.Down || diffInSeconds >= samplingPercentageDecreaseTimeoutInSec) {
-                        updateSamplingData(suggestedSamplingPercentage, ChangeDirection.Down, currentDate);
-                    }
-                }
-            }
-        }
-
-        private void updateSamplingData(double suggestedSamplingPercentage, ChangeDirection direction, Date currentDate) {
-            InternalLogger.INSTANCE.trace("Updating sampling percentage from %s to %s", currentSamplingPercentage, suggestedSamplingPercentage);
-            currentSamplingPercentage = suggestedSamplingPercentage;
-            lastChangeDirection = direction;
-            lastChangedDate = currentDate;
-            sampler.setSamplingPercentage((double) suggestedSamplingPercentage);
+            evaluate(System.nanoTime());
         }
     }
 
-    // Max telemetries per second, the instance will
-    // try to keep up by adjusting the sampling percentage
-    private double maxTelemetriesPerSecond;
+    // The budget of the telemetries that have no budget of their own
+    private SamplingBudget budget;
 
-    // How much time to wait between evaluations of the sampling percentage
-    private int evaluationIntervalInSec;
+    // The budgets of the telemetry types that adapt on their own, built by 'initialize'
+    private final HashMap<Class<? extends Telemetry>, SamplingBudget> typeBudgets = new HashMap<Class<? extends Telemetry>, SamplingBudget>();
 
-    // How much time to wait between successive increases of the sampling percentage
-    private int samplingPercentageDecreaseTimeoutInSec;
+    // The percentages the telemetry types are never sampled below
+    private final HashMap<Class<? extends Telemetry>, Double> typeFloors = new HashMap<Class<? extends Telemetry>, Double>();
 
-    // How much time to wait between successive decreases of the sampling percentage
-    private int samplingPercentageIncreaseTimeoutInSec;
-
-    private int minSamplingPercentage;
-    private int maxSamplingPercentage;
-
-    // The weigh given to the last telemetries count within 'evaluationIntervalInSeconds'
-    private double movingAverageRatio = 0.25;
-
-    private double currentSamplingPercentage;
-    private Date lastChangedDate;
-
-    // This is for working with 'samplingPercentageDecreaseTimeoutInSeconds' and ...Increase....
-    private ChangeDirection lastChangeDirection = ChangeDirection.None;
-
-    private final AtomicLong counter = new AtomicLong(0);
+    private String maxTelemetryItemsPerSecondPerType;
 
     private ScheduledThreadPoolExecutor threads;
 
@@ -172,23 +108,68 @@ public final class AdaptiveTelemetrySampler implements Stoppable, TelemetrySampl
                            String maxSamplingPercentage,
                            String initialSamplingPercentage,
                            String movingAverageRatio) {
-        this.maxTelemetriesPerSecond = getIntValueOrDefault("maxTelemetriesPerSecond", maxTelemetriesPerSecond, DEFAULT_MAX_TELEMETRIES_PER_SECOND, 0, Integer.MAX_VALUE);
-        this.evaluationIntervalInSec = getIntValueOrDefault("evaluationIntervalInSec", evaluationIntervalInSeconds, DEFAULT_EVALUATION_INTERVAL_IN_SECONDS, 0, Integer.MAX_VALUE);
-        this.samplingPercentageDecreaseTimeoutInSec = getIntValueOrDefault("samplingPercentageDecreaseTimeoutInSec", samplingPercentageDecreaseTimeoutInSeconds, DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS, 0, Integer.MAX_VALUE);
-        this.samplingPercentageIncreaseTimeoutInSec = getIntValueOrDefault("samplingPercentageIncreaseTimeoutInSec", samplingPercentageIncreaseTimeoutInSeconds, DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS, 0, Integer.MAX_VALUE);
-        this.minSamplingPercentage = getIntValueOrDefault("minSamplingPercentage", minSamplingPercentage, DEFAULT_MIN_SAMPLING_PERCENTAGE, 0, 100);
-        this.maxSamplingPercentage = getIntValueOrDefault("maxSamplingPercentage", maxSamplingPercentage, DEFAULT_MAX_SAMPLING_PERCENTAGE, 0, 100);
-        this.currentSamplingPercentage = getDoubleValueOrDefault("initialSamplingPercentage", initialSamplingPercentage, DEFAULT_INITIAL_SAMPLING_PERCENTAGE, 0.0, 100.0);
-        this.movingAverageRatio = getDoubleValueOrDefault("movingAverageRatio", movingAverageRatio, DEFAULT_MOVING_AVERAGE_RATIO, 0.0, 100.0);
+        int maxPerSecond = getIntValueOrDefault("maxTelemetriesPerSecond", maxTelemetriesPerSecond, DEFAULT_MAX_TELEMETRIES_PER_SECOND, 0, Integer.MAX_VALUE);
+        int evaluationIntervalInSec = getIntValueOrDefault("evaluationIntervalInSec", evaluationIntervalInSeconds, DEFAULT_EVALUATION_INTERVAL_IN_SECONDS, 0, Integer.MAX_VALUE);
+        int decreaseTimeoutInSec = getIntValueOrDefault("samplingPercentageDecreaseTimeoutInSec", samplingPercentageDecreaseTimeoutInSeconds, DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS, 0, Integer.MAX_VALUE);
+        int increaseTimeoutInSec = getIntValueOrDefault("samplingPercentageIncreaseTimeoutInSec", samplingPercentageIncreaseTimeoutInSeconds, DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS, 0, Integer.MAX_VALUE);
+        int minPercentage = getIntValueOrDefault("minSamplingPercentage", minSamplingPercentage, DEFAULT_MIN_SAMPLING_PERCENTAGE, 0, 100);
+        int maxPercentage = getIntValueOrDefault("maxSamplingPercentage", maxSamplingPercentage, DEFAULT_MAX_SAMPLING_PERCENTAGE, 0, 100);
+        double initialPercentage = getDoubleValueOrDefault("initialSamplingPercentage", initialSamplingPercentage, DEFAULT_INITIAL_SAMPLING_PERCENTAGE, 0.0, 100.0);
+        double ratio = getDoubleValueOrDefault("movingAverageRatio", movingAverageRatio, DEFAULT_MOVING_AVERAGE_RATIO, 0.0, 100.0);
+
+        long evaluationIntervalInMillis = TimeUnit.SECONDS.toMillis(evaluationIntervalInSec);
+        long decreaseTimeoutInMillis = TimeUnit.SECONDS.toMillis(decreaseTimeoutInSec);
+        long increaseTimeoutInMillis = TimeUnit.SECONDS.toMillis(increaseTimeoutInSec);
+
+        budget = new SamplingBudget(maxPerSecond, minPercentage, maxPercentage, initialPercentage,
+                evaluationIntervalInMillis, decreaseTimeoutInMillis, increaseTimeoutInMillis, ratio);
+
+        for (Map.Entry<String, Double> entry : SamplingBudget.parsePerType(maxTelemetryItemsPerSecondPerType, "MaxTelemetryItemsPerSecondPerType").entrySet()) {
+            Class<? extends Telemetry> type = sampler.getType(entry.getKey());
+            if (type == null || entry.getValue() <= 0) {
+                InternalLogger.INSTANCE.error("MaxTelemetryItemsPerSecondPerType contains illegal entry '%s', ignored", entry.getKey());
+                continue;
+            }
+
+            Double floor = typeFloors.get(type);
+            double typeMinPercentage = floor == null ? minPercentage : Math.max(minPercentage, floor);
+            typeBudgets.put(type, new SamplingBudget(entry.getValue(), typeMinPercentage, maxPercentage, initialPercentage,
+                    evaluationIntervalInMillis, decreaseTimeoutInMillis, increaseTimeoutInMillis, ratio));
+        }
 
         createTimerThread();
 
-        lastChangedDate = new Date();
-        sampler.setSamplingPercentage(this.currentSamplingPercentage);
-        threads.scheduleAtFixedRate(new SamplingRangeEvaluator(), this.evaluationIntervalInSec, this.evaluationIntervalInSec, TimeUnit.SECONDS);
+        sampler.setSamplingPercentage(initialPercentage);
+        long stepInMillis = evaluationIntervalInMillis / STEPS_PER_EVALUATION_INTERVAL;
+        threads.scheduleAtFixedRate(new SamplingRangeEvaluator(), stepInMillis, stepInMillis, TimeUnit.MILLISECONDS);
         SDKShutdownActivity.INSTANCE.register(this);
     }
 
+    /**
+     * Gives telemetry types a budget of their own, must be called prior to 'initialize'
+     * @param types The telemetries per second by type name, for example 'Request:50, Dependency:200, Trace:100'
+     */
+    public void setMaxTelemetryItemsPerSecondPerType(String types) {
+        maxTelemetryItemsPerSecondPerType = types;
+    }
+
+    /**
+     * Sets the percentages that telemetry types are never sampled below, must be called prior to 'initialize'
+     * @param types The percentages by type name, for example 'Exception:100'
+     */
+    public void setMinSamplingPercentagePerType(String types) {
+        typeFloors.clear();
+        for (Map.Entry<String, Double> entry : SamplingBudget.parsePerType(types, "MinSamplingPercentagePerType").entrySet()) {
+            Class<? extends Telemetry> type = sampler.getType(entry.getKey());
+            if (type == null || entry.getValue() > 100.0) {
+                InternalLogger.INSTANCE.error("MinSamplingPercentagePerType contains illegal entry '%s', ignored", entry.getKey());
+                continue;
+            }
+
+            typeFloors.put(type, entry.getValue());
+        }
+    }
+
     @Override
     public Set<Class> getExcludeTypes() {
         return sampler.getExcludeTypes();
@@ -219,14 +200,54 @@ public final class AdaptiveTelemetrySampler implements Stoppable, TelemetrySampl
         sampler.setSamplingPercentage(samplingPercentage);
     }
 
+    /**
+     * Every telemetry is counted, sampled in or not, by the budget of its type or by the global one,
+     * and is sampled with that budget's percentage, raised to the floor of its type.
+     */
     @Override
     public boolean isSampledIn(Telemetry telemetry) {
-        if (sampler.isSampledIn(telemetry)) {
-            counter.incrementAndGet();
-            return true;
+        double samplingPercentage;
+        SamplingBudget typeBudget = typeBudgets.get(telemetry.getClass());
+        if (typeBudget != null) {
+            typeBudget.count();
+            samplingPercentage = typeBudget.getSamplingPercentage();
+        } else {
+            budget.count();
+            samplingPercentage = sampler.getSamplingPercentage();
         }
 
-        return false;
+        Double floor = typeFloors.get(telemetry.getClass());
+        if (floor != null && floor > samplingPercentage) {
+            samplingPercentage = floor;
+        }
+
+        return sampler.isSampledIn(telemetry, samplingPercentage);
+    }
+
+    /**
+     * Measures the rates and adjusts the sampling percentages, called by the timer
+     * @param nowNanos The current {@link System#nanoTime()}
+     */
+    void evaluate(long nowNanos) {
+        if (budget.evaluate(nowNanos)) {
+            sampler.setSamplingPercentage(budget.getSamplingPercentage());
+        }
+        for (SamplingBudget typeBudget : typeBudgets.values()) {
+            typeBudget.evaluate(nowNanos);
+        }
+    }
+
+    long getNumberOfTelemetries() {
+        return budget.getNumberOfTelemetries();
+    }
+
+    /**
+     * @param type The telemetry type
+     * @return The sampling percentage of the type's own budget or null if it has none
+     */
+    Double getSamplingPercentage(Class<? extends Telemetry> type) {
+        SamplingBudget typeBudget = typeBudgets.get(type);
+        return typeBudget == null ? null : typeBudget.getSamplingPercentage();
     }
 
     private void createTimerThread() {
@@ -43,7 +43,7 @@ public final class FixedRateTelemetrySampler implements TelemetrySampler {
     private AtomicDouble samplingPercentage = new AtomicDouble(100.0);
     private HashSet<Class> excludeTypes = new HashSet<Class>();
     private HashSet<Class> includeTypes = new HashSet<Class>();
-    private final HashMap<String, Class> allowedTypes = new HashMap<String, Class>();
+    private final HashMap<String, Class<? extends Telemetry>> allowedTypes = new HashMap<String, Class<? extends Telemetry>>();
 
     public FixedRateTelemetrySampler() {
         allowedTypes.put("Dependency", RemoteDependencyTelemetry.class);
@@ -89,8 +89,17 @@ public final class FixedRateTelemetrySampler implements TelemetrySampler {
 
     @Override
     public boolean isSampledIn(Telemetry telemetry) {
-        Double currentSamplingPercentage = samplingPercentage.get();
+        return isSampledIn(telemetry, samplingPercentage.get());
+    }
 
+    /**
+     * Samples the telemetry with the given percentage instead of the sampler's own, the included and
+     * excluded types still apply and a percentage that was set on the telemetry still wins.
+     * @param telemetry The telemetry to sample
+     * @param currentSamplingPercentage The percentage to sample with, recorded on the telemetry when it is sampled in
+     * @return True if the telemetry should be sent
+     */
+    public boolean isSampledIn(Telemetry telemetry, double currentSamplingPercentage) {
         if (currentSamplingPercentage < 100.0 - 1.0E-12) {
             if (telemetry instanceof SupportSampling) {
                 SupportSampling samplingSupportingTelemetry = (SupportSampling)telemetry;
@@ -121,6 +130,14 @@ public final class FixedRateTelemetrySampler implements TelemetrySampler {
         return true;
     }
 
+    /**
+     * @param name A type name as used by 'IncludeTypes' and 'ExcludeTypes'
+     * @return The telemetry class of that name or null if there is none
+     */
+    Class<? extends Telemetry> getType(String name) {
+        return allowedTypes.get(name);
+    }
+
     private HashSet<Class> parseToSet(String value, String prefix) {
         HashSet<Class> set = new HashSet<Class>();
 
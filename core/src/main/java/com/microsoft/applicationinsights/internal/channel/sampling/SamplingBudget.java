@@ -0,0 +1,258 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.sampling;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The sampling percentage that keeps one stream of telemetries within a number of telemetries per second.
+ *
+ * The telemetries are counted by striped counters, so the application threads do not contend on one counter.
+ * The counters are read four times per window and the rate is measured over the last window, a rising rate is
+ * followed at once while a falling one is smoothed by the moving average ratio. Successive changes in the same
+ * direction are spaced by the decrease and increase timeouts.
+ *
+ * The suggested percentage is always 100/N, since the backend counts a sampled in telemetry as 100/percentage telemetries.
+ */
+public final class SamplingBudget {
+    public final static long DEFAULT_WINDOW_IN_MILLIS = 1000;
+    public final static long DEFAULT_DECREASE_TIMEOUT_IN_MILLIS = 1000;
+    public final static long DEFAULT_INCREASE_TIMEOUT_IN_MILLIS = 30000;
+    public final static double DEFAULT_MOVING_AVERAGE_RATIO = 0.25;
+
+    /// The window is measured in this many steps
+    public final static int STEPS_PER_WINDOW = 4;
+
+    /// Each counter gets a cache line of its own
+    private final static int COUNTER_PADDING = 8;
+    private final static int NUMBER_OF_COUNTERS = numberOfCounters();
+
+    private enum ChangeDirection {
+        Up,
+        Down,
+        None
+    }
+
+    private final double maxTelemetriesPerSecond;
+    private final double minSamplingPercentage;
+    private final double maxSamplingPercentage;
+    private final long stepInNanos;
+    private final long decreaseTimeoutInNanos;
+    private final long increaseTimeoutInNanos;
+    private final double movingAverageRatio;
+
+    private final AtomicLongArray counters = new AtomicLongArray(NUMBER_OF_COUNTERS * COUNTER_PADDING);
+
+    /// Keeps the counting threads from evaluating together, see 'evaluateIfDue'
+    private final AtomicBoolean evaluating = new AtomicBoolean();
+
+    private volatile double samplingPercentage;
+    private volatile long lastEvaluationNanos;
+
+    /// The telemetries and the time of each of the last steps, guarded by 'this'
+    private final long[] stepCounts = new long[STEPS_PER_WINDOW];
+    private final long[] stepDurationsInNanos = new long[STEPS_PER_WINDOW];
+    private int step;
+    private long lastTotal;
+    private boolean first = true;
+    private double average;
+    private ChangeDirection lastChangeDirection = ChangeDirection.None;
+    private long lastChangeNanos;
+
+    public SamplingBudget(double maxTelemetriesPerSecond, double minSamplingPercentage) {
+        this(maxTelemetriesPerSecond, minSamplingPercentage, 100.0, 100.0, DEFAULT_WINDOW_IN_MILLIS,
+                DEFAULT_DECREASE_TIMEOUT_IN_MILLIS, DEFAULT_INCREASE_TIMEOUT_IN_MILLIS, DEFAULT_MOVING_AVERAGE_RATIO);
+    }
+
+    public SamplingBudget(double maxTelemetriesPerSecond,
+                          double minSamplingPercentage,
+                          double maxSamplingPercentage,
+                          double initialSamplingPercentage,
+                          long windowInMillis,
+                          long decreaseTimeoutInMillis,
+                          long increaseTimeoutInMillis,
+                          double movingAverageRatio) {
+        Preconditions.checkArgument(maxTelemetriesPerSecond > 0, "maxTelemetriesPerSecond must be a positive number");
+        Preconditions.checkArgument(windowInMillis >= STEPS_PER_WINDOW, "windowInMillis must be at least %s", STEPS_PER_WINDOW);
+
+        this.maxTelemetriesPerSecond = maxTelemetriesPerSecond;
+        this.minSamplingPercentage = minSamplingPercentage;
+        this.maxSamplingPercentage = maxSamplingPercentage;
+        this.samplingPercentage = initialSamplingPercentage;
+        this.stepInNanos = TimeUnit.MILLISECONDS.toNanos(windowInMillis) / STEPS_PER_WINDOW;
+        this.decreaseTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(decreaseTimeoutInMillis);
+        this.increaseTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(increaseTimeoutInMillis);
+        this.movingAverageRatio = movingAverageRatio;
+        this.lastEvaluationNanos = this.lastChangeNanos = System.nanoTime();
+    }
+
+    /**
+     * Counts a telemetry of the stream, sampled in or not
+     */
+    public void count() {
+        int index = (int) (Thread.currentThread().getId() & (NUMBER_OF_COUNTERS - 1)) * COUNTER_PADDING;
+        counters.incrementAndGet(index);
+    }
+
+    /**
+     * Lets the counting threads evaluate the budget when there is no timer to do it, a step after the
+     * previous evaluation. Only one of them evaluates, the others go on with the current percentage.
+     * @param nowNanos The current {@link System#nanoTime()}
+     */
+    public void evaluateIfDue(long nowNanos) {
+        if (nowNanos - lastEvaluationNanos < stepInNanos || !evaluating.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            evaluate(nowNanos);
+        } finally {
+            evaluating.set(false);
+        }
+    }
+
+    /**
+     * Measures the rate of the last window and adjusts the sampling percentage
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return True if the sampling percentage was changed
+     */
+    public synchronized boolean evaluate(long nowNanos) {
+        long total = getNumberOfTelemetries();
+        stepCounts[step] = total - lastTotal;
+        stepDurationsInNanos[step] = Math.max(1, nowNanos - lastEvaluationNanos);
+        step = (step + 1) % STEPS_PER_WINDOW;
+        lastTotal = total;
+        lastEvaluationNanos = nowNanos;
+
+        long windowCount = 0;
+        long windowDurationInNanos = 0;
+        for (int i = 0; i < STEPS_PER_WINDOW; ++i) {
+            windowCount += stepCounts[i];
+            windowDurationInNanos += stepDurationsInNanos[i];
+        }
+        double telemetriesPerSecond = (double) windowCount * TimeUnit.SECONDS.toNanos(1) / (double) windowDurationInNanos;
+
+        if (!first && telemetriesPerSecond < average) {
+            average = average * (1 - movingAverageRatio) + telemetriesPerSecond * movingAverageRatio;
+        } else {
+            first = false;
+            average = telemetriesPerSecond;
+        }
+
+        double suggestedSamplingPercentage;
+        if (average > maxTelemetriesPerSecond) {
+            suggestedSamplingPercentage = 100.0 / Math.ceil(average / maxTelemetriesPerSecond);
+        } else {
+            suggestedSamplingPercentage = 100;
+        }
+        if (suggestedSamplingPercentage > maxSamplingPercentage) {
+            suggestedSamplingPercentage = maxSamplingPercentage;
+        }
+        if (suggestedSamplingPercentage < minSamplingPercentage) {
+            suggestedSamplingPercentage = minSamplingPercentage;
+        }
+
+        if (suggestedSamplingPercentage == samplingPercentage) {
+            return false;
+        }
+
+        long sinceLastChange = nowNanos - lastChangeNanos;
+        ChangeDirection direction = suggestedSamplingPercentage > samplingPercentage ? ChangeDirection.Up : ChangeDirection.Down;
+        long timeout = direction == ChangeDirection.Up ? increaseTimeoutInNanos : decreaseTimeoutInNanos;
+        if (lastChangeDirection == direction && sinceLastChange < timeout) {
+            return false;
+        }
+
+        InternalLogger.INSTANCE.trace("Updating sampling percentage from %s to %s, average is %s", samplingPercentage, suggestedSamplingPercentage, average);
+        samplingPercentage = suggestedSamplingPercentage;
+        lastChangeDirection = direction;
+        lastChangeNanos = nowNanos;
+        return true;
+    }
+
+    public double getSamplingPercentage() {
+        return samplingPercentage;
+    }
+
+    public double getMaxTelemetriesPerSecond() {
+        return maxTelemetriesPerSecond;
+    }
+
+    /**
+     * @return The number of telemetries that were counted
+     */
+    public long getNumberOfTelemetries() {
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_COUNTERS; ++i) {
+            total += counters.get(i * COUNTER_PADDING);
+        }
+        return total;
+    }
+
+    /**
+     * Parses a setting like 'Request:50, Dependency:200', the type names are checked by the caller.
+     * @param value The setting
+     * @param settingName The name of the setting, for the log
+     * @return The values by type name, entries that are not a name and a non negative number are ignored
+     */
+    public static Map<String, Double> parsePerType(String value, String settingName) {
+        Map<String, Double> result = new HashMap<String, Double>();
+        if (LocalStringsUtils.isNullOrEmpty(value)) {
+            return result;
+        }
+
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            int separator = entry.indexOf(':');
+            try {
+                double parsed = Double.parseDouble(entry.substring(separator + 1).trim());
+                if (separator <= 0 || parsed < 0) {
+                    throw new NumberFormatException();
+                }
+                result.put(entry.substring(0, separator).trim(), parsed);
+            } catch (NumberFormatException e) {
+                InternalLogger.INSTANCE.error("%s contains illegal entry '%s', ignored", settingName, entry);
+            }
+        }
+
+        return result;
+    }
+
+    /// A power of two, about twice the number of processors
+    private static int numberOfCounters() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 32);
+        return Integer.highestOneBit(processors * 2 - 1) * 2;
+    }
+}
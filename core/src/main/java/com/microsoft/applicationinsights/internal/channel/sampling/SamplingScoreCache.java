@@ -0,0 +1,57 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.sampling;
+
+/**
+ * Remembers the sampling score of the last id that was scored on each thread.
+ *
+ * The telemetries of a request are tracked one after the other on the request's thread and share its
+ * operation id, usually the very same string, so only the first of them needs to be hashed.
+ */
+public final class SamplingScoreCache {
+    private static final class Entry {
+        private String id;
+        private double score;
+    }
+
+    private final ThreadLocal<Entry> entries = new ThreadLocal<Entry>() {
+        @Override
+        protected Entry initialValue() {
+            return new Entry();
+        }
+    };
+
+    /**
+     * @param id The id that is scored
+     * @return The score of the id if it was the last one scored on this thread, {@link Double#NaN} otherwise
+     */
+    public double get(String id) {
+        Entry entry = entries.get();
+        return id.equals(entry.id) ? entry.score : Double.NaN;
+    }
+
+    public void put(String id, double score) {
+        Entry entry = entries.get();
+        entry.id = id;
+        entry.score = score;
+    }
+}
@@ -21,7 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.channel.sampling;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
@@ -32,42 +32,55 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
  * Utility class for sampling score generation.
  */
 final class SamplingScoreGenerator {
-    private static Random rand = new Random();
+    private static final SamplingScoreCache cache = new SamplingScoreCache();
 
     public static double getSamplingScore(Telemetry telemetry) {
-        double samplingScore = 0;
-
         try {
-            if (telemetry.getContext().getUser().getId() != null) {
-                samplingScore = (double) getSamplingHashCode(telemetry.getContext().getUser().getId()) / Integer.MAX_VALUE;
-            } else if (telemetry.getContext().getOperation().getId() != null) {
-                samplingScore = (double) getSamplingHashCode(telemetry.getContext().getOperation().getId()) / Integer.MAX_VALUE;
-            } else {
-                samplingScore = rand.nextDouble();
+            String id = telemetry.getContext().getUser().getId();
+            if (id == null) {
+                id = telemetry.getContext().getOperation().getId();
+            }
+            if (id != null) {
+                return getSamplingScore(id);
             }
         } catch (Exception e) {
             InternalLogger.INSTANCE.error("Failed to fetch sample number for telemetry, using default");
-            samplingScore = rand.nextDouble();
         }
 
-        samplingScore *= 100;
+        return ThreadLocalRandom.current().nextDouble() * 100;
+    }
+
+    private static double getSamplingScore(String id) {
+        double samplingScore = cache.get(id);
+        if (Double.isNaN(samplingScore)) {
+            samplingScore = (double) getSamplingHashCode(id) / Integer.MAX_VALUE * 100;
+            cache.put(id, samplingScore);
+        }
+
         return samplingScore;
     }
 
+    /**
+     * The djb2 hash of the input doubled until it is at least 8 characters long, the input is
+     * walked over instead of doubled so nothing is allocated.
+     */
     private static int getSamplingHashCode(String input) {
-        if (input == null) {
+        if (input == null || input.isEmpty()) {
             return 0;
         }
 
-        while (input.length() < 8) {
-            input = input + input;
+        int length = input.length();
+        int paddedLength = length;
+        while (paddedLength < 8) {
+            paddedLength *= 2;
         }
 
         int hash = 5381;
 
-        char[] asChars = input.toCharArray();
-        for (int i = 0; i < asChars.length; i++) {
-            hash = ((hash << 5) + hash) + (int)asChars[i];
+        for (int copies = paddedLength / length; copies > 0; --copies) {
+            for (int i = 0; i < length; i++) {
+                hash = ((hash << 5) + hash) + (int) input.charAt(i);
+            }
         }
 
         return hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
@@ -1,7 +1,9 @@
 package com.microsoft.applicationinsights.internal.channel.samplingV2;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetrySamplingPreCheck;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.channel.sampling.SamplingBudget;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
@@ -29,6 +31,8 @@ import java.util.Set;
     <BuiltInProcessors>
         <Processor type = "FixedRateSamplingTelemetryProcessor">
             <Add name = "SamplingPercentage" value = "50" />
+            <Add name = "MaxTelemetryItemsPerSecondPerType" value = "Request:50, Dependency:200, Trace:100" />
+            <Add name = "MinSamplingPercentagePerType" value = "Exception:100" />
             <ExcludedTypes>
                 <ExcludedType>Request</ExcludedType>
             </ExcludedTypes>
@@ -44,10 +48,10 @@ import java.util.Set;
  }
  */
 @BuiltInProcessor("FixedRateSamplingTelemetryProcessor")
-public final class FixedRateSamplingTelemetryProcessor implements TelemetryProcessor {
+public final class FixedRateSamplingTelemetryProcessor implements TelemetryProcessor, TelemetrySamplingPreCheck {
 
     public static final double DEFAULT_SAMPLING_PERCENTAGE = 100.0;
-    private static Map<String, Class> allowedTypes = new HashMap<>();
+    private static Map<String, Class<? extends Telemetry>> allowedTypes = new HashMap<>();
 
     private static final String dependencyTelemetryName = "Dependency";
     private static final String eventTelemetryName = "Event";
@@ -69,6 +73,17 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
 
     private Set<Class> includedTypes;
 
+    /**
+     * The budgets of the telemetry types that are also sampled by their rate, they evaluate themselves
+     * as the telemetries are processed since the processor has no timer of its own
+     */
+    private final Map<Class<? extends Telemetry>, SamplingBudget> typeBudgets = new HashMap<>();
+
+    /**
+     * The percentages the telemetry types are never sampled below
+     */
+    private final Map<Class<? extends Telemetry>, Double> typeFloors = new HashMap<>();
+
     /**
      *  All sampling percentage must be in a ratio of 100/N where N is a whole number (2, 3, 4, …). E.g. 50 for 1/2 or 33.33 for 1/3.
      *  Failure to follow this pattern can result in unexpected / incorrect computation of values in the portal.
@@ -139,6 +154,62 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
         }
     }
 
+    /**
+     * Sets the telemetries per second that telemetry types are kept within, on top of the sampling percentage
+     *
+     * @param value The telemetries per second by type name, for example 'Request:50, Dependency:200'
+     */
+    public void setMaxTelemetryItemsPerSecondPerType(String value) {
+        typeBudgets.clear();
+        for (Map.Entry<String, Double> entry : SamplingBudget.parsePerType(value, "MaxTelemetryItemsPerSecondPerType").entrySet()) {
+            Class<? extends Telemetry> type = allowedTypes.get(entry.getKey());
+            if (type == null || entry.getValue() <= 0) {
+                InternalLogger.INSTANCE.error("Error configuring %s: %s is not a valid telemetry type budget.", FixedRateSamplingTelemetryProcessor.class.getSimpleName(), entry.getKey());
+                continue;
+            }
+
+            typeBudgets.put(type, new SamplingBudget(entry.getValue(), 1.0));
+        }
+    }
+
+    /**
+     * Sets the sampling percentages that telemetry types are never sampled below
+     *
+     * @param value The percentages by type name, for example 'Exception:100'
+     */
+    public void setMinSamplingPercentagePerType(String value) {
+        typeFloors.clear();
+        for (Map.Entry<String, Double> entry : SamplingBudget.parsePerType(value, "MinSamplingPercentagePerType").entrySet()) {
+            Class<? extends Telemetry> type = allowedTypes.get(entry.getKey());
+            if (type == null || entry.getValue() > 100.0) {
+                InternalLogger.INSTANCE.error("Error configuring %s: %s is not a valid telemetry type floor.", FixedRateSamplingTelemetryProcessor.class.getSimpleName(), entry.getKey());
+                continue;
+            }
+
+            typeFloors.put(type, entry.getValue());
+        }
+    }
+
+    /**
+     * Gets the sample rate of the telemetry type, the sampling percentage lowered by the type's budget
+     * and raised to the type's floor
+     */
+    double getSamplingPercentage(Class<? extends Telemetry> type) {
+        double sp = this.samplingPercentage;
+
+        SamplingBudget budget = typeBudgets.get(type);
+        if (budget != null) {
+            sp = Math.min(sp, budget.getSamplingPercentage());
+        }
+
+        Double floor = typeFloors.get(type);
+        if (floor != null) {
+            sp = Math.max(sp, floor);
+        }
+
+        return sp;
+    }
+
     /**
      * This method determines if the telemetry needs to be sampled or not.
      *
@@ -154,6 +225,13 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
 
             if (isSamplingApplicable(telemetry.getClass())) {
 
+                SamplingBudget budget = typeBudgets.get(telemetry.getClass());
+                if (budget != null) {
+                    budget.count();
+                    budget.evaluateIfDue(System.nanoTime());
+                }
+                sp = getSamplingPercentage(telemetry.getClass());
+
                 SupportSampling samplingSupportingTelemetry = ((SupportSampling) telemetry);
 
                 if (samplingSupportingTelemetry.getSamplingPercentage() == null) {
@@ -182,6 +260,32 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
         return true;
     }
 
+    /**
+     * This method determines ahead if a telemetry of the type and operation would be sampled in,
+     * a telemetry that is sampled out here is counted by the budget of its type as if it was processed.
+     *
+     * @param type The type of the telemetry
+     * @param operationId The operation id of the telemetry
+     * @return False if the telemetry would be sampled out
+     */
+    @Override
+    public boolean isSampledIn(Class<? extends Telemetry> type, String operationId) {
+        if (!SupportSampling.class.isAssignableFrom(type) || !isSamplingApplicable(type)) {
+            return true;
+        }
+
+        if (SamplingScoreGeneratorV2.getSamplingScore(operationId) < getSamplingPercentage(type)) {
+            return true;
+        }
+
+        SamplingBudget budget = typeBudgets.get(type);
+        if (budget != null) {
+            budget.count();
+            budget.evaluateIfDue(System.nanoTime());
+        }
+        return false;
+    }
+
     /**
      * Determines if the argument is applicable for sampling
      *
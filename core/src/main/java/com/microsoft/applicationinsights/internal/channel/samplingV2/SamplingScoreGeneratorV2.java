@@ -1,10 +1,11 @@
 package com.microsoft.applicationinsights.internal.channel.samplingV2;
 
+import com.microsoft.applicationinsights.internal.channel.sampling.SamplingScoreCache;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
-
-import java.util.Random;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Created by Dhaval Doshi Oct 2017
  * This class generates the sample using the random number generator.
@@ -12,44 +13,61 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class SamplingScoreGeneratorV2 {
 
-    private static Random random = new Random();
+    private static final SamplingScoreCache cache = new SamplingScoreCache();
 
     /**
      * This method takes the telemetry and returns the hash of the operation id if it is present already
-     * or uses the random number generator to generate the sampling score.
+     * or uses the random number generator of the thread to generate the sampling score.
      * @param telemetry
      * @return
      */
     public static double getSamplingScore(Telemetry telemetry) {
 
-        double samplingScore = 0.0;
-
-        if (!StringUtils.isEmpty(telemetry.getContext().getOperation().getId())) {
-            samplingScore =  ((double) getSamplingHashCode(telemetry.getContext().getOperation().getId()) / Integer.MAX_VALUE);
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (!StringUtils.isEmpty(operationId)) {
+            return getSamplingScore(operationId);
         }
 
-        else {
-            long val = Math.abs(random.nextLong());
-            samplingScore =  ((double)Math.abs(val)/ Long.MAX_VALUE);
+        return ThreadLocalRandom.current().nextDouble() * 100;
+    }
+
+    /**
+     * This method returns the sampling score of the telemetries of an operation, before they are created.
+     * The score of the last operation on the thread is remembered since its telemetries come one after the other.
+     * @param operationId The operation id, not empty
+     * @return The same score as that of the operation's telemetries
+     */
+    public static double getSamplingScore(String operationId) {
+        double samplingScore = cache.get(operationId);
+        if (Double.isNaN(samplingScore)) {
+            samplingScore = ((double) getSamplingHashCode(operationId) / Integer.MAX_VALUE) * 100;
+            cache.put(operationId, samplingScore);
         }
 
-        return samplingScore * 100;
+        return samplingScore;
     }
 
-     static int getSamplingHashCode(String input) {
+    /**
+     * The djb2 hash of the input repeated until it is at least 8 characters long, the input is
+     * walked over instead of repeated so nothing is allocated.
+     */
+    static int getSamplingHashCode(String input) {
         if (StringUtils.isEmpty(input)) {
             return 0;
         }
 
-        StringBuilder inputBuilder = new StringBuilder(input);
-        while (inputBuilder.length() < 8) {
-            inputBuilder.append(input);
+        int length = input.length();
+        int copies = 1;
+        while (copies * length < 8) {
+            ++copies;
         }
 
         int hash = 5381;
 
-        for (int i = 0; i < inputBuilder.length(); ++i) {
-            hash = ((hash << 5) + hash) + (int) inputBuilder.charAt(i);
+        for (; copies > 0; --copies) {
+            for (int i = 0; i < length; ++i) {
+                hash = ((hash << 5) + hash) + (int) input.charAt(i);
+            }
         }
 
         return hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
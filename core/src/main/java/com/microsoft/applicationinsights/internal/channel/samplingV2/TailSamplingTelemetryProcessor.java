@@ -0,0 +1,436 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This processor samples whole operations once their outcome is known, as opposed to the head based
+ * {@link FixedRateSamplingTelemetryProcessor} that decides on each telemetry as it is tracked.
+ * <p>
+ * The telemetries of an operation are held until the request that owns the operation is tracked, which the web
+ * module does when the request ends. The operation is then kept or dropped as a whole: failed and slow requests
+ * and requests with exceptions are always kept and recorded with a sampling percentage of 100, the rest are kept
+ * at the base sampling percentage by the hash of the operation id. Telemetries that come after the decision follow it.
+ * <p>
+ * The held telemetries are bounded by number and by time. Operations whose request did not come in time, or that are
+ * the oldest when the bound is reached, are decided without their request: they are kept when they have an exception
+ * and at the base sampling percentage otherwise. Once {@link #start()} is called, a background thread looks for expired
+ * operations every second, so they are not held longer when no telemetry comes, and every held operation is decided
+ * when the SDK shuts down. Kept telemetries that were held are sent to the channel of the configuration that created
+ * the processor directly, or of the active configuration if it has none, so this processor should be the last one.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "TailSamplingTelemetryProcessor">
+            <Add name = "BaseSamplingPercentage" value = "10" />
+            <Add name = "SlowRequestThresholdInMS" value = "3000" />
+            <Add name = "MaxHeldTelemetries" value = "10000" />
+            <Add name = "MaxHoldTimeInSeconds" value = "60" />
+        </Processor>
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ */
+@BuiltInProcessor("TailSamplingTelemetryProcessor")
+public final class TailSamplingTelemetryProcessor implements TelemetryProcessor, Stoppable {
+
+    public static final double DEFAULT_BASE_SAMPLING_PERCENTAGE = 10.0;
+    public static final long DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MS = 3000;
+    public static final int DEFAULT_MAX_HELD_TELEMETRIES = 10000;
+    public static final long DEFAULT_MAX_HOLD_TIME_IN_SECONDS = 60;
+
+    /**
+     * The number of decisions that are remembered for telemetries that come after their request
+     */
+    private static final int MAX_REMEMBERED_DECISIONS = 10000;
+
+    /**
+     * The interval at which the expired operations are looked for
+     */
+    private static final long RELEASE_INTERVAL_IN_SECONDS = 1;
+
+    private final class ExpiredOperationsReleaser implements Runnable {
+        @Override
+        public void run() {
+            releaseExpired(System.nanoTime());
+        }
+    }
+
+    /**
+     * The telemetries of one operation that are held until its request comes
+     */
+    private static final class Operation {
+        private final long startNanos;
+        private final List<Telemetry> telemetries = new ArrayList<>();
+        private boolean hasException;
+
+        private Operation(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * The held operations by operation id, oldest first, guarded by itself
+     */
+    private final LinkedHashMap<String, Operation> operations = new LinkedHashMap<>();
+
+    /**
+     * The sampling percentage each decided operation was kept with, or 0 if it was dropped, guarded by 'operations'
+     */
+    private final LinkedHashMap<String, Double> decisions = new LinkedHashMap<String, Double>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_REMEMBERED_DECISIONS;
+        }
+    };
+
+    private int numberOfHeldTelemetries;
+
+    /**
+     * Once stopped, telemetries are decided as they come instead of being held, guarded by 'operations'
+     */
+    private boolean stopped;
+
+    /**
+     *  All sampling percentage must be in a ratio of 100/N where N is a whole number (2, 3, 4, …). E.g. 50 for 1/2 or 33.33 for 1/3.
+     *  Failure to follow this pattern can result in unexpected / incorrect computation of values in the portal.
+     */
+    private double baseSamplingPercentage = DEFAULT_BASE_SAMPLING_PERCENTAGE;
+    private long slowRequestThresholdInMS = DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MS;
+    private int maxHeldTelemetries = DEFAULT_MAX_HELD_TELEMETRIES;
+    private long maxHoldTimeInNanos = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_HOLD_TIME_IN_SECONDS);
+
+    private volatile TelemetryChannel channel;
+
+    /**
+     * The thread that looks for expired operations, created by 'start', guarded by 'operations'
+     */
+    private ScheduledThreadPoolExecutor threads;
+
+    /**
+     * Starts looking for expired operations in the background and registers the processor to be stopped
+     * when the SDK shuts down. Calling it again, or after {@link #stop(long, TimeUnit)}, does nothing.
+     */
+    public void start() {
+        synchronized (operations) {
+            if (threads != null || stopped) {
+                return;
+            }
+
+            threads = new ScheduledThreadPoolExecutor(1);
+            threads.setThreadFactory(ThreadPoolUtils.createDaemonThreadFactory(TailSamplingTelemetryProcessor.class));
+            threads.scheduleWithFixedDelay(new ExpiredOperationsReleaser(), RELEASE_INTERVAL_IN_SECONDS, RELEASE_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        }
+
+        // The held telemetries go to the channel, so this is stopped before the channels are
+        SDKShutdownActivity.INSTANCE.registerPipeline(this);
+    }
+
+    /**
+     * Sets the percentage of the operations that are kept when nothing went wrong in them
+     *
+     * @param value The sampling percentage
+     */
+    public void setBaseSamplingPercentage(String value) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed < 0.0 || parsed > 100.0) {
+                throw new NumberFormatException(value);
+            }
+            baseSamplingPercentage = parsed;
+            InternalLogger.INSTANCE.info("Base sampling rate set to %s", value);
+        } catch (NumberFormatException e) {
+            baseSamplingPercentage = DEFAULT_BASE_SAMPLING_PERCENTAGE;
+            InternalLogger.INSTANCE.error("Base sampling rate specified in improper format. Using default base sampling rate, %s", DEFAULT_BASE_SAMPLING_PERCENTAGE);
+        }
+    }
+
+    /**
+     * Sets the duration from which a request is always kept
+     *
+     * @param value The duration in milliseconds
+     */
+    public void setSlowRequestThresholdInMS(String value) {
+        try {
+            slowRequestThresholdInMS = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            slowRequestThresholdInMS = DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MS;
+            InternalLogger.INSTANCE.error("Slow request threshold specified in improper format. Using default, %s", DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MS);
+        }
+    }
+
+    /**
+     * Sets the number of telemetries that may be held, the oldest operations are decided when it is reached
+     *
+     * @param value The number of telemetries
+     */
+    public void setMaxHeldTelemetries(String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new NumberFormatException(value);
+            }
+            maxHeldTelemetries = parsed;
+        } catch (NumberFormatException e) {
+            maxHeldTelemetries = DEFAULT_MAX_HELD_TELEMETRIES;
+            InternalLogger.INSTANCE.error("Max held telemetries specified in improper format. Using default, %s", DEFAULT_MAX_HELD_TELEMETRIES);
+        }
+    }
+
+    /**
+     * Sets the time an operation is held for its request, it is decided without the request after that
+     *
+     * @param value The time in seconds
+     */
+    public void setMaxHoldTimeInSeconds(String value) {
+        try {
+            maxHoldTimeInNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            maxHoldTimeInNanos = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_HOLD_TIME_IN_SECONDS);
+            InternalLogger.INSTANCE.error("Max hold time specified in improper format. Using default, %s", DEFAULT_MAX_HOLD_TIME_IN_SECONDS);
+        }
+    }
+
+    /**
+     * Sets the channel the kept telemetries that were held are sent to, normally the channel of the configuration
+     * that created the processor. Without one they go to the channel of the active configuration
+     *
+     * @param channel The channel
+     */
+    public void setChannel(TelemetryChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Stops looking for expired operations and decides on all the held ones without their request
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        ScheduledThreadPoolExecutor startedThreads;
+        synchronized (operations) {
+            stopped = true;
+            startedThreads = threads;
+        }
+        if (startedThreads != null) {
+            ThreadPoolUtils.stop(startedThreads, timeout, timeUnit);
+        }
+
+        List<Telemetry> released = new ArrayList<>();
+        synchronized (operations) {
+            while (!operations.isEmpty()) {
+                releaseEldest(released);
+            }
+        }
+        send(released);
+    }
+
+    int getNumberOfHeldTelemetries() {
+        synchronized (operations) {
+            return numberOfHeldTelemetries;
+        }
+    }
+
+    /**
+     * Holds the telemetries of an operation and decides on all of them when its request comes.
+     *
+     * @param telemetry
+     * @return True if the telemetry should be sent now
+     */
+    @Override
+    public boolean process(Telemetry telemetry) {
+        return process(telemetry, System.nanoTime());
+    }
+
+    boolean process(Telemetry telemetry, long nowNanos) {
+        if (!(telemetry instanceof SupportSampling)) {
+            return true;
+        }
+
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (StringUtils.isEmpty(operationId)) {
+            return true;
+        }
+
+        List<Telemetry> released = new ArrayList<>();
+        boolean result;
+        synchronized (operations) {
+            releaseExpired(nowNanos, released);
+
+            Double decision = decisions.get(operationId);
+            if (telemetry instanceof RequestTelemetry) {
+                Operation operation = operations.remove(operationId);
+                double samplingPercentage = decide((RequestTelemetry) telemetry, operation);
+                if (decision != null && decision > samplingPercentage) {
+                    samplingPercentage = decision;
+                }
+                release(operationId, operation, samplingPercentage, released);
+                result = keep(telemetry, samplingPercentage);
+            } else if (decision != null) {
+                result = keep(telemetry, decision);
+            } else if (stopped) {
+                double samplingPercentage = telemetry instanceof ExceptionTelemetry ? 100.0 : decideByBaseRate(telemetry);
+                result = keep(telemetry, samplingPercentage);
+            } else {
+                Operation operation = operations.get(operationId);
+                if (operation == null) {
+                    operation = new Operation(nowNanos);
+                    operations.put(operationId, operation);
+                }
+                operation.telemetries.add(telemetry);
+                operation.hasException |= telemetry instanceof ExceptionTelemetry;
+                ++numberOfHeldTelemetries;
+
+                while (numberOfHeldTelemetries > maxHeldTelemetries) {
+                    releaseEldest(released);
+                }
+                result = false;
+            }
+        }
+
+        send(released);
+        return result;
+    }
+
+    /**
+     * Decides on the operations that were held for too long, called by the background thread
+     */
+    void releaseExpired(long nowNanos) {
+        List<Telemetry> released = new ArrayList<>();
+        synchronized (operations) {
+            releaseExpired(nowNanos, released);
+        }
+        send(released);
+    }
+
+    private void releaseExpired(long nowNanos, List<Telemetry> released) {
+        while (!operations.isEmpty()) {
+            Operation eldest = operations.values().iterator().next();
+            if (nowNanos - eldest.startNanos < maxHoldTimeInNanos) {
+                return;
+            }
+            releaseEldest(released);
+        }
+    }
+
+    /**
+     * Decides on the oldest operation without its request
+     */
+    private void releaseEldest(List<Telemetry> released) {
+        Iterator<Map.Entry<String, Operation>> iterator = operations.entrySet().iterator();
+        Map.Entry<String, Operation> eldest = iterator.next();
+        iterator.remove();
+
+        Operation operation = eldest.getValue();
+        double samplingPercentage = operation.hasException ? 100.0 : decideByBaseRate(operation.telemetries.get(0));
+        InternalLogger.INSTANCE.trace("Operation %s was decided without its request", eldest.getKey());
+        release(eldest.getKey(), operation, samplingPercentage, released);
+    }
+
+    private void release(String operationId, Operation operation, double samplingPercentage, List<Telemetry> released) {
+        decisions.put(operationId, samplingPercentage);
+        if (operation == null) {
+            return;
+        }
+
+        numberOfHeldTelemetries -= operation.telemetries.size();
+        for (Telemetry telemetry : operation.telemetries) {
+            if (keep(telemetry, samplingPercentage)) {
+                released.add(telemetry);
+            }
+        }
+    }
+
+    private double decide(RequestTelemetry request, Operation operation) {
+        if (!request.isSuccess()) {
+            return 100.0;
+        }
+
+        Duration duration = request.getDuration();
+        if (duration != null && duration.getTotalMilliseconds() >= slowRequestThresholdInMS) {
+            return 100.0;
+        }
+
+        if (operation != null && operation.hasException) {
+            return 100.0;
+        }
+
+        return decideByBaseRate(request);
+    }
+
+    /**
+     * @return The base sampling percentage if the operation is sampled in by its hash or 0 if it is not
+     */
+    private double decideByBaseRate(Telemetry telemetry) {
+        return SamplingScoreGeneratorV2.getSamplingScore(telemetry) < baseSamplingPercentage ? baseSamplingPercentage : 0.0;
+    }
+
+    /**
+     * Records the sampling percentage on a kept telemetry unless it was already set
+     */
+    private static boolean keep(Telemetry telemetry, double samplingPercentage) {
+        if (samplingPercentage <= 0.0) {
+            InternalLogger.INSTANCE.trace("Item %s sampled out", telemetry.getClass().getSimpleName());
+            return false;
+        }
+
+        SupportSampling samplingSupportingTelemetry = (SupportSampling) telemetry;
+        if (samplingSupportingTelemetry.getSamplingPercentage() == null) {
+            samplingSupportingTelemetry.setSamplingPercentage(samplingPercentage);
+        }
+        return true;
+    }
+
+    private void send(List<Telemetry> released) {
+        if (released.isEmpty()) {
+            return;
+        }
+
+        TelemetryChannel target = channel;
+        if (target == null) {
+            target = TelemetryConfiguration.getActive().getChannel();
+        }
+        if (target == null) {
+            InternalLogger.INSTANCE.error("No channel to send %d held telemetries to, they are lost", released.size());
+            return;
+        }
+
+        try {
+            for (Telemetry telemetry : released) {
+                target.send(telemetry);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to send %d held telemetries: '%s'", released.size(), t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+}
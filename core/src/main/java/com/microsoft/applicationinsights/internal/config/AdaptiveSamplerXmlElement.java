@@ -37,6 +37,12 @@ public class AdaptiveSamplerXmlElement {
     @XStreamAlias("MaxTelemetryItemsPerSecond")
     private String maxTelemetryItemsPerSecond;
 
+    @XStreamAlias("MaxTelemetryItemsPerSecondPerType")
+    private String maxTelemetryItemsPerSecondPerType;
+
+    @XStreamAlias("MinSamplingPercentagePerType")
+    private String minSamplingPercentagePerType;
+
     @XStreamAlias("EvaluationIntervalInSec")
     private String evaluationInterval;
 
@@ -66,6 +72,22 @@ public class AdaptiveSamplerXmlElement {
         return maxTelemetryItemsPerSecond;
     }
 
+    public void setMaxTelemetryItemsPerSecondPerType(String maxTelemetryItemsPerSecondPerType) {
+        this.maxTelemetryItemsPerSecondPerType = maxTelemetryItemsPerSecondPerType;
+    }
+
+    public String getMaxTelemetryItemsPerSecondPerType() {
+        return maxTelemetryItemsPerSecondPerType;
+    }
+
+    public void setMinSamplingPercentagePerType(String minSamplingPercentagePerType) {
+        this.minSamplingPercentagePerType = minSamplingPercentagePerType;
+    }
+
+    public String getMinSamplingPercentagePerType() {
+        return minSamplingPercentagePerType;
+    }
+
     public void setEvaluationInterval(String evaluationInterval) {
         this.evaluationInterval = evaluationInterval;
     }
@@ -66,6 +66,9 @@ public class ApplicationInsightsXmlConfiguration {
     @XStreamAlias("QuickPulse")
     private QuickPulseXmlElement quickPulse;
 
+    @XStreamAlias("AsyncTracking")
+    private AsyncTrackingXmlElement asyncTracking;
+
     @XStreamAsAttribute
     private String schemaVersion;
 
@@ -144,6 +147,17 @@ public class ApplicationInsightsXmlConfiguration {
         this.quickPulse = quickPulse;
     }
 
+    public AsyncTrackingXmlElement getAsyncTracking() {
+        if (asyncTracking == null) {
+            asyncTracking = new AsyncTrackingXmlElement();
+        }
+        return asyncTracking;
+    }
+
+    public void setAsyncTracking(AsyncTrackingXmlElement asyncTracking) {
+        this.asyncTracking = asyncTracking;
+    }
+
     public SDKLoggerXmlElement getSdkLogger() {
         return sdkLogger;
     }
@@ -39,6 +39,9 @@ public class ChannelXmlElement {
     @XStreamAlias("MaxTelemetryBufferCapacity")
     private String maxTelemetryBufferCapacity;
 
+    @XStreamAlias("MaxTelemetryBufferSizeInBytes")
+    private String maxTelemetryBufferSizeInBytes;
+
     @XStreamAlias("FlushIntervalInSeconds")
     private String flushIntervalInSeconds;
 
@@ -54,6 +57,24 @@ public class ChannelXmlElement {
     @XStreamAlias("MaxInstantRetry")
     private String maxInstantRetry;
 
+    @XStreamAlias("StreamingCompression")
+    private boolean streamingCompression;
+
+    @XStreamAlias("CompressionLevel")
+    private String compressionLevel;
+
+    @XStreamAlias("AsyncNetworkOutput")
+    private boolean asyncNetworkOutput;
+
+    @XStreamAlias("WriteAheadLog")
+    private boolean writeAheadLog;
+
+    @XStreamAlias("MaxBacklogDrainRatePerSecond")
+    private String maxBacklogDrainRatePerSecond;
+
+    @XStreamAlias("BacklogPerformanceCounters")
+    private boolean backlogPerformanceCounters;
+
     @XStreamAsAttribute
     private String type = "com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel";
 
@@ -97,6 +118,14 @@ public class ChannelXmlElement {
         this.maxTelemetryBufferCapacity = maxTelemetryBufferCapacity;
     }
 
+    public String getMaxTelemetryBufferSizeInBytes() {
+        return maxTelemetryBufferSizeInBytes;
+    }
+
+    public void setMaxTelemetryBufferSizeInBytes(String maxTelemetryBufferSizeInBytes) {
+        this.maxTelemetryBufferSizeInBytes = maxTelemetryBufferSizeInBytes;
+    }
+
     public String getFlushIntervalInSeconds() {
         return flushIntervalInSeconds;
     }
@@ -122,6 +151,54 @@ public class ChannelXmlElement {
         this.maxInstantRetry = maxInstantRetry;
     }
 
+    public boolean getStreamingCompression() {
+        return streamingCompression;
+    }
+
+    public void setStreamingCompression(boolean streamingCompression) {
+        this.streamingCompression = streamingCompression;
+    }
+
+    public String getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(String compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public boolean getAsyncNetworkOutput() {
+        return asyncNetworkOutput;
+    }
+
+    public void setAsyncNetworkOutput(boolean asyncNetworkOutput) {
+        this.asyncNetworkOutput = asyncNetworkOutput;
+    }
+
+    public boolean getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    public void setWriteAheadLog(boolean writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    public String getMaxBacklogDrainRatePerSecond() {
+        return maxBacklogDrainRatePerSecond;
+    }
+
+    public void setMaxBacklogDrainRatePerSecond(String maxBacklogDrainRatePerSecond) {
+        this.maxBacklogDrainRatePerSecond = maxBacklogDrainRatePerSecond;
+    }
+
+    public boolean getBacklogPerformanceCounters() {
+        return backlogPerformanceCounters;
+    }
+
+    public void setBacklogPerformanceCounters(boolean backlogPerformanceCounters) {
+        this.backlogPerformanceCounters = backlogPerformanceCounters;
+    }
+
     public Map<String, String> getData() {
         HashMap<String, String> data = new HashMap<String, String>();
         if (developerMode) {
@@ -137,6 +214,10 @@ public class ChannelXmlElement {
             data.put("MaxTelemetryBufferCapacity", maxTelemetryBufferCapacity);
         }
 
+        if (!Strings.isNullOrEmpty(maxTelemetryBufferSizeInBytes)) {
+            data.put("MaxTelemetryBufferSizeInBytes", maxTelemetryBufferSizeInBytes);
+        }
+
         if (!Strings.isNullOrEmpty(flushIntervalInSeconds)) {
             data.put("FlushIntervalInSeconds", flushIntervalInSeconds);
         }
@@ -149,6 +230,30 @@ public class ChannelXmlElement {
             data.put("MaxInstantRetry", maxInstantRetry);
         }
 
+        if (!Strings.isNullOrEmpty(compressionLevel)) {
+            data.put("CompressionLevel", compressionLevel);
+        }
+
+        if (asyncNetworkOutput) {
+            data.put("AsyncNetworkOutput", "true");
+        }
+
+        if (writeAheadLog) {
+            data.put("WriteAheadLog", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(maxBacklogDrainRatePerSecond)) {
+            data.put("MaxBacklogDrainRatePerSecond", maxBacklogDrainRatePerSecond);
+        }
+
+        if (backlogPerformanceCounters) {
+            data.put("BacklogPerformanceCounters", "true");
+        }
+
+        if (streamingCompression) {
+            data.put("StreamingCompression", "true");
+        }
+
         data.put("Throttling", throttling ? "true" : "false");
 
         return data;
@@ -60,6 +60,7 @@ public final class ReflectionUtils {
         addClass(com.microsoft.applicationinsights.internal.processor.MetricTelemetryFilter.class);
         addClass(com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilter.class);
         addClass(com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor.class);
+        addClass(com.microsoft.applicationinsights.internal.channel.samplingV2.TailSamplingTelemetryProcessor.class);
         addClass(com.microsoft.applicationinsights.internal.processor.SyntheticSourceFilter.class);
         addClass(com.microsoft.applicationinsights.internal.processor.PageViewTelemetryFilter.class);
         addClass(com.microsoft.applicationinsights.internal.processor.TelemetryEventFilter.class);
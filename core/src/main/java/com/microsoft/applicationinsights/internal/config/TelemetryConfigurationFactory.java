@@ -23,6 +23,7 @@ package com.microsoft.applicationinsights.internal.config;
 
 import com.microsoft.applicationinsights.channel.concrete.localforwarder.LocalForwarderTelemetryChannel;
 import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.TailSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.heartbeat.HeartBeatModule;
 import java.io.InputStream;
 import java.util.HashSet;
@@ -55,7 +56,10 @@ import com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilt
 import com.microsoft.applicationinsights.internal.processor.SyntheticSourceFilter;
 import com.microsoft.applicationinsights.internal.processor.TelemetryEventFilter;
 import com.microsoft.applicationinsights.internal.processor.TraceTelemetryFilter;
+import com.microsoft.applicationinsights.internal.pipeline.AsyncTelemetryPipeline;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulse;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
@@ -153,6 +157,7 @@ public enum TelemetryConfigurationFactory {
                     applicationInsightsConfig.getQuickPulse().setEnabled(false);
             }
             setQuickPulse(applicationInsightsConfig);
+            setAsyncTracking(applicationInsightsConfig.getAsyncTracking(), configuration);
 
             initializeComponents(configuration);
         } catch (Exception e) {
@@ -207,6 +212,36 @@ public enum TelemetryConfigurationFactory {
         }
     }
 
+    /**
+     * Sets the pipeline that processes tracked telemetry on a dedicated thread, if enabled.
+     * @param asyncTracking The configuration data.
+     * @param configuration The configuration class.
+     */
+    private void setAsyncTracking(AsyncTrackingXmlElement asyncTracking, TelemetryConfiguration configuration) {
+        if (asyncTracking == null || !asyncTracking.isEnabled()) {
+            return;
+        }
+
+        LimitsEnforcer queueCapacityEnforcer = LimitsEnforcer.createWithClosestLimitOnError(
+                AsyncTelemetryPipeline.MIN_QUEUE_CAPACITY, AsyncTelemetryPipeline.MAX_QUEUE_CAPACITY,
+                AsyncTelemetryPipeline.DEFAULT_QUEUE_CAPACITY, "QueueCapacity", asyncTracking.getQueueCapacity());
+
+        AsyncTelemetryPipeline.DropPolicy dropPolicy = AsyncTelemetryPipeline.DEFAULT_DROP_POLICY;
+        String dropPolicyName = asyncTracking.getDropPolicy();
+        if (!Strings.isNullOrEmpty(dropPolicyName)) {
+            if ("DropOldest".equalsIgnoreCase(dropPolicyName.trim())) {
+                dropPolicy = AsyncTelemetryPipeline.DropPolicy.DROP_OLDEST;
+            } else if (!"DropNewest".equalsIgnoreCase(dropPolicyName.trim())) {
+                InternalLogger.INSTANCE.error("Unknown async tracking drop policy '%s', using '%s'", dropPolicyName, dropPolicy);
+            }
+        }
+
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(queueCapacityEnforcer.getCurrentValue(), dropPolicy);
+        SDKShutdownActivity.INSTANCE.registerPipeline(pipeline);
+        configuration.setAsyncTrackingPipeline(pipeline);
+        InternalLogger.INSTANCE.trace("Async tracking enabled with queue capacity %d and drop policy %s", queueCapacityEnforcer.getCurrentValue(), dropPolicy);
+    }
+
     private boolean isQuickPulseEnabledInConfiguration(ApplicationInsightsXmlConfiguration appConfiguration) {
         QuickPulseXmlElement quickPulseXmlElement = appConfiguration.getQuickPulse();
         return quickPulseXmlElement.isEnabled();
@@ -267,10 +302,20 @@ public enum TelemetryConfigurationFactory {
             ArrayList<TelemetryProcessorXmlElement> customs = configurationProcessors.getCustomTelemetryProcessors();
             loadProcessorComponents(processors, customs);
         }
+
+        // The processors that send the telemetries they held use the channel of this configuration
+        for (TelemetryProcessor processor : processors) {
+            if (processor instanceof TailSamplingTelemetryProcessor) {
+                TailSamplingTelemetryProcessor tailSamplingProcessor = (TailSamplingTelemetryProcessor) processor;
+                tailSamplingProcessor.setChannel(configuration.getChannel());
+                tailSamplingProcessor.start();
+            }
+        }
     }
 
     private void addDefaultBuiltInProcessors(List<String> p) {
         p.add(FixedRateSamplingTelemetryProcessor.class.getCanonicalName());
+        p.add(TailSamplingTelemetryProcessor.class.getCanonicalName());
         p.add(PageViewTelemetryFilter.class.getCanonicalName());
         p.add(RequestTelemetryFilter.class.getCanonicalName());
         p.add(SyntheticSourceFilter.class.getCanonicalName());
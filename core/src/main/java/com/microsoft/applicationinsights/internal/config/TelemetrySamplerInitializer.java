@@ -71,6 +71,8 @@ final class TelemetrySamplerInitializer {
 
                 adaptiveTelemetrySampler.setIncludeTypes(adaptiveSamplerXmlElement.getIncludeTypes());
                 adaptiveTelemetrySampler.setExcludeTypes(adaptiveSamplerXmlElement.getExcludeTypes());
+                adaptiveTelemetrySampler.setMaxTelemetryItemsPerSecondPerType(adaptiveSamplerXmlElement.getMaxTelemetryItemsPerSecondPerType());
+                adaptiveTelemetrySampler.setMinSamplingPercentagePerType(adaptiveSamplerXmlElement.getMinSamplingPercentagePerType());
 
                 adaptiveTelemetrySampler.initialize(
                         adaptiveSamplerXmlElement.getMaxTelemetryItemsPerSecond(),
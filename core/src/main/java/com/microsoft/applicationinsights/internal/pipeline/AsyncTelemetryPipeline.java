@@ -0,0 +1,221 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+
+/**
+ * A bounded queue and a dedicated thread that process tracked telemetry off the application threads.
+ *
+ * When the queue is full the configured {@link DropPolicy} decides which item is discarded,
+ * the application thread is never blocked. Discarded items are counted.
+ */
+public final class AsyncTelemetryPipeline implements Stoppable {
+    public enum DropPolicy {
+        /**
+         * The item that could not be enqueued is discarded.
+         */
+        DROP_NEWEST,
+
+        /**
+         * The oldest item in the queue is discarded to make room for the new one.
+         */
+        DROP_OLDEST
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final int MIN_QUEUE_CAPACITY = 1;
+    public static final int MAX_QUEUE_CAPACITY = 1024 * 1024;
+    public static final DropPolicy DEFAULT_DROP_POLICY = DropPolicy.DROP_NEWEST;
+
+    private static final int LOG_DROPPED_ITEMS_MODULUS = 10000;
+
+    private final ThreadPoolExecutor executor;
+    private final DropPolicy dropPolicy;
+    private final AtomicLong enqueuedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong processedCount = new AtomicLong(0);
+
+    // The threads waiting in 'drain' are woken by the pipeline thread only while there are such threads
+    private final Object drainLock = new Object();
+    private volatile int drainingThreads;
+    private volatile Thread pipelineThread;
+
+    public AsyncTelemetryPipeline() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_DROP_POLICY);
+    }
+
+    public AsyncTelemetryPipeline(int queueCapacity, DropPolicy dropPolicy) {
+        Preconditions.checkArgument(queueCapacity >= MIN_QUEUE_CAPACITY, "queueCapacity must be a positive number");
+        Preconditions.checkNotNull(dropPolicy, "dropPolicy must be non-null value");
+
+        this.dropPolicy = dropPolicy;
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                ThreadPoolUtils.createDaemonThreadFactory(AsyncTelemetryPipeline.class),
+                new DropHandler());
+    }
+
+    /**
+     * Hands the processing of an item to the pipeline thread.
+     * If the queue is full an item is dropped according to the {@link DropPolicy}.
+     * @param work The processing of a single telemetry item
+     */
+    public void enqueue(Runnable work) {
+        Preconditions.checkNotNull(work, "work must be non-null value");
+
+        enqueuedCount.incrementAndGet();
+        executor.execute(new CountedWork(work));
+    }
+
+    /**
+     * Waits until the items that were handed to the pipeline before the call are processed or dropped.
+     * Returns at once when called from the pipeline thread, which cannot wait for itself.
+     * @param timeout The maximum time to wait
+     * @param timeUnit The unit of the timeout
+     * @return 'true' if the items were processed, 'false' if the timeout elapsed first
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public boolean drain(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        if (Thread.currentThread() == pipelineThread) {
+            return false;
+        }
+
+        long target = enqueuedCount.get();
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        synchronized (drainLock) {
+            ++drainingThreads;
+            try {
+                while (processedCount.get() + droppedCount.get() < target) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(drainLock, remainingNanos);
+                }
+                return true;
+            } finally {
+                --drainingThreads;
+            }
+        }
+    }
+
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    /**
+     * @return The number of items handed to the pipeline, including the dropped ones
+     */
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    /**
+     * @return The number of items discarded because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of items currently waiting in the queue
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new items and processes the ones that are already in the queue.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtils.stop(executor, timeout, timeUnit);
+    }
+
+    private void onDropped() {
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % LOG_DROPPED_ITEMS_MODULUS == 0) {
+            InternalLogger.INSTANCE.warn("Async telemetry queue is full, %d items were dropped till now", dropped);
+        }
+        notifyDrainingThreads();
+    }
+
+    private void notifyDrainingThreads() {
+        if (drainingThreads > 0) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Counts the item as processed once it ran, whether it succeeded or not, so 'drain' knows when to return.
+     */
+    private final class CountedWork implements Runnable {
+        private final Runnable work;
+
+        private CountedWork(Runnable work) {
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            pipelineThread = Thread.currentThread();
+            try {
+                work.run();
+            } finally {
+                processedCount.incrementAndGet();
+                notifyDrainingThreads();
+            }
+        }
+    }
+
+    private final class DropHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                onDropped();
+                return;
+            }
+
+            if (dropPolicy == DropPolicy.DROP_OLDEST) {
+                if (executor.getQueue().poll() != null) {
+                    onDropped();
+                }
+                executor.execute(r);
+                return;
+            }
+
+            onDropped();
+        }
+    }
+}
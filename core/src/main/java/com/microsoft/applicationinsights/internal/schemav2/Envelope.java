@@ -28,6 +28,8 @@ import com.microsoft.applicationinsights.telemetry.JsonSerializable;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -37,10 +39,20 @@ import java.util.concurrent.ConcurrentMap;
 public class Envelope
     implements JsonSerializable
 {
+    /**
+     * The default value of property Ver.
+     */
+    public static final int DEFAULT_VERSION = 1;
+
     /**
      * Backing field for property Ver.
      */
-    private int ver = 1;
+    private int ver = DEFAULT_VERSION;
+
+    /**
+     * Backing field for the pre-serialized Ver and Name properties, see {@link #serializeHeader(String)}.
+     */
+    private String serializedHeader;
 
     /**
      * Backing field for property Name.
@@ -52,6 +64,11 @@ public class Envelope
      */
     private String time;
 
+    /**
+     * Backing field for property Timestamp, written as 'time' when Time is not set.
+     */
+    private Date timestamp;
+
     /**
      * Backing field for property SampleRate.
      */
@@ -111,6 +128,36 @@ public class Envelope
      */
     public void setName(String value) {
         this.name = value;
+        this.serializedHeader = null;
+    }
+
+    /**
+     * Sets the Name property along with its pre-serialized form, which is then written as is
+     * while the Ver property keeps its default value.
+     * @param name The name.
+     * @param serializedHeader The result of {@link #serializeHeader(String)} for the name.
+     */
+    public void setName(String name, String serializedHeader) {
+        this.name = name;
+        this.serializedHeader = serializedHeader;
+    }
+
+    /**
+     * Serializes the fields every envelope starts with, Ver with its default value and the given Name,
+     * so that they can be written by many envelopes without being serialized again.
+     * @param name The name.
+     * @return The serialized fields.
+     * @throws IOException The exception that might be thrown during the serialization
+     */
+    public static String serializeHeader(String name) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer writer = new JsonTelemetryDataSerializer(stringWriter);
+        writer.write("ver", DEFAULT_VERSION);
+        writer.writeRequired("name", name, 1024);
+        writer.close();
+
+        String serialized = stringWriter.toString();
+        return serialized.substring(1, serialized.length() - 1);
     }
 
     /**
@@ -127,6 +174,20 @@ public class Envelope
         this.time = value;
     }
 
+    /**
+     * Gets the Timestamp property.
+     */
+    public Date getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Sets the Timestamp property, which is formatted straight into the output when serialized.
+     */
+    public void setTimestamp(Date value) {
+        this.timestamp = value;
+    }
+
     /**
      * Gets the SampleRate property.
      */
@@ -218,9 +279,17 @@ public class Envelope
      */
     protected void serializeContent(JsonTelemetryDataSerializer writer) throws IOException
     {
-        writer.write("ver", ver);
-        writer.writeRequired("name", name, 1024);
-        writer.writeRequired("time", time, 64);
+        if (serializedHeader != null && ver == DEFAULT_VERSION) {
+            writer.writeSerializedFields(serializedHeader);
+        } else {
+            writer.write("ver", ver);
+            writer.writeRequired("name", name, 1024);
+        }
+        if (time == null && timestamp != null) {
+            writer.write("time", timestamp);
+        } else {
+            writer.writeRequired("time", time, 64);
+        }
         if (this.sampleRate > 0.0d) {
             writer.write("sampleRate", sampleRate);
         }
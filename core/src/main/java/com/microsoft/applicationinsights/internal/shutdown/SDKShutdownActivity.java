@@ -53,6 +53,7 @@ public enum SDKShutdownActivity {
         private boolean stopped = false;
 
         private final List<ChannelFetcher> fetchers = new ArrayList<ChannelFetcher>();
+        private final List<Stoppable> pipelines = new ArrayList<Stoppable>();
         private final List<Stoppable> stoppables = new ArrayList<Stoppable>();
         private final List<Closeable> closeables = new ArrayList<Closeable>();
 
@@ -64,6 +65,10 @@ public enum SDKShutdownActivity {
             stoppables.add(stoppable);
         }
 
+        public synchronized void registerPipeline(Stoppable pipeline) {
+            pipelines.add(pipeline);
+        }
+
         public synchronized void register(Closeable closeable) {
             closeables.add(closeable);
         }
@@ -99,6 +104,7 @@ public enum SDKShutdownActivity {
             }
             InternalLogger.INSTANCE.info("Shutting down Applciation Insights");
             try {
+                stopPipelines();
                 stopChannels();
                 stopStoppables();
                 closeClosables();
@@ -123,6 +129,29 @@ public enum SDKShutdownActivity {
             }
         }
 
+        /**
+         * Pipelines feed the channels so they are drained before the channels are stopped.
+         * Make sure no exception is thrown!
+         */
+        private void stopPipelines() {
+            for (Stoppable pipeline : pipelines) {
+                try {
+                    pipeline.stop(getPerThreadTimeout(), getPerThreadTimeUnit());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    try {
+                        InternalLogger.INSTANCE.error("Failed to stop pipeline class '%s': '%s'", pipeline.getClass().getName(), t.toString());
+                        InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t2) {
+                        // chomp
+                    }
+                }
+            }
+        }
+
         /**
          * Make sure no exception is thrown!
          */
@@ -199,6 +228,14 @@ public enum SDKShutdownActivity {
         getShutdownAction().register(stoppable);
     }
 
+    /**
+     * Registers a component that hands telemetry to the channels, it is stopped before the channels are.
+     * @param pipeline The component to stop
+     */
+    public void registerPipeline(Stoppable pipeline) {
+        getShutdownAction().registerPipeline(pipeline);
+    }
+
     public void register(Closeable closable) {
         getShutdownAction().register(closable);
     }
@@ -0,0 +1,173 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Formats timestamps in the format sent to the backend, 'yyyy-MM-dd'T'HH:mm:ss.SSSZZ' in the
+ * default time zone (e.g. '2019-04-17T10:05:13.042+0200'), without creating a {@link SimpleDateFormat}
+ * or a {@link java.util.Calendar} per call.
+ *
+ * The default time zone is cached, and each call checks it against the offset {@link Date#getTimezoneOffset()} reads
+ * from the current default zone without copying it. When they differ the default zone was changed and it is looked up
+ * again, so a change at runtime is followed like a new {@link SimpleDateFormat} would follow it. Dates before 1582-10-16, where {@link SimpleDateFormat} switches to the
+ * Julian calendar, and from 9999-12-31 on are delegated to {@link LocalStringsUtils#getDateFormatter()} so their
+ * output stays identical.
+ */
+public final class Iso8601DateFormatter {
+
+    /** Number of characters written for dates in the fast path. */
+    public static final int FORMATTED_LENGTH = 28;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final long MIN_FAST_PATH_MILLIS = -12219206400000L; // 1582-10-16T00:00:00Z, after the Gregorian cutover
+    private static final long MAX_FAST_PATH_MILLIS = 253402214400000L; // 9999-12-31T00:00:00Z
+
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[FORMATTED_LENGTH];
+        }
+    };
+
+    /// The zone the last call found to be the default, shared by all threads
+    private static volatile TimeZone cachedTimeZone = TimeZone.getDefault();
+
+    private Iso8601DateFormatter() {
+    }
+
+    /**
+     * Writes the formatted date to the given writer.
+     * @param out The writer to write to.
+     * @param date The date to format.
+     * @throws IOException If the writer fails.
+     */
+    public static void write(Writer out, Date date) throws IOException {
+        long millis = date.getTime();
+        if (!isInFastPathRange(millis)) {
+            out.write(LocalStringsUtils.getDateFormatter().format(date));
+            return;
+        }
+
+        char[] buffer = BUFFERS.get();
+        fill(buffer, date, millis);
+        out.write(buffer, 0, FORMATTED_LENGTH);
+    }
+
+    /**
+     * Formats the date as a string.
+     * @param date The date to format.
+     * @return The formatted date.
+     */
+    public static String format(Date date) {
+        long millis = date.getTime();
+        if (!isInFastPathRange(millis)) {
+            return LocalStringsUtils.getDateFormatter().format(date);
+        }
+
+        char[] buffer = BUFFERS.get();
+        fill(buffer, date, millis);
+        return new String(buffer, 0, FORMATTED_LENGTH);
+    }
+
+    private static boolean isInFastPathRange(long millis) {
+        return millis >= MIN_FAST_PATH_MILLIS && millis < MAX_FAST_PATH_MILLIS;
+    }
+
+    private static void fill(char[] buffer, Date date, long millis) {
+        int offsetMillis = getOffset(date, millis);
+        long localMillis = millis + offsetMillis;
+
+        long days = localMillis / MILLIS_PER_DAY;
+        long millisOfDay = localMillis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            millisOfDay += MILLIS_PER_DAY;
+            --days;
+        }
+
+        // Civil date from days since 1970-01-01 in the proleptic Gregorian calendar
+        long shifted = days + 719468;
+        long era = (shifted >= 0 ? shifted : shifted - 146096) / 146097;
+        int dayOfEra = (int) (shifted - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        int msOfDay = (int) millisOfDay;
+        int hours = msOfDay / 3600000;
+        int minutes = (msOfDay / 60000) % 60;
+        int seconds = (msOfDay / 1000) % 60;
+        int milliseconds = msOfDay % 1000;
+
+        writeDigits(buffer, 0, year, 4);
+        buffer[4] = '-';
+        writeDigits(buffer, 5, month, 2);
+        buffer[7] = '-';
+        writeDigits(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        writeDigits(buffer, 11, hours, 2);
+        buffer[13] = ':';
+        writeDigits(buffer, 14, minutes, 2);
+        buffer[16] = ':';
+        writeDigits(buffer, 17, seconds, 2);
+        buffer[19] = '.';
+        writeDigits(buffer, 20, milliseconds, 3);
+
+        int offsetMinutes = offsetMillis / 60000;
+        if (offsetMinutes < 0) {
+            buffer[23] = '-';
+            offsetMinutes = -offsetMinutes;
+        } else {
+            buffer[23] = '+';
+        }
+        writeDigits(buffer, 24, offsetMinutes / 60, 2);
+        writeDigits(buffer, 26, offsetMinutes % 60, 2);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int getOffset(Date date, long millis) {
+        TimeZone timeZone = cachedTimeZone;
+        int offsetMillis = timeZone.getOffset(millis);
+        if (offsetMillis / 60000 != -date.getTimezoneOffset()) {
+            timeZone = TimeZone.getDefault();
+            cachedTimeZone = timeZone;
+            offsetMillis = timeZone.getOffset(millis);
+        }
+
+        return offsetMillis;
+    }
+
+    private static void writeDigits(char[] buffer, int position, int value, int width) {
+        for (int i = position + width - 1; i >= position; --i) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -62,6 +62,11 @@ public class LocalStringsUtils {
         return String.valueOf(rand);
     }
 
+    /**
+     * Creates a new formatter for the timestamp format sent to the backend.
+     * Prefer {@link Iso8601DateFormatter} for formatting; this is mainly needed for parsing.
+     * @return A new, non thread-safe, date formatter.
+     */
     public static DateFormat getDateFormatter() {
         return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZZ");
     }
@@ -0,0 +1,210 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} that encodes the characters as UTF-8 straight into a reusable byte array.
+ *
+ * The instance is meant to be reused: {@link #reset()} keeps the underlying array, unless it grew
+ * beyond the retained capacity, so that a pooled writer does not keep huge buffers alive.
+ * Unpaired surrogates are encoded as '?', the same as {@link String#getBytes(java.nio.charset.Charset)}.
+ *
+ * The class is not thread safe.
+ */
+public final class Utf8ByteArrayWriter extends Writer {
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private final int initialCapacity;
+    private final int maxRetainedCapacity;
+
+    private byte[] buffer;
+    private int size;
+
+    /// A high surrogate that waits for its low surrogate from the next write
+    private char pendingHighSurrogate;
+
+    public Utf8ByteArrayWriter() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    public Utf8ByteArrayWriter(int initialCapacity, int maxRetainedCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = Math.max(initialCapacity, maxRetainedCapacity);
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Discards the written bytes so the writer can be reused.
+     */
+    public void reset() {
+        if (buffer.length > maxRetainedCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+        size = 0;
+        pendingHighSurrogate = 0;
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A copy of the bytes written so far
+     */
+    public byte[] toByteArray() {
+        flushPendingSurrogate();
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Writes the bytes written so far to the output stream without copying them.
+     * @param out The stream to write to
+     * @throws IOException If the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        flushPendingSurrogate();
+        out.write(buffer, 0, size);
+    }
+
+    @Override
+    public void write(int c) {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        int end = offset + length;
+        ensureCapacity(size + length);
+        for (int i = offset; i < end; ++i) {
+            char c = chars[i];
+            if (c < 0x80 && pendingHighSurrogate == 0) {
+                if (size == buffer.length) {
+                    // multi-byte characters used up the space reserved for the rest of the input
+                    ensureCapacity(size + end - i);
+                }
+                buffer[size++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) {
+        int end = offset + length;
+        ensureCapacity(size + length);
+        for (int i = offset; i < end; ++i) {
+            char c = str.charAt(i);
+            if (c < 0x80 && pendingHighSurrogate == 0) {
+                if (size == buffer.length) {
+                    // multi-byte characters used up the space reserved for the rest of the input
+                    ensureCapacity(size + end - i);
+                }
+                buffer[size++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public Utf8ByteArrayWriter append(CharSequence csq) {
+        String str = String.valueOf(csq);
+        write(str, 0, str.length());
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Closing has no effect, the bytes are still available and the writer can be reused after {@link #reset()}.
+     */
+    @Override
+    public void close() {
+    }
+
+    private void encode(char c) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            writeByte('?');
+        }
+
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            ensureCapacity(size + 2);
+            buffer[size++] = (byte) (0xc0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else {
+            ensureCapacity(size + 3);
+            buffer[size++] = (byte) (0xe0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void writeCodePoint(int codePoint) {
+        ensureCapacity(size + 4);
+        buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+    }
+
+    private void flushPendingSurrogate() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            writeByte('?');
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(size + 1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(minCapacity, buffer.length * 2));
+        }
+    }
+}
@@ -24,7 +24,6 @@ package com.microsoft.applicationinsights.telemetry;
 import com.microsoft.applicationinsights.internal.schemav2.Data;
 import com.microsoft.applicationinsights.internal.schemav2.Domain;
 import com.microsoft.applicationinsights.internal.schemav2.Envelope;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
 import java.io.IOException;
@@ -46,18 +45,33 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
 
     public static final String TELEMETRY_NAME_PREFIX = "Microsoft.ApplicationInsights.";
 
+    private static final EnvelopeNameCache ENVELOPE_NAMES = new EnvelopeNameCache();
+
     protected BaseTelemetry() {
     }
 
     /**
      * Initializes the instance with the context properties
      *
+     * The context wraps the given map, adding the properties inherited from the client's context when tracked,
+     * so the data object should serialize {@code getContext().getProperties()} rather than the given map.
+     *
      * @param properties The context properties
      */
     protected void initialize(ConcurrentMap<String, String> properties) {
         this.context = new TelemetryContext(properties, new ConcurrentHashMap<String, String>());
     }
 
+    /**
+     * Initializes the instance with a new context, whose tags and properties maps are allocated when first written.
+     *
+     * @return The context properties, to be serialized by the data object
+     */
+    protected ConcurrentMap<String, String> initializeContext() {
+        this.context = new TelemetryContext();
+        return this.context.getProperties();
+    }
+
     public abstract int getVer();
 
     /**
@@ -147,10 +161,10 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     @Override
     public void serialize(JsonTelemetryDataSerializer writer) throws IOException {
 
-        String telemetryName = getTelemetryName(normalizeInstrumentationKey(context.getInstrumentationKey()), this.getEnvelopName());
+        EnvelopeNameCache.EnvelopeName envelopeName = ENVELOPE_NAMES.get(context.getInstrumentationKey(), this.getEnvelopName());
 
         Envelope envelope = new Envelope();
-        envelope.setName(telemetryName);
+        envelope.setName(envelopeName.name, envelopeName.serializedHeader);
 
         setSampleRate(envelope);
         envelope.setIKey(context.getInstrumentationKey());
@@ -159,7 +173,7 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
         tmp.setBaseData(getData());
         tmp.setBaseType(this.getBaseTypeName());
         envelope.setData(tmp);
-        if (getTimestamp() != null) envelope.setTime(LocalStringsUtils.getDateFormatter().format(getTimestamp()));
+        envelope.setTimestamp(getTimestamp());
         envelope.setTags(context.getTags());
 
         envelope.serialize(writer);
@@ -224,12 +238,7 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     }
 
     public static String getTelemetryName(String normalizedInstrumentationKey, String envelopType){
-        return String.format(
-                "%s%s%s",
-                TELEMETRY_NAME_PREFIX,
-                normalizedInstrumentationKey,
-                envelopType
-                );
+        return TELEMETRY_NAME_PREFIX + normalizedInstrumentationKey + envelopType;
     }
 
 }
@@ -0,0 +1,344 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The tags or properties of a {@link TelemetryContext}: the item's own entries, laid over an
+ * immutable base map that is shared by all the items tracked with the same context.
+ *
+ * Entries of the overlay take precedence over the base. Lookups and additions work on both layers
+ * without copying; operations that need a single view of all the entries (iteration, size, removal
+ * of a base entry) first copy the base entries that are not overridden into the overlay.
+ * The serializer writes both layers without copying, see {@link #getOverlay()} and {@link #getBase()}.
+ *
+ * Every change made through the map, its views included, bumps a modification count, so a snapshot of the
+ * entries can be kept for as long as the count does not change. A map laid over an overlay it was given
+ * cannot see the changes made to that overlay directly and does not track them.
+ */
+final class ContextOverlayMap extends AbstractMap<String, String> implements ConcurrentMap<String, String> {
+    // Allocated when the first entry of the item itself is added
+    private volatile ConcurrentMap<String, String> overlay;
+    private volatile Map<String, String> base;
+
+    private static final AtomicIntegerFieldUpdater<ContextOverlayMap> MODIFICATION_COUNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ContextOverlayMap.class, "modificationCount");
+
+    // Bumped after each change, see 'getModificationCount'
+    private volatile int modificationCount;
+    private final boolean tracksModifications;
+    private Set<Entry<String, String>> entrySet;
+
+    ContextOverlayMap() {
+        this.tracksModifications = true;
+    }
+
+    ContextOverlayMap(ConcurrentMap<String, String> overlay) {
+        this.overlay = overlay;
+        this.tracksModifications = false;
+    }
+
+    /**
+     * Sets the base entries. Any previous base is merged into the overlay first.
+     * @param newBase An immutable map whose keys are non empty and values non null, or null.
+     */
+    void setBase(Map<String, String> newBase) {
+        materialize();
+        base = newBase == null || newBase.isEmpty() ? null : newBase;
+        modified();
+    }
+
+    /**
+     * @return 'true' if every change of the entries is counted by {@link #getModificationCount()}.
+     */
+    boolean tracksModifications() {
+        return tracksModifications;
+    }
+
+    /**
+     * @return A count that changes whenever the entries change, read it before reading the entries.
+     */
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * @return The entries of the item itself, or null if none was added yet.
+     */
+    ConcurrentMap<String, String> getOverlay() {
+        return overlay;
+    }
+
+    Map<String, String> getBase() {
+        return base;
+    }
+
+    @Override
+    public String get(Object key) {
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        if (currentOverlay != null) {
+            String value = currentOverlay.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        Map<String, String> currentBase = base;
+        return currentBase == null ? null : currentBase.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String previous = overlay().put(key, value);
+        modified();
+        if (previous == null) {
+            Map<String, String> currentBase = base;
+            if (currentBase != null) {
+                previous = currentBase.get(key);
+            }
+        }
+
+        return previous;
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        Map<String, String> currentBase = base;
+        if (currentBase != null && value != null) {
+            String baseValue = currentBase.get(key);
+            if (baseValue != null) {
+                ConcurrentMap<String, String> currentOverlay = overlay;
+                String previous = currentOverlay == null ? null : currentOverlay.get(key);
+                return previous != null ? previous : baseValue;
+            }
+        }
+
+        String previous = overlay().putIfAbsent(key, value);
+        if (previous == null) {
+            modified();
+        }
+
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        Map<String, String> currentBase = base;
+        if (currentBase != null && currentBase.containsKey(key)) {
+            materialize();
+        }
+
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        String previous = currentOverlay == null ? null : currentOverlay.remove(key);
+        if (previous != null) {
+            modified();
+        }
+
+        return previous;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        materialize();
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        boolean removed = currentOverlay != null && currentOverlay.remove(key, value);
+        if (removed) {
+            modified();
+        }
+
+        return removed;
+    }
+
+    @Override
+    public boolean replace(String key, String oldValue, String newValue) {
+        materialize();
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        boolean replaced = currentOverlay != null && currentOverlay.replace(key, oldValue, newValue);
+        if (replaced) {
+            modified();
+        }
+
+        return replaced;
+    }
+
+    @Override
+    public String replace(String key, String value) {
+        materialize();
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        String previous = currentOverlay == null ? null : currentOverlay.replace(key, value);
+        if (previous != null) {
+            modified();
+        }
+
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        base = null;
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        if (currentOverlay != null) {
+            currentOverlay.clear();
+        }
+        modified();
+    }
+
+    @Override
+    public int size() {
+        materialize();
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        return currentOverlay == null ? 0 : currentOverlay.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        return (currentOverlay == null || currentOverlay.isEmpty()) && base == null;
+    }
+
+    // The views are live, so they need the overlay to exist. The key set and the values of AbstractMap
+    // are built on the entry set, which counts the changes made through it.
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        materialize();
+        Set<Entry<String, String>> currentEntrySet = entrySet;
+        if (currentEntrySet == null) {
+            currentEntrySet = new EntrySet();
+            entrySet = currentEntrySet;
+        }
+
+        return currentEntrySet;
+    }
+
+    private void modified() {
+        MODIFICATION_COUNT_UPDATER.incrementAndGet(this);
+    }
+
+    private ConcurrentMap<String, String> overlay() {
+        ConcurrentMap<String, String> currentOverlay = overlay;
+        if (currentOverlay == null) {
+            synchronized (this) {
+                currentOverlay = overlay;
+                if (currentOverlay == null) {
+                    currentOverlay = new ConcurrentHashMap<String, String>();
+                    overlay = currentOverlay;
+                }
+            }
+        }
+
+        return currentOverlay;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, String>> {
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+            materialize();
+            final Iterator<Entry<String, String>> iterator = overlay().entrySet().iterator();
+            return new Iterator<Entry<String, String>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Entry<String, String> next() {
+                    final Entry<String, String> entry = iterator.next();
+                    return new SimpleEntry<String, String>(entry) {
+                        @Override
+                        public String setValue(String value) {
+                            super.setValue(value);
+                            String previous = entry.setValue(value);
+                            modified();
+                            return previous;
+                        }
+                    };
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                    modified();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            materialize();
+            return overlay().entrySet().contains(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            materialize();
+            boolean removed = overlay().entrySet().remove(o);
+            if (removed) {
+                modified();
+            }
+
+            return removed;
+        }
+
+        @Override
+        public int size() {
+            return ContextOverlayMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ContextOverlayMap.this.clear();
+        }
+    }
+
+    private void materialize() {
+        if (base == null) {
+            return;
+        }
+
+        synchronized (this) {
+            Map<String, String> currentBase = base;
+            if (currentBase == null) {
+                return;
+            }
+
+            ConcurrentMap<String, String> currentOverlay = overlay();
+            for (Map.Entry<String, String> entry : currentBase.entrySet()) {
+                currentOverlay.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            base = null;
+        }
+    }
+}
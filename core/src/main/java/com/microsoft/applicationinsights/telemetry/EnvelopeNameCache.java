@@ -0,0 +1,107 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import com.microsoft.applicationinsights.internal.schemav2.Envelope;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the envelope names, and their pre-serialized envelope header, per instrumentation key and envelope type.
+ *
+ * The cache is keyed by the instrumentation key itself, so a key changed at runtime simply gets new entries.
+ * It is cleared when it holds more than {@link #MAX_INSTRUMENTATION_KEYS} instrumentation keys.
+ */
+final class EnvelopeNameCache {
+    static final int MAX_INSTRUMENTATION_KEYS = 64;
+
+    static final class EnvelopeName {
+        final String name;
+        final String serializedHeader;
+
+        private EnvelopeName(String name, String serializedHeader) {
+            this.name = name;
+            this.serializedHeader = serializedHeader;
+        }
+    }
+
+    private static final class InstrumentationKeyNames {
+        final String instrumentationKey;
+        final ConcurrentMap<String, EnvelopeName> namesByType;
+
+        private InstrumentationKeyNames(String instrumentationKey, ConcurrentMap<String, EnvelopeName> namesByType) {
+            this.instrumentationKey = instrumentationKey;
+            this.namesByType = namesByType;
+        }
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<String, EnvelopeName>> namesByInstrumentationKey =
+            new ConcurrentHashMap<String, ConcurrentMap<String, EnvelopeName>>();
+
+    // Most applications use a single instrumentation key, skip the outer lookup for the last one used
+    private volatile InstrumentationKeyNames lastUsed;
+
+    EnvelopeName get(String instrumentationKey, String envelopeType) throws IOException {
+        ConcurrentMap<String, EnvelopeName> namesByType = getNamesByType(instrumentationKey == null ? "" : instrumentationKey);
+
+        EnvelopeName envelopeName = namesByType.get(envelopeType);
+        if (envelopeName == null) {
+            String name = BaseTelemetry.getTelemetryName(BaseTelemetry.normalizeInstrumentationKey(instrumentationKey), envelopeType);
+            envelopeName = new EnvelopeName(name, Envelope.serializeHeader(name));
+            EnvelopeName existing = namesByType.putIfAbsent(envelopeType, envelopeName);
+            if (existing != null) {
+                envelopeName = existing;
+            }
+        }
+
+        return envelopeName;
+    }
+
+    int size() {
+        return namesByInstrumentationKey.size();
+    }
+
+    private ConcurrentMap<String, EnvelopeName> getNamesByType(String instrumentationKey) {
+        InstrumentationKeyNames last = lastUsed;
+        if (last != null && last.instrumentationKey.equals(instrumentationKey)) {
+            return last.namesByType;
+        }
+
+        ConcurrentMap<String, EnvelopeName> namesByType = namesByInstrumentationKey.get(instrumentationKey);
+        if (namesByType == null) {
+            if (namesByInstrumentationKey.size() >= MAX_INSTRUMENTATION_KEYS) {
+                namesByInstrumentationKey.clear();
+            }
+
+            namesByType = new ConcurrentHashMap<String, EnvelopeName>();
+            ConcurrentMap<String, EnvelopeName> existing = namesByInstrumentationKey.putIfAbsent(instrumentationKey, namesByType);
+            if (existing != null) {
+                namesByType = existing;
+            }
+        }
+
+        lastUsed = new InstrumentationKeyNames(instrumentationKey, namesByType);
+        return namesByType;
+    }
+}
@@ -51,7 +51,7 @@ public final class EventTelemetry extends BaseSampleSourceTelemetry<EventData> {
     public EventTelemetry() {
         super();
         data = new EventData();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
     }
 
     /**
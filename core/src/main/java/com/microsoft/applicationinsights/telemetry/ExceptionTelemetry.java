@@ -54,7 +54,7 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
     public ExceptionTelemetry() {
         super();
         data = new ExceptionData();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
     }
 
     /**
@@ -23,13 +23,10 @@ package com.microsoft.applicationinsights.telemetry;
 
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.schemav2.DataPointType;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.Iso8601DateFormatter;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
-import java.text.StringCharacterIterator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -48,8 +45,16 @@ public final class JsonTelemetryDataSerializer {
     private final static String JSON_CLOSE_ARRAY = "]";
     private final static String JSON_COMMA = "\"";
     private final static String JSON_NAME_VALUE_SEPARATOR = ":";
-    private final static String JSON_EMPTY_OBJECT = "{}";
     private final static int DELTA = 2;
+    private final static int MAX_KEY_LENGTH = 150;
+    private final static int MAX_VALUE_LENGTH = 8192;
+    private final static int UNICODE_ESCAPE_LENGTH = 6;
+    private final static String EMPTY_KEY_NAME = "(required property name is empty)";
+
+    /**
+     * The JSON escape of each character below 0xA0, or null if the character is written as is.
+     */
+    private static final String[] ESCAPES = createEscapes();
 
     private static final Set<Class<?>> WRAPPER_TYPES = getWrapperTypes();
 
@@ -57,12 +62,20 @@ public final class JsonTelemetryDataSerializer {
 
     private String separator = "";
 
+    /**
+     * Opening text of nested objects that have not written any field yet.
+     * Empty nested objects are omitted from the output, so their prefix is only
+     * written to {@link #out} once their first field arrives.
+     */
+    private final StringBuilder pendingPrefix = new StringBuilder();
+
     public JsonTelemetryDataSerializer(Writer out) throws IOException {
         reset(out);
     }
 
     public void reset(Writer out) throws IOException {
         separator = "";
+        pendingPrefix.setLength(0);
         this.out = out;
         this.out.write(JSON_START_OBJECT);
     }
@@ -182,7 +195,9 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        write(LocalStringsUtils.getDateFormatter().format(value));
+        out.write(JSON_COMMA);
+        Iso8601DateFormatter.write(out, value);
+        out.write(JSON_COMMA);
         separator = JSON_SEPARATOR;
     }
 
@@ -219,26 +234,42 @@ public final class JsonTelemetryDataSerializer {
 
         writeName(name);
         out.write(JSON_COMMA);
-        String sanitizedValue = sanitizeStringForJSON(value, len);
-        out.write(sanitizedValue);
+        writeEscaped(value, len);
         out.write(JSON_COMMA);
         separator = JSON_SEPARATOR;
     }
 
-    public <T extends JsonSerializable> void write(String name, T value) throws IOException {
-        if (value == null) {
+    /**
+     * Writes fields that were already serialized by this class, as comma separated name/value pairs,
+     * for example '"ver":1,"name":"value"'.
+     * @param serializedFields The serialized fields, written as is.
+     * @throws IOException The exception that might be thrown by the underlying writer
+     */
+    public void writeSerializedFields(String serializedFields) throws IOException {
+        if (Strings.isNullOrEmpty(serializedFields)) {
             return;
         }
 
-        String jsonStringToAppend = createJsonFor(value);
-        if (Strings.isNullOrEmpty(jsonStringToAppend)) {
+        writeSeparator();
+        out.write(serializedFields);
+        separator = JSON_SEPARATOR;
+    }
+
+    public <T extends JsonSerializable> void write(String name, T value) throws IOException {
+        if (value == null) {
             return;
         }
 
-        writeName(name);
-        out.write(jsonStringToAppend);
+        String previousSeparator = separator;
+        int mark = pendingPrefix.length();
+        pendingPrefix.append(separator).append(JSON_COMMA).append(name).append(JSON_COMMA)
+                .append(JSON_NAME_VALUE_SEPARATOR).append(JSON_START_OBJECT);
 
-        separator = JSON_SEPARATOR;
+        if (writeNestedObject(value, mark)) {
+            separator = JSON_SEPARATOR;
+        } else {
+            separator = previousSeparator;
+        }
     }
 
     public <T> void write(String name, Map<String, T> map) throws IOException {
@@ -247,15 +278,25 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
+        // Context maps are written layer by layer instead of being merged into a single map first
+        Map<String, ?> entries = map;
+        Map<String, String> baseEntries = null;
+        if (map instanceof ContextOverlayMap) {
+            ContextOverlayMap contextMap = (ContextOverlayMap) map;
+            baseEntries = contextMap.getBase();
+            entries = contextMap.getOverlay();
+        }
+
         writeName(name);
         try {
             out.write(JSON_START_OBJECT);
 
             separator = "";
-            for (Map.Entry<String, T> entry : map.entrySet()) {
-                writeName(sanitizeKey(entry.getKey()));
-                write(entry.getValue());
-                separator = JSON_SEPARATOR;
+            if (entries != null) {
+                writeEntries(entries, null);
+            }
+            if (baseEntries != null) {
+                writeEntries(baseEntries, entries);
             }
 
             out.write(JSON_CLOSE_OBJECT);
@@ -264,6 +305,18 @@ public final class JsonTelemetryDataSerializer {
         }
     }
 
+    private void writeEntries(Map<String, ?> map, Map<String, ?> overriddenBy) throws IOException {
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (overriddenBy != null && overriddenBy.containsKey(entry.getKey())) {
+                continue;
+            }
+
+            writeKey(entry.getKey());
+            write(entry.getValue());
+            separator = JSON_SEPARATOR;
+        }
+    }
+
 
     public <T> void write(String name, List<T> list) throws IOException {
         if (list == null) {
@@ -292,51 +345,78 @@ public final class JsonTelemetryDataSerializer {
 
     private <T> void write(T item) throws IOException {
         if (item instanceof JsonSerializable) {
-            StringWriter stringWriter = new StringWriter();
-
-            String jsonStringToAppend = createJsonFor((JsonSerializable)item);
-            if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-                return;
-            }
+            int mark = pendingPrefix.length();
+            pendingPrefix.append(JSON_START_OBJECT);
 
-            out.write(jsonStringToAppend);
+            String previousSeparator = separator;
+            writeNestedObject((JsonSerializable) item, mark);
+            separator = previousSeparator;
         } else {
             if (WRAPPER_TYPES.contains(item.getClass()))
             {
                 out.write(String.valueOf(item));
             } else {
-                String truncatedName = truncate(String.valueOf(item), 8192);
-                String sanitizedItem = sanitizeStringForJSON(truncatedName, 8192);
                 out.write(JSON_COMMA);
-                out.write(sanitizedItem);
+                writeEscaped(String.valueOf(item), MAX_VALUE_LENGTH);
                 out.write(JSON_COMMA);
             }
         }
     }
 
-    private <T extends JsonSerializable> String createJsonFor(T value) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(new BufferedWriter(stringWriter));
+    /**
+     * Serializes a nested object straight into {@link #out}, whose opening text was already
+     * appended to {@link #pendingPrefix} starting at 'mark'.
+     * @return true if the object had any field and was written, false if it was empty and dropped.
+     */
+    private boolean writeNestedObject(JsonSerializable value, int mark) throws IOException {
+        separator = "";
+        value.serialize(this);
 
-        value.serialize(temp);
-        temp.close();
-        String jsonStringToAppend = stringWriter.toString();
-        if (Strings.isNullOrEmpty(jsonStringToAppend) || JSON_EMPTY_OBJECT.equals(jsonStringToAppend)) {
-            return "";
+        if (pendingPrefix.length() > mark) {
+            // Nothing was written by the nested object, drop its opening text.
+            pendingPrefix.setLength(mark);
+            return false;
         }
 
-        return jsonStringToAppend;
+        out.write(JSON_CLOSE_OBJECT);
+        return true;
     }
 
     private void writeName(String name) throws IOException {
-
-        out.write(separator);
-        out.write(JSON_COMMA);
+        writeNameStart();
         out.write(name);
         out.write(JSON_COMMA);
         out.write(JSON_NAME_VALUE_SEPARATOR);
     }
 
+    private void writeKey(String key) throws IOException {
+        String trimmedKey = key.trim();
+
+        writeNameStart();
+        if (trimmedKey.isEmpty()) {
+            out.write(EMPTY_KEY_NAME);
+        } else {
+            writeEscaped(trimmedKey, MAX_KEY_LENGTH);
+        }
+        out.write(JSON_COMMA);
+        out.write(JSON_NAME_VALUE_SEPARATOR);
+    }
+
+    private void writeNameStart() throws IOException {
+        writeSeparator();
+        out.write(JSON_COMMA);
+    }
+
+    private void writeSeparator() throws IOException {
+        if (pendingPrefix.length() > 0) {
+            out.append(pendingPrefix);
+            pendingPrefix.setLength(0);
+        }
+
+        out.write(separator);
+    }
+
+
     private static Set<Class<?>> getWrapperTypes()
     {
         Set<Class<?>> ret = new HashSet<Class<?>>();
@@ -352,77 +432,60 @@ public final class JsonTelemetryDataSerializer {
         return ret;
     }
 
-    private String sanitizeStringForJSON(String text, int maxLength) {
-
-        final StringBuilder result = new StringBuilder();
-        StringCharacterIterator iterator = new StringCharacterIterator(text);
-        for (char curr = iterator.current(); curr != iterator.DONE && result.length() < maxLength - DELTA; curr = iterator.next()) {
-            if( curr == '\"' ){
-                result.append("\\\"");
-            }
-            else if(curr == '\\'){
-                result.append("\\\\");
-            }
-            else if(curr == '\b'){
-                result.append("\\b");
-            }
-            else if(curr == '\f'){
-                result.append("\\f");
-            }
-            else if(curr == '\n'){
-                result.append("\\n");
-            }
-            else if(curr == '\r'){
-                result.append("\\r");
-            }
-            else if(curr == '\t'){
-                result.append("\\t");
-            }
-            else if (!Character.isISOControl(curr)){
-                result.append(curr);
-            }
-            else {
-                if (result.length() + 7 < maxLength) { // needs 7 more character space to be appended
-                    result.append("\\u");
-                    result.append((String.format( "%04x", Integer.valueOf(curr))));
-                }
-                else {
-                    break;
-                }
+    /**
+     * Writes the JSON escaped text, stopping once 'maxLength - DELTA' characters were written.
+     * Runs of characters that need no escaping are written in one call.
+     */
+    private void writeEscaped(String text, int maxLength) throws IOException {
+        final int length = text.length();
+        final int limit = maxLength - DELTA;
+        int written = 0;
+        int runStart = 0;
+        int i = 0;
+        for (; i < length && written < limit; ++i) {
+            char curr = text.charAt(i);
+            String escaped = curr < ESCAPES.length ? ESCAPES[curr] : null;
+            if (escaped == null) {
+                ++written;
+                continue;
             }
-        }
-        return result.toString();
-    }
 
-    private String sanitizeKey(String key) {
-        String sanitizedKey = trimAndTruncate(key, 150);
-        sanitizedKey = sanitizeStringForJSON(sanitizedKey, 150);
-        sanitizedKey = MakeKeyNonEmpty(sanitizedKey);
-        return sanitizedKey;
-    }
+            // unicode escapes need 7 more character space to be appended
+            if (escaped.length() == UNICODE_ESCAPE_LENGTH && written + 7 >= maxLength) {
+                break;
+            }
 
-    private static String trimAndTruncate(String value, int maxLength) {
-        if (value == null) {
-            return value;
+            if (i > runStart) {
+                out.write(text, runStart, i - runStart);
+            }
+            out.write(escaped);
+            written += escaped.length();
+            runStart = i + 1;
         }
 
-        String sanitized = value.trim();
-        if (sanitized.length() > maxLength) {
-            sanitized = sanitized.substring(0, maxLength);
+        if (runStart == 0 && i == length) {
+            out.write(text);
+        } else if (i > runStart) {
+            out.write(text, runStart, i - runStart);
         }
-
-        return sanitized;
-    }
-
-    private String MakeKeyNonEmpty(String key) {
-        return Strings.isNullOrEmpty(key) ? "(required property name is empty)" : key;
     }
 
-    private String truncate(String value, int len) {
-        if (value.length() > len) {
-            return value.substring(0, len);
+    private static String[] createEscapes() {
+        // Covers the ISO control characters, 0x00-0x1F and 0x7F-0x9F, and the JSON special characters.
+        String[] escapes = new String[0xA0];
+        for (char c = 0; c < escapes.length; ++c) {
+            if (Character.isISOControl(c)) {
+                escapes[c] = String.format("\\u%04x", Integer.valueOf(c));
+            }
         }
-        return value;
+        escapes['"'] = "\\\"";
+        escapes['\\'] = "\\\\";
+        escapes['\b'] = "\\b";
+        escapes['\f'] = "\\f";
+        escapes['\n'] = "\\n";
+        escapes['\r'] = "\\r";
+        escapes['\t'] = "\\t";
+        return escapes;
     }
 
 }
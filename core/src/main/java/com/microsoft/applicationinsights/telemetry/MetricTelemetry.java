@@ -58,7 +58,7 @@ public final class MetricTelemetry extends BaseTelemetry<MetricData> {
         super();
         data = new MetricData();
         metric = new DataPoint();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
         data.getMetrics().add(metric);
     }
 
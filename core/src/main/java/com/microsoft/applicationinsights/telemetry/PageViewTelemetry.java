@@ -53,7 +53,7 @@ public final class PageViewTelemetry extends BaseSampleSourceTelemetry<PageViewD
      */
     public PageViewTelemetry() {
         data = new PageViewData();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
     }
 
     /**
@@ -46,7 +46,7 @@ public final class PerformanceCounterTelemetry extends BaseTelemetry<Performance
 
     public PerformanceCounterTelemetry() {
         data = new PerformanceCounterData();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
     }
 
     /**
@@ -61,7 +61,7 @@ public final class PerformanceCounterTelemetry extends BaseTelemetry<Performance
         Preconditions.checkArgument(!Strings.isNullOrEmpty(counterName), "counterName must be non null, non empty value");
 
         data = new PerformanceCounterData();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
 
         data.setCategoryName(categoryName);
         data.setCounterName(counterName);
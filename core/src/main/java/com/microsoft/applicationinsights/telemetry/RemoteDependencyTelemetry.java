@@ -58,7 +58,7 @@ public final class RemoteDependencyTelemetry extends BaseSampleSourceTelemetry<R
     public RemoteDependencyTelemetry() {
         super();
         data = new RemoteDependencyData();
-        initialize(this.data.getProperties());
+        this.data.setProperties(initializeContext());
     }
 
     /**
@@ -61,7 +61,7 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
      */
     public RequestTelemetry() {
         this.data = new RequestData();
-        initialize(this.data.getProperties());
+        this.data.setProperties(initializeContext());
         setId(LocalStringsUtils.generateRandomIntegerId());
 
         // Setting mandatory fields.
@@ -94,7 +94,7 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
      */
     public RequestTelemetry(String name, Date timestamp, Duration duration, String responseCode, boolean success) {
         this.data = new RequestData();
-        initialize(this.data.getProperties());
+        this.data.setProperties(initializeContext());
 
         setId(LocalStringsUtils.generateRandomIntegerId());
 
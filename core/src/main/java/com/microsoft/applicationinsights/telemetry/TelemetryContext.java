@@ -22,6 +22,7 @@
 package com.microsoft.applicationinsights.telemetry;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.microsoft.applicationinsights.extensibility.context.CloudContext;
 import com.microsoft.applicationinsights.extensibility.context.ComponentContext;
 import com.microsoft.applicationinsights.extensibility.context.DeviceContext;
@@ -30,9 +31,8 @@ import com.microsoft.applicationinsights.extensibility.context.LocationContext;
 import com.microsoft.applicationinsights.extensibility.context.OperationContext;
 import com.microsoft.applicationinsights.extensibility.context.SessionContext;
 import com.microsoft.applicationinsights.extensibility.context.UserContext;
-import com.microsoft.applicationinsights.internal.util.MapUtil;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -44,8 +44,12 @@ import java.util.concurrent.ConcurrentMap;
  * be used in the portal to filter the telemetry that used this context.
  */
 public final class TelemetryContext {
-    private ConcurrentMap<String,String> properties;
-    private ConcurrentMap<String,String> tags;
+    private ContextOverlayMap properties;
+    private ContextOverlayMap tags;
+
+    // Immutable copies of this context's entries, shared as the base of the contexts it initializes
+    private volatile Snapshot propertiesSnapshot;
+    private volatile Snapshot tagsSnapshot;
 
     private String instrumentationKey;
     private ComponentContext component;
@@ -61,7 +65,8 @@ public final class TelemetryContext {
      * Default Ctor
      */
     public TelemetryContext() {
-        this(new ConcurrentHashMap<String, String>(), new ConcurrentHashMap<String, String>());
+        this.properties = new ContextOverlayMap();
+        this.tags = new ContextOverlayMap();
     }
 
     /**
@@ -196,12 +201,70 @@ public final class TelemetryContext {
         return tags;
     }
 
+    /**
+     * Initializes this context from the source context: the instrumentation key if not set, and the source's tags
+     * and properties for the keys this context does not have.
+     *
+     * The source's tags and properties are not copied: this context keeps a reference to an immutable snapshot of them,
+     * shared by all the contexts initialized from the same source while it is not modified.
+     * @param source The context to initialize from.
+     */
     public void initialize(TelemetryContext source) {
         if (Strings.isNullOrEmpty(this.instrumentationKey) && !Strings.isNullOrEmpty(source.getInstrumentationKey()))
             setInstrumentationKey(source.getInstrumentationKey());
 
-        MapUtil.copy(source.tags, this.tags);
-        MapUtil.copy(source.properties, this.properties);
+        this.tags.setBase(source.getTagsSnapshot());
+        this.properties.setBase(source.getPropertiesSnapshot());
+    }
+
+    private Map<String, String> getTagsSnapshot() {
+        Snapshot snapshot = tagsSnapshot;
+        if (snapshot == null || !snapshot.isValidFor(tags)) {
+            snapshot = new Snapshot(tags);
+            tagsSnapshot = snapshot;
+        }
+
+        return snapshot.entries;
+    }
+
+    private Map<String, String> getPropertiesSnapshot() {
+        Snapshot snapshot = propertiesSnapshot;
+        if (snapshot == null || !snapshot.isValidFor(properties)) {
+            snapshot = new Snapshot(properties);
+            propertiesSnapshot = snapshot;
+        }
+
+        return snapshot.entries;
+    }
+
+    /**
+     * The entries of a map and the modification count they were copied at, the copy is kept until the count changes
+     */
+    private static final class Snapshot {
+        private final int modificationCount;
+        private final Map<String, String> entries;
+
+        private Snapshot(ContextOverlayMap source) {
+            // The count is read first, a change made while copying makes the snapshot invalid
+            this.modificationCount = source.getModificationCount();
+            this.entries = createSnapshot(source);
+        }
+
+        private boolean isValidFor(ContextOverlayMap source) {
+            return source.tracksModifications() && source.getModificationCount() == modificationCount;
+        }
+    }
+
+    // Same filtering as MapUtil.copy into a ConcurrentHashMap: no empty keys, no null values
+    private static Map<String, String> createSnapshot(Map<String, String> source) {
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (Map.Entry<String, String> entry : source.entrySet()) {
+            if (!Strings.isNullOrEmpty(entry.getKey()) && entry.getValue() != null) {
+                builder.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return builder.build();
     }
 
     public InternalContext getInternal() {
@@ -221,7 +284,7 @@ public final class TelemetryContext {
             throw new IllegalArgumentException("tags cannot be null");
         }
 
-        this.properties = properties;
-        this.tags = tags;
+        this.properties = properties instanceof ContextOverlayMap ? (ContextOverlayMap) properties : new ContextOverlayMap(properties);
+        this.tags = tags instanceof ContextOverlayMap ? (ContextOverlayMap) tags : new ContextOverlayMap(tags);
     }
 }
@@ -63,7 +63,7 @@ public final class TraceTelemetry extends BaseSampleSourceTelemetry<MessageData>
         super();
 
         data = new MessageData();
-        initialize(data.getProperties());
+        data.setProperties(initializeContext());
 
         setMessage(message);
         setSeverityLevel(severityLevel);
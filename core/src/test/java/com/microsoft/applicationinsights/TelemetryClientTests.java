@@ -31,8 +31,11 @@ import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
+import com.microsoft.applicationinsights.extensibility.OperationIdProvider;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.channel.TelemetrySampler;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
+import com.microsoft.applicationinsights.internal.pipeline.AsyncTelemetryPipeline;
 import com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilter;
 import com.microsoft.applicationinsights.telemetry.*;
 
@@ -495,6 +498,36 @@ public final class TelemetryClientTests {
         Mockito.verify(channel, Mockito.never()).send(rt);
     }
 
+    @Test
+    public void testIsSampledInAsksSamplingProcessors() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setSamplingPercentage("0");
+        configuration.getTelemetryProcessors().add(processor);
+
+        Assert.assertFalse(client.isSampledIn(TraceTelemetry.class, "operation"));
+
+        // Without an operation the sampling score is random
+        Assert.assertTrue(client.isSampledIn(TraceTelemetry.class, null));
+
+        client.getContext().getOperation().setId("operation");
+        Assert.assertFalse(client.isSampledIn(TraceTelemetry.class, null));
+    }
+
+    @Test
+    public void testIsSampledInGetsOperationIdFromInitializers() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setSamplingPercentage("0");
+        configuration.getTelemetryProcessors().add(processor);
+        configuration.getTelemetryInitializers().add(new OperationIdInitializer("operation"));
+
+        Assert.assertFalse(client.isSampledIn(TraceTelemetry.class, null));
+    }
+
+    @Test
+    public void testIsSampledInWithoutSamplingProcessors() {
+        Assert.assertTrue(client.isSampledIn(TraceTelemetry.class, "operation"));
+    }
+
     @Test
     public void testDontFilterOutTelemetry() throws Throwable {
         RequestTelemetryFilter filter = new RequestTelemetryFilter();
@@ -506,6 +539,86 @@ public final class TelemetryClientTests {
         Mockito.verify(channel, Mockito.times(1)).send(rt);
     }
 
+    @Test
+    public void testTrackWithAsyncPipelineSendsFromPipelineThread() {
+        final List<String> sendingThreads = new LinkedList<String>();
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sendingThreads.add(Thread.currentThread().getName());
+                return null;
+            }
+        }).when(channel).send(Matchers.any(Telemetry.class));
+
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline();
+        configuration.setAsyncTrackingPipeline(pipeline);
+
+        EventTelemetry telemetry = new EventTelemetry("Event");
+        client.track(telemetry);
+        assertNotNull(telemetry.getTimestamp());
+
+        pipeline.stop(10, TimeUnit.SECONDS);
+
+        assertEquals(1, sendingThreads.size());
+        Assert.assertFalse(Thread.currentThread().getName().equals(sendingThreads.get(0)));
+        assertEquals("00000000-0000-0000-0000-000000000000", telemetry.getContext().getInstrumentationKey());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void testFlushSendsTelemetriesInTheAsyncPipeline() {
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline();
+        configuration.setAsyncTrackingPipeline(pipeline);
+        try {
+            for (int i = 0; i < 100; ++i) {
+                client.track(new EventTelemetry("Event"));
+            }
+
+            client.flush();
+
+            assertEquals(100, eventsSent.size());
+            Mockito.verify(channel, Mockito.times(1)).flush();
+        } finally {
+            pipeline.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testTrackWithAsyncPipelineResolvesInstrumentationKeyOnCallerThread() {
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline();
+        configuration.setAsyncTrackingPipeline(pipeline);
+        try {
+            EventTelemetry telemetry = new EventTelemetry("Event");
+            client.track(telemetry);
+
+            assertEquals("00000000-0000-0000-0000-000000000000", telemetry.getContext().getInstrumentationKey());
+        } finally {
+            pipeline.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testTrackWithAsyncPipelineRunsInitializersOnCallerThread() {
+        final List<String> initializingThreads = new LinkedList<String>();
+        configuration.getTelemetryInitializers().add(new TelemetryInitializer() {
+            @Override
+            public void initialize(Telemetry telemetry) {
+                initializingThreads.add(Thread.currentThread().getName());
+            }
+        });
+
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline();
+        configuration.setAsyncTrackingPipeline(pipeline);
+        try {
+            client.track(new EventTelemetry("Event"));
+
+            assertEquals(1, initializingThreads.size());
+            assertEquals(Thread.currentThread().getName(), initializingThreads.get(0));
+        } finally {
+            pipeline.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
     // endregion Track tests
 
     // region Private methods
@@ -547,4 +660,22 @@ public final class TelemetryClientTests {
     }
 
     // endregion Private methods
-}
\ No newline at end of file
+
+    private static final class OperationIdInitializer implements TelemetryInitializer, OperationIdProvider {
+        private final String operationId;
+
+        private OperationIdInitializer(String operationId) {
+            this.operationId = operationId;
+        }
+
+        @Override
+        public void initialize(Telemetry telemetry) {
+            telemetry.getContext().getOperation().setId(operationId);
+        }
+
+        @Override
+        public String getCurrentOperationId() {
+            return operationId;
+        }
+    }
+}
@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
@@ -31,6 +32,7 @@ import org.junit.Test;
 
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
@@ -147,6 +149,43 @@ public class ActiveTransmissionNetworkOutputTest {
         tested.stop(60L, TimeUnit.SECONDS);
     }
 
+    @Test
+    public void testQueuedAndRunningTransmissionsAreCountedByTheLimiter() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        TransmissionOutput blockingOutput = new TransmissionOutput() {
+            @Override
+            public boolean send(Transmission transmission) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+        TransmissionPolicyStateFetcher mockStateFetcher = Mockito.mock(TransmissionPolicyStateFetcher.class);
+        Mockito.doReturn(TransmissionPolicy.UNBLOCKED).when(mockStateFetcher).getCurrentState();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1);
+        ActiveTransmissionNetworkOutput tested = new ActiveTransmissionNetworkOutput(blockingOutput, mockStateFetcher, limiter);
+
+        // One is sent and one waits for the thread, the limit of one is reached
+        assertTrue(tested.send(new Transmission(new byte[2], MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE)));
+        assertTrue(tested.send(new Transmission(new byte[2], MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE)));
+        assertEquals(2, tested.getNumberOfTransmissionsInFlight());
+        assertFalse(limiter.getInFlight() < limiter.getLimit());
+
+        gate.countDown();
+        for (int i = 0; i < 200 && tested.getNumberOfTransmissionsInFlight() != 0; ++i) {
+            Thread.sleep(25);
+        }
+        assertEquals(0, tested.getNumberOfTransmissionsInFlight());
+        tested.stop(1L, TimeUnit.SECONDS);
+    }
+
     @Test
     public void testStop() throws Exception {
     }
@@ -0,0 +1,128 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class AdaptiveConcurrencyLimiterTest {
+    @Test
+    public void testLimitGrowsByOneAfterLimitSuccesses() {
+        AdaptiveConcurrencyLimiter tested = new AdaptiveConcurrencyLimiter(1, 2, 4);
+
+        tested.onResponse(200, null, 10);
+        assertEquals(2, tested.getLimit());
+        tested.onResponse(206, null, 10);
+        assertEquals(3, tested.getLimit());
+
+        for (int i = 0; i < 10; ++i) {
+            tested.onSuccess(10);
+        }
+        assertEquals(4, tested.getLimit());
+    }
+
+    @Test
+    public void testCongestionHalvesTheLimitOncePerInterval() {
+        AdaptiveConcurrencyLimiter tested = new AdaptiveConcurrencyLimiter(1, 8, 16);
+
+        tested.onResponse(TransmissionSendResult.THROTTLED, null, 10);
+        assertEquals(4, tested.getLimit());
+
+        // Responses of uploads that were already in flight
+        tested.onResponse(TransmissionSendResult.SERVICE_UNAVAILABLE, null, 10);
+        tested.onResponse(0, new SocketTimeoutException(), 10);
+        assertEquals(4, tested.getLimit());
+    }
+
+    @Test
+    public void testSlowAndTimedOutResponsesDecreaseTheLimit() {
+        AdaptiveConcurrencyLimiter slow = new AdaptiveConcurrencyLimiter(1, 10, 16, 100);
+        slow.onSuccess(101);
+        assertEquals(9, slow.getLimit());
+
+        AdaptiveConcurrencyLimiter timedOut = new AdaptiveConcurrencyLimiter(1, 10, 16);
+        timedOut.onResponse(0, new SocketTimeoutException(), 10);
+        assertEquals(5, timedOut.getLimit());
+    }
+
+    @Test
+    public void testOtherFailuresDoNotChangeTheLimit() {
+        AdaptiveConcurrencyLimiter tested = new AdaptiveConcurrencyLimiter(1, 10, 16);
+        tested.onResponse(400, null, 10);
+        tested.onResponse(500, null, 10);
+        tested.onResponse(0, new IOException(), 10);
+        assertEquals(10, tested.getLimit());
+    }
+
+    @Test
+    public void testBackoffDropsToTheMinimum() {
+        AdaptiveConcurrencyLimiter tested = new AdaptiveConcurrencyLimiter(2, 10, 16);
+        tested.onBackoff();
+        assertEquals(2, tested.getLimit());
+    }
+
+    @Test
+    public void testTryAcquireFollowsTheLimit() {
+        AdaptiveConcurrencyLimiter tested = new AdaptiveConcurrencyLimiter(1, 2, 2);
+        assertTrue(tested.tryAcquire());
+        assertTrue(tested.tryAcquire());
+        assertFalse(tested.tryAcquire());
+        assertEquals(2, tested.getInFlight());
+
+        tested.release();
+        assertTrue(tested.tryAcquire());
+    }
+
+    @Test
+    public void testAcquireCountsPastTheLimit() {
+        AdaptiveConcurrencyLimiter tested = new AdaptiveConcurrencyLimiter(1, 1, 1);
+        tested.acquire();
+        tested.acquire();
+        assertEquals(2, tested.getInFlight());
+        assertFalse(tested.tryAcquire());
+
+        tested.release();
+        tested.release();
+        assertEquals(0, tested.getInFlight());
+    }
+
+    @Test
+    public void testPolicyManagerBackoffFeedsTheLimiter() {
+        TransmissionPolicyManager policyManager = new TransmissionPolicyManager(true);
+        try {
+            AdaptiveConcurrencyLimiter limiter = policyManager.getConcurrencyLimiter();
+            assertEquals(TransmissionPolicyManager.DEFAULT_INITIAL_CONCURRENT_UPLOADS, limiter.getLimit());
+
+            policyManager.backoff();
+            assertEquals(TransmissionPolicyManager.DEFAULT_MIN_CONCURRENT_UPLOADS, limiter.getLimit());
+        } finally {
+            policyManager.stop(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionHandler;
+import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the output against a local ingestion endpoint.
+ */
+public final class AsyncTransmissionNetworkOutputTest {
+    private static final byte[] CONTENT = new byte[] {1, 2, 3, 4};
+
+    private static final class RecordedRequest {
+        private final String contentType;
+        private final String contentEncoding;
+        private final byte[] body;
+
+        private RecordedRequest(String contentType, String contentEncoding, byte[] body) {
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+
+    private static final class RecordingHandler implements TransmissionHandler {
+        private final BlockingQueue<TransmissionHandlerArgs> args = new LinkedBlockingQueue<TransmissionHandlerArgs>();
+
+        @Override
+        public void onTransmissionSent(TransmissionHandlerArgs args) {
+            this.args.add(args);
+        }
+    }
+
+    private final BlockingQueue<RecordedRequest> requests = new LinkedBlockingQueue<RecordedRequest>();
+    private volatile int responseCode = 200;
+    private volatile String retryAfter;
+    private volatile CountDownLatch responseGate;
+
+    private HttpServer server;
+    private TransmissionPolicyManager policyManager;
+    private RecordingHandler handler;
+    private AsyncTransmissionNetworkOutput tested;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v2/track", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add(new RecordedRequest(
+                        exchange.getRequestHeaders().getFirst("Content-Type"),
+                        exchange.getRequestHeaders().getFirst("Content-Encoding"),
+                        readAll(exchange.getRequestBody())));
+
+                CountDownLatch gate = responseGate;
+                if (gate != null) {
+                    try {
+                        gate.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                if (retryAfter != null) {
+                    exchange.getResponseHeaders().add("Retry-After", retryAfter);
+                }
+                byte[] response = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(responseCode, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+
+        policyManager = new TransmissionPolicyManager(true);
+        handler = new RecordingHandler();
+        policyManager.addTransmissionHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        if (tested != null) {
+            tested.stop(1, TimeUnit.SECONDS);
+        }
+        policyManager.stop(1, TimeUnit.SECONDS);
+        server.stop(0);
+    }
+
+    private AsyncTransmissionNetworkOutput createOutput(int maxTransmissionsInFlight) {
+        String endpoint = "http://localhost:" + server.getAddress().getPort() + "/v2/track";
+        policyManager.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(maxTransmissionsInFlight, maxTransmissionsInFlight, maxTransmissionsInFlight));
+        tested = new AsyncTransmissionNetworkOutput(endpoint, policyManager);
+        return tested;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void waitForCompletion(AsyncTransmissionNetworkOutput output) throws InterruptedException {
+        for (int i = 0; i < 200 && output.getNumberOfTransmissionsInFlight() != 0; ++i) {
+            Thread.sleep(25);
+        }
+        assertEquals(0, output.getNumberOfTransmissionsInFlight());
+    }
+
+    @Test
+    public void testTransmissionIsPostedWithItsContentTypeAndEncoding() throws InterruptedException {
+        AsyncTransmissionNetworkOutput output = createOutput(4);
+
+        assertTrue(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+
+        RecordedRequest request = requests.poll(10, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("application/x-json-stream", request.contentType);
+        assertEquals("gzip", request.contentEncoding);
+        assertArrayEquals(CONTENT, request.body);
+
+        waitForCompletion(output);
+        assertTrue(handler.args.isEmpty());
+    }
+
+    @Test
+    public void testFailedResponseGoesToThePolicyHandlers() throws InterruptedException {
+        responseCode = 429;
+        retryAfter = "Sun, 18 Oct 2026 10:00:00 GMT";
+        AsyncTransmissionNetworkOutput output = createOutput(4);
+        TransmissionDispatcher dispatcher = Mockito.mock(TransmissionDispatcher.class);
+        output.setTransmissionDispatcher(dispatcher);
+
+        Transmission transmission = new Transmission(CONTENT, "application/x-json-stream", "gzip");
+        assertTrue(output.send(transmission));
+
+        TransmissionHandlerArgs args = handler.args.poll(10, TimeUnit.SECONDS);
+        assertNotNull(args);
+        assertEquals(429, args.getResponseCode());
+        assertEquals("{}", args.getResponseBody());
+        assertEquals(retryAfter, args.getRetryHeader().getValue());
+        assertSame(transmission, args.getTransmission());
+        assertSame(dispatcher, args.getTransmissionDispatcher());
+    }
+
+    @Test
+    public void testTransmissionIsRefusedWhenTheInFlightLimitIsReached() throws InterruptedException {
+        responseGate = new CountDownLatch(1);
+        AsyncTransmissionNetworkOutput output = createOutput(1);
+
+        assertTrue(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+        assertFalse(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+
+        responseGate.countDown();
+        waitForCompletion(output);
+        assertTrue(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+    }
+
+    @Test
+    public void testTransmissionIsRefusedWhenThePolicyIsBlocked() {
+        AsyncTransmissionNetworkOutput output = createOutput(4);
+        policyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, 60);
+
+        assertFalse(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+        assertEquals(0, output.getNumberOfTransmissionsInFlight());
+    }
+
+    @Test
+    public void testTransmissionsUpToTheLimitAreInFlightAtOnce() throws InterruptedException {
+        int maxTransmissionsInFlight = ApacheSender.DEFAULT_MAX_CONNECTIONS_PER_ROUTE + 5;
+        responseGate = new CountDownLatch(1);
+        AsyncTransmissionNetworkOutput output = createOutput(maxTransmissionsInFlight);
+
+        for (int i = 0; i < maxTransmissionsInFlight; ++i) {
+            assertTrue(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+        }
+        for (int i = 0; i < maxTransmissionsInFlight; ++i) {
+            assertNotNull(requests.poll(10, TimeUnit.SECONDS));
+        }
+
+        responseGate.countDown();
+        waitForCompletion(output);
+    }
+
+    @Test
+    public void testTransmissionIsRefusedAfterStop() {
+        AsyncTransmissionNetworkOutput output = createOutput(4);
+        output.stop(1, TimeUnit.SECONDS);
+
+        assertFalse(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+    }
+
+    @Test
+    public void testStopWaitsForTheTransmissionsInFlight() throws InterruptedException {
+        responseGate = new CountDownLatch(1);
+        AsyncTransmissionNetworkOutput output = createOutput(4);
+        TransmissionDispatcher dispatcher = Mockito.mock(TransmissionDispatcher.class);
+        output.setTransmissionDispatcher(dispatcher);
+
+        assertTrue(output.send(new Transmission(CONTENT, "application/x-json-stream", "gzip")));
+        assertNotNull(requests.poll(10, TimeUnit.SECONDS));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                responseGate.countDown();
+            }
+        }).start();
+        output.stop(10, TimeUnit.SECONDS);
+
+        assertEquals(0, output.getNumberOfTransmissionsInFlight());
+        Mockito.verifyZeroInteractions(dispatcher);
+    }
+
+    @Test
+    public void testTransmissionsWithoutResponseAtStopGoBackToTheDispatcher() throws InterruptedException {
+        responseGate = new CountDownLatch(1);
+        AsyncTransmissionNetworkOutput output = createOutput(4);
+        TransmissionDispatcher dispatcher = Mockito.mock(TransmissionDispatcher.class);
+        output.setTransmissionDispatcher(dispatcher);
+
+        Transmission transmission = new Transmission(CONTENT, "application/x-json-stream", "gzip");
+        assertTrue(output.send(transmission));
+        assertNotNull(requests.poll(10, TimeUnit.SECONDS));
+
+        output.stop(200, TimeUnit.MILLISECONDS);
+        responseGate.countDown();
+
+        Mockito.verify(dispatcher).dispatch(transmission);
+        assertEquals(0, output.getNumberOfTransmissionsInFlight());
+        assertTrue(handler.args.isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class BacklogDrainRateControllerTest {
+    private static final class ManualTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long value, TimeUnit timeUnit) {
+            nanos += timeUnit.toNanos(value);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroTargetRate() {
+        new BacklogDrainRateController(0);
+    }
+
+    @Test
+    public void testInitialRateIsNotAboveTarget() {
+        assertEquals(5, new BacklogDrainRateController(5).getRatePerSecond(), 0);
+        assertEquals(10, new BacklogDrainRateController(50).getRatePerSecond(), 0);
+    }
+
+    @Test
+    public void testAcquirePacesTheReaders() throws InterruptedException {
+        BacklogDrainRateController controller = new BacklogDrainRateController(10);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; ++i) {
+            controller.acquire();
+        }
+        long elapsedInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The first permit is immediate, the next five are 100 milliseconds apart
+        assertTrue("Elapsed " + elapsedInMillis, elapsedInMillis >= 450);
+    }
+
+    @Test
+    public void testHealthyNetworkDoublesTheRateUpToTheTarget() {
+        ManualTicker ticker = new ManualTicker();
+        BacklogDrainRateController controller = new BacklogDrainRateController(30, ticker);
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        controller.onHealthy();
+        assertEquals(20, controller.getRatePerSecond(), 0);
+
+        // Only once per second
+        ticker.advance(999, TimeUnit.MILLISECONDS);
+        controller.onHealthy();
+        assertEquals(20, controller.getRatePerSecond(), 0);
+
+        ticker.advance(1, TimeUnit.MILLISECONDS);
+        controller.onHealthy();
+        assertEquals(30, controller.getRatePerSecond(), 0);
+    }
+
+    @Test
+    public void testThrottlingHalvesTheRateDownToTheMinimum() {
+        ManualTicker ticker = new ManualTicker();
+        BacklogDrainRateController controller = new BacklogDrainRateController(2, ticker);
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        controller.onThrottled();
+        assertEquals(1, controller.getRatePerSecond(), 0);
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        controller.onThrottled();
+        assertEquals(BacklogDrainRateController.MIN_RATE_PER_SECOND, controller.getRatePerSecond(), 0);
+    }
+
+    @Test
+    public void testLoweringTheTargetLowersTheRate() {
+        BacklogDrainRateController controller = new BacklogDrainRateController(50);
+
+        controller.setTargetRatePerSecond(4);
+
+        assertEquals(4, controller.getTargetRatePerSecond());
+        assertEquals(4, controller.getRatePerSecond(), 0);
+    }
+}
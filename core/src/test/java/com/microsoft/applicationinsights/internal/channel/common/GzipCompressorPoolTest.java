@@ -0,0 +1,131 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class GzipCompressorPoolTest {
+    private static final byte[] DATA = "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Event\"}{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Event\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] compress(GzipCompressorPool pool, byte[] data) {
+        GzipCompressor compressor = pool.acquire();
+        try {
+            compressor.write(data);
+            return compressor.finish();
+        } finally {
+            pool.release(compressor);
+        }
+    }
+
+    @Test
+    public void testDefaultLevelMatchesGzipOutputStream() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        GZIPOutputStream zipStream = new GZIPOutputStream(expected);
+        zipStream.write(DATA);
+        zipStream.close();
+
+        byte[] actual = compress(new GzipCompressorPool(1), DATA);
+
+        // The header's OS byte depends on the JDK, the deflate data and the trailer do not
+        byte[] expectedBytes = expected.toByteArray();
+        assertEquals(expectedBytes.length, actual.length);
+        assertArrayEquals(Arrays.copyOfRange(expectedBytes, 10, expectedBytes.length), Arrays.copyOfRange(actual, 10, actual.length));
+        assertArrayEquals(DATA, decompress(actual));
+    }
+
+    @Test
+    public void testCompressionLevelIsAppliedToReusedCompressors() throws IOException {
+        GzipCompressorPool pool = new GzipCompressorPool(1, GzipCompressorPool.MAX_COMPRESSION_LEVEL);
+        byte[] best = compress(pool, DATA);
+
+        pool.setCompressionLevel(GzipCompressorPool.MIN_COMPRESSION_LEVEL);
+        byte[] stored = compress(pool, DATA);
+
+        assertTrue(stored.length > best.length);
+        assertArrayEquals(DATA, decompress(best));
+        assertArrayEquals(DATA, decompress(stored));
+    }
+
+    @Test
+    public void testOutputGrowsBeyondTheInitialBuffer() throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random(7).nextBytes(data);
+
+        GzipCompressorPool pool = new GzipCompressorPool(1);
+        assertArrayEquals(data, decompress(compress(pool, data)));
+
+        // The reused compressor starts a new stream
+        assertArrayEquals(DATA, decompress(compress(pool, DATA)));
+    }
+
+    @Test
+    public void testPoolKeepsUpToItsCapacity() {
+        GzipCompressorPool pool = new GzipCompressorPool(1);
+        GzipCompressor first = pool.acquire();
+        GzipCompressor second = pool.acquire();
+        assertNotSame(first, second);
+
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+
+        assertSame(first, pool.acquire());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCompressionLevel() {
+        new GzipCompressorPool(1, GzipCompressorPool.MAX_COMPRESSION_LEVEL + 1);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+
+public final class GzipTelemetryBufferTest {
+    private static final int MAX_BATCH_SIZE_IN_BYTES = 1024 * 1024;
+
+    private static GzipTelemetryBatchTransmitter createMockSender() {
+        GzipTelemetryBatchTransmitter sender = Mockito.mock(GzipTelemetryBatchTransmitter.class);
+        Mockito.doReturn(true).when(sender).sendNow(any(GzipTelemetryBatch.class));
+        Mockito.doReturn(true).when(sender).scheduleSend(any(GzipTelemetryBatchTransmitter.BatchFetcher.class), anyLong(), any(TimeUnit.class));
+        return sender;
+    }
+
+    private static List<byte[]> createTelemetries(int count) {
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        for (int i = 0; i < count; ++i) {
+            telemetries.add(("{\"name\":\"telemetry" + i + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        return telemetries;
+    }
+
+    private static String decompress(Transmission transmission) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(transmission.getContent()));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static GzipTelemetryBatch captureSendNow(GzipTelemetryBatchTransmitter sender) {
+        ArgumentCaptor<GzipTelemetryBatch> captor = ArgumentCaptor.forClass(GzipTelemetryBatch.class);
+        Mockito.verify(sender).sendNow(captor.capture());
+        return captor.getValue();
+    }
+
+    private static GzipTelemetryBatchTransmitter.BatchFetcher captureScheduleSend(GzipTelemetryBatchTransmitter sender) {
+        ArgumentCaptor<GzipTelemetryBatchTransmitter.BatchFetcher> captor = ArgumentCaptor.forClass(GzipTelemetryBatchTransmitter.BatchFetcher.class);
+        Mockito.verify(sender).scheduleSend(captor.capture(), anyLong(), any(TimeUnit.class));
+        return captor.getValue();
+    }
+
+    @Test
+    public void testFullBatchIsSentWithTheSamePayloadAsTheSerializer() throws IOException {
+        GzipTelemetryBatchTransmitter sender = createMockSender();
+        GzipTelemetryBuffer tested = new GzipTelemetryBuffer(sender, new GzipCompressorPool(1), 3, MAX_BATCH_SIZE_IN_BYTES, 10);
+
+        List<byte[]> telemetries = createTelemetries(3);
+        for (byte[] telemetry : telemetries) {
+            tested.add(telemetry);
+        }
+
+        GzipTelemetryBatch sent = captureSendNow(sender);
+        assertEquals(3, sent.size());
+
+        Optional<Transmission> streamed = sent.toTransmission();
+        Optional<Transmission> expected = new GzipTelemetrySerializer().serialize(telemetries);
+        assertTrue(streamed.isPresent());
+        assertEquals(expected.get().getWebContentType(), streamed.get().getWebContentType());
+        assertEquals(expected.get().getWebContentEncodingType(), streamed.get().getWebContentEncodingType());
+        assertEquals(decompress(expected.get()), decompress(streamed.get()));
+    }
+
+    @Test
+    public void testFirstTelemetrySchedulesTheBatchOnlyOnce() {
+        GzipTelemetryBatchTransmitter sender = createMockSender();
+        GzipTelemetryBuffer tested = new GzipTelemetryBuffer(sender, new GzipCompressorPool(1), 10, MAX_BATCH_SIZE_IN_BYTES, 10);
+
+        for (byte[] telemetry : createTelemetries(2)) {
+            tested.add(telemetry);
+        }
+
+        GzipTelemetryBatchTransmitter.BatchFetcher fetcher = captureScheduleSend(sender);
+        Mockito.verify(sender, Mockito.never()).sendNow(any(GzipTelemetryBatch.class));
+
+        GzipTelemetryBatch fetched = fetcher.fetch();
+        assertEquals(2, fetched.size());
+        assertNull(fetcher.fetch());
+
+        // The next Telemetry goes to a new batch
+        tested.add(createTelemetries(1).get(0));
+        Mockito.verify(sender, Mockito.times(2)).scheduleSend(any(GzipTelemetryBatchTransmitter.BatchFetcher.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testRefusedScheduleKeepsTheBatchOpenUntilItIsFull() {
+        GzipTelemetryBatchTransmitter sender = createMockSender();
+        Mockito.doReturn(false).doReturn(true).when(sender).scheduleSend(any(GzipTelemetryBatchTransmitter.BatchFetcher.class), anyLong(), any(TimeUnit.class));
+        GzipTelemetryBuffer tested = new GzipTelemetryBuffer(sender, new GzipCompressorPool(1), 3, MAX_BATCH_SIZE_IN_BYTES, 10);
+
+        for (byte[] telemetry : createTelemetries(3)) {
+            tested.add(telemetry);
+        }
+
+        // The second Telemetry scheduled the 'pick-up' again, the third one filled the batch
+        Mockito.verify(sender, Mockito.times(2)).scheduleSend(any(GzipTelemetryBatchTransmitter.BatchFetcher.class), anyLong(), any(TimeUnit.class));
+        assertEquals(3, captureSendNow(sender).size());
+    }
+
+    @Test
+    public void testFlushSendsTheBatchAndTheScheduledFetchFindsNothing() {
+        GzipTelemetryBatchTransmitter sender = createMockSender();
+        GzipTelemetryBuffer tested = new GzipTelemetryBuffer(sender, new GzipCompressorPool(1), 10, MAX_BATCH_SIZE_IN_BYTES, 10);
+
+        tested.flush();
+        Mockito.verify(sender, Mockito.never()).sendNow(any(GzipTelemetryBatch.class));
+
+        tested.add(createTelemetries(1).get(0));
+        tested.flush();
+
+        GzipTelemetryBatch sent = captureSendNow(sender);
+        assertEquals(1, sent.size());
+        assertNull(captureScheduleSend(sender).fetch());
+    }
+
+    @Test
+    public void testSealedBatchRejectsTelemetries() {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch(new GzipCompressorPool(1), 10, MAX_BATCH_SIZE_IN_BYTES);
+        assertEquals(1, batch.append(createTelemetries(1).get(0)));
+        assertTrue(batch.seal());
+        assertFalse(batch.seal());
+        assertEquals(GzipTelemetryBatch.SEALED, batch.append(createTelemetries(1).get(0)));
+        assertEquals(1, batch.size());
+        assertTrue(batch.toTransmission().isPresent());
+    }
+
+    @Test
+    public void testBatchIsSentWhenItReachesTheMaxSizeInBytes() {
+        GzipTelemetryBatchTransmitter sender = createMockSender();
+        List<byte[]> telemetries = createTelemetries(3);
+        int maxBatchSizeInBytes = telemetries.get(0).length + telemetries.get(1).length;
+        GzipTelemetryBuffer tested = new GzipTelemetryBuffer(sender, new GzipCompressorPool(1), 10, maxBatchSizeInBytes, 10);
+
+        for (byte[] telemetry : telemetries) {
+            tested.add(telemetry);
+        }
+
+        GzipTelemetryBatch sent = captureSendNow(sender);
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void testAppendThatSealsTheBatchIsFlagged() {
+        byte[] telemetry = createTelemetries(1).get(0);
+        GzipTelemetryBatch batch = new GzipTelemetryBatch(new GzipCompressorPool(1), 10, telemetry.length + 1);
+        assertEquals(1, batch.append(telemetry));
+        assertEquals(2 | GzipTelemetryBatch.FULL, batch.append(telemetry));
+        assertEquals(2L * telemetry.length, batch.getSizeInBytes());
+        assertEquals(GzipTelemetryBatch.SEALED, batch.append(telemetry));
+    }
+
+    @Test
+    public void testEmptyBatchHasNoTransmission() {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch(new GzipCompressorPool(1), 10, MAX_BATCH_SIZE_IN_BYTES);
+        assertTrue(batch.seal());
+        assertFalse(batch.toTransmission().isPresent());
+    }
+
+    @Test
+    public void testConcurrentAppendsAreAllCompressedIntoFullBatches() throws Exception {
+        final int numberOfThreads = 4;
+        final int telemetriesPerThread = 500;
+        final int maxTelemetriesInBatch = 7;
+        final List<GzipTelemetryBatch> sent = new ArrayList<GzipTelemetryBatch>();
+        GzipTelemetryBatchTransmitter sender = new GzipTelemetryBatchTransmitter() {
+            @Override
+            public boolean scheduleSend(BatchFetcher batchFetcher, long value, TimeUnit timeUnit) {
+                return true;
+            }
+
+            @Override
+            public synchronized boolean sendNow(GzipTelemetryBatch batch) {
+                sent.add(batch);
+                return true;
+            }
+        };
+        final GzipTelemetryBuffer tested = new GzipTelemetryBuffer(sender, new GzipCompressorPool(numberOfThreads), maxTelemetriesInBatch, MAX_BATCH_SIZE_IN_BYTES, 10);
+        final byte[] telemetry = createTelemetries(1).get(0);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numberOfThreads; ++i) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < telemetriesPerThread; ++j) {
+                        tested.add(telemetry);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        tested.flush();
+
+        int total = 0;
+        for (GzipTelemetryBatch batch : sent) {
+            assertTrue(batch.size() <= maxTelemetriesInBatch);
+            String content = decompress(batch.toTransmission().get());
+            assertEquals(batch.size(), content.split(new String(GzipTelemetrySerializer.getNewline(), StandardCharsets.UTF_8)).length);
+            total += batch.size();
+        }
+        assertEquals(numberOfThreads * telemetriesPerThread, total);
+    }
+}
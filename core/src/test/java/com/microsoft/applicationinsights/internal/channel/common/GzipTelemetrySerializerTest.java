@@ -25,6 +25,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Date;
@@ -133,7 +134,7 @@ public final class GzipTelemetrySerializerTest {
     @Test(expected = IllegalArgumentException.class)
     public void testNoData() throws Exception {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
-        tested.serialize(new ArrayList<String>());
+        tested.serialize(new ArrayList<byte[]>());
     }
 
     @Test
@@ -155,7 +156,7 @@ public final class GzipTelemetrySerializerTest {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
 
         List<Telemetry> telemetries = new ArrayList<Telemetry>(amount);
-        List<String> telemetriesSerialized = new ArrayList<String>(amount);
+        List<byte[]> telemetriesSerialized = new ArrayList<byte[]>(amount);
 
         HashMap<String, StubTelemetry> expected = new HashMap<String, StubTelemetry>();
 
@@ -169,7 +170,7 @@ public final class GzipTelemetrySerializerTest {
             jsonWriter.close();
             String asJson = writer.toString();
 
-            telemetriesSerialized.add(asJson);
+            telemetriesSerialized.add(asJson.getBytes(StandardCharsets.UTF_8));
             writer.getBuffer().setLength(0);
             jsonWriter.reset(writer);
 
@@ -197,7 +198,7 @@ public final class GzipTelemetrySerializerTest {
                 totalLen += len;
             }
 
-            String value = new String(contents.toByteArray());
+            String value = new String(contents.toByteArray(), StandardCharsets.UTF_8);
             String[] stubStrings = value.split(System.getProperty("line.separator"));
 
             assertEquals(stubStrings.length, amount);
@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
@@ -222,6 +223,50 @@ public class PartialSuccessHandlerTest {
         Assert.assertTrue(result);
     }
 
+    @Test
+    public void pass206StatusResendsKeptItemsWithoutParsingTheContent() {
+        String validResult = "{\r\n" +
+                "    \"itemsReceived\": 4,\r\n" +
+                "    \"itemsAccepted\": 2,\r\n" +
+                "    \"errors\": [\r\n" +
+                "     {\r\n" +
+                "            \"index\": 1,\r\n" +
+                "            \"statusCode\": 500,\r\n" +
+                "            \"message\": \"Internal Server Error\"\r\n" +
+                "        },\r\n" +
+                "     {\r\n" +
+                "            \"index\": 3,\r\n" +
+                "            \"statusCode\": 439,\r\n" +
+                "            \"message\": \"Too many requests\"\r\n" +
+                "        }\r\n" +
+                "    ]\r\n" +
+                "}";
+        List<byte[]> items = new ArrayList<byte[]>();
+        for (int i = 0; i < 4; ++i) {
+            items.add(("{\"name\":\"TestEvent" + i + "\"}").getBytes());
+        }
+        // The content is not gzip, the items must come from the transmission
+        Transmission transmission = new Transmission(new byte[] { 0 }, "application/x-json-stream", "gzip");
+        transmission.setTelemetries(items);
+
+        TransmissionPolicyManager tpm = new TransmissionPolicyManager(true);
+        TransmissionDispatcher mockedDispatcher = Mockito.mock(TransmissionDispatcher.class);
+        TransmissionHandlerArgs args = new TransmissionHandlerArgs();
+        args.setResponseCode(206);
+        args.setTransmission(transmission);
+        args.setTransmissionDispatcher(mockedDispatcher);
+        args.setResponseBody(validResult);
+        PartialSuccessHandler eh = new PartialSuccessHandler(tpm);
+        Assert.assertTrue(eh.validateTransmissionAndSend(args));
+
+        ArgumentCaptor<Transmission> captor = ArgumentCaptor.forClass(Transmission.class);
+        Mockito.verify(mockedDispatcher).dispatch(captor.capture());
+        List<byte[]> resent = captor.getValue().getTelemetries();
+        Assert.assertEquals(2, resent.size());
+        Assert.assertSame(items.get(1), resent.get(0));
+        Assert.assertSame(items.get(3), resent.get(1));
+    }
+
     @Test
     public void passSingleItemArrayList() {
         TransmissionPolicyManager tpm = new TransmissionPolicyManager(true);
@@ -22,10 +22,13 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -33,6 +36,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
@@ -48,6 +52,13 @@ import static org.mockito.Matchers.anyObject;
 public final class TelemetryBufferTest {
     private final static String MOCK_PROPERTY_NAME = "MockProperty";
 
+    private final static TelemetryBuffer.SizeEstimator<String> STRING_LENGTH_ESTIMATOR = new TelemetryBuffer.SizeEstimator<String>() {
+        @Override
+        public int sizeInBytes(String telemetry) {
+            return telemetry.length();
+        }
+    };
+
     private static class MockSender implements TelemetriesTransmitter<String> {
         private static class ScheduledSendResult {
             public final boolean result;
@@ -311,7 +322,8 @@ public final class TelemetryBufferTest {
             String mockSerializedTelemetry = "mockTelemtry" + String.valueOf(i);
             all.add(mockSerializedTelemetry);
 
-            if (i != 0) {
+            // The refused 'pick-up' leaves the first Telemetry in the buffer, the second one schedules it again
+            if (i != 3) {
                 expected.add(mockSerializedTelemetry);
             }
         }
@@ -515,6 +527,125 @@ public final class TelemetryBufferTest {
         mockSender.waitForFinish(1L);
     }
 
+    @Test
+    public void testConcurrentAddsAreSentExactlyOnce() throws Exception {
+        final int numberOfThreads = 8;
+        final int telemetriesPerThread = 5000;
+        final ConcurrentLinkedQueue<String> sent = new ConcurrentLinkedQueue<String>();
+        final ConcurrentLinkedQueue<TelemetriesTransmitter.TelemetriesFetcher> fetchers = new ConcurrentLinkedQueue<TelemetriesTransmitter.TelemetriesFetcher>();
+        TelemetriesTransmitter<String> sender = new TelemetriesTransmitter<String>() {
+            @Override
+            public boolean scheduleSend(TelemetriesFetcher<String> telemetriesFetcher, long value, TimeUnit timeUnit) {
+                fetchers.add(telemetriesFetcher);
+                return true;
+            }
+
+            @Override
+            public boolean sendNow(Collection<String> telemetries) {
+                assertTrue(telemetries.size() <= 7);
+                sent.addAll(telemetries);
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+
+        final TelemetryBuffer<String> testedBuffer = new TelemetryBuffer<String>(sender, createEnforcerWithCurrentValue(1, 7), createDefaultSenderTimeoutEnforcer());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numberOfThreads; ++t) {
+            final int threadId = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < telemetriesPerThread; ++i) {
+                        testedBuffer.add(threadId + "-" + i);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (TelemetriesTransmitter.TelemetriesFetcher fetcher : fetchers) {
+            sent.addAll(fetcher.fetch());
+        }
+        testedBuffer.flush();
+
+        assertEquals(numberOfThreads * telemetriesPerThread, sent.size());
+        assertEquals(numberOfThreads * telemetriesPerThread, new HashSet<String>(sent).size());
+    }
+
+    // Ignore warning from mock
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSendWhenBufferReachesMaxSizeInBytes() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollection());
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LimitsEnforcer maxEnforcer = createEnforcerWithCurrentValue(100);
+        LimitsEnforcer sendEnforcer = createDefaultSenderTimeoutEnforcer();
+        LimitsEnforcer sizeEnforcer = createEnforcerWithCurrentValue(1, 30);
+
+        TelemetryBuffer<String> testedBuffer = new TelemetryBuffer<String>(mockSender, maxEnforcer, sendEnforcer, sizeEnforcer, STRING_LENGTH_ESTIMATOR);
+
+        // 'mockTelemetry' is 13 characters, the third one makes the batch reach 30
+        for (int i = 0; i < 3; ++i) {
+            testedBuffer.add("mockTelemetry");
+        }
+
+        Mockito.verify(mockSender, Mockito.times(1)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow(captor.capture());
+        assertEquals(3, captor.getValue().size());
+    }
+
+    // Ignore warning from mock
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSetMaxBatchSizeInBytesSmallerThanBufferFlushes() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollection());
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LimitsEnforcer maxEnforcer = createEnforcerWithCurrentValue(100);
+        LimitsEnforcer sendEnforcer = createDefaultSenderTimeoutEnforcer();
+        LimitsEnforcer sizeEnforcer = createEnforcerWithCurrentValue(1, 1000);
+
+        TelemetryBuffer<String> testedBuffer = new TelemetryBuffer<String>(mockSender, maxEnforcer, sendEnforcer, sizeEnforcer, STRING_LENGTH_ESTIMATOR);
+        testedBuffer.add("mockTelemetry");
+        testedBuffer.add("mockTelemetry");
+        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(String.class));
+
+        testedBuffer.setMaxBatchSizeInBytes(20);
+
+        assertEquals(20, testedBuffer.getMaxBatchSizeInBytes());
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void testMaxBatchSizeInBytesIsIgnoredWithoutEstimator() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, createEnforcerWithCurrentValue(100), createDefaultSenderTimeoutEnforcer());
+        testedBuffer.setMaxBatchSizeInBytes(20);
+
+        assertEquals(0, testedBuffer.getMaxBatchSizeInBytes());
+    }
+
     private void testFlushWithData(int expectedTelemetriesNumberInSendNow) {
         MockSender mockSender = new MockSender()
                 .setExpectedNumberOfScheduleSendCalls(1)
@@ -0,0 +1,293 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+
+public final class TelemetryWriteAheadLogTest {
+    private final static int SEGMENT_SIZE_IN_BYTES = 1024;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static byte[] createTelemetry(int index, int size) {
+        byte[] telemetry = new byte[size];
+        Arrays.fill(telemetry, (byte) index);
+        return telemetry;
+    }
+
+    private static TelemetryWriteAheadLog open(File folder) throws IOException {
+        return new TelemetryWriteAheadLog(folder, SEGMENT_SIZE_IN_BYTES, 16 * SEGMENT_SIZE_IN_BYTES, 10);
+    }
+
+    private static File[] listSegments(File folder) {
+        File[] segments = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".wal");
+            }
+        });
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    @Test
+    public void testTelemetriesThatWereNotAcknowledgedAreRecovered() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog tested = open(folder);
+
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; ++i) {
+            byte[] telemetry = createTelemetry(i, 300);
+            telemetries.add(telemetry);
+            assertTrue(tested.append(telemetry));
+        }
+        tested.acknowledge(telemetries.subList(0, 4));
+        assertEquals(6, tested.getNumberOfPendingTelemetries());
+        tested.close();
+
+        tested = open(folder);
+        List<byte[]> recovered = tested.recover();
+
+        assertEquals(6, recovered.size());
+        for (int i = 0; i < 6; ++i) {
+            assertArrayEquals(telemetries.get(i + 4), recovered.get(i));
+        }
+
+        // The recovered Telemetries are logged again until they are acknowledged
+        assertEquals(6, tested.getNumberOfPendingTelemetries());
+        assertTrue(tested.recover().isEmpty());
+        tested.acknowledge(recovered);
+        tested.close();
+
+        tested = open(folder);
+        assertTrue(tested.recover().isEmpty());
+        tested.close();
+    }
+
+    @Test
+    public void testSegmentIsDeletedOnceAllOfItsTelemetriesWereAcknowledged() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog tested = open(folder);
+
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        for (int i = 0; i < 9; ++i) {
+            byte[] telemetry = createTelemetry(i, 300);
+            telemetries.add(telemetry);
+            tested.append(telemetry);
+        }
+        assertEquals(3, listSegments(folder).length);
+
+        // Out of order, the first segment is only deleted with its last Telemetry
+        tested.acknowledge(telemetries.subList(1, 4));
+        assertEquals(3, listSegments(folder).length);
+        tested.acknowledge(Collections.singletonList(telemetries.get(0)));
+        assertEquals(2, listSegments(folder).length);
+
+        // The segment appended to is kept
+        tested.acknowledge(telemetries);
+        assertEquals(1, tested.getNumberOfSegments());
+        assertEquals(0, tested.getNumberOfPendingTelemetries());
+        tested.close();
+    }
+
+    @Test
+    public void testRecoveryStopsAtTornRecord() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog tested = open(folder);
+        tested.append(createTelemetry(1, 100));
+        tested.append(createTelemetry(2, 100));
+        tested.close();
+
+        // The second record lost a part of its content
+        RandomAccessFile segment = new RandomAccessFile(listSegments(folder)[0], "rw");
+        segment.seek(108 + 8 + 50);
+        segment.write(new byte[50]);
+        segment.close();
+
+        tested = open(folder);
+        List<byte[]> recovered = tested.recover();
+        tested.close();
+
+        assertEquals(1, recovered.size());
+        assertArrayEquals(createTelemetry(1, 100), recovered.get(0));
+    }
+
+    @Test
+    public void testOldestSegmentIsGivenUpWhenFull() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog tested = new TelemetryWriteAheadLog(folder, SEGMENT_SIZE_IN_BYTES, 2 * SEGMENT_SIZE_IN_BYTES, 10);
+
+        for (int i = 0; i < 9; ++i) {
+            tested.append(createTelemetry(i, 300));
+        }
+
+        assertEquals(2, tested.getNumberOfSegments());
+        assertEquals(6, tested.getNumberOfPendingTelemetries());
+        tested.close();
+    }
+
+    @Test
+    public void testTelemetriesRetriedAfterAPartialSuccessAreRecoveredIfTheRetryIsLost() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog tested = open(folder);
+
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        for (int i = 0; i < 4; ++i) {
+            byte[] telemetry = createTelemetry(i, 100);
+            telemetries.add(telemetry);
+            assertTrue(tested.append(telemetry));
+        }
+        Transmission transmission = new GzipTelemetrySerializer().serialize(telemetries).get();
+
+        TransmissionPolicyManager policyManager = new TransmissionPolicyManager(true);
+        policyManager.addTransmissionHandler(new PartialSuccessHandler(policyManager));
+        policyManager.setWriteAheadLog(tested);
+
+        // The retry is never sent, as if the process was killed right after the response
+        TransmissionDispatcher dispatcher = Mockito.mock(TransmissionDispatcher.class);
+        String response = "{\r\n" +
+                "    \"itemsReceived\": 4,\r\n" +
+                "    \"itemsAccepted\": 2,\r\n" +
+                "    \"errors\": [\r\n" +
+                "        {\r\n" +
+                "            \"index\": 1,\r\n" +
+                "            \"statusCode\": 500,\r\n" +
+                "            \"message\": \"Internal Server Error\"\r\n" +
+                "        },\r\n" +
+                "        {\r\n" +
+                "            \"index\": 3,\r\n" +
+                "            \"statusCode\": 439,\r\n" +
+                "            \"message\": \"Too many requests\"\r\n" +
+                "        }\r\n" +
+                "    ]\r\n" +
+                "}";
+        TransmissionNetworkOutput.onTransmissionSent(policyManager, dispatcher, transmission, 206, "Partial Content", response, null, null, 10);
+        policyManager.stop(1L, TimeUnit.SECONDS);
+
+        Mockito.verify(dispatcher).dispatch(any(Transmission.class));
+        assertEquals(2, tested.getNumberOfPendingTelemetries());
+        tested.close();
+
+        tested = open(folder);
+        List<byte[]> recovered = tested.recover();
+
+        assertEquals(2, recovered.size());
+        assertArrayEquals(telemetries.get(1), recovered.get(0));
+        assertArrayEquals(telemetries.get(3), recovered.get(1));
+        tested.close();
+    }
+
+    @Test
+    public void testTelemetryLargerThanSegmentIsNotLogged() throws IOException {
+        TelemetryWriteAheadLog tested = open(tmpFolder.newFolder());
+
+        assertFalse(tested.append(createTelemetry(1, SEGMENT_SIZE_IN_BYTES)));
+        assertEquals(0, tested.getNumberOfPendingTelemetries());
+        tested.close();
+    }
+
+    @Test
+    public void testConcurrentAppendsAcrossSegmentsAreAllRecovered() throws Exception {
+        File folder = tmpFolder.newFolder();
+        final TelemetryWriteAheadLog tested = new TelemetryWriteAheadLog(folder, SEGMENT_SIZE_IN_BYTES, 1024 * SEGMENT_SIZE_IN_BYTES, 10);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; ++i) {
+                        tested.append(createTelemetry(thread, 100));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800, tested.getNumberOfPendingTelemetries());
+        tested.close();
+
+        TelemetryWriteAheadLog reopened = open(folder);
+        assertEquals(800, reopened.recover().size());
+        reopened.close();
+    }
+
+    @Test
+    public void testOpenFallsBackToAnInstanceFolderWhenTheFolderIsUsed() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog first = TelemetryWriteAheadLog.open(folder);
+        TelemetryWriteAheadLog second = TelemetryWriteAheadLog.open(folder);
+        assertNotNull(first);
+        assertNotNull(second);
+
+        byte[] telemetry = createTelemetry(1, 100);
+        assertTrue(second.append(telemetry));
+        assertEquals(1, listSegments(new File(folder, "instance-1")).length);
+        second.close();
+
+        // What was left by the second log is found again once it is reopened
+        second = TelemetryWriteAheadLog.open(folder);
+        List<byte[]> recovered = second.recover();
+        assertEquals(1, recovered.size());
+        assertArrayEquals(telemetry, recovered.get(0));
+
+        first.close();
+        second.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testFolderCannotBeUsedTwice() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TelemetryWriteAheadLog tested = open(folder);
+        try {
+            open(folder);
+        } finally {
+            tested.close();
+        }
+    }
+}
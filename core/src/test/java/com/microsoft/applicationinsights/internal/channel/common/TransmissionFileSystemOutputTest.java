@@ -24,9 +24,11 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
-import java.util.Collection;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
@@ -36,10 +38,8 @@ import org.junit.rules.TemporaryFolder;
 public final class TransmissionFileSystemOutputTest {
     private final static String TRANSMISSION_FILE_EXTENSION = "trn";
 
-    // This is derived from the following relationship
-    // 100 Bytes -> fill 394 bytes of file
-    // So by doing the math to fill 1 MB with 3 transmission each size of transmission should be the
-    // following
+    // A third of 1 MB, with the overhead of the journal records
+    // the third transmission fills a capacity of 1 MB
     private final static int SIZE_OF_TRANSMISSION_CONTENT = 349525;
     private final static String TEMP_TEST_FOLDER = "TransmissionTests";
     private final static String MOCK_CONTENT = "MockContent";
@@ -80,7 +80,6 @@ public final class TransmissionFileSystemOutputTest {
                 String iAsString = String.valueOf(i);
                 String content = MOCK_CONTENT + iAsString;
                 tested.send(new Transmission(content.getBytes(), MOCK_CONTENT_TYPE_BASE + iAsString, MOCK_ENCODING_TYPE_BASE + iAsString));
-                TimeUnit.MILLISECONDS.sleep(150); // sleep a bit so 2 files can never have the same timestamp.
             }
 
             for (int i = 1; i <= 10; ++i) {
@@ -103,6 +102,70 @@ public final class TransmissionFileSystemOutputTest {
         }
     }
 
+    @Test
+    public void testTransmissionsAreKeptAfterRestart() throws Exception {
+        File folder = tmpFolder.newFolder(TEMP_TEST_FOLDER + "3");
+        TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+        for (int i = 1; i <= 3; ++i) {
+            tested.send(new Transmission((MOCK_CONTENT + i).getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+        }
+        assertEquals(MOCK_CONTENT + 1, new String(tested.fetchOldestFile().getContent()));
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        tested = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+        assertEquals(MOCK_CONTENT + 2, new String(tested.fetchOldestFile().getContent()));
+        assertEquals(MOCK_CONTENT + 3, new String(tested.fetchOldestFile().getContent()));
+        assertNull(tested.fetchOldestFile());
+        tested.stop(1L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTransmissionFilesOfPreviousVersionsAreMovedToTheJournal() throws Exception {
+        File folder = tmpFolder.newFolder(TEMP_TEST_FOLDER + "4");
+        for (int i = 1; i <= 2; ++i) {
+            File file = new File(folder, "Transmission" + i + "." + TRANSMISSION_FILE_EXTENSION);
+            try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file))) {
+                output.writeObject(new Transmission((MOCK_CONTENT + i).getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+            }
+            file.setLastModified(System.currentTimeMillis() - 10000 + i * 1000);
+        }
+
+        TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+
+        assertTrue(FileUtils.listFiles(folder, new String[]{TRANSMISSION_FILE_EXTENSION}, false).isEmpty());
+        assertEquals(MOCK_CONTENT + 1, new String(tested.fetchOldestFile().getContent()));
+        assertEquals(MOCK_CONTENT + 2, new String(tested.fetchOldestFile().getContent()));
+        assertNull(tested.fetchOldestFile());
+        tested.stop(1L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTwoOutputsOnTheSameFolderKeepTheirOwnTransmissions() throws Exception {
+        File folder = tmpFolder.newFolder(TEMP_TEST_FOLDER + "5");
+        TransmissionFileSystemOutput first = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+        TransmissionFileSystemOutput second = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+        for (int i = 1; i <= 3; ++i) {
+            assertTrue(first.send(new Transmission(("First" + i).getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE)));
+            assertTrue(second.send(new Transmission(("Second" + i).getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE)));
+        }
+
+        for (int i = 1; i <= 3; ++i) {
+            assertEquals("First" + i, new String(first.fetchOldestFile().getContent()));
+            assertEquals("Second" + i, new String(second.fetchOldestFile().getContent()));
+        }
+        assertNull(first.fetchOldestFile());
+        assertNull(second.fetchOldestFile());
+
+        // What was left by the second output is found again once it is restarted
+        second.send(new Transmission("Second4".getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+        second.stop(1L, TimeUnit.SECONDS);
+        second = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+        assertEquals("Second4", new String(second.fetchOldestFile().getContent()));
+
+        first.stop(1L, TimeUnit.SECONDS);
+        second.stop(1L, TimeUnit.SECONDS);
+    }
+
     private TransmissionFileSystemOutput testSuccessfulSends(int amount) throws Exception {
         return testSuccessfulSends(amount, amount, null, null);
     }
@@ -113,10 +176,12 @@ public final class TransmissionFileSystemOutputTest {
         try {
             tested = createAndSend(folder.getAbsolutePath(), amount, capacity);
 
-            Collection<File> transmissions = FileUtils.listFiles(folder, new String[]{TRANSMISSION_FILE_EXTENSION}, false);
+            int persisted = 0;
+            while (tested.fetchOldestFile() != null) {
+                ++persisted;
+            }
 
-            assertNotNull(transmissions);
-            assertEquals(expectedSuccess, transmissions.size());
+            assertEquals(expectedSuccess, persisted);
 
         } finally {
             if (testFolder == null && folder.exists()) {
@@ -0,0 +1,223 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class TransmissionJournalTest {
+    private final static String MOCK_CONTENT_TYPE = "MockContentType";
+    private final static String MOCK_ENCODING_TYPE = "MockEncodingType";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static Transmission createTransmission(int index, int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) index);
+        return new Transmission(content, MOCK_CONTENT_TYPE + index, MOCK_ENCODING_TYPE + index, 2);
+    }
+
+    private static void assertTransmission(int index, int size, Transmission transmission) {
+        assertNotNull(transmission);
+        assertEquals(MOCK_CONTENT_TYPE + index, transmission.getWebContentType());
+        assertEquals(MOCK_ENCODING_TYPE + index, transmission.getWebContentEncodingType());
+        assertEquals(2, transmission.getVersion());
+        assertEquals(size, transmission.getContent().length);
+        assertEquals((byte) index, transmission.getContent()[size - 1]);
+    }
+
+    /// The segments, oldest first
+    private static File[] listSegments(File folder) {
+        File[] segments = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".seg");
+            }
+        });
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    @Test
+    public void testTransmissionsAreReadInOrderAcrossSegments() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TransmissionJournal tested = new TransmissionJournal(folder, 1024);
+
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(tested.append(createTransmission(i, 300)));
+        }
+        assertTrue(listSegments(folder).length > 1);
+
+        for (int i = 0; i < 10; ++i) {
+            assertTransmission(i, 300, tested.poll());
+        }
+        assertNull(tested.poll());
+        assertEquals(0, tested.getSizeInBytes());
+
+        // Only the segment we still write to is left
+        assertEquals(1, listSegments(folder).length);
+        tested.close();
+    }
+
+    @Test
+    public void testReadingResumesFromTheCursorAfterReopen() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TransmissionJournal tested = new TransmissionJournal(folder, 1024);
+        for (int i = 0; i < 6; ++i) {
+            tested.append(createTransmission(i, 300));
+        }
+        for (int i = 0; i < 4; ++i) {
+            assertTransmission(i, 300, tested.poll());
+        }
+        long sizeInBytes = tested.getSizeInBytes();
+        tested.close();
+
+        tested = new TransmissionJournal(folder, 1024);
+        assertEquals(sizeInBytes, tested.getSizeInBytes());
+        tested.append(createTransmission(6, 300));
+        for (int i = 4; i < 7; ++i) {
+            assertTransmission(i, 300, tested.poll());
+        }
+        assertNull(tested.poll());
+        tested.close();
+    }
+
+    @Test
+    public void testCorruptedRecordIsSkipped() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TransmissionJournal tested = new TransmissionJournal(folder, 1024);
+        for (int i = 0; i < 4; ++i) {
+            tested.append(createTransmission(i, 300));
+        }
+        tested.close();
+
+        // Two records per segment, damage the content of the first record
+        try (RandomAccessFile file = new RandomAccessFile(listSegments(folder)[0], "rw")) {
+            file.seek(100);
+            file.write(0x7f);
+        }
+
+        tested = new TransmissionJournal(folder, 1024);
+        assertEquals(4, tested.getNumberOfTransmissions());
+        assertTransmission(1, 300, tested.poll());
+        assertTransmission(2, 300, tested.poll());
+        assertTransmission(3, 300, tested.poll());
+        assertNull(tested.poll());
+        assertEquals(0, tested.getSizeInBytes());
+        tested.close();
+    }
+
+    @Test
+    public void testTruncatedRecordIsSkipped() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TransmissionJournal tested = new TransmissionJournal(folder, 1024);
+        tested.append(createTransmission(0, 300));
+        tested.append(createTransmission(1, 300));
+        tested.close();
+
+        File segment = listSegments(folder)[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        tested = new TransmissionJournal(folder, 1024);
+        assertTransmission(0, 300, tested.poll());
+        assertNull(tested.poll());
+        tested.close();
+    }
+
+    @Test
+    public void testRecordThatCannotBeReadIsKeptForTheNextPoll() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TransmissionJournal tested = new TransmissionJournal(folder, 1024);
+        tested.append(createTransmission(0, 300));
+
+        // A directory in place of the segment fails the read without the segment being gone
+        File segment = listSegments(folder)[0];
+        File moved = new File(folder, "moved");
+        assertTrue(segment.renameTo(moved));
+        assertTrue(segment.mkdir());
+
+        assertNull(tested.poll());
+        assertEquals(1, tested.getNumberOfTransmissions());
+
+        assertTrue(segment.delete());
+        assertTrue(moved.renameTo(segment));
+        assertTransmission(0, 300, tested.poll());
+        assertEquals(0, tested.getNumberOfTransmissions());
+        tested.close();
+    }
+
+    @Test
+    public void testIndexFollowsAppendsAndPolls() throws IOException {
+        File folder = tmpFolder.newFolder();
+        TransmissionJournal tested = new TransmissionJournal(folder, 1024);
+        assertEquals(0, tested.getNumberOfTransmissions());
+        assertEquals(0, tested.getOldestAppendTimeInMillis());
+
+        long before = System.currentTimeMillis();
+        tested.append(createTransmission(0, 300));
+        long recordSize = tested.getSizeInBytes();
+        tested.append(createTransmission(1, 300));
+        tested.append(createTransmission(2, 300));
+
+        assertEquals(3, tested.getNumberOfTransmissions());
+        assertEquals(3 * recordSize, tested.getSizeInBytes());
+        assertTrue(tested.getOldestAppendTimeInMillis() >= before);
+
+        tested.poll();
+        assertEquals(2, tested.getNumberOfTransmissions());
+        assertEquals(2 * recordSize, tested.getSizeInBytes());
+        tested.close();
+
+        // The index is rebuilt from the segments and the cursor
+        tested = new TransmissionJournal(folder, 1024);
+        assertEquals(2, tested.getNumberOfTransmissions());
+        assertEquals(2 * recordSize, tested.getSizeInBytes());
+        assertTrue(tested.getOldestAppendTimeInMillis() > 0);
+        tested.close();
+    }
+
+    @Test
+    public void testClosedJournalRejectsTransmissions() throws IOException {
+        TransmissionJournal tested = new TransmissionJournal(tmpFolder.newFolder());
+        tested.append(createTransmission(0, 10));
+        tested.close();
+
+        assertFalse(tested.append(createTransmission(1, 10)));
+        assertNull(tested.poll());
+    }
+}
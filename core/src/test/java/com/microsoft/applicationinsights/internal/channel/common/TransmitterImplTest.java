@@ -23,21 +23,29 @@ package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
+import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.telemetry.TelemetryContext;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import com.google.common.base.Optional;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.any;
 
@@ -119,6 +127,91 @@ public final class TransmitterImplTest {
         testSendNow(100, false);
     }
 
+    @Test
+    public void testTelemetriesAreSpilledWhenTooManySendsArePending() {
+        testTelemetriesWhenTooManySendsArePending(true);
+    }
+
+    @Test
+    public void testTelemetriesAreDroppedWhenTheyCannotBeSpilled() {
+        testTelemetriesWhenTooManySendsArePending(false);
+    }
+
+    @Test
+    public void testRefusedScheduleLeavesTheTelemetriesWithTheBuffer() {
+        TransmitterImpl transmitter = null;
+        try {
+            TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+            TransmissionsLoader mockLoader = Mockito.mock(TransmissionsLoader.class);
+            TransmissionOutput mockOverflow = Mockito.mock(TransmissionOutput.class);
+            TelemetrySerializer mockSerializer = Mockito.mock(TelemetrySerializer.class);
+            transmitter = new TransmitterImpl(mockDispatcher, mockSerializer, mockLoader, mockOverflow);
+
+            TelemetriesTransmitter.TelemetriesFetcher mockFetcher = Mockito.mock(TelemetriesTransmitter.TelemetriesFetcher.class);
+            for (int i = 0; i < TransmitterImpl.MAX_PENDING_SCHEDULE_REQUESTS; ++i) {
+                assertTrue(transmitter.scheduleSend(mockFetcher, 1L, TimeUnit.HOURS));
+            }
+
+            TelemetriesTransmitter.TelemetriesFetcher refusedFetcher = Mockito.mock(TelemetriesTransmitter.TelemetriesFetcher.class);
+            assertFalse(transmitter.scheduleSend(refusedFetcher, 1L, TimeUnit.HOURS));
+
+            Mockito.verify(refusedFetcher, Mockito.never()).fetch();
+            Mockito.verify(mockOverflow, Mockito.never()).send(any(Transmission.class));
+        } finally {
+            if (transmitter != null) {
+                transmitter.stop(1L, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private void testTelemetriesWhenTooManySendsArePending(boolean overflowAccepts) {
+        TransmitterImpl transmitter = null;
+        try {
+            TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+            TransmissionsLoader mockLoader = Mockito.mock(TransmissionsLoader.class);
+            TransmissionOutput mockOverflow = Mockito.mock(TransmissionOutput.class);
+            Mockito.doReturn(overflowAccepts).when(mockOverflow).send(any(Transmission.class));
+
+            List<byte[]> telemetries = Arrays.asList(new byte[] {1}, new byte[] {2});
+            TelemetrySerializer mockSerializer = Mockito.mock(TelemetrySerializer.class);
+            Mockito.doReturn(Optional.of(new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE))).when(mockSerializer).serialize(telemetries);
+
+            transmitter = new TransmitterImpl(mockDispatcher, mockSerializer, mockLoader, mockOverflow);
+
+            TelemetriesTransmitter.TelemetriesFetcher mockFetcher = Mockito.mock(TelemetriesTransmitter.TelemetriesFetcher.class);
+            for (int i = 0; i < TransmitterImpl.MAX_PENDING_SCHEDULE_REQUESTS; ++i) {
+                assertTrue(transmitter.scheduleSend(mockFetcher, 1L, TimeUnit.HOURS));
+            }
+
+            assertEquals(overflowAccepts, transmitter.sendNow(telemetries));
+
+            Mockito.verify(mockOverflow, Mockito.times(1)).send(any(Transmission.class));
+            Mockito.verify(mockDispatcher, Mockito.never()).dispatch(any(Transmission.class));
+            assertEquals(overflowAccepts ? 2 : 0, transmitter.getNumberOfSpilledTelemetries());
+            assertEquals(overflowAccepts ? 0 : 2, transmitter.getNumberOfDroppedTelemetries());
+
+            // The counter reports what happened since its last report
+            TelemetryClient mockClient = Mockito.mock(TelemetryClient.class);
+            TransmitterOverflowPerformanceCounter counter = new TransmitterOverflowPerformanceCounter(transmitter);
+            counter.report(mockClient);
+            ArgumentCaptor<Telemetry> metrics = ArgumentCaptor.forClass(Telemetry.class);
+            Mockito.verify(mockClient, Mockito.times(2)).track(metrics.capture());
+            MetricTelemetry spilled = (MetricTelemetry) metrics.getAllValues().get(0);
+            MetricTelemetry dropped = (MetricTelemetry) metrics.getAllValues().get(1);
+            assertEquals(TransmitterOverflowPerformanceCounter.SPILLED_NAME, spilled.getName());
+            assertEquals(overflowAccepts ? 2 : 0, spilled.getValue(), 0);
+            assertEquals(TransmitterOverflowPerformanceCounter.DROPPED_NAME, dropped.getName());
+            assertEquals(overflowAccepts ? 0 : 2, dropped.getValue(), 0);
+
+            counter.report(mockClient);
+            Mockito.verify(mockClient, Mockito.times(2)).track(any(Telemetry.class));
+        } finally {
+            if (transmitter != null) {
+                transmitter.stop(1L, TimeUnit.SECONDS);
+            }
+        }
+    }
+
     private void testSendNow(int numberOfTransmissions, boolean serializeOk) throws IOException {
         TransmitterImpl transmitter = null;
         try {
@@ -172,7 +265,7 @@ public final class TransmitterImplTest {
                     }
                 });
             }
-            ArrayList<String> asJsons = toJson(telemetries);
+            ArrayList<byte[]> asJsons = toJson(telemetries);
 
             Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
             Optional<Transmission> mockSerialize = Optional.absent();
@@ -259,7 +352,7 @@ public final class TransmitterImplTest {
                     }
                 });
             }
-            Collection<String> asJsons = toJson(telemetries);
+            Collection<byte[]> asJsons = toJson(telemetries);
 
             Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
             Optional<Transmission> mockSerialize = Optional.absent();
@@ -299,15 +392,15 @@ public final class TransmitterImplTest {
         }
     }
 
-    private static ArrayList<String> toJson(List<Telemetry> telemetries) throws IOException {
+    private static ArrayList<byte[]> toJson(List<Telemetry> telemetries) throws IOException {
         StringWriter writer = new StringWriter();
         JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
-        ArrayList<String> asJsons = new ArrayList<String>();
+        ArrayList<byte[]> asJsons = new ArrayList<byte[]>();
         for (Telemetry telemetry : telemetries) {
             telemetry.serialize(jsonWriter);
             jsonWriter.close();
             String asJson = writer.toString();
-            asJsons.add(asJson);
+            asJsons.add(asJson.getBytes(StandardCharsets.UTF_8));
             writer.getBuffer().setLength(0);
             jsonWriter.reset(writer);
         }
@@ -0,0 +1,181 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.sampling;
+
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class AdaptiveTelemetrySamplerTest {
+    private final static long STEP_IN_NANOS = TimeUnit.SECONDS.toNanos(1) / AdaptiveTelemetrySampler.STEPS_PER_EVALUATION_INTERVAL;
+
+    private AdaptiveTelemetrySampler tested;
+    private long nowNanos;
+
+    @Before
+    public void setUp() {
+        setUp(new AdaptiveTelemetrySampler());
+    }
+
+    private void setUp(AdaptiveTelemetrySampler sampler) {
+        if (tested != null) {
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+        tested = sampler;
+        tested.initialize("100", "1", "1", "30", null, null, null, null);
+
+        // The test drives the evaluations, a full window of quiet steps makes them exact
+        tested.stop(1L, TimeUnit.SECONDS);
+        nowNanos = System.nanoTime();
+        tested.evaluate(nowNanos);
+        for (int i = 0; i < AdaptiveTelemetrySampler.STEPS_PER_EVALUATION_INTERVAL; ++i) {
+            nextStep();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        tested.stop(1L, TimeUnit.SECONDS);
+    }
+
+    private void offer(int numberOfTelemetries) {
+        for (int i = 0; i < numberOfTelemetries; ++i) {
+            tested.isSampledIn(new EventTelemetry());
+        }
+    }
+
+    private void nextStep() {
+        nowNanos += STEP_IN_NANOS;
+        tested.evaluate(nowNanos);
+    }
+
+    @Test
+    public void testRateBelowMaxIsNotSampled() {
+        for (int i = 0; i < 8; ++i) {
+            offer(20);
+            nextStep();
+        }
+
+        assertEquals(100.0, tested.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testSpikeIsSampledAtTheNextStep() {
+        // 1000 telemetries in the last second, 10 times the max
+        offer(1000);
+        nextStep();
+
+        assertEquals(10.0, tested.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testSamplingPercentageIncreasesGraduallyAfterSpike() {
+        offer(1000);
+        nextStep();
+
+        // The spike is in the window for a second
+        for (int i = 1; i < AdaptiveTelemetrySampler.STEPS_PER_EVALUATION_INTERVAL; ++i) {
+            nextStep();
+            assertEquals(10.0, tested.getSamplingPercentage(), 0.0);
+        }
+
+        // The rate drops to nothing, the average follows it by a quarter at each step
+        nextStep();
+        assertEquals(100.0 / 8, tested.getSamplingPercentage(), 0.0);
+
+        // Increases are spaced by the increase timeout
+        nextStep();
+        assertEquals(100.0 / 8, tested.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testTelemetriesFromAllThreadsAreCounted() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    offer(10000);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, tested.getNumberOfTelemetries());
+    }
+
+    @Test
+    public void testTypeBudgetAdaptsOnItsOwn() {
+        AdaptiveTelemetrySampler sampler = new AdaptiveTelemetrySampler();
+        sampler.setMaxTelemetryItemsPerSecondPerType("Request:10");
+        setUp(sampler);
+
+        // 100 requests are 10 times their budget, 50 events are within the global one
+        int sampledIn = 0;
+        for (int i = 0; i < 100; ++i) {
+            tested.isSampledIn(new RequestTelemetry());
+        }
+        offer(50);
+        nextStep();
+
+        assertEquals(10.0, tested.getSamplingPercentage(RequestTelemetry.class), 0.0);
+        assertEquals(100.0, tested.getSamplingPercentage(), 0.0);
+        assertNull(tested.getSamplingPercentage(EventTelemetry.class));
+        assertEquals(50, tested.getNumberOfTelemetries());
+
+        for (int i = 0; i < 1000; ++i) {
+            RequestTelemetry request = new RequestTelemetry();
+            if (tested.isSampledIn(request)) {
+                assertEquals(10.0, request.getSamplingPercentage(), 0.0);
+                ++sampledIn;
+            }
+        }
+        assertTrue(sampledIn > 0 && sampledIn < 1000);
+    }
+
+    @Test
+    public void testTypeIsNeverSampledBelowItsFloor() {
+        AdaptiveTelemetrySampler sampler = new AdaptiveTelemetrySampler();
+        sampler.setMinSamplingPercentagePerType("Exception:100");
+        setUp(sampler);
+
+        offer(1000);
+        nextStep();
+        assertEquals(10.0, tested.getSamplingPercentage(), 0.0);
+
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(tested.isSampledIn(new ExceptionTelemetry(new Exception())));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.sampling;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class SamplingBudgetTest {
+    private final static long STEP_IN_NANOS = TimeUnit.SECONDS.toNanos(1) / SamplingBudget.STEPS_PER_WINDOW;
+
+    @Test
+    public void testParsePerType() {
+        Map<String, Double> parsed = SamplingBudget.parsePerType(" Request:50, Dependency : 200,Trace:x,:5,Event:-1, ", "Test");
+
+        assertEquals(2, parsed.size());
+        assertEquals(50.0, parsed.get("Request"), 0.0);
+        assertEquals(200.0, parsed.get("Dependency"), 0.0);
+    }
+
+    @Test
+    public void testParsePerTypeOfNothing() {
+        assertTrue(SamplingBudget.parsePerType(null, "Test").isEmpty());
+        assertTrue(SamplingBudget.parsePerType("", "Test").isEmpty());
+    }
+
+    @Test
+    public void testSamplingPercentageIsNotLoweredBelowTheMin() {
+        SamplingBudget tested = new SamplingBudget(10, 50);
+        long nowNanos = System.nanoTime();
+        tested.evaluate(nowNanos);
+
+        for (int i = 0; i < 1000; ++i) {
+            tested.count();
+        }
+        assertTrue(tested.evaluate(nowNanos + STEP_IN_NANOS));
+
+        assertEquals(50.0, tested.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void testEvaluateIfDueWaitsForAStep() {
+        SamplingBudget tested = new SamplingBudget(10, 1);
+        long nowNanos = System.nanoTime();
+        tested.evaluate(nowNanos);
+
+        for (int i = 0; i < 1000; ++i) {
+            tested.count();
+        }
+        tested.evaluateIfDue(nowNanos + STEP_IN_NANOS / 2);
+        assertEquals(100.0, tested.getSamplingPercentage(), 0.0);
+
+        tested.evaluateIfDue(nowNanos + STEP_IN_NANOS);
+        assertFalse(tested.getSamplingPercentage() == 100.0);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.sampling;
+
+import java.util.Random;
+
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class SamplingScoreGeneratorTest {
+    private final static Random random = new Random();
+
+    @Test
+    public void testScoreMatchesDoubledInput() {
+        for (int length = 1; length <= 40; ++length) {
+            String id = generateRandomString(length);
+            Telemetry telemetry = new EventTelemetry();
+            telemetry.getContext().getUser().setId(id);
+
+            assertEquals(id, getExpectedScore(id), SamplingScoreGenerator.getSamplingScore(telemetry), 0.0);
+        }
+    }
+
+    @Test
+    public void testScoreOfOperationWithoutUser() {
+        String operationId = generateRandomString(3);
+        Telemetry telemetry = new EventTelemetry();
+        telemetry.getContext().getOperation().setId(operationId);
+
+        assertEquals(getExpectedScore(operationId), SamplingScoreGenerator.getSamplingScore(telemetry), 0.0);
+        assertEquals(getExpectedScore(operationId), SamplingScoreGenerator.getSamplingScore(telemetry), 0.0);
+    }
+
+    @Test
+    public void testRandomScoreIsAPercentage() {
+        for (int i = 0; i < 100; ++i) {
+            double score = SamplingScoreGenerator.getSamplingScore(new EventTelemetry());
+            assertTrue(score >= 0.0 && score < 100.0);
+        }
+    }
+
+    /// The score as it was computed before, by doubling the id until it is 8 characters long
+    private static double getExpectedScore(String id) {
+        String padded = id;
+        while (padded.length() < 8) {
+            padded = padded + padded;
+        }
+
+        int hash = 5381;
+        for (char c : padded.toCharArray()) {
+            hash = ((hash << 5) + hash) + (int) c;
+        }
+        hash = hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
+
+        double score = (double) hash / Integer.MAX_VALUE;
+        score *= 100;
+        return score;
+    }
+
+    private static String generateRandomString(int length) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            value.append((char) random.nextInt(0x3000));
+        }
+        return value.toString();
+    }
+}
@@ -4,6 +4,7 @@ import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.TestFramework.StubTelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.PageViewTelemetry;
 import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
@@ -15,6 +16,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Created by Dhaval Doshi 10/31/2017
@@ -55,6 +57,54 @@ public class FixedRateSamplingTelemetryProcessorTest {
         Assert.assertEquals(20.0, ((SupportSampling)telemetryList.get(0)).getSamplingPercentage(), 0);
     }
 
+    @Test
+    public void typeBudgetLowersSamplingPercentageOfThatTypeOnly() throws InterruptedException {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setMaxTelemetryItemsPerSecondPerType("Request:10");
+        for (int i = 0; i < 100; ++i) {
+            processor.process(new RequestTelemetry());
+        }
+
+        // The budget is evaluated by the first telemetry a step after its creation
+        Thread.sleep(300);
+        processor.process(new RequestTelemetry());
+
+        double sp = processor.getSamplingPercentage(RequestTelemetry.class);
+        Assert.assertTrue(sp < 100.0);
+        Assert.assertEquals(Math.rint(100.0 / sp), 100.0 / sp, 1.0E-9);
+        Assert.assertEquals(100.0, processor.getSamplingPercentage(PageViewTelemetry.class), 0);
+
+        RequestTelemetry request = new RequestTelemetry();
+        processor.process(request);
+        Assert.assertEquals(sp, request.getSamplingPercentage(), 0);
+    }
+
+    @Test
+    public void typeIsNeverSampledBelowItsFloor() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setSamplingPercentage("10.0");
+        processor.setMinSamplingPercentagePerType("Exception:100, Unknown:50");
+        for (int i = 0; i < 100; ++i) {
+            ExceptionTelemetry exception = new ExceptionTelemetry(new Exception());
+            Assert.assertTrue(processor.process(exception));
+            Assert.assertEquals(100.0, exception.getSamplingPercentage(), 0);
+        }
+        Assert.assertEquals(10.0, processor.getSamplingPercentage(RequestTelemetry.class), 0);
+    }
+
+    @Test
+    public void preCheckAgreesWithProcessing() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setSamplingPercentage("50");
+        for (int i = 0; i < 200; ++i) {
+            String operationId = UUID.randomUUID().toString();
+            RequestTelemetry request = new RequestTelemetry();
+            request.getContext().getOperation().setId(operationId);
+
+            Assert.assertEquals(processor.process(request), processor.isSampledIn(RequestTelemetry.class, operationId));
+        }
+    }
+
     @Test
     public void telemetryItemSamplingWorksWhenSetByUser() {
         FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
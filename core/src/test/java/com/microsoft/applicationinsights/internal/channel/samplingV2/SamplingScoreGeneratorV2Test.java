@@ -136,6 +136,40 @@ public class SamplingScoreGeneratorV2Test {
 
     }
 
+    @Test
+    public void samplingHashCodeMatchesPaddedInput() {
+        for (int length = 1; length <= 40; ++length) {
+            String input = generateRandomString(length);
+
+            // The input hashed as it was padded before, by appending it to itself
+            StringBuilder padded = new StringBuilder(input);
+            while (padded.length() < 8) {
+                padded.append(input);
+            }
+            int hash = 5381;
+            for (int i = 0; i < padded.length(); ++i) {
+                hash = ((hash << 5) + hash) + (int) padded.charAt(i);
+            }
+            hash = hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
+
+            Assert.assertEquals(input, hash, SamplingScoreGeneratorV2.getSamplingHashCode(input));
+        }
+    }
+
+    @Test
+    public void cachedSamplingScoreIsThatOfTheOperation() {
+        String operationId1 = generateRandomOperationId();
+        String operationId2 = generateRandomOperationId();
+        double expected1 = ((double) SamplingScoreGeneratorV2.getSamplingHashCode(operationId1) / Integer.MAX_VALUE) * 100;
+        double expected2 = ((double) SamplingScoreGeneratorV2.getSamplingHashCode(operationId2) / Integer.MAX_VALUE) * 100;
+
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(expected1, SamplingScoreGeneratorV2.getSamplingScore(operationId1), 0.0);
+            Assert.assertEquals(expected1, SamplingScoreGeneratorV2.getSamplingScore(new String(operationId1)), 0.0);
+            Assert.assertEquals(expected2, SamplingScoreGeneratorV2.getSamplingScore(operationId2), 0.0);
+        }
+    }
+
     private static String generateRandomUserId() {
         int max = 12;
         int min = 3;
@@ -148,6 +182,14 @@ public class SamplingScoreGeneratorV2Test {
 
     }
 
+    private static String generateRandomString(int length) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            value.append((char) random.nextInt(0x3000));
+        }
+        return value.toString();
+    }
+
     private static String generateRandomOperationId() {
         return String.valueOf(random.nextLong());
     }
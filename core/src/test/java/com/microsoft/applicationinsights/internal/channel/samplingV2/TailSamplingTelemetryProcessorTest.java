@@ -0,0 +1,183 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class performs tests for TailSamplingTelemetryProcessor
+ */
+public class TailSamplingTelemetryProcessorTest {
+
+    private TailSamplingTelemetryProcessor processor;
+    private TelemetryChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = Mockito.mock(TelemetryChannel.class);
+        processor = new TailSamplingTelemetryProcessor();
+        processor.setChannel(channel);
+        processor.start();
+
+        // Operations where nothing went wrong are all dropped
+        processor.setBaseSamplingPercentage("0");
+    }
+
+    @After
+    public void tearDown() {
+        processor.stop(1L, TimeUnit.SECONDS);
+    }
+
+    private static <T extends Telemetry> T withOperation(T telemetry, String operationId) {
+        telemetry.getContext().getOperation().setId(operationId);
+        return telemetry;
+    }
+
+    private static RequestTelemetry request(String operationId, boolean success, long durationInMS) {
+        RequestTelemetry request = withOperation(new RequestTelemetry(), operationId);
+        request.setSuccess(success);
+        request.setDuration(new Duration(durationInMS));
+        return request;
+    }
+
+    @Test
+    public void telemetryWithoutOperationIsNotHeld() {
+        Assert.assertTrue(processor.process(new TraceTelemetry("trace")));
+        Assert.assertEquals(0, processor.getNumberOfHeldTelemetries());
+    }
+
+    @Test
+    public void successfulOperationIsDroppedAsAWhole() {
+        Assert.assertFalse(processor.process(withOperation(new TraceTelemetry("trace"), "op")));
+        Assert.assertEquals(1, processor.getNumberOfHeldTelemetries());
+
+        Assert.assertFalse(processor.process(request("op", true, 10)));
+        Assert.assertEquals(0, processor.getNumberOfHeldTelemetries());
+        Mockito.verifyZeroInteractions(channel);
+
+        // Telemetries after the request follow the decision
+        Assert.assertFalse(processor.process(withOperation(new TraceTelemetry("late"), "op")));
+    }
+
+    @Test
+    public void failedOperationIsKeptAsAWhole() {
+        TraceTelemetry trace = withOperation(new TraceTelemetry("trace"), "op");
+        processor.process(trace);
+
+        RequestTelemetry request = request("op", false, 10);
+        Assert.assertTrue(processor.process(request));
+        Assert.assertEquals(100.0, request.getSamplingPercentage(), 0);
+        Assert.assertEquals(100.0, trace.getSamplingPercentage(), 0);
+        Mockito.verify(channel).send(trace);
+
+        Assert.assertTrue(processor.process(withOperation(new TraceTelemetry("late"), "op")));
+    }
+
+    @Test
+    public void slowOperationIsKept() {
+        processor.setSlowRequestThresholdInMS("1000");
+        Assert.assertTrue(processor.process(request("op", true, 1000)));
+    }
+
+    @Test
+    public void operationWithExceptionIsKept() {
+        ExceptionTelemetry exception = withOperation(new ExceptionTelemetry(new Exception()), "op");
+        processor.process(exception);
+
+        Assert.assertTrue(processor.process(request("op", true, 10)));
+        Mockito.verify(channel).send(exception);
+    }
+
+    @Test
+    public void baseSamplingPercentageIsRecorded() {
+        processor.setBaseSamplingPercentage("100");
+        TraceTelemetry trace = withOperation(new TraceTelemetry("trace"), "op");
+        processor.process(trace);
+
+        Assert.assertTrue(processor.process(request("op", true, 10)));
+        Assert.assertEquals(100.0, trace.getSamplingPercentage(), 0);
+    }
+
+    @Test
+    public void oldestOperationIsDecidedWhenTooManyAreHeld() {
+        processor.setMaxHeldTelemetries("2");
+        ExceptionTelemetry exception = withOperation(new ExceptionTelemetry(new Exception()), "op1");
+        processor.process(exception);
+        processor.process(withOperation(new TraceTelemetry("trace"), "op2"));
+        processor.process(withOperation(new TraceTelemetry("trace"), "op3"));
+
+        Assert.assertEquals(2, processor.getNumberOfHeldTelemetries());
+        Mockito.verify(channel).send(exception);
+    }
+
+    @Test
+    public void orphanedOperationIsDecidedAfterTheHoldTime() {
+        processor.setMaxHoldTimeInSeconds("1");
+        long nowNanos = System.nanoTime();
+        ExceptionTelemetry exception = withOperation(new ExceptionTelemetry(new Exception()), "op1");
+        processor.process(exception, nowNanos);
+        processor.process(withOperation(new TraceTelemetry("trace"), "op2"), nowNanos + TimeUnit.MILLISECONDS.toNanos(500));
+        Mockito.verifyZeroInteractions(channel);
+
+        processor.process(withOperation(new TraceTelemetry("trace"), "op3"), nowNanos + TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals(2, processor.getNumberOfHeldTelemetries());
+        Mockito.verify(channel).send(exception);
+
+        // A failed request that comes after its operation was dropped is still kept
+        Assert.assertTrue(processor.process(request("op2", false, 10), nowNanos + TimeUnit.SECONDS.toNanos(2)));
+    }
+
+    @Test
+    public void expiredOperationIsReleasedWhenNoTelemetryComes() {
+        processor.setMaxHoldTimeInSeconds("1");
+        ExceptionTelemetry exception = withOperation(new ExceptionTelemetry(new Exception()), "op");
+        processor.process(exception);
+
+        Mockito.verify(channel, Mockito.timeout(5000)).send(exception);
+        Assert.assertEquals(0, processor.getNumberOfHeldTelemetries());
+    }
+
+    @Test
+    public void heldTelemetriesGoToTheActiveChannelWithoutAChannel() {
+        TelemetryChannel activeChannel = TelemetryConfiguration.getActive().getChannel();
+        TelemetryChannel mockActiveChannel = Mockito.mock(TelemetryChannel.class);
+        TelemetryConfiguration.getActive().setChannel(mockActiveChannel);
+        try {
+            processor.setChannel(null);
+            ExceptionTelemetry exception = withOperation(new ExceptionTelemetry(new Exception()), "op");
+            processor.process(exception);
+
+            processor.stop(1L, TimeUnit.SECONDS);
+            Mockito.verify(mockActiveChannel).send(exception);
+        } finally {
+            TelemetryConfiguration.getActive().setChannel(activeChannel);
+        }
+    }
+
+    @Test
+    public void heldOperationsAreReleasedOnStop() {
+        ExceptionTelemetry exception = withOperation(new ExceptionTelemetry(new Exception()), "op1");
+        processor.process(exception);
+        processor.process(withOperation(new TraceTelemetry("trace"), "op2"));
+
+        processor.stop(1L, TimeUnit.SECONDS);
+        Assert.assertEquals(0, processor.getNumberOfHeldTelemetries());
+        Mockito.verify(channel).send(exception);
+
+        // Nothing is held once stopped
+        Assert.assertTrue(processor.process(withOperation(new ExceptionTelemetry(new Exception()), "op3")));
+        Assert.assertFalse(processor.process(withOperation(new TraceTelemetry("trace"), "op4")));
+        Assert.assertEquals(0, processor.getNumberOfHeldTelemetries());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.pipeline;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class AsyncTelemetryPipelineTest {
+    private static final class RecordingTask implements Runnable {
+        private final int id;
+        private final List<Integer> processed;
+
+        private RecordingTask(int id, List<Integer> processed) {
+            this.id = id;
+            this.processed = processed;
+        }
+
+        @Override
+        public void run() {
+            processed.add(id);
+        }
+    }
+
+    private static final class BlockingTask implements Runnable {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroQueueCapacity() {
+        new AsyncTelemetryPipeline(0, AsyncTelemetryPipeline.DropPolicy.DROP_NEWEST);
+    }
+
+    @Test
+    public void testAllItemsAreProcessedOnStop() {
+        List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(100, AsyncTelemetryPipeline.DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 50; ++i) {
+            pipeline.enqueue(new RecordingTask(i, processed));
+        }
+
+        pipeline.stop(10, TimeUnit.SECONDS);
+
+        assertEquals(50, processed.size());
+        assertEquals(50, pipeline.getEnqueuedCount());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void testDropNewestWhenQueueIsFull() throws InterruptedException {
+        List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(2, AsyncTelemetryPipeline.DropPolicy.DROP_NEWEST);
+        BlockingTask blockingTask = new BlockingTask();
+        pipeline.enqueue(blockingTask);
+        blockingTask.started.await(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 4; ++i) {
+            pipeline.enqueue(new RecordingTask(i, processed));
+        }
+        blockingTask.release.countDown();
+        pipeline.stop(10, TimeUnit.SECONDS);
+
+        assertEquals(2, pipeline.getDroppedCount());
+        assertEquals(5, pipeline.getEnqueuedCount());
+        assertEquals(0, (int) processed.get(0));
+        assertEquals(1, (int) processed.get(1));
+    }
+
+    @Test
+    public void testDropOldestWhenQueueIsFull() throws InterruptedException {
+        List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(2, AsyncTelemetryPipeline.DropPolicy.DROP_OLDEST);
+        BlockingTask blockingTask = new BlockingTask();
+        pipeline.enqueue(blockingTask);
+        blockingTask.started.await(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 4; ++i) {
+            pipeline.enqueue(new RecordingTask(i, processed));
+        }
+        blockingTask.release.countDown();
+        pipeline.stop(10, TimeUnit.SECONDS);
+
+        assertEquals(2, pipeline.getDroppedCount());
+        assertEquals(2, processed.size());
+        assertEquals(2, (int) processed.get(0));
+        assertEquals(3, (int) processed.get(1));
+    }
+
+    @Test
+    public void testDrainWaitsForQueuedItems() throws InterruptedException {
+        List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(100, AsyncTelemetryPipeline.DropPolicy.DROP_NEWEST);
+        BlockingTask blockingTask = new BlockingTask();
+        pipeline.enqueue(blockingTask);
+        for (int i = 0; i < 50; ++i) {
+            pipeline.enqueue(new RecordingTask(i, processed));
+        }
+
+        blockingTask.release.countDown();
+        assertTrue(pipeline.drain(10, TimeUnit.SECONDS));
+
+        assertEquals(50, processed.size());
+        pipeline.stop(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDrainCountsDroppedItems() throws InterruptedException {
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(1, AsyncTelemetryPipeline.DropPolicy.DROP_NEWEST);
+        BlockingTask blockingTask = new BlockingTask();
+        pipeline.enqueue(blockingTask);
+        blockingTask.started.await(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; ++i) {
+            pipeline.enqueue(new RecordingTask(i, new CopyOnWriteArrayList<Integer>()));
+        }
+
+        blockingTask.release.countDown();
+        assertTrue(pipeline.drain(10, TimeUnit.SECONDS));
+
+        assertEquals(2, pipeline.getDroppedCount());
+        pipeline.stop(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDrainReturnsFalseOnTimeout() throws InterruptedException {
+        AsyncTelemetryPipeline pipeline = new AsyncTelemetryPipeline(100, AsyncTelemetryPipeline.DropPolicy.DROP_NEWEST);
+        BlockingTask blockingTask = new BlockingTask();
+        pipeline.enqueue(blockingTask);
+
+        assertFalse(pipeline.drain(50, TimeUnit.MILLISECONDS));
+
+        blockingTask.release.countDown();
+        pipeline.stop(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class Iso8601DateFormatterTest {
+
+    @Test
+    public void testFormatMatchesSimpleDateFormat() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            // roughly years 1900 to 2100
+            long millis = (long) ((random.nextDouble() - 0.35) * 200 * 365.25 * 24 * 3600 * 1000);
+            assertFormattedLikeSimpleDateFormat(new Date(millis));
+        }
+    }
+
+    @Test
+    public void testFormatOfBoundaryDates() {
+        assertFormattedLikeSimpleDateFormat(new Date(0));
+        assertFormattedLikeSimpleDateFormat(new Date(-1));
+        assertFormattedLikeSimpleDateFormat(new Date(951782400000L)); // 2000-02-29
+        assertFormattedLikeSimpleDateFormat(new Date(4107542399999L)); // 2100-02-28T23:59:59.999Z
+        assertFormattedLikeSimpleDateFormat(new Date(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testFormatOfDatesOutsideTheFastPath() {
+        assertFormattedLikeSimpleDateFormat(new Date(-30000000000000L)); // year 1019
+        assertFormattedLikeSimpleDateFormat(new Date(300000000000000L)); // year 11476
+    }
+
+    @Test
+    public void testFormatFollowsChangesOfTheDefaultTimeZone() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            Date date = new Date(1555495513042L);
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+            Assert.assertEquals("2019-04-17T15:35:13.042+0530", Iso8601DateFormatter.format(date));
+
+            TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+            Assert.assertEquals("2019-04-17T06:05:13.042-0400", Iso8601DateFormatter.format(date));
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    @Test
+    public void testFormatFollowsChangesToAZoneWithTheSameOffset() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            Date winter = new Date(1547726713042L); // 2019-01-17T12:05:13.042Z
+            Date summer = new Date(1555502713042L); // 2019-04-17T12:05:13.042Z
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+            Assert.assertEquals("2019-01-17T12:05:13.042+0000", Iso8601DateFormatter.format(winter));
+
+            TimeZone.setDefault(TimeZone.getTimeZone("Africa/Abidjan"));
+            Assert.assertEquals("2019-01-17T12:05:13.042+0000", Iso8601DateFormatter.format(winter));
+            Assert.assertEquals("2019-04-17T12:05:13.042+0000", Iso8601DateFormatter.format(summer));
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        Date date = new Date(1555495513042L);
+        StringWriter writer = new StringWriter();
+        writer.write('x');
+        Iso8601DateFormatter.write(writer, date);
+
+        Assert.assertEquals("x" + LocalStringsUtils.getDateFormatter().format(date), writer.toString());
+    }
+
+    private static void assertFormattedLikeSimpleDateFormat(Date date) {
+        Assert.assertEquals(LocalStringsUtils.getDateFormatter().format(date), Iso8601DateFormatter.format(date));
+    }
+}
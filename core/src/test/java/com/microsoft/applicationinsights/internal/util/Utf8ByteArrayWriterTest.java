@@ -0,0 +1,70 @@
+package com.microsoft.applicationinsights.internal.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class Utf8ByteArrayWriterTest {
+
+    @Test
+    public void testAsciiIsEncodedAsIs() throws IOException {
+        assertEncodedLikeString("{\"name\":\"Microsoft.ApplicationInsights.Event\"}");
+    }
+
+    @Test
+    public void testMultiByteCharactersAreEncoded() throws IOException {
+        assertEncodedLikeString("café שלום 你好");
+    }
+
+    @Test
+    public void testSurrogatePairsAreEncoded() throws IOException {
+        assertEncodedLikeString("emoji 😀 done");
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossWritesIsEncoded() {
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter();
+        writer.write('a');
+        writer.write('\ud83d');
+        writer.write('\ude00');
+        writer.write('b');
+
+        Assert.assertArrayEquals("a😀b".getBytes(StandardCharsets.UTF_8), writer.toByteArray());
+    }
+
+    @Test
+    public void testBufferGrowsBeyondInitialCapacity() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; ++i) {
+            sb.append("xé你");
+        }
+
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(16, 64);
+        writer.write(sb.toString());
+
+        Assert.assertArrayEquals(sb.toString().getBytes(StandardCharsets.UTF_8), writer.toByteArray());
+    }
+
+    @Test
+    public void testResetAllowsReuse() throws IOException {
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(16, 64);
+        writer.write("first value that is longer than the retained capacity of this writer, by far");
+        writer.reset();
+        writer.write("second");
+
+        Assert.assertEquals(6, writer.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        Assert.assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    private static void assertEncodedLikeString(String value) throws IOException {
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter();
+        writer.write(value);
+
+        Assert.assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), writer.toByteArray());
+    }
+}
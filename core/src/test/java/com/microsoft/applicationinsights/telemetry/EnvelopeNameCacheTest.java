@@ -0,0 +1,59 @@
+package com.microsoft.applicationinsights.telemetry;
+
+import com.microsoft.applicationinsights.internal.schemav2.Envelope;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class EnvelopeNameCacheTest {
+    private final static String IKEY = "A-B-C";
+
+    @Test
+    public void testNamesAreCachedPerInstrumentationKeyAndType() throws IOException {
+        EnvelopeNameCache cache = new EnvelopeNameCache();
+
+        EnvelopeNameCache.EnvelopeName request = cache.get(IKEY, "Request");
+        assertEquals("Microsoft.ApplicationInsights.abc.Request", request.name);
+        assertSame(request, cache.get(IKEY, "Request"));
+        assertEquals("Microsoft.ApplicationInsights.abc.Event", cache.get(IKEY, "Event").name);
+        assertEquals("Microsoft.ApplicationInsights.def.Request", cache.get("D-E-F", "Request").name);
+        assertSame(request, cache.get(IKEY, "Request"));
+        assertEquals("Microsoft.ApplicationInsights.Request", cache.get(null, "Request").name);
+    }
+
+    @Test
+    public void testCacheIsBounded() throws IOException {
+        EnvelopeNameCache cache = new EnvelopeNameCache();
+        for (int i = 0; i < EnvelopeNameCache.MAX_INSTRUMENTATION_KEYS * 3; ++i) {
+            assertEquals("Microsoft.ApplicationInsights." + i + ".Event", cache.get(String.valueOf(i), "Event").name);
+        }
+
+        assertTrue(cache.size() <= EnvelopeNameCache.MAX_INSTRUMENTATION_KEYS);
+    }
+
+    @Test
+    public void testSerializedHeaderIsWrittenLikeTheFields() throws IOException {
+        EnvelopeNameCache.EnvelopeName envelopeName = new EnvelopeNameCache().get(IKEY, "Request");
+
+        Envelope withHeader = new Envelope();
+        withHeader.setName(envelopeName.name, envelopeName.serializedHeader);
+        Envelope withoutHeader = new Envelope();
+        withoutHeader.setName(envelopeName.name);
+
+        assertEquals(serialize(withoutHeader), serialize(withHeader));
+        assertTrue(serialize(withHeader).startsWith("{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.abc.Request\","));
+    }
+
+    private static String serialize(Envelope envelope) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+        envelope.serialize(serializer);
+        serializer.close();
+        return writer.toString();
+    }
+}
@@ -405,4 +405,81 @@ public class JsonTelemetryDataSerializerTest {
         assertEquals(0, bac.d1, epsilon);
         assertEquals(0, bac.d2, epsilon);
     }
+
+    @Test
+    public void testNestedObjectsAreWrittenInPlaceAndEmptyOnesAreOmitted() throws IOException {
+        final TestClassWithStrings empty = new TestClassWithStrings();
+        final TestClassWithStrings inner = new TestClassWithStrings();
+        inner.setS1("a");
+        inner.setS2("b");
+        final JsonSerializable emptyWrapper = new JsonSerializable() {
+            @Override
+            public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+                serializer.write("empty", new JsonSerializable() {
+                    @Override
+                    public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+                    }
+                });
+            }
+        };
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("first", 1);
+        tested.write("wrapper", emptyWrapper);
+        tested.write("inner", inner);
+        tested.write("last", 2);
+        tested.write("after", emptyWrapper);
+        tested.close();
+
+        assertEquals("{\"first\":1,\"inner\":{\"s1\":\"a\",\"s2\":\"b\"},\"last\":2}", stringWriter.toString());
+
+        stringWriter = new StringWriter();
+        tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("wrapper", emptyWrapper);
+        tested.write("inner", empty);
+        tested.close();
+
+        assertEquals("{\"inner\":{\"s1\":\"DEFAULT s1\"}}", stringWriter.toString());
+    }
+
+    @Test
+    public void testEscapingAndTruncationOfStrings() throws IOException {
+        assertEquals("{\"s1\":\"x\",\"s2\":\"0123456789\"}", serializeStrings("x", "0123456789\u0001xyz"));
+        assertEquals("{\"s1\":\"x\",\"s2\":\"01234\\u0001xy\"}", serializeStrings("x", "01234\u0001xyz"));
+        assertEquals("{\"s1\":\"x\",\"s2\":\"ab\\\"cd\\nef\\tg\"}", serializeStrings("x", "ab\"cd\nef\tghijklmnop"));
+        assertEquals("{\"s1\":\"\\u007f\\u0085 \\\\ \u00e9 \"}", serializeStrings("\u007f\u0085 \\ \u00e9 ", null));
+    }
+
+    @Test
+    public void testMapKeysAreTrimmedAndEscaped() throws IOException {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("  ", "empty");
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("m", map);
+        tested.close();
+        assertEquals("{\"m\":{\"(required property name is empty)\":\"empty\"}}", stringWriter.toString());
+
+        map.clear();
+        map.put(" a\"b ", "c");
+        stringWriter = new StringWriter();
+        tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("m", map);
+        tested.close();
+        assertEquals("{\"m\":{\"a\\\"b\":\"c\"}}", stringWriter.toString());
+    }
+
+    private static String serializeStrings(String s1, String s2) throws IOException {
+        TestClassWithStrings testClassWithStrings = new TestClassWithStrings();
+        testClassWithStrings.setS1(s1);
+        testClassWithStrings.setS2(s2);
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        testClassWithStrings.serialize(tested);
+        tested.close();
+        return stringWriter.toString();
+    }
 }
@@ -24,7 +24,14 @@ package com.microsoft.applicationinsights.telemetry;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
@@ -72,4 +79,102 @@ public final class TelemetryContextTest {
 
         Assert.assertEquals(TEST_IKEY, contextToInitialize.getInstrumentationKey());
     }
+
+    @Test
+    public void testInitializeKeepsOwnValuesOverSourceValues() {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("tag1", "source1");
+        source.getTags().put("tag2", "source2");
+        source.getProperties().put("prop1", "source1");
+
+        TelemetryContext context = new TelemetryContext();
+        context.getTags().put("tag1", "own1");
+
+        context.initialize(source);
+
+        assertEquals("own1", context.getTags().get("tag1"));
+        assertEquals("source2", context.getTags().get("tag2"));
+        assertEquals("source1", context.getProperties().get("prop1"));
+        assertEquals(2, context.getTags().size());
+
+        context.getTags().put("tag2", "own2");
+        context.getTags().remove("tag1");
+        assertEquals("own2", context.getTags().get("tag2"));
+        assertNull(context.getTags().get("tag1"));
+        assertEquals("source1", source.getTags().get("tag1"));
+        assertEquals("source2", source.getTags().get("tag2"));
+    }
+
+    @Test
+    public void testInitializeUsesTheSourceValuesAtTheTimeOfInitialization() {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("tag", "before");
+
+        TelemetryContext first = new TelemetryContext();
+        first.initialize(source);
+        source.getTags().put("tag", "after");
+        TelemetryContext second = new TelemetryContext();
+        second.initialize(source);
+
+        assertEquals("before", first.getTags().get("tag"));
+        assertEquals("after", second.getTags().get("tag"));
+    }
+
+    @Test
+    public void testInitializeSharesTheSnapshotWhileTheSourceIsNotModified() {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("tag", "value");
+
+        TelemetryContext first = new TelemetryContext();
+        first.initialize(source);
+        TelemetryContext second = new TelemetryContext();
+        second.initialize(source);
+        source.getTags().put("tag", "value");
+        TelemetryContext third = new TelemetryContext();
+        third.initialize(source);
+
+        assertSame(((ContextOverlayMap) first.getTags()).getBase(), ((ContextOverlayMap) second.getTags()).getBase());
+        assertNotSame(((ContextOverlayMap) first.getTags()).getBase(), ((ContextOverlayMap) third.getTags()).getBase());
+    }
+
+    @Test
+    public void testInitializeSeesChangesMadeThroughTheSourceViews() {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("tag1", "before");
+        source.getTags().put("tag2", "before");
+        new TelemetryContext().initialize(source);
+
+        Iterator<Map.Entry<String, String>> iterator = source.getTags().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (entry.getKey().equals("tag1")) {
+                entry.setValue("after");
+            } else {
+                iterator.remove();
+            }
+        }
+        TelemetryContext context = new TelemetryContext();
+        context.initialize(source);
+
+        assertEquals("after", context.getTags().get("tag1"));
+        assertNull(context.getTags().get("tag2"));
+    }
+
+    @Test
+    public void testSerializedContextMergesOwnAndSourceValues() throws IOException {
+        TelemetryContext source = new TelemetryContext();
+        source.getProperties().put("a", "source");
+        source.getProperties().put("b", "source");
+
+        TelemetryContext context = new TelemetryContext();
+        context.getProperties().put("a", "own");
+        context.initialize(source);
+
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+        serializer.write("properties", context.getProperties());
+        serializer.close();
+
+        assertEquals("{\"properties\":{\"a\":\"own\",\"b\":\"source\"}}", writer.toString());
+    }
 }
@@ -26,6 +26,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public final class TraceTelemetryTest {
     @Test
@@ -66,6 +67,25 @@ public final class TraceTelemetryTest {
         assertNull(telemetry.getSeverityLevel());
     }
 
+    @Test
+    public void testContextMapsAreAllocatedOnFirstWrite() {
+        TraceTelemetry telemetry = new TraceTelemetry("Mock");
+        ContextOverlayMap properties = (ContextOverlayMap) telemetry.getContext().getProperties();
+        ContextOverlayMap tags = (ContextOverlayMap) telemetry.getContext().getTags();
+
+        assertTrue(telemetry.getProperties().isEmpty());
+        assertNull(telemetry.getContext().getOperation().getId());
+        assertNull(properties.getOverlay());
+        assertNull(tags.getOverlay());
+
+        telemetry.getProperties().put("key", "value");
+        telemetry.getContext().getOperation().setId("id");
+
+        assertEquals("value", telemetry.getProperties().get("key"));
+        assertEquals("id", telemetry.getContext().getOperation().getId());
+        assertTrue(telemetry.toString().contains("\"properties\":{\"key\":\"value\"}"));
+    }
+
     private static void testSeverityLevel(SeverityLevel severityLevel) {
         TraceTelemetry telemetry = new TraceTelemetry("Mock");
 
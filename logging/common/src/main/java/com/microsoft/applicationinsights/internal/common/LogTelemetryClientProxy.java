@@ -87,6 +87,12 @@ public class LogTelemetryClientProxy implements TelemetryClientProxy {
      */
     public void sendEvent(ApplicationInsightsEvent event) {
 
+        // Nothing is built for an event that would be sampled out anyway
+        Class<? extends Telemetry> type = event.isException() ? ExceptionTelemetry.class : TraceTelemetry.class;
+        if (!telemetryClient.isSampledIn(type, null)) {
+            return;
+        }
+
         String formattedMessage = event.getMessage();
 
         Map<String, String> customParameters = event.getCustomParameters();
@@ -119,6 +119,17 @@ public class LogTelemetryClientProxyTests {
         Assert.assertTrue("Custom parameters list shouldn't be empty.", customParameters.size() > 0);
     }
 
+    @Test
+    public void testEventThatWouldBeSampledOutIsNotBuilt() {
+        Mockito.when(this.telemetryClientMock.isSampledIn(TraceTelemetry.class, null)).thenReturn(false);
+        ApplicationInsightsEvent event = createApplicationInsightEvent(false);
+
+        this.telemetryClientProxy.sendEvent(event);
+
+        Assert.assertTrue("No telemetry should be sent.", this.telemetriesSent.isEmpty());
+        Mockito.verify(event, Mockito.never()).getCustomParameters();
+    }
+
     // endregion Tests
 
     // region Private methods
@@ -146,6 +157,7 @@ public class LogTelemetryClientProxyTests {
 
     private void setupTelemetryClientMock(final List<Telemetry> telemetries) {
         Mockito.when(this.telemetryClientMock.getContext()).thenReturn(new TelemetryContext());
+        Mockito.when(this.telemetryClientMock.isSampledIn(Matchers.<Class<? extends Telemetry>>any(), Matchers.<String>any())).thenReturn(true);
         Mockito.doAnswer(new Answer() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
@@ -22,6 +22,7 @@
 package com.microsoft.applicationinsights.web.extensibility.initializers;
 
 import com.microsoft.applicationinsights.common.CommonUtils;
+import com.microsoft.applicationinsights.extensibility.OperationIdProvider;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
@@ -32,7 +33,22 @@ import java.util.Map;
 /**
  * Created by yonisha on 2/16/2015.
  */
-public class WebOperationIdTelemetryInitializer extends WebTelemetryInitializerBase {
+public class WebOperationIdTelemetryInitializer extends WebTelemetryInitializerBase implements OperationIdProvider {
+
+    /**
+     * Gets the operation id that a telemetry of the current request would be initialized with.
+     */
+    @Override
+    public String getCurrentOperationId() {
+        RequestTelemetryContext telemetryContext = ThreadContext.getRequestTelemetryContext();
+        if (telemetryContext == null) {
+            return null;
+        }
+
+        RequestTelemetry requestTelemetry = telemetryContext.getHttpRequestTelemetry();
+        String currentOperationId = requestTelemetry.getContext().getOperation().getId();
+        return CommonUtils.isNullOrEmpty(currentOperationId) ? requestTelemetry.getId() : currentOperationId;
+    }
 
     /**
      * Initializes the properties of the given telemetry.
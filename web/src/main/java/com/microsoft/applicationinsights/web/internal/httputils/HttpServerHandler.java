@@ -5,6 +5,7 @@ import com.microsoft.applicationinsights.common.CommonUtils;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ThreadLocalCleaner;
 import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.web.internal.RequestTelemetryContext;
 import com.microsoft.applicationinsights.web.internal.ThreadContext;
@@ -142,7 +143,8 @@ public final class HttpServerHandler {
         try {
             InternalLogger.INSTANCE.trace("Unhandled exception while processing request: %s",
                 ExceptionUtils.getStackTrace(e));
-            if (telemetryClient != null) {
+            // Nothing is built for an exception that would be sampled out anyway
+            if (telemetryClient != null && telemetryClient.isSampledIn(ExceptionTelemetry.class, null)) {
                 telemetryClient.trackException(e);
             }
         } catch (Exception ex) {
@@ -115,6 +115,21 @@ public class WebOperationIdTelemetryInitializerTests {
         Assert.assertNull("Operation ID should not be set.", operationContext.getId());
     }
 
+    @Test
+    public void testCurrentOperationIdIsTheOneTelemetryIsInitializedWith() {
+        RequestTelemetryContext context = new RequestTelemetryContext(DateTimeUtils.getDateTimeNow().getTime());
+        ThreadContext.setRequestTelemetryContext(context);
+
+        OperationContext operationContext = createAndInitializeTelemetry();
+
+        Assert.assertEquals(operationContext.getId(), defaultInitializer.getCurrentOperationId());
+    }
+
+    @Test
+    public void testNoCurrentOperationIdWhenRequestTelemetryContextNotInitialized() {
+        Assert.assertNull(defaultInitializer.getCurrentOperationId());
+    }
+
     // endregion Tests
 
     // region Private
@@ -2,6 +2,7 @@ package com.microsoft.applicationinsights.web.internal.httputils;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.web.internal.RequestTelemetryContext;
 import com.microsoft.applicationinsights.web.internal.ThreadContext;
@@ -135,6 +136,14 @@ public class HttpServerHandlerTest {
         verify(telemetryClient, times(1)).trackException(ne);
     }
 
+    @Test
+    public void trackExceptionIsNotCalledWhenTheExceptionWouldBeSampledOut() {
+        doReturn(false).when(telemetryClient).isSampledIn(ExceptionTelemetry.class, null);
+        Exception ne = new NullPointerException();
+        httpServerHandler.handleException(ne);
+        verify(telemetryClient, never()).trackException(ne);
+    }
+
     @Test
     public void requestTelemetryFieldsAreSetWhenHandleStartIsInvoked() throws MalformedURLException {
         RequestTelemetryContext rtc = httpServerHandler.handleStart(request, response);